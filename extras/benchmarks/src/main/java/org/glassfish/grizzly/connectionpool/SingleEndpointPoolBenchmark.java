@@ -0,0 +1,205 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.connectionpool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.GrizzlyFuture;
+import org.glassfish.grizzly.filterchain.FilterChainBuilder;
+import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.nio.transport.TCPNIOServerConnection;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+import org.glassfish.grizzly.utils.Futures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contended {@link SingleEndpointPool} take/release of warm connections
+ * against the single-monitor ready list it replaced.
+ *
+ * The "monitor" variant reproduces the previous take and release paths:
+ * a {@link Chain} of ready connections and a {@link HashMap} lookup, both
+ * guarded by one lock. Run with <tt>-t</tt> to vary the number of threads,
+ * the pool always has more connections than threads, so nobody waits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class SingleEndpointPoolBenchmark {
+
+    private static final int CONNECTIONS = 64;
+
+    private TCPNIOTransport transport;
+    private SingleEndpointPool<SocketAddress> pool;
+    private SingleEndpointPool<SocketAddress> monitorConnections;
+    private MonitorPool monitorPool;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException, ExecutionException {
+        transport = TCPNIOTransportBuilder.newInstance().build();
+        transport.setFilterChain(FilterChainBuilder.newInstance()
+                .add(new TransportFilter()).build());
+        final TCPNIOServerConnection server =
+                transport.bind(new InetSocketAddress("localhost", 0));
+        transport.start();
+
+        final SocketAddress address = server.getLocalAddress();
+        pool = createPool(address);
+        monitorConnections = createPool(address);
+        monitorPool = new MonitorPool();
+
+        final List<Connection> connections = new ArrayList<Connection>(CONNECTIONS);
+        for (int i = 0; i < CONNECTIONS; i++) {
+            connections.add(pool.take().get());
+        }
+        for (Connection connection : connections) {
+            pool.release(connection);
+        }
+
+        for (int i = 0; i < CONNECTIONS; i++) {
+            monitorPool.add(monitorConnections.take().get());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.close();
+        monitorConnections.close();
+        transport.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean takeRelease() throws InterruptedException, ExecutionException {
+        return pool.release(pool.take().get());
+    }
+
+    @Benchmark
+    public boolean takeReleaseMonitor() throws InterruptedException, ExecutionException {
+        return monitorPool.release(monitorPool.take().get());
+    }
+
+    @Benchmark
+    public int size() {
+        return pool.size();
+    }
+
+    @Benchmark
+    public int sizeMonitor() {
+        return monitorPool.size();
+    }
+
+    private SingleEndpointPool<SocketAddress> createPool(final SocketAddress address) {
+        return SingleEndpointPool.builder(SocketAddress.class)
+                .connectorHandler(transport)
+                .endpointAddress(address)
+                .corePoolSize(CONNECTIONS)
+                .maxPoolSize(CONNECTIONS)
+                .build();
+    }
+
+    /**
+     * The previous, synchronized, ready list.
+     */
+    private static final class MonitorPool {
+        private final Object sync = new Object();
+        private final Chain<Connection> readyConnections = new Chain<Connection>();
+        private final Map<Connection, Link<Connection>> connectionsMap =
+                new HashMap<Connection, Link<Connection>>();
+
+        void add(final Connection connection) {
+            final Link<Connection> link = new Link<Connection>(connection);
+            connectionsMap.put(connection, link);
+            readyConnections.offerLast(link);
+        }
+
+        GrizzlyFuture<Connection> take() {
+            synchronized (sync) {
+                if (readyConnections.isEmpty()) {
+                    throw new IllegalStateException("No ready connections");
+                }
+
+                return Futures.createReadyFuture(
+                        readyConnections.pollLast().getValue());
+            }
+        }
+
+        boolean release(final Connection connection) {
+            synchronized (sync) {
+                final Link<Connection> link = connectionsMap.get(connection);
+                if (link == null || link.isAttached()) {
+                    return false;
+                }
+
+                readyConnections.offerLast(link);
+                return true;
+            }
+        }
+
+        int size() {
+            synchronized (sync) {
+                return connectionsMap.size();
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.grizzly.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.http.HttpCodecFilter.HeaderParsingState;
+import org.glassfish.grizzly.http.util.MimeHeaders;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.HeapMemoryManager;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link HttpCodecFilter} request header block parsing, from a heap array
+ * (<tt>parseHeadersFromBytes</tt>, byte by byte and SWAR) and from a direct
+ * {@link Buffer} (<tt>parseHeadersFromBuffer</tt>), and response
+ * {@link MimeHeaders} serialization.
+ *
+ * The parser lower-cases header names in place, so every invocation starts
+ * by restoring the original bytes; both parsing benchmarks pay the same
+ * copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpCodecBenchmark {
+
+    private static final byte[] HEADERS = (
+            "Host: www.example.com\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:54.0) Gecko/20100101 Firefox/54.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "Accept-Language: en-US,en;q=0.5\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Referer: http://www.example.com/index.html\r\n"
+            + "Cookie: JSESSIONID=0123456789ABCDEF0123456789ABCDEF; theme=dark\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "Cache-Control: max-age=0\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    private final MemoryManager memoryManager = new HeapMemoryManager();
+
+    private HttpServerFilter codecFilter;
+    private HttpServerFilter swarCodecFilter;
+    private HttpRequestPacket request;
+    private HeaderParsingState parsingState;
+
+    private byte[] heapInput;
+    private ByteBuffer directInput;
+    private Buffer directInputBuffer;
+
+    private MimeHeaders encodingHeaders;
+    private Buffer encodingOutput;
+    private byte[] tempEncodingBuffer;
+
+    @Setup
+    public void setup() {
+        codecFilter = new HttpServerFilter();
+        swarCodecFilter = new HttpServerFilter();
+        swarCodecFilter.setSwarHeaderParsing(true);
+        request = HttpRequestPacket.builder().method(Method.GET)
+                .uri("/").protocol(Protocol.HTTP_1_1).build();
+        parsingState = new HeaderParsingState();
+
+        heapInput = new byte[HEADERS.length];
+        directInput = ByteBuffer.allocateDirect(HEADERS.length);
+        directInputBuffer = Buffers.wrap(memoryManager, directInput);
+
+        encodingHeaders = new MimeHeaders();
+        encodingHeaders.addValue("Server").setString("Grizzly");
+        encodingHeaders.addValue("Date").setString("Tue, 04 Jul 2017 10:00:00 GMT");
+        encodingHeaders.addValue("Content-Type").setString("text/html;charset=UTF-8");
+        encodingHeaders.addValue("Content-Length").setString("12345");
+        encodingHeaders.addValue("Cache-Control").setString("no-cache, no-store, must-revalidate");
+        encodingHeaders.addValue("Set-Cookie").setString("JSESSIONID=0123456789ABCDEF0123456789ABCDEF; Path=/; HttpOnly");
+        encodingHeaders.addValue("Vary").setString("Accept-Encoding");
+        encodingOutput = memoryManager.allocate(HEADERS.length * 2);
+        tempEncodingBuffer = request.getTempHeaderEncodingBuffer();
+    }
+
+    @Benchmark
+    public MimeHeaders parseHeadersFromBytes() {
+        return parseFromBytes(codecFilter);
+    }
+
+    @Benchmark
+    public MimeHeaders parseHeadersFromBytesSwar() {
+        return parseFromBytes(swarCodecFilter);
+    }
+
+    @Benchmark
+    public MimeHeaders parseHeadersFromBuffer() {
+        directInput.clear();
+        directInput.put(HEADERS);
+        directInput.flip();
+        directInputBuffer.clear();
+
+        final MimeHeaders headers = request.getHeaders();
+        headers.recycle();
+        parsingState.recycle();
+        parsingState.initialize(codecFilter, 0, HEADERS.length);
+
+        if (!codecFilter.parseHeadersFromBuffer(request, headers,
+                parsingState, directInputBuffer)) {
+            throw new IllegalStateException("Incomplete header block");
+        }
+
+        return headers;
+    }
+
+    @Benchmark
+    public Buffer encodeMimeHeaders() {
+        for (int i = 0; i < encodingHeaders.size(); i++) {
+            encodingHeaders.setSerialized(i, false);
+        }
+        encodingOutput.clear();
+
+        return HttpCodecFilter.encodeMimeHeaders(memoryManager,
+                encodingOutput, encodingHeaders, tempEncodingBuffer);
+    }
+
+    private MimeHeaders parseFromBytes(final HttpServerFilter filter) {
+        System.arraycopy(HEADERS, 0, heapInput, 0, HEADERS.length);
+
+        final MimeHeaders headers = request.getHeaders();
+        headers.recycle();
+        parsingState.recycle();
+        parsingState.initialize(filter, 0, HEADERS.length);
+        parsingState.arrayOffset = 0;
+
+        if (!filter.parseHeadersFromBytes(request, headers,
+                parsingState, heapInput, HEADERS.length)) {
+            throw new IllegalStateException("Incomplete header block");
+        }
+
+        return headers;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http2;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Concurrent HTTP/2 sessions building and reshaping their stream priority
+ * trees, each tree guarded by its own lock, against all the trees sharing
+ * one lock, the way {@link Node} used to work.
+ *
+ * Every invocation opens, reprioritizes and closes the streams of a new
+ * session, mimicking the traffic a session's output sink sees. Run with
+ * <tt>-t</tt> to vary the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class PriorityTreeBenchmark {
+
+    private static final int STREAMS_PER_SESSION = 200;
+
+    private final Object sharedLock = new Object();
+
+    @Benchmark
+    public Node perSessionLock(final SessionState state) {
+        final Node root = new BenchmarkNode(0);
+        openSession(root, root, state.random);
+        return root;
+    }
+
+    @Benchmark
+    public Node sharedLock(final SessionState state) {
+        final Node root = new BenchmarkNode(0);
+        openSession(root, sharedLock, state.random);
+        return root;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static void openSession(final Node root, final Object lock,
+            final Random random) {
+        final Node[] nodes = new Node[STREAMS_PER_SESSION];
+        int opened = 0;
+        int closed = 0;
+
+        while (opened < STREAMS_PER_SESSION) {
+            final int op = random.nextInt(4);
+            synchronized (lock) {
+                if (op < 2 || opened == closed) {
+                    final Node node = new BenchmarkNode(opened * 2 + 1);
+                    final Node parent = pickParent(root, nodes, closed, opened, random);
+                    parent.addChild(node, random.nextInt(8) == 0);
+                    nodes[opened++] = node;
+                } else if (op == 2) {
+                    final Node node = nodes[closed + random.nextInt(opened - closed)];
+                    final Node parent = pickParent(root, nodes, closed, opened, random);
+                    if (parent != node && !isAncestor(node, parent)) {
+                        node.parent.detach(node.id);
+                        parent.addChild(node, random.nextBoolean());
+                    }
+                } else {
+                    root.remove(nodes[closed++].id);
+                }
+            }
+        }
+    }
+
+    private static Node pickParent(final Node root, final Node[] nodes,
+            final int from, final int to, final Random random) {
+        final int idx = random.nextInt(to - from + 1);
+        return idx == 0 ? root : nodes[from + idx - 1];
+    }
+
+    private static boolean isAncestor(final Node node, final Node other) {
+        for (Node n = other.parent; n != null; n = n.parent) {
+            if (n == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    // --------------------------------------------------------- Nested Classes
+
+
+    @State(Scope.Thread)
+    public static class SessionState {
+        final Random random = new Random(7540);
+    }
+
+    private static final class BenchmarkNode extends Node {
+        BenchmarkNode(final int id) {
+            super(id);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.grizzly.http2.hpack;
+
+import java.util.concurrent.TimeUnit;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.memory.HeapMemoryManager;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * HPACK {@link Encoder} and {@link Decoder} over a typical request header
+ * list.
+ *
+ * The "cold" variants see the header list for the first time (new
+ * connection, empty dynamic table); the "warm" ones see it repeated on a
+ * connection whose dynamic table already holds it, so it is sent as
+ * indexed fields only. The stock {@link Encoder} never adds entries to the
+ * dynamic table, so the warm encoder indexes every literal the way
+ * browsers do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HpackBenchmark {
+
+    private static final int TABLE_CAPACITY = 4096;
+
+    private static final String[][] HEADERS = {
+            {":method", "GET"},
+            {":scheme", "https"},
+            {":authority", "www.example.com"},
+            {":path", "/static/js/application.min.js?v=20170704"},
+            {"user-agent", "Mozilla/5.0 (X11; Linux x86_64; rv:54.0) Gecko/20100101 Firefox/54.0"},
+            {"accept", "*/*"},
+            {"accept-language", "en-US,en;q=0.5"},
+            {"accept-encoding", "gzip, deflate, br"},
+            {"referer", "https://www.example.com/index.html"},
+            {"cookie", "JSESSIONID=0123456789ABCDEF0123456789ABCDEF; theme=dark"},
+            {"cache-control", "max-age=0"}
+    };
+
+    private final MemoryManager memoryManager = new HeapMemoryManager();
+
+    private Encoder warmEncoder;
+    private Decoder warmDecoder;
+    private Buffer output;
+
+    private Buffer coldBlock;
+    private Buffer warmBlock;
+
+    @Setup
+    public void setup() {
+        output = memoryManager.allocate(4096);
+
+        warmEncoder = new IndexingEncoder(TABLE_CAPACITY);
+        coldBlock = copy(encode(warmEncoder, output));
+        warmBlock = copy(encode(warmEncoder, output));
+
+        warmDecoder = new Decoder(TABLE_CAPACITY);
+        warmDecoder.decode(coldBlock.duplicate(), true, new NullCallback());
+    }
+
+    @Benchmark
+    public Buffer encodeCold() {
+        return encode(new IndexingEncoder(TABLE_CAPACITY), output);
+    }
+
+    @Benchmark
+    public Buffer encodeWarm() {
+        return encode(warmEncoder, output);
+    }
+
+    @Benchmark
+    public void decodeCold(final Blackhole bh) {
+        new Decoder(TABLE_CAPACITY).decode(coldBlock.duplicate(), true,
+                new BlackholeCallback(bh));
+    }
+
+    @Benchmark
+    public void decodeWarm(final Blackhole bh) {
+        warmDecoder.decode(warmBlock.duplicate(), true,
+                new BlackholeCallback(bh));
+    }
+
+    private static Buffer encode(final Encoder encoder, final Buffer output) {
+        output.clear();
+        for (String[] header : HEADERS) {
+            encoder.header(header[0], header[1]);
+            if (!encoder.encode(output)) {
+                throw new IllegalStateException("Output buffer is too small");
+            }
+        }
+        output.flip();
+        return output;
+    }
+
+    private Buffer copy(final Buffer buffer) {
+        final Buffer copy = memoryManager.allocate(buffer.remaining());
+        copy.put(buffer);
+        copy.flip();
+        return copy;
+    }
+
+
+    // --------------------------------------------------------- Nested Classes
+
+
+    private static final class IndexingEncoder extends Encoder {
+
+        IndexingEncoder(final int maxCapacity) {
+            super(maxCapacity);
+        }
+
+        @Override
+        public void header(final CharSequence name, final CharSequence value,
+                final boolean sensitive) {
+            final int index = getHeaderTable().indexOf(name, value);
+            if (index > 0) {
+                indexed(index);
+            } else if (index < 0) {
+                literalWithIndexing(-index, value, true);
+            } else {
+                literalWithIndexing(name, true, value, true);
+            }
+        }
+    }
+
+    private static final class NullCallback extends DecodingCallback {
+
+        @Override
+        public void onDecoded(final CharSequence name, final CharSequence value) {
+        }
+    }
+
+    private static final class BlackholeCallback extends DecodingCallback {
+        private final Blackhole bh;
+
+        BlackholeCallback(final Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void onDecoded(final CharSequence name, final CharSequence value) {
+            bh.consume(name);
+            bh.consume(value);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http2.hpack;
+
+import java.util.concurrent.TimeUnit;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.memory.HeapMemoryManager;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Huffman} table-driven coder against the bit-at-a-time trie walk it
+ * replaced, over typical header values.
+ *
+ * The "trie" variants reproduce the previous {@link Huffman.Reader} and
+ * {@link Huffman.Writer} on top of {@link Huffman#getRoot()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HuffmanBenchmark {
+
+    private static final String VALUE =
+            "Mozilla/5.0 (X11; Linux x86_64; rv:54.0) Gecko/20100101 Firefox/54.0"
+            + "JSESSIONID=0123456789ABCDEF0123456789ABCDEF; theme=dark"
+            + "/static/js/application.min.js?v=20170704";
+
+    private final MemoryManager memoryManager = new HeapMemoryManager();
+
+    private final Huffman.Reader reader = new Huffman.Reader();
+    private final Huffman.Writer writer = new Huffman.Writer();
+    private final TrieReader trieReader = new TrieReader();
+    private final TrieWriter trieWriter = new TrieWriter();
+    private final StringBuilder chars = new StringBuilder(VALUE.length());
+
+    private Buffer output;
+    private Buffer encoded;
+
+    @Setup
+    public void setup() {
+        output = memoryManager.allocate(Huffman.INSTANCE.lengthOf(VALUE));
+        writer.from(VALUE, 0, VALUE.length()).write(output);
+        output.flip();
+        encoded = output.duplicate();
+
+        chars.setLength(0);
+        trieReader.read(encoded.duplicate(), chars);
+        if (!VALUE.contentEquals(chars)) {
+            throw new IllegalStateException("Baseline decoder mismatch");
+        }
+        output.clear();
+        trieWriter.from(VALUE).write(output);
+        output.flip();
+        if (!output.equals(encoded)) {
+            throw new IllegalStateException("Baseline encoder mismatch");
+        }
+        output = memoryManager.allocate(encoded.remaining());
+    }
+
+    @Benchmark
+    public StringBuilder decodeTable() {
+        chars.setLength(0);
+        reader.reset();
+        reader.read(encoded.duplicate(), chars, true);
+        return chars;
+    }
+
+    @Benchmark
+    public StringBuilder decodeTrie() {
+        chars.setLength(0);
+        trieReader.reset();
+        trieReader.read(encoded.duplicate(), chars);
+        return chars;
+    }
+
+    @Benchmark
+    public Buffer encodeTable() {
+        output.clear();
+        writer.reset().from(VALUE, 0, VALUE.length()).write(output);
+        return output;
+    }
+
+    @Benchmark
+    public Buffer encodeTrie() {
+        output.clear();
+        trieWriter.reset();
+        trieWriter.from(VALUE).write(output);
+        return output;
+    }
+
+
+    // --------------------------------------------------------- Nested Classes
+
+
+    /**
+     * The previous decoder: one trie step per input bit.
+     */
+    private static final class TrieReader {
+
+        private final Huffman.Node root = Huffman.INSTANCE.getRoot();
+        private Huffman.Node curr = root;
+
+        void read(final Buffer source, final StringBuilder destination) {
+            Huffman.Node c = curr;
+            while (source.hasRemaining()) {
+                final int d = source.get();
+                for (int p = 0x80; p != 0; p >>= 1) {
+                    c = c.getChild(p & d);
+                    if (c.isLeaf()) {
+                        if (c.isEOSPath) {
+                            throw new IllegalArgumentException("Encountered EOS");
+                        }
+                        destination.append(c.getChar());
+                        c = root;
+                    }
+                }
+            }
+            curr = c;
+        }
+
+        void reset() {
+            curr = root;
+        }
+    }
+
+    /**
+     * The previous encoder: codes are spliced into an {@code int} one output
+     * byte at a time.
+     */
+    private static final class TrieWriter {
+
+        private static final int[] CODES = new int[257];
+        private static final int[] LENGTHS = new int[257];
+
+        static {
+            collect(Huffman.INSTANCE.getRoot(), 0, 0);
+        }
+
+        private CharSequence source;
+        private int pos;
+        private int avail = 8;
+        private int curr;
+        private int rem;
+        private int code;
+
+        TrieWriter from(final CharSequence input) {
+            source = input;
+            pos = 0;
+            return this;
+        }
+
+        boolean write(final Buffer destination) {
+            for (; pos < source.length(); pos++) {
+                if (rem == 0) {
+                    final char ch = source.charAt(pos);
+                    rem = LENGTHS[ch];
+                    code = CODES[ch];
+                }
+                while (rem > 0) {
+                    if (rem < avail) {
+                        curr |= (code << (avail - rem));
+                        avail -= rem;
+                        rem = 0;
+                    } else {
+                        final int c = (curr | (code >>> (rem - avail)));
+                        if (!destination.hasRemaining()) {
+                            return false;
+                        }
+                        destination.put((byte) c);
+                        code <<= (32 - rem + avail);
+                        code >>>= (32 - rem + avail);
+                        rem -= avail;
+                        curr = 0;
+                        avail = 8;
+                    }
+                }
+            }
+            if (avail < 8) {
+                if (!destination.hasRemaining()) {
+                    return false;
+                }
+                destination.put((byte) (curr | (0x3fffffff >>> (30 - avail))));
+                avail = 8;
+            }
+            return true;
+        }
+
+        void reset() {
+            avail = 8;
+            curr = 0;
+            rem = 0;
+            code = 0;
+        }
+
+        private static void collect(final Huffman.Node node, final int code,
+                final int length) {
+            if (node.isLeaf()) {
+                CODES[node.getChar()] = code;
+                LENGTHS[node.getChar()] = length;
+                return;
+            }
+            collect(node.left, code << 1, length + 1);
+            collect(node.right, (code << 1) | 1, length + 1);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.grizzly.memory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.glassfish.grizzly.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link BuffersBuffer} composite operations: building the composite,
+ * relative and bulk reads crossing the component boundaries, slicing and
+ * flattening into a single {@link ByteBuffer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuffersBufferBenchmark {
+
+    // odd size, so multi-byte reads straddle the component boundaries
+    private static final int COMPONENT_SIZE = 1021;
+
+    @Param({"4", "32"})
+    public int components;
+
+    private final MemoryManager memoryManager = new HeapMemoryManager();
+
+    private Buffer[] parts;
+    private BuffersBuffer composite;
+    private byte[] bulkDst;
+
+    @Setup
+    public void setup() {
+        parts = new Buffer[components];
+        for (int i = 0; i < components; i++) {
+            final Buffer part = memoryManager.allocate(COMPONENT_SIZE);
+            for (int j = 0; j < COMPONENT_SIZE; j++) {
+                part.put(j, (byte) (i + j));
+            }
+            parts[i] = part;
+        }
+
+        composite = BuffersBuffer.create(memoryManager, parts);
+        composite.allowBufferDispose(false);
+        composite.allowInternalBuffersDispose(false);
+        bulkDst = new byte[composite.remaining()];
+    }
+
+    @Benchmark
+    public int createAndAppend() {
+        final BuffersBuffer buffer = BuffersBuffer.create(memoryManager);
+        buffer.allowInternalBuffersDispose(false);
+        for (Buffer part : parts) {
+            part.rewind();
+            buffer.append(part);
+        }
+
+        final int remaining = buffer.remaining();
+        buffer.tryDispose();
+        return remaining;
+    }
+
+    @Benchmark
+    public long sequentialGetLong() {
+        composite.rewind();
+        long sum = 0;
+        while (composite.remaining() >= 8) {
+            sum += composite.getLong();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long absoluteGet() {
+        long sum = 0;
+        for (int i = 0, len = composite.limit(); i < len; i += 7) {
+            sum += composite.get(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public byte[] bulkGet() {
+        composite.rewind();
+        composite.get(bulkDst);
+        return bulkDst;
+    }
+
+    @Benchmark
+    public Buffer slice() {
+        final int limit = composite.limit();
+        return composite.slice(limit / 3, limit - limit / 3);
+    }
+
+    @Benchmark
+    public ByteBuffer toByteBuffer() {
+        composite.rewind();
+        return composite.toByteBuffer();
+    }
+}
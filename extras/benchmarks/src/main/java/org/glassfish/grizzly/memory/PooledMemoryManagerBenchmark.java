@@ -0,0 +1,124 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.grizzly.memory;
+
+import java.util.concurrent.TimeUnit;
+import org.glassfish.grizzly.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link PooledMemoryManager} allocate/release round trips, uncontended
+ * and with every available core hitting the same manager, with and without
+ * the thread local buffer caches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PooledMemoryManagerBenchmark {
+
+    private static final int COMPOSITE_SIZE = 64 * 1024;
+
+    @Param({"1024", "16384"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean direct;
+
+    @Param({"0", "16"})
+    public int threadCacheSize;
+
+    private PooledMemoryManager memoryManager;
+
+    @Setup
+    public void setup() {
+        memoryManager = new PooledMemoryManager(
+                PooledMemoryManager.DEFAULT_BASE_BUFFER_SIZE,
+                PooledMemoryManager.DEFAULT_NUMBER_OF_POOLS,
+                PooledMemoryManager.DEFAULT_GROWTH_FACTOR,
+                Runtime.getRuntime().availableProcessors(),
+                PooledMemoryManager.DEFAULT_HEAP_USAGE_PERCENTAGE,
+                PooledMemoryManager.DEFAULT_PREALLOCATED_BUFFERS_PERCENTAGE,
+                direct,
+                threadCacheSize);
+    }
+
+    @Benchmark
+    public Buffer allocateRelease() {
+        return allocateAndRelease();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Buffer allocateReleaseContended() {
+        return allocateAndRelease();
+    }
+
+    /**
+     * Larger than the biggest pooled buffer, so the allocation is served
+     * as a composite of several pooled buffers.
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Buffer allocateReleaseCompositeContended() {
+        final Buffer buffer = memoryManager.allocate(COMPOSITE_SIZE);
+        memoryManager.release(buffer);
+        return buffer;
+    }
+
+    private Buffer allocateAndRelease() {
+        final Buffer buffer = memoryManager.allocate(size);
+        memoryManager.release(buffer);
+        return buffer;
+    }
+}
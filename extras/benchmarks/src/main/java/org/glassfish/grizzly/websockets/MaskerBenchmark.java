@@ -0,0 +1,127 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.grizzly.websockets;
+
+import java.util.concurrent.TimeUnit;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.ByteBufferManager;
+import org.glassfish.grizzly.memory.HeapMemoryManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Websocket frame payload masking (client side) and unmasking (server
+ * side) with {@link Masker}, plus the cost of generating a new mask, which
+ * is done for every outgoing client frame. {@link #maskDirect()} masks a
+ * direct buffer in place, as a large outbound binary frame would be.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaskerBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    public int payloadSize;
+
+    private byte[] payload;
+    private byte[] frame;
+    private Masker masker;
+
+    private Buffer maskedFrame;
+    private Masker unmasker;
+
+    private Buffer directPayload;
+
+    @Setup
+    public void setup() {
+        payload = new byte[payloadSize];
+        for (int i = 0; i < payloadSize; i++) {
+            payload[i] = (byte) i;
+        }
+        frame = new byte[payloadSize];
+        masker = new Masker();
+
+        final byte[] masked = new Masker().maskAndPrepend(payload);
+        maskedFrame = Buffers.wrap(new HeapMemoryManager(), masked);
+        unmasker = new Masker(maskedFrame);
+
+        directPayload = new ByteBufferManager(true).allocate(payloadSize);
+        directPayload.put(payload);
+        directPayload.flip();
+    }
+
+    @Benchmark
+    public byte[] mask() {
+        masker.mask(frame, 0, payload);
+        return frame;
+    }
+
+    @Benchmark
+    public Buffer maskDirect() {
+        masker.mask(directPayload, 0, payloadSize);
+        return directPayload;
+    }
+
+    @Benchmark
+    public byte[] unmask() {
+        maskedFrame.rewind();
+        unmasker.readMask();
+        return unmasker.unmask(payloadSize);
+    }
+
+    @Benchmark
+    public byte[] generateMask() {
+        masker.generateMask();
+        return masker.getMask();
+    }
+}
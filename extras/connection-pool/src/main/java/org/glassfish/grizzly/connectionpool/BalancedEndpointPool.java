@@ -0,0 +1,826 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.connectionpool;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.glassfish.grizzly.CompletionHandler;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.GrizzlyFuture;
+import org.glassfish.grizzly.attributes.Attribute;
+import org.glassfish.grizzly.impl.FutureImpl;
+import org.glassfish.grizzly.impl.SafeFutureImpl;
+import org.glassfish.grizzly.utils.Futures;
+
+/**
+ * The load balancing facade over {@link MultiEndpointPool}, which chooses the
+ * {@link Endpoint} on behalf of the caller.
+ * 
+ * The {@link Endpoint} is chosen using "the power of two choices": two
+ * {@link Endpoint}s are picked at random and the one with the lower cost,
+ * defined by the {@link Strategy}, is used. Unlike choosing the least loaded
+ * {@link Endpoint} out of all of them, this doesn't make all the concurrent
+ * callers pile up on the same {@link Endpoint}.
+ * 
+ * The {@link Endpoint}s, which repeatedly fail to connect, are ejected from
+ * the balancing. The ejection time starts with the {@link MultiEndpointPool}
+ * reconnect delay and doubles with every subsequent ejection up to
+ * <tt>maxEjectionTime</tt>. Once the ejection time is over the {@link Endpoint}
+ * takes part in the balancing again, and it's ejected again on the first
+ * connect failure, until a {@link Connection} is successfully obtained.
+ * If all the {@link Endpoint}s are ejected, the one with the earliest
+ * ejection end is used.
+ * When the {@link MultiEndpointPool} reconnects, the takes waiting for a
+ * failing {@link Endpoint} usually fail with the poll timeout, rather than
+ * the connect error, so such timeouts count as connect failures as well.
+ * 
+ * The {@link Connection}s obtained from the <tt>BalancedEndpointPool</tt> have
+ * to be returned using {@link #release(org.glassfish.grizzly.Connection)}, so
+ * the response latency of the {@link Endpoint} could be measured.
+ * 
+ * @param <E> the address type, for example for TCP transport it's {@link java.net.SocketAddress}
+ * 
+ * @since 3.0
+ */
+public class BalancedEndpointPool<E> {
+    private static final Logger LOGGER = Grizzly.logger(BalancedEndpointPool.class);
+    
+    /**
+     * The ejection time used, if the {@link MultiEndpointPool} reconnect delay
+     * is not set
+     */
+    private static final long DEFAULT_EJECTION_MILLIS = 1000;
+    
+    /**
+     * The weight of a new latency sample
+     */
+    private static final double EWMA_ALPHA = 0.2;
+    
+    private static final Attribute<Long> TAKE_TIMESTAMP_ATTR =
+            Attribute.create(BalancedEndpointPool.class.getName() + ".take-timestamp");
+    
+    /**
+     * The {@link Endpoint} cost, which is used to choose between two
+     * {@link Endpoint}s.
+     */
+    public enum Strategy {
+        /**
+         * The number of outstanding (busy and connecting) {@link Connection}s
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * The number of outstanding {@link Connection}s weighted by the
+         * exponentially weighted moving average of the {@link Connection}
+         * acquire and response latency
+         */
+        LEAST_LATENCY
+    }
+    
+    /**
+     * Returns the balanced pool {@link Builder}.
+     * 
+     * @param <T> endpoint type
+     * @param endpointType endpoint address type, for example
+     *        {@link java.net.SocketAddress} for TCP and UDP transports
+     * @return {@link Builder} 
+     */
+    public static <T> Builder<T> builder(Class<T> endpointType) {
+        return new Builder<T>();
+    }
+    
+    private final MultiEndpointPool<E> pool;
+    private final Strategy strategy;
+    private final int ejectAfterFailures;
+    private final long baseEjectionMillis;
+    private final long maxEjectionMillis;
+    
+    /**
+     * Maps endpoint -to- its stats
+     */
+    private final Map<Endpoint<E>, EndpointStats<E>> endpointToStatsMap =
+            new ConcurrentHashMap<Endpoint<E>, EndpointStats<E>>();
+    
+    /**
+     * The balanced endpoints, the list is replaced on every change
+     */
+    private volatile List<EndpointStats<E>> endpoints = Collections.emptyList();
+    
+    /**
+     * Sync for endpoints updates
+     */
+    private final Object endpointsSync = new Object();
+
+    /**
+     * Constructs BalancedEndpointPool instance.
+     * 
+     * @param pool the {@link MultiEndpointPool} to obtain {@link Connection}s from
+     * @param endpoints the {@link Endpoint}s to balance
+     * @param strategy the {@link Strategy} used to choose between two {@link Endpoint}s
+     * @param ejectAfterFailures the number of consecutive connect failures, after which the {@link Endpoint} is ejected
+     * @param maxEjectionMillis the maximum time an {@link Endpoint} could be ejected for
+     */
+    protected BalancedEndpointPool(final MultiEndpointPool<E> pool,
+            final List<Endpoint<E>> endpoints, final Strategy strategy,
+            final int ejectAfterFailures, final long maxEjectionMillis) {
+        this.pool = pool;
+        this.strategy = strategy;
+        this.ejectAfterFailures = ejectAfterFailures;
+        
+        final long reconnectDelayMillis =
+                pool.getReconnectDelay(TimeUnit.MILLISECONDS);
+        this.baseEjectionMillis = reconnectDelayMillis > 0
+                ? reconnectDelayMillis
+                : DEFAULT_EJECTION_MILLIS;
+        this.maxEjectionMillis = Math.max(maxEjectionMillis, baseEjectionMillis);
+        
+        for (Endpoint<E> endpoint : endpoints) {
+            addEndpoint(endpoint);
+        }
+    }
+
+    /**
+     * @return the {@link MultiEndpointPool} the {@link Connection}s are obtained from
+     */
+    public MultiEndpointPool<E> getMultiEndpointPool() {
+        return pool;
+    }
+
+    /**
+     * @return the {@link Strategy} used to choose between two {@link Endpoint}s
+     */
+    public Strategy getStrategy() {
+        return strategy;
+    }
+    
+    /**
+     * Adds the {@link Endpoint} to the balancing.
+     * 
+     * @param endpoint {@link Endpoint}
+     * @return <tt>true</tt> if the {@link Endpoint} has been added, or
+     *          <tt>false</tt> if it's already balanced
+     */
+    public boolean addEndpoint(final Endpoint<E> endpoint) {
+        synchronized (endpointsSync) {
+            if (endpointToStatsMap.containsKey(endpoint)) {
+                return false;
+            }
+            
+            final EndpointStats<E> stats = new EndpointStats<E>(endpoint, pool);
+            endpointToStatsMap.put(endpoint, stats);
+            
+            final List<EndpointStats<E>> newEndpoints =
+                    new ArrayList<EndpointStats<E>>(endpoints);
+            newEndpoints.add(stats);
+            endpoints = newEndpoints;
+            return true;
+        }
+    }
+    
+    /**
+     * Removes the {@link Endpoint} from the balancing. The {@link Endpoint}
+     * sub-pool is not closed, use {@link MultiEndpointPool#close(Endpoint)}
+     * to close it.
+     * 
+     * @param endpoint {@link Endpoint}
+     * @return <tt>true</tt> if the {@link Endpoint} has been removed, or
+     *          <tt>false</tt> if it wasn't balanced
+     */
+    public boolean removeEndpoint(final Endpoint<E> endpoint) {
+        synchronized (endpointsSync) {
+            final EndpointStats<E> stats = endpointToStatsMap.remove(endpoint);
+            if (stats == null) {
+                return false;
+            }
+            
+            final List<EndpointStats<E>> newEndpoints =
+                    new ArrayList<EndpointStats<E>>(endpoints);
+            newEndpoints.remove(stats);
+            endpoints = newEndpoints;
+            return true;
+        }
+    }
+
+    /**
+     * @return the stats of all the balanced {@link Endpoint}s
+     */
+    public List<EndpointStats<E>> getEndpointStats() {
+        return Collections.unmodifiableList(endpoints);
+    }
+    
+    /**
+     * @param endpoint {@link Endpoint}
+     * @return the {@link Endpoint} stats, or <tt>null</tt> if the
+     *          {@link Endpoint} is not balanced
+     */
+    public EndpointStats<E> getEndpointStats(final Endpoint<E> endpoint) {
+        return endpointToStatsMap.get(endpoint);
+    }
+    
+    /**
+     * Obtains a {@link Connection} to the chosen {@link Endpoint} in
+     * non-blocking/asynchronous fashion.
+     * 
+     * The returned {@link GrizzlyFuture} has to be handled the same way as the
+     * one returned by {@link MultiEndpointPool#take(Endpoint)}.
+     * 
+     * @return {@link GrizzlyFuture}
+     */
+    public GrizzlyFuture<Connection> take() {
+        final EndpointStats<E> stats;
+        try {
+            stats = select();
+        } catch (IOException e) {
+            return Futures.createReadyFuture(e);
+        }
+        
+        final long startTimeStamp = System.nanoTime();
+        final GrizzlyFuture<Connection> poolFuture = pool.take(stats.endpoint);
+        
+        // the returned future is completed after the stats are updated,
+        // its cancellation is passed to the pool's future
+        final FutureImpl<Connection> future = new SafeFutureImpl<Connection>() {
+            @Override
+            protected void onComplete() {
+                if (isCancelled()) {
+                    poolFuture.cancel(false);
+                }
+            }
+        };
+        
+        poolFuture.addCompletionHandler(
+                new TakeCompletionHandler(stats, startTimeStamp, future, null));
+        
+        return future;
+    }
+    
+    /**
+     * Obtains a {@link Connection} to the chosen {@link Endpoint} in
+     * non-blocking/asynchronous fashion.
+     * The passed {@link CompletionHandler} will be notified about the result of the
+     * non-blocking/asynchronous obtain task.
+     * 
+     * @param completionHandler to be notified once {@link Connection} is available or
+     *                          an error occurred
+     */
+    public void take(final CompletionHandler<Connection> completionHandler) {
+        if (completionHandler == null) {
+            throw new IllegalArgumentException("The completionHandler argument can not be null");
+        }
+        
+        final EndpointStats<E> stats;
+        try {
+            stats = select();
+        } catch (IOException e) {
+            completionHandler.failed(e);
+            return;
+        }
+        
+        pool.take(stats.endpoint, new TakeCompletionHandler(
+                stats, System.nanoTime(), null, completionHandler));
+    }
+    
+    /**
+     * Returns the {@link Connection} to the pool and updates the response
+     * latency of its {@link Endpoint}.
+     * 
+     * @param connection the {@link Connection} to return
+     * @return <code>true</code> if the connection was successfully released.
+     *  If the connection cannot be released, the connection will be closed
+     *  and <code>false</code> will be returned.
+     * 
+     * @see MultiEndpointPool#release(org.glassfish.grizzly.Connection)
+     */
+    public boolean release(final Connection connection) {
+        final Long takeTimeStamp = TAKE_TIMESTAMP_ATTR.remove(connection);
+        if (takeTimeStamp != null) {
+            final ConnectionInfo<E> info = pool.getConnectionInfo(connection);
+            if (info != null) {
+                final EndpointStats<E> stats = endpointToStatsMap.get(
+                        info.endpointPool.getEndpoint());
+                if (stats != null) {
+                    updateEwma(stats.responseLatency,
+                            System.nanoTime() - takeTimeStamp);
+                }
+            }
+        }
+        
+        return pool.release(connection);
+    }
+    
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) +
+                "{"
+                + "strategy=" + strategy
+                + ", endpoints=" + endpoints
+                + "}";
+    }
+
+    /**
+     * Chooses the {@link Endpoint} using "the power of two choices".
+     */
+    private EndpointStats<E> select() throws IOException {
+        final List<EndpointStats<E>> list = endpoints;
+        final int size = list.size();
+        
+        if (size == 0) {
+            throw new IOException("There are no endpoints to balance");
+        }
+        
+        if (size == 1) {
+            return list.get(0);
+        }
+        
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int i = random.nextInt(size);
+        int j = random.nextInt(size - 1);
+        if (j >= i) {
+            j++;
+        }
+        
+        final EndpointStats<E> a = list.get(i);
+        final EndpointStats<E> b = list.get(j);
+        
+        final long now = System.currentTimeMillis();
+        final boolean isAEjected = a.isEjected(now);
+        final boolean isBEjected = b.isEjected(now);
+        
+        if (!isAEjected && !isBEjected) {
+            return cost(a) <= cost(b) ? a : b;
+        } else if (!isAEjected) {
+            return a;
+        } else if (!isBEjected) {
+            return b;
+        }
+        
+        return selectAvailable(list, now);
+    }
+
+    /**
+     * Chooses the cheapest non-ejected {@link Endpoint}, or the one, which
+     * is going to be reinstated first, if all of them are ejected.
+     */
+    private EndpointStats<E> selectAvailable(final List<EndpointStats<E>> list,
+            final long now) {
+        EndpointStats<E> cheapest = null;
+        double cheapestCost = 0;
+        EndpointStats<E> firstReinstated = null;
+        
+        for (int i = 0; i < list.size(); i++) {
+            final EndpointStats<E> stats = list.get(i);
+            if (!stats.isEjected(now)) {
+                final double cost = cost(stats);
+                if (cheapest == null || cost < cheapestCost) {
+                    cheapest = stats;
+                    cheapestCost = cost;
+                }
+            } else if (firstReinstated == null
+                    || stats.ejectedUntilMillis < firstReinstated.ejectedUntilMillis) {
+                firstReinstated = stats;
+            }
+        }
+        
+        return cheapest != null ? cheapest : firstReinstated;
+    }
+    
+    private double cost(final EndpointStats<E> stats) {
+        final int outstanding = stats.getOutstandingCount();
+        
+        switch (strategy) {
+            case LEAST_LATENCY:
+                // endpoints without samples yet have zero cost, so they're probed first
+                return (outstanding + 1) * (Double.longBitsToDouble(stats.acquireLatency.get())
+                        + Double.longBitsToDouble(stats.responseLatency.get()));
+            default:
+                return outstanding;
+        }
+    }
+
+    private void onTaken(final EndpointStats<E> stats, final long latencyNanos) {
+        stats.takeCount.incrementAndGet();
+        updateEwma(stats.acquireLatency, latencyNanos);
+        
+        if (stats.consecutiveFailures != 0 || stats.ejections != 0) {
+            synchronized (stats) {
+                stats.consecutiveFailures = 0;
+                stats.ejections = 0;
+            }
+        }
+    }
+    
+    private void onTakeFailed(final EndpointStats<E> stats, final Throwable t) {
+        stats.failureCount.incrementAndGet();
+        
+        // poll timeouts and exceeded limits don't say anything about the endpoint,
+        // unless the take has timed out waiting for the sub-pool to reconnect
+        if (!(t instanceof SocketException)
+                && !(t instanceof TimeoutException && stats.isFailingToConnect())) {
+            return;
+        }
+        
+        final long ejectionMillis;
+        synchronized (stats) {
+            final long now = System.currentTimeMillis();
+            if (stats.isEjected(now)) {
+                // the failure of a take issued before the ejection
+                return;
+            }
+            
+            // the reinstated endpoint is ejected again on the first failure
+            if (stats.ejections == 0
+                    && ++stats.consecutiveFailures < ejectAfterFailures) {
+                return;
+            }
+            
+            ejectionMillis = Math.min(maxEjectionMillis,
+                    baseEjectionMillis << Math.min(stats.ejections, 20));
+            stats.ejections++;
+            stats.consecutiveFailures = 0;
+            stats.ejectedUntilMillis = now + ejectionMillis;
+        }
+        
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Endpoint {0} is ejected for {1} ms",
+                    new Object[] {stats.endpoint, ejectionMillis});
+        }
+    }
+    
+    private static void updateEwma(final AtomicLong ewma, final long sampleNanos) {
+        for (;;) {
+            final long bits = ewma.get();
+            final double value = Double.longBitsToDouble(bits);
+            final double newValue = value == 0
+                    ? sampleNanos
+                    : value + EWMA_ALPHA * (sampleNanos - value);
+            
+            if (ewma.compareAndSet(bits, Double.doubleToRawLongBits(newValue))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Updates the {@link Endpoint} stats once the {@link Connection} is
+     * obtained and notifies either the {@link FutureImpl} returned to the user
+     * or the user's {@link CompletionHandler}.
+     */
+    private final class TakeCompletionHandler
+            implements CompletionHandler<Connection> {
+        private final EndpointStats<E> stats;
+        private final long startTimeStamp;
+        private final FutureImpl<Connection> future;
+        private final CompletionHandler<Connection> completionHandler;
+
+        private TakeCompletionHandler(final EndpointStats<E> stats,
+                final long startTimeStamp,
+                final FutureImpl<Connection> future,
+                final CompletionHandler<Connection> completionHandler) {
+            this.stats = stats;
+            this.startTimeStamp = startTimeStamp;
+            this.future = future;
+            this.completionHandler = completionHandler;
+        }
+        
+        @Override
+        public void completed(final Connection connection) {
+            final long now = System.nanoTime();
+            onTaken(stats, now - startTimeStamp);
+            TAKE_TIMESTAMP_ATTR.set(connection, now);
+            
+            if (future != null) {
+                future.result(connection);
+                
+                if (future.isCancelled()) {
+                    // nobody is going to use the connection
+                    release(connection);
+                }
+            } else {
+                completionHandler.completed(connection);
+            }
+        }
+
+        @Override
+        public void failed(final Throwable throwable) {
+            onTakeFailed(stats, throwable);
+            
+            Futures.notifyFailure(future, completionHandler, throwable);
+        }
+
+        @Override
+        public void cancelled() {
+            Futures.notifyCancel(future, completionHandler);
+        }
+
+        @Override
+        public void updated(final Connection result) {
+            if (completionHandler != null) {
+                completionHandler.updated(result);
+            }
+        }
+    }
+    
+    /**
+     * The balanced {@link Endpoint} stats, that might be used for monitoring
+     * reasons.
+     * 
+     * @param <E> the address type
+     */
+    public static final class EndpointStats<E> {
+        final Endpoint<E> endpoint;
+        private final MultiEndpointPool<E> pool;
+        
+        private final AtomicLong takeCount = new AtomicLong();
+        private final AtomicLong failureCount = new AtomicLong();
+        
+        /**
+         * The EWMA of the {@link Connection} acquire and response latency (nanos),
+         * stored as double bits
+         */
+        private final AtomicLong acquireLatency = new AtomicLong();
+        private final AtomicLong responseLatency = new AtomicLong();
+        
+        // the ejection state, updated under the EndpointStats monitor
+        private volatile int consecutiveFailures;
+        private volatile int ejections;
+        private volatile long ejectedUntilMillis;
+
+        private EndpointStats(final Endpoint<E> endpoint,
+                final MultiEndpointPool<E> pool) {
+            this.endpoint = endpoint;
+            this.pool = pool;
+        }
+
+        /**
+         * @return the {@link Endpoint}
+         */
+        public Endpoint<E> getEndpoint() {
+            return endpoint;
+        }
+        
+        /**
+         * @return the number of the busy and connecting {@link Connection}s
+         *          to the {@link Endpoint}
+         */
+        public int getOutstandingCount() {
+            final SingleEndpointPool<E> sePool = pool.endpointToPoolMap.get(endpoint);
+            return sePool != null
+                    ? Math.max(0, sePool.size() - sePool.getReadyConnectionsCount())
+                    : 0;
+        }
+        
+        /**
+         * @return the number of the open {@link Connection}s to the {@link Endpoint}
+         */
+        public int getOpenConnectionsCount() {
+            final SingleEndpointPool<E> sePool = pool.endpointToPoolMap.get(endpoint);
+            return sePool != null ? sePool.getOpenConnectionsCount() : 0;
+        }
+        
+        /**
+         * @return the number of {@link Connection}s successfully obtained
+         */
+        public long getTakeCount() {
+            return takeCount.get();
+        }
+        
+        /**
+         * @return the number of failed {@link Connection} obtain attempts
+         */
+        public long getFailureCount() {
+            return failureCount.get();
+        }
+        
+        /**
+         * @return the number of connect failures since the last successfully
+         *          obtained {@link Connection}
+         */
+        public int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+        
+        /**
+         * @return <tt>true</tt> if the {@link Endpoint} is currently ejected
+         *          from the balancing, or <tt>false</tt> otherwise
+         */
+        public boolean isEjected() {
+            return isEjected(System.currentTimeMillis());
+        }
+        
+        /**
+         * @return the number of subsequent ejections since the last
+         *          successfully obtained {@link Connection}
+         */
+        public int getEjectionsCount() {
+            return ejections;
+        }
+        
+        /**
+         * @param timeUnit {@link TimeUnit}
+         * @return the moving average of the time it takes to obtain a
+         *          {@link Connection}, including the connect time
+         */
+        public long getAcquireLatency(final TimeUnit timeUnit) {
+            return timeUnit.convert(
+                    (long) Double.longBitsToDouble(acquireLatency.get()),
+                    TimeUnit.NANOSECONDS);
+        }
+        
+        /**
+         * @param timeUnit {@link TimeUnit}
+         * @return the moving average of the time a {@link Connection} is used
+         *          before it's released
+         */
+        public long getResponseLatency(final TimeUnit timeUnit) {
+            return timeUnit.convert(
+                    (long) Double.longBitsToDouble(responseLatency.get()),
+                    TimeUnit.NANOSECONDS);
+        }
+        
+        boolean isEjected(final long now) {
+            return ejectedUntilMillis > now;
+        }
+        
+        /**
+         * @return <tt>true</tt> if the last attempts to connect to the
+         *          {@link Endpoint} have failed and the sub-pool is retrying
+         */
+        boolean isFailingToConnect() {
+            final SingleEndpointPool<E> sePool = pool.endpointToPoolMap.get(endpoint);
+            return sePool != null && sePool.getFailedConnectAttempts() > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "EndpointStats{"
+                    + "endpoint=" + endpoint
+                    + ", outstanding=" + getOutstandingCount()
+                    + ", takeCount=" + takeCount
+                    + ", failureCount=" + failureCount
+                    + ", ejected=" + isEjected()
+                    + "}";
+        }
+    }
+    
+    /**
+     * The Builder class responsible for constructing {@link BalancedEndpointPool}.
+     * 
+     * @param <E> endpoint address type, for example {@link java.net.SocketAddress} for TCP and UDP transports
+     */
+    public static class Builder<E> {
+        /**
+         * the {@link MultiEndpointPool} to obtain {@link Connection}s from
+         */
+        private MultiEndpointPool<E> multiEndpointPool;
+        /**
+         * the {@link Endpoint}s to balance
+         */
+        private final List<Endpoint<E>> endpoints = new ArrayList<Endpoint<E>>();
+        /**
+         * the {@link Strategy} used to choose between two {@link Endpoint}s
+         */
+        private Strategy strategy = Strategy.LEAST_OUTSTANDING;
+        /**
+         * the number of consecutive connect failures, after which the
+         * {@link Endpoint} is ejected
+         */
+        private int ejectAfterFailures = 3;
+        /**
+         * the maximum time an {@link Endpoint} could be ejected for
+         */
+        private long maxEjectionTimeMillis = 60000;
+
+        /**
+         * Sets the {@link MultiEndpointPool} to obtain {@link Connection}s from.
+         * The pool's reconnect delay is used as the initial ejection time.
+         * 
+         * @param multiEndpointPool {@link MultiEndpointPool}
+         * @return this {@link Builder}
+         */
+        public Builder<E> multiEndpointPool(final MultiEndpointPool<E> multiEndpointPool) {
+            this.multiEndpointPool = multiEndpointPool;
+            return this;
+        }
+        
+        /**
+         * Adds the {@link Endpoint} to balance.
+         * 
+         * @param endpoint {@link Endpoint}
+         * @return this {@link Builder}
+         */
+        public Builder<E> endpoint(final Endpoint<E> endpoint) {
+            endpoints.add(endpoint);
+            return this;
+        }
+        
+        /**
+         * Sets the {@link Strategy} used to choose between two {@link Endpoint}s.
+         * 
+         * @param strategy {@link Strategy}
+         * @return this {@link Builder}
+         */
+        public Builder<E> strategy(final Strategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+        
+        /**
+         * Sets the number of consecutive connect failures, after which the
+         * {@link Endpoint} is ejected from the balancing.
+         * Please note, that the {@link MultiEndpointPool} might already retry
+         * to connect, if the reconnect delay is set.
+         * 
+         * @param ejectAfterFailures the number of consecutive connect failures
+         * @return this {@link Builder}
+         */
+        public Builder<E> ejectAfterFailures(final int ejectAfterFailures) {
+            this.ejectAfterFailures = ejectAfterFailures;
+            return this;
+        }
+        
+        /**
+         * Sets the maximum time an {@link Endpoint} could be ejected for.
+         * 
+         * @param maxEjectionTime the maximum ejection time
+         * @param timeunit {@link TimeUnit}
+         * @return this {@link Builder}
+         */
+        public Builder<E> maxEjectionTime(final long maxEjectionTime,
+                final TimeUnit timeunit) {
+            this.maxEjectionTimeMillis = TimeUnit.MILLISECONDS.convert(
+                    maxEjectionTime, timeunit);
+            return this;
+        }
+        
+        /**
+         * Constructs {@link BalancedEndpointPool}.
+         * @return {@link BalancedEndpointPool}
+         */
+        public BalancedEndpointPool<E> build() {
+            if (multiEndpointPool == null) {
+                throw new IllegalStateException("MultiEndpointPool is not set");
+            }
+            
+            if (strategy == null) {
+                throw new IllegalStateException("Balancing strategy is not set");
+            }
+            
+            if (ejectAfterFailures < 1) {
+                throw new IllegalStateException("Eject after failures must be a positive value");
+            }
+            
+            return new BalancedEndpointPool<E>(multiEndpointPool,
+                    endpoints, strategy, ejectAfterFailures,
+                    maxEjectionTimeMillis);
+        }
+    }
+}
@@ -40,6 +40,7 @@
 
 package org.glassfish.grizzly.connectionpool;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import org.glassfish.grizzly.Connection;
 
 /**
@@ -49,18 +50,44 @@ import org.glassfish.grizzly.Connection;
  *
  */
 public final class ConnectionInfo<E> {
+    /**
+     * The {@link Connection} is used by a user.
+     */
+    static final int BUSY = 0;
+    /**
+     * The {@link Connection} is idle and may be retrieved from the pool.
+     */
+    static final int READY = 1;
+    /**
+     * The {@link Connection} has been deregistered from the pool.
+     */
+    static final int REMOVED = 2;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<ConnectionInfo> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ConnectionInfo.class, "state");
+    
     final Connection connection;
-    final Link<ConnectionInfo<E>> readyStateLink;
     final SingleEndpointPool<E> endpointPool;
     
     long ttlTimeout; // the place holder for TTL time stamp
     
     private final long pooledTimeStamp;
 
+    /**
+     * The pool state: {@link #BUSY}, {@link #READY} or {@link #REMOVED}.
+     * Only the thread, which switches the state, owns the {@link Connection}.
+     */
+    private volatile int state;
+    
+    /**
+     * The timestamp of the last switch to the {@link #READY} state
+     */
+    private volatile long readyTimeStamp = -1;
+
     ConnectionInfo(final Connection connection, final SingleEndpointPool<E> endpointPool) {
         this.connection = connection;
         this.endpointPool = endpointPool;
-        this.readyStateLink = new Link<ConnectionInfo<E>>(this);
         pooledTimeStamp = System.currentTimeMillis();
     }
 
@@ -70,9 +97,7 @@ public final class ConnectionInfo<E> {
      * if the {@link Connection} is currently busy.
      */
     public boolean isReady() {
-        synchronized(endpointPool.poolSync) {
-            return readyStateLink.isAttached();
-        }
+        return state == READY;
     }
     
     /**
@@ -81,9 +106,8 @@ public final class ConnectionInfo<E> {
      * the {@link Connection} is currently in busy state.
      */
     public long getReadyTimeStamp() {
-        synchronized(endpointPool.poolSync) {
-            return readyStateLink.getAttachmentTimeStamp();
-        }
+        final long timeStamp = readyTimeStamp;
+        return state == READY ? timeStamp : -1;
     }
     
     /**
@@ -94,11 +118,33 @@ public final class ConnectionInfo<E> {
         return pooledTimeStamp;
     }
 
+    int getState() {
+        return state;
+    }
+
+    /**
+     * Switches the {@link Connection} from {@link #BUSY} to {@link #READY} state.
+     * 
+     * @return <tt>true</tt> if the state has been switched
+     */
+    boolean markReady() {
+        readyTimeStamp = System.currentTimeMillis();
+        return STATE_UPDATER.compareAndSet(this, BUSY, READY);
+    }
+
+    boolean compareAndSetState(final int expect, final int update) {
+        return STATE_UPDATER.compareAndSet(this, expect, update);
+    }
+
+    int getAndSetState(final int newState) {
+        return STATE_UPDATER.getAndSet(this, newState);
+    }
+
     @Override
     public String toString() {
         return "ConnectionInfo{"
                     + "connection=" + connection
-                    + ", readyStateLink=" + readyStateLink
+                    + ", state=" + state
                     + ", endpointPool=" + endpointPool
                     + ", pooledTimeStamp=" + pooledTimeStamp
                     + "} " + super.toString();
@@ -0,0 +1,1283 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.connectionpool;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.CloseReason;
+import org.glassfish.grizzly.Closeable;
+import org.glassfish.grizzly.CompletionHandler;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.EmptyCompletionHandler;
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.GrizzlyFuture;
+import org.glassfish.grizzly.WriteResult;
+import org.glassfish.grizzly.attributes.Attribute;
+import org.glassfish.grizzly.filterchain.BaseFilter;
+import org.glassfish.grizzly.filterchain.FilterChain;
+import org.glassfish.grizzly.filterchain.FilterChainBuilder;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
+import org.glassfish.grizzly.filterchain.NextAction;
+import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.http.HttpClientFilter;
+import org.glassfish.grizzly.http.HttpContent;
+import org.glassfish.grizzly.http.HttpHeader;
+import org.glassfish.grizzly.http.HttpPacket;
+import org.glassfish.grizzly.http.HttpRequestPacket;
+import org.glassfish.grizzly.http.HttpResponsePacket;
+import org.glassfish.grizzly.http.Method;
+import org.glassfish.grizzly.http.Protocol;
+import org.glassfish.grizzly.impl.FutureImpl;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.utils.Futures;
+
+/**
+ * The HTTP/1.1 client, which pipelines requests over the {@link Connection}s
+ * obtained from a {@link MultiEndpointPool}.
+ * 
+ * Every {@link Endpoint} gets its own set of pipelines, each of them is a
+ * {@link Connection} with up to <tt>maxInFlight</tt> requests sent, but not
+ * responded yet. A new request is sent over the least loaded pipeline, if all
+ * of them are full a new {@link Connection} is taken from the pool, unless
+ * there are already <tt>maxConnectionsPerEndpoint</tt> pipelines, in which
+ * case the request waits for a free slot. The requests, which are ready to
+ * be sent over the same pipeline at the same time, are encoded one after
+ * another and passed to the {@link org.glassfish.grizzly.asyncqueue.AsyncQueueWriter}
+ * as a single composite {@link Buffer}, so they're written using one gather
+ * write. Once a pipeline has no requests in flight its {@link Connection} is
+ * returned to the pool.
+ * 
+ * The responses are matched against the requests in the order they were sent.
+ * If a response doesn't correspond to the oldest request in flight, the
+ * correlation error is counted and the pipeline is closed. As recommended by RFC 7230, no more requests are pipelined after a
+ * non-idempotent one until its response is received.
+ * If a pipeline {@link Connection} is closed, the requests, which haven't got
+ * their responses yet, are resent over another pipeline, but only if it's
+ * safe: the request method is idempotent, the request doesn't have a body and
+ * it hasn't been retried before. The rest of the requests are failed.
+ * 
+ * The {@link Connection}s must be created using the {@link FilterChain}
+ * returned by {@link #createFilterChain()}, or the one built on top of the
+ * {@link #createFilterChainBuilder()}. The response is passed to the
+ * {@link CompletionHandler} as the last {@link HttpContent}, which contains
+ * the complete response body and references the {@link HttpResponsePacket}
+ * via {@link HttpContent#getHttpHeader()}. The {@link CompletionHandler}s are
+ * notified in the {@link Connection} I/O thread, so they must not block.
+ * 
+ * The connection pool depends on grizzly-http optionally, so the projects
+ * using <tt>PipelinedHttpClient</tt> have to declare the grizzly-http
+ * dependency themselves.
+ * 
+ * @param <E> the address type, for example for TCP transport it's {@link java.net.SocketAddress}
+ * 
+ * @since 3.0
+ */
+public class PipelinedHttpClient<E> {
+    private static final Logger LOGGER = Grizzly.logger(PipelinedHttpClient.class);
+    
+    private static final Attribute<PipelinedHttpClient<?>.Pipeline> PIPELINE_ATTR =
+            Attribute.create(PipelinedHttpClient.class.getName() + ".pipeline");
+    
+    /**
+     * Returns the pipelined client {@link Builder}.
+     * 
+     * @param <T> endpoint type
+     * @param endpointType endpoint address type, for example
+     *        {@link java.net.SocketAddress} for TCP and UDP transports
+     * @return {@link Builder} 
+     */
+    public static <T> Builder<T> builder(Class<T> endpointType) {
+        return new Builder<T>();
+    }
+    
+    /**
+     * Returns the {@link FilterChainBuilder} with the {@link TransportFilter},
+     * the write batching filter, the {@link HttpClientFilter} and the response
+     * filter registered. The filters like <tt>SSLFilter</tt> have to be added
+     * right after the {@link TransportFilter}.
+     * 
+     * @return {@link FilterChainBuilder}
+     */
+    public static FilterChainBuilder createFilterChainBuilder() {
+        return FilterChainBuilder.newInstance()
+                .add(new TransportFilter())
+                .add(new WriteBatchFilter())
+                .add(new HttpClientFilter())
+                .add(new ResponseFilter());
+    }
+    
+    /**
+     * @return the {@link FilterChain} to be used by the {@link Connection}s
+     *          of the pipelined client
+     */
+    public static FilterChain createFilterChain() {
+        return createFilterChainBuilder().build();
+    }
+    
+    private final MultiEndpointPool<E> pool;
+    private final int maxInFlight;
+    private final int maxConnectionsPerEndpoint;
+    
+    /**
+     * Maps endpoint -to- its pipelines
+     */
+    private final ConcurrentMap<Endpoint<E>, EndpointPipelines> endpointToPipelinesMap =
+            new ConcurrentHashMap<Endpoint<E>, EndpointPipelines>();
+    
+    private volatile boolean isClosed;
+
+    /**
+     * Constructs PipelinedHttpClient instance.
+     * 
+     * @param pool the {@link MultiEndpointPool} to obtain {@link Connection}s from
+     * @param maxInFlight the max number of requests sent over a {@link Connection},
+     *        but not responded yet
+     * @param maxConnectionsPerEndpoint the max number of pipelined {@link Connection}s
+     *        per {@link Endpoint}
+     */
+    protected PipelinedHttpClient(final MultiEndpointPool<E> pool,
+            final int maxInFlight, final int maxConnectionsPerEndpoint) {
+        this.pool = pool;
+        this.maxInFlight = maxInFlight;
+        this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+    }
+
+    /**
+     * @return the {@link MultiEndpointPool} the {@link Connection}s are obtained from
+     */
+    public MultiEndpointPool<E> getMultiEndpointPool() {
+        return pool;
+    }
+
+    /**
+     * @return the max number of requests sent over a {@link Connection},
+     *          but not responded yet
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return the max number of pipelined {@link Connection}s per {@link Endpoint}
+     */
+    public int getMaxConnectionsPerEndpoint() {
+        return maxConnectionsPerEndpoint;
+    }
+    
+    /**
+     * @param endpoint {@link Endpoint}
+     * @return the {@link Endpoint} pipelining stats, or <tt>null</tt> if
+     *          no requests have been sent to the {@link Endpoint} yet
+     */
+    public PipelineStats<E> getPipelineStats(final Endpoint<E> endpoint) {
+        final EndpointPipelines pipelines = endpointToPipelinesMap.get(endpoint);
+        return pipelines != null ? pipelines.stats : null;
+    }
+    
+    /**
+     * @return the pipelining stats of all the {@link Endpoint}s the requests
+     *          have been sent to
+     */
+    public List<PipelineStats<E>> getPipelineStats() {
+        final List<PipelineStats<E>> list = new ArrayList<PipelineStats<E>>();
+        for (EndpointPipelines pipelines : endpointToPipelinesMap.values()) {
+            list.add(pipelines.stats);
+        }
+        
+        return list;
+    }
+    
+    /**
+     * Sends the HTTP request to the {@link Endpoint} in non-blocking/asynchronous
+     * fashion.
+     * 
+     * @param endpoint the {@link Endpoint} to send the request to
+     * @param request either {@link HttpRequestPacket} of the request without
+     *        body, or the last {@link HttpContent} of the request with body
+     * @return {@link GrizzlyFuture}, which is completed with the last
+     *          {@link HttpContent} of the response
+     * 
+     * @see #send(Endpoint, HttpPacket, CompletionHandler) 
+     */
+    public GrizzlyFuture<HttpContent> send(final Endpoint<E> endpoint,
+            final HttpPacket request) {
+        final FutureImpl<HttpContent> future = Futures.createSafeFuture();
+        send(endpoint, request, Futures.toCompletionHandler(future));
+        
+        return future;
+    }
+    
+    /**
+     * Sends the HTTP request to the {@link Endpoint} in non-blocking/asynchronous
+     * fashion.
+     * The passed {@link CompletionHandler} is notified in the {@link Connection}
+     * I/O thread, once the complete response is received or an error occurred.
+     * 
+     * The request must be complete: the body, if any, has to be passed as the
+     * content of the last {@link HttpContent}. Only HTTP/1.1 requests could be
+     * pipelined.
+     * 
+     * @param endpoint the {@link Endpoint} to send the request to
+     * @param request either {@link HttpRequestPacket} of the request without
+     *        body, or the last {@link HttpContent} of the request with body
+     * @param completionHandler to be notified once the last {@link HttpContent}
+     *        of the response is received or an error occurred
+     */
+    public void send(final Endpoint<E> endpoint, final HttpPacket request,
+            final CompletionHandler<HttpContent> completionHandler) {
+        if (endpoint == null) {
+            throw new IllegalArgumentException("The endpoint argument can not be null");
+        }
+        
+        if (completionHandler == null) {
+            throw new IllegalArgumentException("The completionHandler argument can not be null");
+        }
+        
+        final Exchange exchange = new Exchange(request, checkRequest(request),
+                completionHandler);
+        
+        if (isClosed) {
+            completionHandler.failed(new IOException("The client is closed"));
+            return;
+        }
+        
+        final EndpointPipelines pipelines = obtainEndpointPipelines(endpoint);
+        pipelines.stats.requestsCount.incrementAndGet();
+        
+        final boolean isAdded;
+        synchronized (pipelines) {
+            // re-check under the monitor: if close() has already failed
+            // the waiting requests, this one would never be sent
+            isAdded = !isClosed;
+            if (isAdded) {
+                pipelines.waiting.add(exchange);
+            }
+        }
+        
+        if (!isAdded) {
+            pipelines.fail(Collections.singletonList(exchange),
+                    new IOException("The client is closed"));
+            return;
+        }
+        
+        pipelines.process();
+    }
+    
+    /**
+     * Closes the client: the requests waiting to be sent are failed, the
+     * pipelined {@link Connection}s are closed, so the requests in flight are
+     * failed as well. The {@link MultiEndpointPool} is not closed.
+     */
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        
+        isClosed = true;
+        
+        for (EndpointPipelines pipelines : endpointToPipelinesMap.values()) {
+            pipelines.close();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) +
+                "{"
+                + "maxInFlight=" + maxInFlight
+                + ", maxConnectionsPerEndpoint=" + maxConnectionsPerEndpoint
+                + ", endpoints=" + endpointToPipelinesMap.keySet()
+                + "}";
+    }
+
+    private EndpointPipelines obtainEndpointPipelines(final Endpoint<E> endpoint) {
+        EndpointPipelines pipelines = endpointToPipelinesMap.get(endpoint);
+        if (pipelines == null) {
+            final EndpointPipelines newPipelines = new EndpointPipelines(endpoint);
+            pipelines = endpointToPipelinesMap.putIfAbsent(endpoint, newPipelines);
+            if (pipelines == null) {
+                pipelines = newPipelines;
+            }
+        }
+        
+        return pipelines;
+    }
+    
+    private static HttpRequestPacket checkRequest(final HttpPacket request) {
+        if (request == null) {
+            throw new IllegalArgumentException("The request argument can not be null");
+        }
+        
+        final HttpHeader header = request.getHttpHeader();
+        if (!header.isRequest()) {
+            throw new IllegalArgumentException("The HTTP request is expected");
+        }
+        
+        if (header.isCommitted()) {
+            throw new IllegalArgumentException("The HTTP request has been already sent");
+        }
+        
+        if (!Protocol.HTTP_1_1.equals(header.getProtocol())) {
+            throw new IllegalArgumentException("Only HTTP/1.1 requests could be pipelined");
+        }
+        
+        if (request.isHeader()) {
+            if (header.isChunked() || header.getContentLength() > 0) {
+                throw new IllegalArgumentException(
+                        "The request body has to be passed as the last HttpContent");
+            }
+        } else if (!((HttpContent) request).isLast()) {
+            throw new IllegalArgumentException(
+                    "The request body has to be passed as the last HttpContent");
+        }
+        
+        return (HttpRequestPacket) header;
+    }
+    
+    private static boolean isIdempotent(final Method method) {
+        return Method.GET.equals(method) || Method.HEAD.equals(method)
+                || Method.OPTIONS.equals(method) || Method.TRACE.equals(method)
+                || Method.PUT.equals(method) || Method.DELETE.equals(method);
+    }
+    
+    /**
+     * Creates the copy of the request without body, which could be sent
+     * over another {@link Connection}.
+     */
+    private static HttpRequestPacket copyRequest(final HttpRequestPacket request) {
+        final HttpRequestPacket copy = HttpRequestPacket.builder()
+                .method(request.getMethod())
+                .uri(request.getRequestURI())
+                .query(request.getQueryString())
+                .protocol(request.getProtocol())
+                .build();
+        copy.getHeaders().copyFrom(request.getHeaders());
+        
+        return copy;
+    }
+    
+    /**
+     * The request sent using the client.
+     */
+    private static final class Exchange {
+        private HttpPacket message;
+        private HttpRequestPacket request;
+        private final CompletionHandler<HttpContent> completionHandler;
+        
+        /**
+         * <tt>true</tt> if the request could be safely resent
+         */
+        private final boolean isRetriable;
+        /**
+         * <tt>true</tt> if no requests could be pipelined after this one
+         */
+        private final boolean isBarrier;
+        
+        // the fields below are updated under the EndpointPipelines monitor
+        private boolean isRetried;
+        private boolean isWritten;
+        private long sendTimeStamp;
+
+        private Exchange(final HttpPacket message, final HttpRequestPacket request,
+                final CompletionHandler<HttpContent> completionHandler) {
+            this.message = message;
+            this.request = request;
+            this.completionHandler = completionHandler;
+            
+            final boolean isIdempotent = isIdempotent(request.getMethod());
+            this.isBarrier = !isIdempotent;
+            this.isRetriable = isIdempotent && message.isHeader();
+        }
+    }
+    
+    /**
+     * The pipelines of a single {@link Endpoint}.
+     * All the pipelines state is guarded by the <tt>EndpointPipelines</tt> monitor.
+     */
+    private final class EndpointPipelines {
+        private final Endpoint<E> endpoint;
+        private final PipelineStats<E> stats;
+        
+        private final List<Pipeline> pipelines = new ArrayList<Pipeline>();
+        
+        /**
+         * The requests waiting for a pipeline
+         */
+        private final ArrayDeque<Exchange> waiting = new ArrayDeque<Exchange>();
+        
+        /**
+         * The number of {@link Connection}s being taken from the pool
+         */
+        private int connectingCount;
+        
+        private final CompletionHandler<Connection> takeCompletionHandler =
+                new CompletionHandler<Connection>() {
+
+            @Override
+            public void completed(final Connection connection) {
+                onTaken(connection);
+            }
+
+            @Override
+            public void failed(final Throwable throwable) {
+                onTakeFailed(throwable);
+            }
+
+            @Override
+            public void cancelled() {
+                onTakeFailed(new IOException("Connection obtain was cancelled"));
+            }
+
+            @Override
+            public void updated(final Connection result) {
+            }
+        };
+
+        private EndpointPipelines(final Endpoint<E> endpoint) {
+            this.endpoint = endpoint;
+            this.stats = new PipelineStats<E>(endpoint, this);
+        }
+        
+        /**
+         * Assigns the waiting requests to the pipelines, sends them and
+         * takes new {@link Connection}s from the pool if needed.
+         */
+        private void process() {
+            final List<Pipeline> toFlush = new ArrayList<Pipeline>(2);
+            final int toTake;
+            
+            synchronized (this) {
+                dispatch(toFlush);
+                toTake = reserveConnections();
+            }
+            
+            for (int i = 0; i < toFlush.size(); i++) {
+                toFlush.get(i).flush();
+            }
+            
+            for (int i = 0; i < toTake; i++) {
+                pool.take(endpoint, takeCompletionHandler);
+            }
+        }
+        
+        /**
+         * Must be called under the <tt>EndpointPipelines</tt> monitor.
+         */
+        private void dispatch(final List<Pipeline> toFlush) {
+            Exchange exchange;
+            while ((exchange = waiting.peek()) != null) {
+                final Pipeline pipeline = selectPipeline();
+                if (pipeline == null) {
+                    return;
+                }
+                
+                waiting.poll();
+                pipeline.enqueue(exchange);
+                if (!toFlush.contains(pipeline)) {
+                    toFlush.add(pipeline);
+                }
+            }
+        }
+        
+        /**
+         * Must be called under the <tt>EndpointPipelines</tt> monitor.
+         */
+        private Pipeline selectPipeline() {
+            Pipeline selected = null;
+            for (int i = 0; i < pipelines.size(); i++) {
+                final Pipeline pipeline = pipelines.get(i);
+                if (pipeline.canAccept()
+                        && (selected == null
+                        || pipeline.inFlight.size() < selected.inFlight.size())) {
+                    selected = pipeline;
+                }
+            }
+            
+            return selected;
+        }
+        
+        /**
+         * Must be called under the <tt>EndpointPipelines</tt> monitor.
+         * 
+         * @return the number of {@link Connection}s to be taken from the pool
+         */
+        private int reserveConnections() {
+            if (isClosed || waiting.isEmpty()) {
+                return 0;
+            }
+            
+            final int wanted = (waiting.size() + maxInFlight - 1) / maxInFlight
+                    - connectingCount;
+            final int available = maxConnectionsPerEndpoint - pipelines.size()
+                    - connectingCount;
+            
+            final int toTake = Math.min(wanted, available);
+            if (toTake <= 0) {
+                return 0;
+            }
+            
+            connectingCount += toTake;
+            return toTake;
+        }
+        
+        private void onTaken(final Connection connection) {
+            final Pipeline pipeline = new Pipeline(this, connection);
+            
+            synchronized (this) {
+                connectingCount--;
+                pipelines.add(pipeline);
+                stats.connectionsCount.incrementAndGet();
+            }
+            
+            PIPELINE_ATTR.set(connection, pipeline);
+            connection.addCloseListener(pipeline);
+            
+            process();
+            pipeline.releaseIfIdle();
+        }
+        
+        private void onTakeFailed(final Throwable throwable) {
+            List<Exchange> failed = null;
+            
+            synchronized (this) {
+                connectingCount--;
+                if (pipelines.isEmpty() && connectingCount == 0) {
+                    failed = new ArrayList<Exchange>(waiting);
+                    waiting.clear();
+                }
+            }
+            
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Can't obtain a connection to " + endpoint,
+                        throwable);
+            }
+            
+            if (failed != null) {
+                fail(failed, throwable);
+            }
+        }
+        
+        private void fail(final Collection<Exchange> exchanges,
+                final Throwable throwable) {
+            for (Exchange exchange : exchanges) {
+                stats.failuresCount.incrementAndGet();
+                exchange.completionHandler.failed(throwable);
+            }
+        }
+        
+        private void close() {
+            final List<Exchange> failed;
+            final List<Pipeline> toClose;
+            
+            synchronized (this) {
+                failed = new ArrayList<Exchange>(waiting);
+                waiting.clear();
+                toClose = new ArrayList<Pipeline>(pipelines);
+            }
+            
+            fail(failed, new IOException("The client is closed"));
+            
+            for (Pipeline pipeline : toClose) {
+                pipeline.connection.closeSilently();
+            }
+        }
+    }
+    
+    /**
+     * The pipelined {@link Connection}.
+     * The pipeline state, except the write batch, is guarded by the
+     * {@link EndpointPipelines} monitor.
+     */
+    private final class Pipeline implements CloseListener {
+        private final EndpointPipelines owner;
+        private final Connection connection;
+        
+        /**
+         * The requests, which haven't got the response yet, in the order
+         * they were (or are going to be) sent
+         */
+        private final ArrayDeque<Exchange> inFlight = new ArrayDeque<Exchange>();
+        
+        /**
+         * The requests assigned to the pipeline, but not sent yet
+         */
+        private final List<Exchange> toWrite = new ArrayList<Exchange>();
+        
+        /**
+         * The number of non-idempotent requests in flight
+         */
+        private int barriersCount;
+        
+        /**
+         * <tt>true</tt> if the {@link Connection} will be closed, once all
+         * the requests in flight are responded
+         */
+        private boolean isDraining;
+        
+        /**
+         * Sync for the writes, so the requests are sent in the
+         * <tt>inFlight</tt> order
+         */
+        private final Object writeSync = new Object();
+        
+        // the write batch, accessed by the writing thread only
+        private boolean isCorked;
+        private Buffer batch;
+
+        private Pipeline(final EndpointPipelines owner,
+                final Connection connection) {
+            this.owner = owner;
+            this.connection = connection;
+        }
+        
+        private boolean canAccept() {
+            return !isDraining && barriersCount == 0
+                    && inFlight.size() < maxInFlight;
+        }
+        
+        private void enqueue(final Exchange exchange) {
+            exchange.sendTimeStamp = System.nanoTime();
+            exchange.isWritten = false;
+            inFlight.add(exchange);
+            toWrite.add(exchange);
+            
+            if (exchange.isBarrier) {
+                barriersCount++;
+            }
+            
+            owner.stats.depthHistogram.add(inFlight.size());
+        }
+        
+        /**
+         * Sends all the requests assigned to the pipeline using a single write.
+         */
+        private void flush() {
+            synchronized (writeSync) {
+                final Exchange[] exchanges;
+                synchronized (owner) {
+                    if (toWrite.isEmpty()) {
+                        return;
+                    }
+                    
+                    exchanges = toWrite.toArray(new Exchange[toWrite.size()]);
+                    toWrite.clear();
+                    for (Exchange exchange : exchanges) {
+                        exchange.isWritten = true;
+                    }
+                }
+                
+                final Buffer buffer;
+                isCorked = true;
+                try {
+                    for (Exchange exchange : exchanges) {
+                        connection.write(exchange.message);
+                    }
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINE, "Can't encode the pipelined requests", e);
+                    connection.closeSilently();
+                    return;
+                } finally {
+                    isCorked = false;
+                    buffer = batch;
+                    batch = null;
+                }
+                
+                if (buffer != null) {
+                    owner.stats.batchesCount.incrementAndGet();
+                    connection.write(buffer, new EmptyCompletionHandler<WriteResult>() {
+                        @Override
+                        public void failed(final Throwable throwable) {
+                            connection.closeSilently();
+                        }
+                    });
+                }
+            }
+        }
+        
+        /**
+         * Appends the encoded request to the write batch.
+         * 
+         * @return <tt>false</tt> if the pipeline is not batching the writes
+         *          at the moment
+         */
+        private boolean append(final FilterChainContext ctx, final Buffer buffer) {
+            if (!isCorked) {
+                return false;
+            }
+            
+            batch = Buffers.appendBuffers(ctx.getMemoryManager(), batch,
+                    buffer, true);
+            return true;
+        }
+        
+        private void onResponse(final HttpContent content) {
+            final HttpResponsePacket response =
+                    (HttpResponsePacket) content.getHttpHeader();
+            final Exchange exchange;
+            final boolean isCorrelated;
+            
+            synchronized (owner) {
+                exchange = inFlight.peek();
+                isCorrelated = exchange != null
+                        && response.getRequest() == exchange.request;
+                
+                if (isCorrelated) {
+                    inFlight.poll();
+                    if (exchange.isBarrier) {
+                        barriersCount--;
+                    }
+                    
+                    if (!response.getProcessingState().isKeepAlive()) {
+                        isDraining = true;
+                    }
+                }
+            }
+            
+            if (!isCorrelated) {
+                owner.stats.correlationErrorsCount.incrementAndGet();
+                if (LOGGER.isLoggable(Level.WARNING)) {
+                    LOGGER.log(Level.WARNING,
+                            "The response doesn''t match the pipelined request, closing {0}",
+                            connection);
+                }
+                
+                // the close listener will fail the request
+                connection.closeSilently();
+                return;
+            }
+            
+            owner.stats.responsesCount.incrementAndGet();
+            owner.stats.latencyHistogram.add(TimeUnit.NANOSECONDS.toMicros(
+                    System.nanoTime() - exchange.sendTimeStamp));
+            
+            exchange.completionHandler.completed(content);
+            
+            owner.process();
+            releaseIfIdle();
+        }
+        
+        /**
+         * Returns the {@link Connection} to the pool or closes it, if the
+         * pipeline doesn't have requests in flight and there are no requests
+         * waiting.
+         */
+        private void releaseIfIdle() {
+            final boolean isReusable;
+            
+            synchronized (owner) {
+                if (!inFlight.isEmpty()
+                        || (!isDraining && !owner.waiting.isEmpty())
+                        || !owner.pipelines.remove(this)) {
+                    return;
+                }
+                
+                isReusable = !isDraining;
+            }
+            
+            connection.removeCloseListener(this);
+            PIPELINE_ATTR.remove(connection);
+            
+            if (isReusable && !isClosed) {
+                pool.release(connection);
+            } else {
+                connection.closeSilently();
+            }
+        }
+
+        @Override
+        public void onClosed(final Closeable closeable, final CloseReason reason)
+                throws IOException {
+            final List<Exchange> failed = new ArrayList<Exchange>();
+            
+            synchronized (owner) {
+                if (!owner.pipelines.remove(this)) {
+                    return;
+                }
+                
+                // walk backwards, so the resent requests keep their order
+                // in front of the waiting queue
+                while (!inFlight.isEmpty()) {
+                    final Exchange exchange = inFlight.pollLast();
+                    
+                    if (!isClosed && (!exchange.isWritten
+                            || (exchange.isRetriable && !exchange.isRetried))) {
+                        if (exchange.isWritten) {
+                            exchange.isRetried = true;
+                            exchange.request = copyRequest(exchange.request);
+                            exchange.message = exchange.request;
+                            owner.stats.retriesCount.incrementAndGet();
+                        }
+                        
+                        owner.waiting.addFirst(exchange);
+                    } else {
+                        failed.add(0, exchange);
+                    }
+                }
+                
+                toWrite.clear();
+                barriersCount = 0;
+            }
+            
+            PIPELINE_ATTR.remove(connection);
+            
+            if (!failed.isEmpty()) {
+                owner.fail(failed, new IOException(
+                        "The connection was closed before the response was received"));
+            }
+            
+            owner.process();
+        }
+    }
+    
+    /**
+     * The filter, which collects the requests encoded by the
+     * {@link HttpClientFilter}, so they could be written at once.
+     */
+    private static final class WriteBatchFilter extends BaseFilter {
+
+        @Override
+        public NextAction handleWrite(final FilterChainContext ctx)
+                throws IOException {
+            final Object message = ctx.getMessage();
+            
+            if (message instanceof Buffer) {
+                final PipelinedHttpClient<?>.Pipeline pipeline =
+                        PIPELINE_ATTR.get(ctx.getConnection());
+                if (pipeline != null && pipeline.append(ctx, (Buffer) message)) {
+                    return ctx.getStopAction();
+                }
+            }
+            
+            return ctx.getInvokeAction();
+        }
+    }
+    
+    /**
+     * The filter, which aggregates the response body and passes the complete
+     * response to the pipeline.
+     */
+    private static final class ResponseFilter extends BaseFilter {
+
+        @Override
+        public NextAction handleRead(final FilterChainContext ctx)
+                throws IOException {
+            final HttpContent content = ctx.getMessage();
+            if (!content.isLast()) {
+                return ctx.getStopAction(content);
+            }
+            
+            final PipelinedHttpClient<?>.Pipeline pipeline =
+                    PIPELINE_ATTR.get(ctx.getConnection());
+            if (pipeline != null) {
+                pipeline.onResponse(content);
+            } else {
+                LOGGER.log(Level.FINE,
+                        "Unexpected response on non-pipelined connection {0}",
+                        ctx.getConnection());
+            }
+            
+            return ctx.getStopAction();
+        }
+    }
+    
+    /**
+     * The {@link Endpoint} pipelining stats, that might be used for monitoring
+     * reasons.
+     * 
+     * @param <E> the address type
+     */
+    public static final class PipelineStats<E> {
+        private final Endpoint<E> endpoint;
+        private final PipelinedHttpClient<E>.EndpointPipelines pipelines;
+        
+        private final AtomicLong requestsCount = new AtomicLong();
+        private final AtomicLong responsesCount = new AtomicLong();
+        private final AtomicLong failuresCount = new AtomicLong();
+        private final AtomicLong retriesCount = new AtomicLong();
+        private final AtomicLong correlationErrorsCount = new AtomicLong();
+        private final AtomicLong connectionsCount = new AtomicLong();
+        private final AtomicLong batchesCount = new AtomicLong();
+        
+        private final Histogram depthHistogram = new Histogram();
+        private final Histogram latencyHistogram = new Histogram();
+
+        private PipelineStats(final Endpoint<E> endpoint,
+                final PipelinedHttpClient<E>.EndpointPipelines pipelines) {
+            this.endpoint = endpoint;
+            this.pipelines = pipelines;
+        }
+
+        /**
+         * @return the {@link Endpoint}
+         */
+        public Endpoint<E> getEndpoint() {
+            return endpoint;
+        }
+        
+        /**
+         * @return the number of pipelined {@link Connection}s currently in use
+         */
+        public int getPipelinesCount() {
+            synchronized (pipelines) {
+                return pipelines.pipelines.size();
+            }
+        }
+        
+        /**
+         * @return the number of requests sent, but not responded yet
+         */
+        public int getInFlightCount() {
+            synchronized (pipelines) {
+                int count = 0;
+                for (int i = 0; i < pipelines.pipelines.size(); i++) {
+                    count += pipelines.pipelines.get(i).inFlight.size();
+                }
+                
+                return count;
+            }
+        }
+        
+        /**
+         * @return the number of requests waiting for a pipeline
+         */
+        public int getWaitingCount() {
+            synchronized (pipelines) {
+                return pipelines.waiting.size();
+            }
+        }
+        
+        /**
+         * @return the number of requests passed to the client
+         */
+        public long getRequestsCount() {
+            return requestsCount.get();
+        }
+        
+        /**
+         * @return the number of responses received
+         */
+        public long getResponsesCount() {
+            return responsesCount.get();
+        }
+        
+        /**
+         * @return the number of failed requests
+         */
+        public long getFailuresCount() {
+            return failuresCount.get();
+        }
+        
+        /**
+         * @return the number of requests resent after their pipeline
+         *          {@link Connection} had been closed
+         */
+        public long getRetriesCount() {
+            return retriesCount.get();
+        }
+        
+        /**
+         * @return the number of responses, which didn't match the oldest
+         *          request in flight
+         */
+        public long getCorrelationErrorsCount() {
+            return correlationErrorsCount.get();
+        }
+        
+        /**
+         * @return the number of {@link Connection}s taken from the pool
+         */
+        public long getConnectionsCount() {
+            return connectionsCount.get();
+        }
+        
+        /**
+         * @return the number of writes, every write might contain several
+         *          requests
+         */
+        public long getBatchesCount() {
+            return batchesCount.get();
+        }
+        
+        /**
+         * @return the histogram of the number of requests in flight on the
+         *          pipeline, sampled every time a request is assigned to it
+         */
+        public Histogram getDepthHistogram() {
+            return depthHistogram;
+        }
+        
+        /**
+         * @return the histogram of the time (in microseconds) between the
+         *          request is sent and its response is received
+         */
+        public Histogram getLatencyHistogram() {
+            return latencyHistogram;
+        }
+
+        @Override
+        public String toString() {
+            return "PipelineStats{"
+                    + "endpoint=" + endpoint
+                    + ", requestsCount=" + requestsCount
+                    + ", responsesCount=" + responsesCount
+                    + ", failuresCount=" + failuresCount
+                    + ", retriesCount=" + retriesCount
+                    + ", correlationErrorsCount=" + correlationErrorsCount
+                    + ", depth=" + depthHistogram
+                    + ", latency=" + latencyHistogram
+                    + "}";
+        }
+    }
+    
+    /**
+     * The lock-free histogram with power of two buckets: the bucket <tt>0</tt>
+     * counts zero values, the bucket <tt>i</tt> counts the values in
+     * [2<sup>i-1</sup>, 2<sup>i</sup>) range.
+     */
+    public static final class Histogram {
+        private static final int BUCKETS_COUNT = 64;
+        
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        
+        private Histogram() {
+        }
+        
+        void add(final long value) {
+            final long v = Math.max(0, value);
+            buckets.incrementAndGet(bucketOf(v));
+            count.incrementAndGet();
+            sum.addAndGet(v);
+            
+            long currentMax;
+            while (v > (currentMax = max.get())
+                    && !max.compareAndSet(currentMax, v)) {
+            }
+        }
+        
+        /**
+         * @return the number of recorded values
+         */
+        public long getCount() {
+            return count.get();
+        }
+        
+        /**
+         * @return the max recorded value
+         */
+        public long getMax() {
+            return max.get();
+        }
+        
+        /**
+         * @return the mean of the recorded values
+         */
+        public double getMean() {
+            final long c = count.get();
+            return c != 0 ? (double) sum.get() / c : 0;
+        }
+        
+        /**
+         * @return the number of buckets
+         */
+        public int getBucketsCount() {
+            return BUCKETS_COUNT;
+        }
+        
+        /**
+         * @param bucket the bucket index
+         * @return the number of values recorded in the bucket
+         */
+        public long getBucketCount(final int bucket) {
+            return buckets.get(bucket);
+        }
+        
+        /**
+         * @param bucket the bucket index
+         * @return the max value, which is counted by the bucket
+         */
+        public static long getBucketUpperBound(final int bucket) {
+            return bucket == 0 ? 0 : (1L << bucket) - 1;
+        }
+        
+        /**
+         * Returns the upper bound of the bucket, which contains the value at
+         * the given percentile, so the result is accurate within a factor of two.
+         * 
+         * @param percentile the percentile in (0, 100] range
+         * @return the upper bound of the percentile value, or <tt>0</tt> if
+         *          there are no recorded values
+         */
+        public long getPercentile(final double percentile) {
+            if (percentile <= 0 || percentile > 100) {
+                throw new IllegalArgumentException("The percentile has to be in (0, 100] range");
+            }
+            
+            final long c = count.get();
+            if (c == 0) {
+                return 0;
+            }
+            
+            final long rank = (long) Math.ceil(c * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(getBucketUpperBound(i), max.get());
+                }
+            }
+            
+            return max.get();
+        }
+        
+        private static int bucketOf(final long value) {
+            return Math.min(BUCKETS_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+        }
+
+        @Override
+        public String toString() {
+            return "Histogram{"
+                    + "count=" + getCount()
+                    + ", mean=" + getMean()
+                    + ", p50=" + (count.get() != 0 ? getPercentile(50) : 0)
+                    + ", p99=" + (count.get() != 0 ? getPercentile(99) : 0)
+                    + ", max=" + getMax()
+                    + "}";
+        }
+    }
+    
+    /**
+     * The Builder class responsible for constructing {@link PipelinedHttpClient}.
+     * 
+     * @param <E> endpoint address type, for example {@link java.net.SocketAddress} for TCP and UDP transports
+     */
+    public static class Builder<E> {
+        /**
+         * the {@link MultiEndpointPool} to obtain {@link Connection}s from
+         */
+        private MultiEndpointPool<E> multiEndpointPool;
+        /**
+         * the max number of requests sent over a {@link Connection}, but not
+         * responded yet
+         */
+        private int maxInFlight = 8;
+        /**
+         * the max number of pipelined {@link Connection}s per {@link Endpoint},
+         * if not set the {@link MultiEndpointPool} limit is used
+         */
+        private int maxConnectionsPerEndpoint = -1;
+
+        /**
+         * Sets the {@link MultiEndpointPool} to obtain {@link Connection}s from.
+         * The {@link Connection}s must be created using the
+         * {@link PipelinedHttpClient#createFilterChain()} {@link FilterChain}.
+         * 
+         * @param multiEndpointPool {@link MultiEndpointPool}
+         * @return this {@link Builder}
+         */
+        public Builder<E> multiEndpointPool(final MultiEndpointPool<E> multiEndpointPool) {
+            this.multiEndpointPool = multiEndpointPool;
+            return this;
+        }
+        
+        /**
+         * Sets the max number of requests sent over a {@link Connection}, but
+         * not responded yet. The value <tt>1</tt> disables the pipelining.
+         * 
+         * @param maxInFlight the max pipeline depth
+         * @return this {@link Builder}
+         */
+        public Builder<E> maxInFlight(final int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+        
+        /**
+         * Sets the max number of pipelined {@link Connection}s per {@link Endpoint}.
+         * By default the {@link MultiEndpointPool#getMaxConnectionsPerEndpoint()}
+         * is used.
+         * 
+         * @param maxConnectionsPerEndpoint the max number of pipelines per {@link Endpoint}
+         * @return this {@link Builder}
+         */
+        public Builder<E> maxConnectionsPerEndpoint(final int maxConnectionsPerEndpoint) {
+            this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+            return this;
+        }
+        
+        /**
+         * Constructs {@link PipelinedHttpClient}.
+         * 
+         * @return {@link PipelinedHttpClient}
+         */
+        public PipelinedHttpClient<E> build() {
+            if (multiEndpointPool == null) {
+                throw new IllegalStateException("MultiEndpointPool is not set");
+            }
+            
+            if (maxInFlight <= 0) {
+                throw new IllegalStateException("Max in flight must be a positive value");
+            }
+            
+            final int maxConnections = maxConnectionsPerEndpoint > 0
+                    ? maxConnectionsPerEndpoint
+                    : multiEndpointPool.getMaxConnectionsPerEndpoint();
+            
+            return new PipelinedHttpClient<E>(multiEndpointPool, maxInFlight,
+                    maxConnections);
+        }
+    }
+}
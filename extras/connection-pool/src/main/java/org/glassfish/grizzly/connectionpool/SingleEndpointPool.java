@@ -43,11 +43,15 @@ package org.glassfish.grizzly.connectionpool;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.SocketAddress;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.glassfish.grizzly.CloseListener;
@@ -95,6 +99,13 @@ import org.glassfish.grizzly.utils.Futures;
  *      - <tt>connectionTTLMillis</tt>: the maximum amount of time, a
  *                                      {@link Connection} could be associated with the pool
  * 
+ * Ready {@link Connection}s are kept in a lock-free LIFO stack, so the most
+ * recently used (warm) {@link Connection} is reused first, and
+ * {@link #take()}, {@link #poll()} and {@link #release(org.glassfish.grizzly.Connection)}
+ * don't acquire the pool lock as long as there is a ready {@link Connection}
+ * and nobody is waiting for one. Establishing new {@link Connection}s, the
+ * waiting list, keep-alive, TTL and close are still serialized by the pool lock.
+ * 
  * @param <E> the address type, for example for TCP transport it's {@link SocketAddress}
  * 
  *
@@ -127,15 +138,33 @@ public class SingleEndpointPool<E> {
             new PoolConnectionCloseListener();
     
     /**
-     * The {@link Chain} of ready connections
+     * The number of stale ready stack nodes, after which the stack is purged
+     */
+    private static final int STALE_READY_NODES_THRESHOLD = 32;
+    
+    /**
+     * The head of the lock-free LIFO stack of ready connections.
+     * The stack may contain stale nodes, whose connections have been
+     * removed from the pool, they are skipped by {@link #pollReady()}.
+     */
+    private final AtomicReference<ReadyNode<E>> readyStack =
+            new AtomicReference<ReadyNode<E>>();
+    
+    /**
+     * The number of ready connections
+     */
+    private final AtomicInteger readyCount = new AtomicInteger();
+    
+    /**
+     * The (estimated) number of stale nodes in the {@link #readyStack}
      */
-    private final Chain<ConnectionInfo<E>> readyConnections = new Chain<ConnectionInfo<E>>();
+    private int staleReadyNodes;
     
     /**
      * The {@link Map} contains *all* pooled {@link Connection}s
      */
     private final Map<Connection, ConnectionInfo<E>> connectionsMap =
-            new HashMap<Connection, ConnectionInfo<E>>();
+            new ConcurrentHashMap<Connection, ConnectionInfo<E>>();
     
     /**
      * Sync object
@@ -145,7 +174,7 @@ public class SingleEndpointPool<E> {
     /**
      * close flag
      */
-    private boolean isClosed;
+    private volatile boolean isClosed;
     
     /**
      * The thread-pool used by theownDelayedExecutor
@@ -234,23 +263,31 @@ public class SingleEndpointPool<E> {
     private final boolean failFastWhenMaxSizeReached;
     
     /**
-     * current pool size
+     * current pool size, updated under {@link #poolSync}
      */
-    private int poolSize;
+    private volatile int poolSize;
     /**
-     * Number of connections we're currently trying to establish and waiting for the result
+     * Number of connections we're currently trying to establish and waiting
+     * for the result, updated under {@link #poolSync}
      */
-    protected int pendingConnections;
+    protected volatile int pendingConnections;
 
     /**
-     * Number of failed connect attempts.
+     * Number of failed connect attempts, updated under {@link #poolSync}
      */
-    private int failedConnectAttempts;
+    private volatile int failedConnectAttempts;
     
     /**
      * The waiting list of asynchronous polling clients
      */
     private final Chain<AsyncPoll> asyncWaitingList = new Chain<AsyncPoll>();
+    
+    /**
+     * The number of waiting consumers, it's updated under {@link #poolSync}
+     * and checked by the lock-free release path to decide whether the
+     * {@link Connection} has to be handed directly to a waiting consumer.
+     */
+    private volatile int waitersCount;
 
     /**
      * Constructs SingleEndpointPool instance.
@@ -536,9 +573,7 @@ public class SingleEndpointPool<E> {
      * @return the current pool size
      */
     public int size() {
-        synchronized (poolSync) {
-            return poolSize + pendingConnections;
-        }
+        return poolSize + pendingConnections;
     }
     
     /**
@@ -547,18 +582,14 @@ public class SingleEndpointPool<E> {
      * (connect in progress) {@link Connection}s.
      */
     public int getOpenConnectionsCount() {
-        synchronized (poolSync) {
-            return poolSize;
-        }
+        return poolSize;
     }
 
     /**
      * @return the number of {@link Connection}s ready to be retrieved and used.
      */
     public int getReadyConnectionsCount() {
-        synchronized (poolSync) {
-            return readyConnections.size();
-        }
+        return readyCount.get();
     }
 
     /**
@@ -567,10 +598,8 @@ public class SingleEndpointPool<E> {
      * <tt>false</tt> otherwise.
      */
     public boolean isMaxCapacityReached() {
-        synchronized (poolSync) {
-            return maxPoolSize != -1
-                    && poolSize + pendingConnections >= maxPoolSize;
-        }
+        return maxPoolSize != -1
+                && poolSize + pendingConnections >= maxPoolSize;
     }
     
     /**
@@ -584,9 +613,7 @@ public class SingleEndpointPool<E> {
      * the {@link Connection} is not registered in the pool
      */
     public boolean isRegistered(final Connection connection) {
-        synchronized (poolSync) {
-            return connectionsMap.containsKey(connection);
-        }
+        return connectionsMap.containsKey(connection);
     }
     
     /**
@@ -600,15 +627,11 @@ public class SingleEndpointPool<E> {
      * returns <tt>false</tt>
      */
     public boolean isBusy(final Connection connection) {
-        synchronized (poolSync) {
-            return isBusy0(connectionsMap.get(connection));
-        }
+        return isBusy0(connectionsMap.get(connection));
     }
 
     boolean isBusy0(final ConnectionInfo<E> connectionRecord) {
-        synchronized (poolSync) {
-            return connectionRecord != null && !connectionRecord.isReady();
-        }
+        return connectionRecord != null && !connectionRecord.isReady();
     }
     
     /**
@@ -622,9 +645,7 @@ public class SingleEndpointPool<E> {
      * this pool
      */
     public ConnectionInfo<E> getConnectionInfo(final Connection connection) {
-        synchronized (poolSync) {
-            return connectionsMap.get(connection);
-        }
+        return connectionsMap.get(connection);
     }
     
     /**
@@ -655,6 +676,14 @@ public class SingleEndpointPool<E> {
      * @return {@link GrizzlyFuture}
      */
     public GrizzlyFuture<Connection> take() {
+        // fast path: reuse a ready connection without acquiring the pool lock
+        if (!isClosed) {
+            final ConnectionInfo<E> info = pollReady();
+            if (info != null) {
+                return Futures.createReadyFuture(info.connection);
+            }
+        }
+        
         int errorCode = 0;
         GrizzlyFuture<Connection> future = null;
         boolean isCreateNewConnection = false;
@@ -664,7 +693,13 @@ public class SingleEndpointPool<E> {
                 // we need to maintain this weird if's layout to make sure we
                 // create Exceptions or new connections outside of synchronized.
                 if (!isClosed) {
-                    if (readyConnections.isEmpty()) {
+                    // announce the consumer before the last ready stack check,
+                    // so a concurrent lock-free release will either be seen
+                    // here or hand its connection over to the waiting list
+                    waitersCount = asyncWaitingList.size() + 1;
+                    final ConnectionInfo<E> info = pollReady();
+                    
+                    if (info == null) {
                         if (!failFastWhenMaxSizeReached
                                 || !isMaxCapacityReached()
                                 || pendingConnections >= getWaitingListSize() + 1) {
@@ -699,9 +734,10 @@ public class SingleEndpointPool<E> {
                             errorCode = 2;
                         }
                     } else {
-                        future = Futures.createReadyFuture(
-                                readyConnections.pollLast().getValue().connection);
+                        future = Futures.createReadyFuture(info.connection);
                     }
+                    
+                    waitersCount = asyncWaitingList.size();
                 } else {
                     errorCode = 1;
                 }
@@ -748,6 +784,15 @@ public class SingleEndpointPool<E> {
             throw new IllegalArgumentException("The completionHandler argument can not be null");
         }
         
+        // fast path: reuse a ready connection without acquiring the pool lock
+        if (!isClosed) {
+            final ConnectionInfo<E> info = pollReady();
+            if (info != null) {
+                completionHandler.completed(info.connection);
+                return;
+            }
+        }
+        
         int errorCode = 0;
         Connection connection = null;
         boolean isCreateNewConnection = false;
@@ -757,7 +802,11 @@ public class SingleEndpointPool<E> {
                 // we need to maintain this weird if's layout to make sure we
                 // create Exceptions or new connections outside of synchronized.
                 if (!isClosed) {
-                    if (readyConnections.isEmpty()) {
+                    // see take()
+                    waitersCount = asyncWaitingList.size() + 1;
+                    final ConnectionInfo<E> info = pollReady();
+                    
+                    if (info == null) {
                         if (!failFastWhenMaxSizeReached
                                 || !isMaxCapacityReached()
                                 || pendingConnections >= getWaitingListSize() + 1) {
@@ -773,8 +822,10 @@ public class SingleEndpointPool<E> {
                             errorCode = 2;
                         }
                     } else {
-                        connection = readyConnections.pollLast().getValue().connection;
+                        connection = info.connection;
                     }
+                    
+                    waitersCount = asyncWaitingList.size();
                 } else {
                     errorCode = 1;
                 }
@@ -812,15 +863,12 @@ public class SingleEndpointPool<E> {
      * @throws java.io.IOException if the pool is closed
      */
     public Connection poll() throws IOException {
-        synchronized (poolSync) {
-            if (isClosed) {
-                throw new IOException("The pool is closed");
-            }
-
-            return !readyConnections.isEmpty()
-                    ? readyConnections.pollLast().getValue().connection
-                    : null;
+        if (isClosed) {
+            throw new IOException("The pool is closed");
         }
+
+        final ConnectionInfo<E> info = pollReady();
+        return info != null ? info.connection : null;
     }
     
     /**
@@ -841,28 +889,46 @@ public class SingleEndpointPool<E> {
      *  and <code>false</code> will be returned.
      */
     public boolean release(final Connection connection) {
-        synchronized (poolSync) {
-            final ConnectionInfo<E> info = connectionsMap.get(connection);
-            if (info == null) {
-                connection.closeSilently();
-                return false;
-            } 
-            
-            return release0(info);
-        }
+        final ConnectionInfo<E> info = connectionsMap.get(connection);
+        if (info == null) {
+            connection.closeSilently();
+            return false;
+        } 
+
+        return release0(info);
     }
 
     /**
      * Same as {@link #release(org.glassfish.grizzly.Connection)}, but is based
-     * on connection {@link Link}.
+     * on {@link ConnectionInfo}.
      */
     boolean release0(final ConnectionInfo<E> info) {
+        if (info.getState() != ConnectionInfo.BUSY) {
+            return rejectRelease(info);
+        }
+        
+        if (waitersCount == 0
+                && (keepAliveTimeoutMillis != 0 || poolSize <= corePoolSize)) {
+            // fast path: nobody is waiting, push the connection to the ready stack
+            if (!offerReady(info)) {
+                return rejectRelease(info);
+            }
+            
+            // recheck, if a consumer has been added to the waiting list or
+            // the pool has been closed concurrently
+            if (waitersCount != 0 || isClosed) {
+                drainReadyConnections();
+            }
+            
+            return true;
+        }
+        
         final boolean isKeepAlive;
         AsyncPoll asyncPoller = null;
         
         synchronized (poolSync) {
-            if (info.isReady()) {
-                return false;
+            if (info.getState() != ConnectionInfo.BUSY) {
+                return rejectRelease(info);
             }
 
             // close pooled connection, if keepAliveTimeoutMillis == 0
@@ -873,7 +939,7 @@ public class SingleEndpointPool<E> {
                 isKeepAlive = true;
                 asyncPoller = getAsyncPoller();
                 if (asyncPoller == null) {
-                    readyConnections.offerLast(info.readyStateLink);
+                    offerReady(info);
                 }
             }
         }
@@ -890,6 +956,19 @@ public class SingleEndpointPool<E> {
         
         return true;
     }
+
+    /**
+     * Handles the release of a {@link Connection}, which is not busy.
+     * If the {@link Connection} has been detached or the pool has been closed,
+     * while the {@link Connection} was busy - the {@link Connection} is closed.
+     */
+    private static boolean rejectRelease(final ConnectionInfo<?> info) {
+        if (info.getState() == ConnectionInfo.REMOVED) {
+            info.connection.closeSilently();
+        }
+        
+        return false;
+    }
     
     /**
      * Attaches "foreign" {@link Connection} to the pool.
@@ -975,10 +1054,9 @@ public class SingleEndpointPool<E> {
                     ownDelayedExecutorThreadPool.shutdownNow();
                 }
                 
-                final int size = readyConnections.size();
-                for (int i = 0; i < size; i++) {
-                    final Connection c = readyConnections.pollLast().getValue().connection;
-                    c.closeSilently();
+                ConnectionInfo<E> info;
+                while ((info = pollReady()) != null) {
+                    info.connection.closeSilently();
                 }
                 
                 final int asyncWaitingListSize = asyncWaitingList.size();
@@ -1067,6 +1145,14 @@ public class SingleEndpointPool<E> {
         return info;
     }
 
+    /**
+     * @return the number of connect attempts, which have failed since the
+     *          last successful connect or failure notification
+     */
+    int getFailedConnectAttempts() {
+        return failedConnectAttempts;
+    }
+
     /**
      * The method will be called to notify about error occurred during new
      * connection opening.
@@ -1095,25 +1181,41 @@ public class SingleEndpointPool<E> {
                 return true;
             }
 
-            if (!readyConnections.isEmpty() && poolSize > corePoolSize) {
+            if (readyCount.get() > 0 && poolSize > corePoolSize) {
                 final long now = System.currentTimeMillis();
+                final List<ConnectionInfo<E>> expired =
+                        new ArrayList<ConnectionInfo<E>>();
+                
+                // the stack's top is the most recently released connection
+                for (ReadyNode<E> node = readyStack.get(); node != null; node = node.next) {
+                    final ConnectionInfo<E> info = node.info;
+                    final long readyTimeStamp = info.getReadyTimeStamp();
+                    if (readyTimeStamp != -1
+                            && (now - readyTimeStamp) >= keepAliveTimeoutMillis) {
+                        expired.add(info);
+                    }
+                }
 
                 try {
-                    do {
-                        final Link<ConnectionInfo<E>> link = readyConnections.getFirstLink();
+                    // close the oldest connections first
+                    for (int i = expired.size() - 1;
+                            i >= 0 && poolSize > corePoolSize; i--) {
+                        final ConnectionInfo<E> info = expired.get(i);
                         
-                        if ((now - link.getAttachmentTimeStamp()) >= keepAliveTimeoutMillis) {
-                            final Connection c = link.getValue().connection;
+                        // skip the connection, if it's been taken meanwhile
+                        if (retireReady(info)) {
+                            final Connection c = info.connection;
                             detach(c);
                             c.closeSilently();
-                        } else { // the rest of links are ok
-                            break;
                         }
-                        
-                    } while (!readyConnections.isEmpty() && poolSize > corePoolSize);
+                    }
                 } catch (Exception ignore) {
                 }
             }
+            
+            if (staleReadyNodes > 0) {
+                purgeReadyStack();
+            }
         }
         
         cleanerTask.timeoutMillis = System.currentTimeMillis() + keepAliveCheckIntervalMillis;
@@ -1190,14 +1292,165 @@ public class SingleEndpointPool<E> {
             connectionTTLQueue.remove(info);
         }
         
-        readyConnections.remove(info.readyStateLink);
+        if (info.getAndSetState(ConnectionInfo.REMOVED) == ConnectionInfo.READY) {
+            readyCount.decrementAndGet();
+            
+            // the stack node stays in place, purge the stack once there are
+            // more stale nodes, than ready connections
+            if (++staleReadyNodes > STALE_READY_NODES_THRESHOLD
+                    && staleReadyNodes > readyCount.get()) {
+                purgeReadyStack();
+            }
+        }
+        
         poolSize--;
 
         onCloseConnection(info);
     }
 
+    /**
+     * Retrieves the most recently released ready {@link Connection} and
+     * switches it to the busy state. The method doesn't acquire the pool lock.
+     * 
+     * @return the {@link ConnectionInfo} of the ready {@link Connection}, or
+     *  <tt>null</tt> if there is no ready {@link Connection}
+     */
+    private ConnectionInfo<E> pollReady() {
+        for (;;) {
+            final ReadyNode<E> head = readyStack.get();
+            if (head == null) {
+                return null;
+            }
+            
+            if (readyStack.compareAndSet(head, head.next)) {
+                final ConnectionInfo<E> info = head.info;
+                // the stale nodes of removed connections are just skipped
+                if (info.compareAndSetState(ConnectionInfo.READY, ConnectionInfo.BUSY)) {
+                    readyCount.decrementAndGet();
+                    return info;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Switches the busy {@link Connection} to the ready state and pushes it
+     * to the ready stack. The method doesn't acquire the pool lock.
+     * 
+     * @return <tt>true</tt> if the {@link Connection} has been switched to
+     *  the ready state, or <tt>false</tt> if it wasn't busy
+     */
+    private boolean offerReady(final ConnectionInfo<E> info) {
+        if (!info.markReady()) {
+            return false;
+        }
+        
+        readyCount.incrementAndGet();
+        
+        final ReadyNode<E> node = new ReadyNode<E>(info);
+        ReadyNode<E> head;
+        do {
+            head = readyStack.get();
+            node.next = head;
+        } while (!readyStack.compareAndSet(head, node));
+        
+        return true;
+    }
+    
+    /**
+     * Switches the ready {@link Connection} to the removed state, so it can't
+     * be taken from the pool anymore. Must be called under {@link #poolSync}.
+     * 
+     * @return <tt>true</tt> if the {@link Connection} was ready, or
+     *  <tt>false</tt> otherwise
+     */
+    boolean retireReady(final ConnectionInfo<E> info) {
+        if (info.compareAndSetState(ConnectionInfo.READY, ConnectionInfo.REMOVED)) {
+            readyCount.decrementAndGet();
+            staleReadyNodes++;
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Removes the stale nodes from the ready stack.
+     * Must be called under {@link #poolSync}.
+     */
+    private void purgeReadyStack() {
+        staleReadyNodes = 0;
+        
+        // lock-free consumers, which find the stack empty meanwhile, fall back
+        // to the synchronized path and wait for the purge to complete
+        ReadyNode<E> node = readyStack.getAndSet(null);
+        if (node == null) {
+            return;
+        }
+        
+        final List<ConnectionInfo<E>> ready = new ArrayList<ConnectionInfo<E>>();
+        for (; node != null; node = node.next) {
+            if (node.info.isReady()) {
+                ready.add(node.info);
+            }
+        }
+        
+        // push back, starting from the bottom to keep the LIFO order
+        for (int i = ready.size() - 1; i >= 0; i--) {
+            final ReadyNode<E> newNode = new ReadyNode<E>(ready.get(i));
+            ReadyNode<E> head;
+            do {
+                head = readyStack.get();
+                newNode.next = head;
+            } while (!readyStack.compareAndSet(head, newNode));
+        }
+    }
+    
+    /**
+     * Hands the ready {@link Connection}s to the waiting consumers, or closes
+     * them if the pool has been closed. The method is called by the lock-free
+     * release path, if it raced with a consumer, which has just been added to
+     * the waiting list, or with the pool close.
+     */
+    private void drainReadyConnections() {
+        for (;;) {
+            final ConnectionInfo<E> info;
+            final AsyncPoll asyncPoller;
+            
+            synchronized (poolSync) {
+                if (isClosed) {
+                    info = pollReady();
+                    if (info == null) {
+                        return;
+                    }
+                    
+                    asyncPoller = null;
+                } else {
+                    if (asyncWaitingList.isEmpty()) {
+                        return;
+                    }
+
+                    info = pollReady();
+                    if (info == null) {
+                        return;
+                    }
+
+                    asyncPoller = obtainFromAsyncWaitingList();
+                }
+            }
+            
+            if (asyncPoller != null) {
+                Futures.notifyResult(asyncPoller.future,
+                        asyncPoller.completionHandler, info.connection);
+            } else {
+                info.connection.closeSilently();
+            }
+        }
+    }
+
     private void addToAsyncWaitingList(final Link<AsyncPoll> pollLink) {
         asyncWaitingList.offerLast(pollLink);
+        waitersCount = asyncWaitingList.size();
 
         if (asyncPollTimeoutMillis >= 0) {
             asyncPollTimeoutQueue.add(pollLink,
@@ -1207,6 +1460,7 @@ public class SingleEndpointPool<E> {
 
     private AsyncPoll obtainFromAsyncWaitingList() {
         final Link<AsyncPoll> link = asyncWaitingList.pollFirst();
+        waitersCount = asyncWaitingList.size();
         
         if (asyncPollTimeoutMillis >= 0) {
             asyncPollTimeoutQueue.remove(link);
@@ -1217,6 +1471,7 @@ public class SingleEndpointPool<E> {
     
     private boolean removeFromAsyncWaitingList(final Link<AsyncPoll> pollLink) {
         final boolean result = asyncWaitingList.remove(pollLink);
+        waitersCount = asyncWaitingList.size();
         
         if (result && asyncPollTimeoutMillis >= 0) {
             asyncPollTimeoutQueue.remove(pollLink);
@@ -1265,7 +1520,7 @@ public class SingleEndpointPool<E> {
                        final ConnectionInfo<E> info = attach0(connection);
                        asyncPoller = getAsyncPoller();
                        if (asyncPoller == null) {
-                           readyConnections.offerLast(info.readyStateLink);
+                           offerReady(info);
                        }
                    }
                 }
@@ -1499,6 +1754,7 @@ public class SingleEndpointPool<E> {
                 final SingleEndpointPool<?> pool = asyncPollLink.getValue().pool;
                 synchronized (pool.poolSync) {
                     removed = pool.asyncWaitingList.remove(asyncPollLink);
+                    pool.waitersCount = pool.asyncWaitingList.size();
                 }
                 
                 if (removed) {
@@ -1550,6 +1806,20 @@ public class SingleEndpointPool<E> {
             this.pool = pool;
         }
     }
+
+    /**
+     * The node of the lock-free ready {@link Connection}s stack.
+     * A new node is created for each push, so the stack is not exposed to
+     * the ABA problem.
+     */
+    private static final class ReadyNode<E> {
+        private final ConnectionInfo<E> info;
+        private ReadyNode<E> next;
+
+        private ReadyNode(final ConnectionInfo<E> info) {
+            this.info = info;
+        }
+    }
     
 //================================= Connect timeout mechanism ======================
 
@@ -1567,7 +1837,9 @@ public class SingleEndpointPool<E> {
             }
             
             synchronized(ci.endpointPool.poolSync) {
-                if (ci.isReady()) {
+                // retire the ready connection first, so it can't be taken by
+                // the lock-free take() before it's closed
+                if (ci.endpointPool.retireReady(ci)) {
                     ci.connection.close();
                 } else {
                     ci.endpointPool.detach(ci.connection);
@@ -0,0 +1,245 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.grizzly.connectionpool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.filterchain.FilterChainBuilder;
+import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The {@link BalancedEndpointPool} tests.
+ */
+public class BalancedEndpointPoolTest {
+    private static final int PORT = 18340;
+    private static final int DEAD_PORT = 18349;
+    
+    private TCPNIOTransport transport;
+    private MultiEndpointPool<SocketAddress> multiEndpointPool;
+    
+    @Before
+    public void init() throws IOException {
+        transport = TCPNIOTransportBuilder.newInstance().build();
+        transport.setFilterChain(FilterChainBuilder.newInstance()
+                .add(new TransportFilter()).build());
+        
+        transport.bind(PORT);
+        transport.bind(PORT + 1);
+        transport.start();
+        
+        multiEndpointPool = MultiEndpointPool
+                .builder(SocketAddress.class)
+                .maxConnectionsPerEndpoint(8)
+                .maxConnectionsTotal(16)
+                .build();
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        multiEndpointPool.close();
+        
+        if (transport != null) {
+            transport.shutdownNow();
+        }
+    }
+
+    // ---------------------------------------------------------- Test Methods
+
+    @Test
+    public void testLeastOutstanding() throws Exception {
+        final Endpoint<SocketAddress> endpoint1 = createEndpoint(PORT);
+        final Endpoint<SocketAddress> endpoint2 = createEndpoint(PORT + 1);
+        
+        final BalancedEndpointPool<SocketAddress> pool = BalancedEndpointPool
+                .builder(SocketAddress.class)
+                .multiEndpointPool(multiEndpointPool)
+                .endpoint(endpoint1)
+                .endpoint(endpoint2)
+                .build();
+        
+        final List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            connections.add(pool.take().get(10, TimeUnit.SECONDS));
+        }
+        
+        final BalancedEndpointPool.EndpointStats<SocketAddress> stats1 =
+                pool.getEndpointStats(endpoint1);
+        final BalancedEndpointPool.EndpointStats<SocketAddress> stats2 =
+                pool.getEndpointStats(endpoint2);
+        
+        assertEquals(2, stats1.getOutstandingCount());
+        assertEquals(2, stats2.getOutstandingCount());
+        
+        for (Connection connection : connections) {
+            assertTrue(pool.release(connection));
+        }
+        
+        assertEquals(0, stats1.getOutstandingCount());
+        assertEquals(0, stats2.getOutstandingCount());
+        assertEquals(2, stats1.getOpenConnectionsCount());
+        assertEquals(2, stats1.getTakeCount());
+        assertEquals(2, stats2.getTakeCount());
+        assertTrue(stats1.getAcquireLatency(TimeUnit.NANOSECONDS) > 0);
+        assertTrue(stats1.getResponseLatency(TimeUnit.NANOSECONDS) > 0);
+    }
+    
+    @Test
+    public void testEjection() throws Exception {
+        final Endpoint<SocketAddress> endpoint = createEndpoint(PORT);
+        final Endpoint<SocketAddress> deadEndpoint = createEndpoint(DEAD_PORT);
+        
+        final BalancedEndpointPool<SocketAddress> pool = BalancedEndpointPool
+                .builder(SocketAddress.class)
+                .multiEndpointPool(multiEndpointPool)
+                .endpoint(endpoint)
+                .endpoint(deadEndpoint)
+                .ejectAfterFailures(1)
+                .maxEjectionTime(1, TimeUnit.MINUTES)
+                .build();
+        
+        final BalancedEndpointPool.EndpointStats<SocketAddress> deadStats =
+                pool.getEndpointStats(deadEndpoint);
+        
+        // the second take goes to the dead endpoint, if the first one didn't,
+        // because the live one has an outstanding connection
+        final List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < 2 && deadStats.getFailureCount() == 0; i++) {
+            try {
+                connections.add(pool.take().get(10, TimeUnit.SECONDS));
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        
+        assertEquals(1, deadStats.getFailureCount());
+        assertTrue(deadStats.isEjected());
+        assertEquals(1, deadStats.getEjectionsCount());
+        
+        // all the takes go to the live endpoint, while the dead one is ejected
+        for (int i = 0; i < 5; i++) {
+            connections.add(pool.take().get(10, TimeUnit.SECONDS));
+        }
+        
+        assertEquals(connections.size(),
+                pool.getEndpointStats(endpoint).getOutstandingCount());
+        assertEquals(1, deadStats.getFailureCount());
+        
+        for (Connection connection : connections) {
+            assertTrue(pool.release(connection));
+        }
+    }
+
+    @Test
+    public void testEjectionWithReconnect() throws Exception {
+        final MultiEndpointPool<SocketAddress> reconnectingPool = MultiEndpointPool
+                .builder(SocketAddress.class)
+                .maxConnectionsPerEndpoint(8)
+                .maxConnectionsTotal(16)
+                .reconnectDelay(100, TimeUnit.MILLISECONDS)
+                .maxReconnectAttempts(100)
+                .asyncPollTimeout(500, TimeUnit.MILLISECONDS)
+                .build();
+        
+        try {
+            final Endpoint<SocketAddress> endpoint = createEndpoint(PORT);
+            final Endpoint<SocketAddress> deadEndpoint = createEndpoint(DEAD_PORT);
+
+            final BalancedEndpointPool<SocketAddress> pool = BalancedEndpointPool
+                    .builder(SocketAddress.class)
+                    .multiEndpointPool(reconnectingPool)
+                    .endpoint(endpoint)
+                    .endpoint(deadEndpoint)
+                    .ejectAfterFailures(1)
+                    .maxEjectionTime(1, TimeUnit.MINUTES)
+                    .build();
+
+            final BalancedEndpointPool.EndpointStats<SocketAddress> deadStats =
+                    pool.getEndpointStats(deadEndpoint);
+
+            // the take waiting for the dead endpoint times out, while the
+            // sub-pool keeps reconnecting
+            final List<Connection> connections = new ArrayList<>();
+            for (int i = 0; i < 2 && deadStats.getFailureCount() == 0; i++) {
+                try {
+                    connections.add(pool.take().get(10, TimeUnit.SECONDS));
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof TimeoutException);
+                }
+            }
+
+            assertEquals(1, deadStats.getFailureCount());
+            assertTrue(deadStats.isEjected());
+
+            for (int i = 0; i < 5; i++) {
+                connections.add(pool.take().get(10, TimeUnit.SECONDS));
+            }
+
+            assertEquals(connections.size(),
+                    pool.getEndpointStats(endpoint).getOutstandingCount());
+            assertEquals(1, deadStats.getFailureCount());
+
+            for (Connection connection : connections) {
+                assertTrue(pool.release(connection));
+            }
+        } finally {
+            reconnectingPool.close();
+        }
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    private Endpoint<SocketAddress> createEndpoint(final int port) {
+        return Endpoint.Factory.<SocketAddress>create(
+                new InetSocketAddress("localhost", port), transport);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.connectionpool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.glassfish.grizzly.http.HttpContent;
+import org.glassfish.grizzly.http.HttpRequestPacket;
+import org.glassfish.grizzly.http.HttpResponsePacket;
+import org.glassfish.grizzly.http.Method;
+import org.glassfish.grizzly.http.Protocol;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The {@link PipelinedHttpClient} tests.
+ */
+public class PipelinedHttpClientTest {
+    private static final int PORT = 18360;
+    
+    private HttpServer httpServer;
+    private TCPNIOTransport transport;
+    private MultiEndpointPool<SocketAddress> multiEndpointPool;
+    private Endpoint<SocketAddress> endpoint;
+    
+    private final AtomicBoolean dropConnection = new AtomicBoolean();
+    
+    @Before
+    public void init() throws IOException {
+        httpServer = new HttpServer();
+        httpServer.addListener(new NetworkListener("grizzly",
+                NetworkListener.DEFAULT_NETWORK_HOST, PORT));
+        httpServer.getServerConfiguration().addHttpHandler(new HttpHandler() {
+
+            @Override
+            public void service(final Request request, final Response response)
+                    throws Exception {
+                if ("/drop".equals(request.getRequestURI())
+                        && dropConnection.compareAndSet(true, false)) {
+                    request.getContext().getConnection().closeSilently();
+                    return;
+                }
+                
+                response.getWriter().write(request.getMethod() + " "
+                        + request.getRequestURI());
+            }
+        }, "/");
+        httpServer.start();
+        
+        transport = TCPNIOTransportBuilder.newInstance().build();
+        transport.setFilterChain(PipelinedHttpClient.createFilterChain());
+        transport.start();
+        
+        multiEndpointPool = MultiEndpointPool
+                .builder(SocketAddress.class)
+                .maxConnectionsPerEndpoint(2)
+                .maxConnectionsTotal(4)
+                .build();
+        
+        endpoint = Endpoint.Factory.<SocketAddress>create(
+                new InetSocketAddress("localhost", PORT), transport);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        multiEndpointPool.close();
+        
+        if (transport != null) {
+            transport.shutdownNow();
+        }
+        
+        if (httpServer != null) {
+            httpServer.shutdownNow();
+        }
+    }
+
+    // ---------------------------------------------------------- Test Methods
+
+    @Test
+    public void testResponsesMatchPipelinedRequests() throws Exception {
+        final PipelinedHttpClient<SocketAddress> client = PipelinedHttpClient
+                .builder(SocketAddress.class)
+                .multiEndpointPool(multiEndpointPool)
+                .maxInFlight(4)
+                .maxConnectionsPerEndpoint(1)
+                .build();
+        
+        try {
+            final List<Future<HttpContent>> futures =
+                    new ArrayList<Future<HttpContent>>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(client.send(endpoint, createRequest(Method.GET, "/" + i)));
+            }
+            
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals("GET /" + i,
+                        responseBody(futures.get(i).get(10, TimeUnit.SECONDS)));
+            }
+            
+            final PipelinedHttpClient.PipelineStats<SocketAddress> stats =
+                    client.getPipelineStats(endpoint);
+            
+            assertEquals(16, stats.getRequestsCount());
+            assertEquals(16, stats.getResponsesCount());
+            assertEquals(0, stats.getCorrelationErrorsCount());
+            assertEquals(0, stats.getFailuresCount());
+            assertEquals(0, stats.getInFlightCount());
+            assertEquals(4, stats.getDepthHistogram().getMax());
+            assertEquals(16, stats.getLatencyHistogram().getCount());
+            // the requests waiting for the connection are sent at once
+            assertTrue(stats.getBatchesCount() < 16);
+        } finally {
+            client.close();
+        }
+    }
+    
+    @Test
+    public void testUnacknowledgedRequestsFailover() throws Exception {
+        final PipelinedHttpClient<SocketAddress> client = PipelinedHttpClient
+                .builder(SocketAddress.class)
+                .multiEndpointPool(multiEndpointPool)
+                .maxInFlight(4)
+                .maxConnectionsPerEndpoint(1)
+                .build();
+        
+        dropConnection.set(true);
+        
+        try {
+            final Future<HttpContent> getFuture =
+                    client.send(endpoint, createRequest(Method.GET, "/drop"));
+            final Future<HttpContent> postFuture =
+                    client.send(endpoint, createRequest(Method.POST, "/post"));
+            
+            // the idempotent request is resent over a new connection
+            assertEquals("GET /drop",
+                    responseBody(getFuture.get(10, TimeUnit.SECONDS)));
+            
+            // the non-idempotent one might have been processed, so it's failed
+            try {
+                postFuture.get(10, TimeUnit.SECONDS);
+                fail("The POST request must fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            
+            final PipelinedHttpClient.PipelineStats<SocketAddress> stats =
+                    client.getPipelineStats(endpoint);
+            
+            assertEquals(1, stats.getRetriesCount());
+            assertEquals(1, stats.getFailuresCount());
+            assertEquals(0, stats.getCorrelationErrorsCount());
+            
+            // the client keeps working after the failover
+            assertEquals("POST /post", responseBody(client.send(endpoint,
+                    createRequest(Method.POST, "/post")).get(10, TimeUnit.SECONDS)));
+        } finally {
+            client.close();
+        }
+    }
+    
+    private static HttpRequestPacket createRequest(final Method method,
+            final String uri) {
+        return HttpRequestPacket.builder()
+                .method(method)
+                .uri(uri)
+                .protocol(Protocol.HTTP_1_1)
+                .host("localhost:" + PORT)
+                .build();
+    }
+    
+    private static String responseBody(final HttpContent content) {
+        final HttpResponsePacket response =
+                (HttpResponsePacket) content.getHttpHeader();
+        assertEquals(200, response.getStatus());
+        
+        return content.getContent().toStringContent();
+    }
+}
@@ -563,4 +563,58 @@ public class SingleEndPointPoolTest {
             transport.shutdownNow();
         }
     }    
+
+    @Test
+    public void testConcurrentTakeRelease() throws Exception {
+        final int maxPoolSize = 4;
+        final int threadsCount = 8;
+        final int iterations = 2000;
+        
+        final SingleEndpointPool<SocketAddress> pool = SingleEndpointPool
+                .builder(SocketAddress.class)
+                .connectorHandler(transport)
+                .endpointAddress(new InetSocketAddress("localhost", PORT))
+                .maxPoolSize(maxPoolSize)
+                .build();
+        
+        final Set<Connection> inUse =
+                Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(threadsCount);
+        
+        try {
+            for (int i = 0; i < threadsCount; i++) {
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < iterations; j++) {
+                                final Connection c = pool.take().get(10, TimeUnit.SECONDS);
+                                if (!inUse.add(c)) {
+                                    throw new IllegalStateException(
+                                            "Connection is used by two consumers");
+                                }
+                                
+                                inUse.remove(c);
+                                assertTrue(pool.release(c));
+                            }
+                        } catch (Throwable t) {
+                            error.compareAndSet(null, t);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                }.start();
+            }
+            
+            assertTrue(latch.await(60, TimeUnit.SECONDS));
+            assertNull(error.get());
+            
+            assertTrue(pool.size() <= maxPoolSize);
+            assertTrue(pool.getReadyConnectionsCount()
+                    <= pool.getOpenConnectionsCount());
+        } finally {
+            pool.close();
+        }
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.sni;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded host name to {@link SNIConfig} cache used by {@link SNIFilter}
+ * to avoid calling the {@link SNIServerConfigResolver} for every new
+ * connection.
+ * 
+ * The cache holds the resolver's decision, including <tt>null</tt>
+ * (use the default config) and {@link SNIConfig#failServerConfig(java.lang.String)},
+ * so the same {@link org.glassfish.grizzly.ssl.SSLEngineConfigurator} and
+ * its SSLContext (and session cache) keep serving a host name until the
+ * entry expires.
+ * 
+ * @since 3.0
+ */
+final class SNIConfigCache {
+    /**
+     * The key used for CLIENT_HELLOs without SNI host name
+     */
+    static final String NO_HOST_NAME = "";
+    
+    private final int maxSize;
+    private final long ttlMillis;
+    
+    private final ConcurrentHashMap<String, Entry> entries =
+            new ConcurrentHashMap<String, Entry>();
+
+    SNIConfigCache(final int maxSize, final long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    long getTtlMillis() {
+        return ttlMillis;
+    }
+    
+    int size() {
+        return entries.size();
+    }
+    
+    /**
+     * @return the cached {@link Entry} for the host name, or <tt>null</tt>
+     *          if there is no entry or it has expired
+     */
+    Entry get(final String hostName, final long now) {
+        final Entry entry = entries.get(key(hostName));
+        if (entry == null) {
+            return null;
+        }
+        
+        if (entry.expirationTime <= now) {
+            entries.remove(key(hostName), entry);
+            return null;
+        }
+        
+        return entry;
+    }
+    
+    void put(final String hostName, final SNIConfig config, final long now) {
+        if (entries.size() >= maxSize) {
+            evict(now);
+        }
+        
+        entries.put(key(hostName), new Entry(config, now + ttlMillis));
+    }
+    
+    void clear() {
+        entries.clear();
+    }
+    
+    /**
+     * Removes the expired entries and, if the cache is still full, enough
+     * arbitrary entries to make room for the new one.
+     */
+    private void evict(final long now) {
+        int toRemove = entries.size() - maxSize + 1;
+        
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+                it.hasNext();) {
+            if (it.next().getValue().expirationTime <= now) {
+                it.remove();
+                toRemove--;
+            }
+        }
+        
+        for (Iterator<String> it = entries.keySet().iterator();
+                toRemove > 0 && it.hasNext(); toRemove--) {
+            it.next();
+            it.remove();
+        }
+    }
+    
+    private static String key(final String hostName) {
+        return hostName != null ? hostName : NO_HOST_NAME;
+    }
+    
+    static final class Entry {
+        final SNIConfig config;
+        final long expirationTime;
+
+        private Entry(final SNIConfig config, final long expirationTime) {
+            this.config = config;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
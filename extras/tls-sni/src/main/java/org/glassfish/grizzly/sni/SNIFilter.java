@@ -42,6 +42,11 @@ package org.glassfish.grizzly.sni;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import javax.net.ssl.SSLEngine;
 import org.glassfish.grizzly.Buffer;
@@ -75,6 +80,12 @@ import org.glassfish.grizzly.utils.JdkVersion;
  * because the host name information could be obtained from the {@link Connection#getPeerAddress()}.
  * However {@link SNIClientConfigResolver} could be used to customize the host name.
  * 
+ * On the <tt>server-side</tt> the resolver's decisions could be cached per
+ * host name (see {@link #setServerConfigCache(int, long, java.util.concurrent.TimeUnit)}),
+ * which also keeps TLS session resumption working when the resolver would
+ * otherwise build a new SSLContext for each connection. The number of
+ * handshakes initiated per SNI host name is available via
+ * {@link #getHandshakeStatistics()}.
  *
  */
 public class SNIFilter extends SSLFilter {
@@ -88,8 +99,21 @@ public class SNIFilter extends SSLFilter {
     private static final int SSLV3_RECORD_HEADER_SIZE = 5; // SSLv3 record header
     private static final int CLIENT_HELLO_HST = 0x1;
     
+    /**
+     * The default max number of SNI host names, whose handshakes are
+     * counted separately
+     */
+    public static final int DEFAULT_MAX_TRACKED_HOST_NAMES = 4096;
+    
     private SNIServerConfigResolver serverResolver;
     private SNIClientConfigResolver clientResolver;
+    
+    private volatile SNIConfigCache serverConfigCache;
+    
+    private volatile int maxTrackedHostNames = DEFAULT_MAX_TRACKED_HOST_NAMES;
+    private final ConcurrentHashMap<String, AtomicLong> handshakeCounters =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong untrackedHandshakes = new AtomicLong();
 
     public SNIFilter() {
     }
@@ -161,6 +185,137 @@ public class SNIFilter extends SSLFilter {
         this.clientResolver = resolver;
     }
 
+    /**
+     * Enables (or disables) caching of the {@link SNIConfig}s returned by
+     * the {@link SNIServerConfigResolver}, so the resolver is called once
+     * per host name and TTL period rather than for every new {@link Connection}.
+     * The cache should be enabled only if the resolver's result depends on
+     * the host name only, not on the {@link Connection}.
+     * 
+     * @param maxSize the max number of cached host names, zero or negative
+     *          value disables the cache
+     * @param ttl the time a resolved {@link SNIConfig} stays in the cache
+     * @param timeUnit the ttl {@link TimeUnit}
+     * 
+     * @since 3.0
+     */
+    public void setServerConfigCache(final int maxSize, final long ttl,
+            final TimeUnit timeUnit) {
+        if (maxSize <= 0) {
+            serverConfigCache = null;
+            return;
+        }
+        
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl has to be positive");
+        }
+        
+        serverConfigCache = new SNIConfigCache(maxSize,
+                TimeUnit.MILLISECONDS.convert(ttl, timeUnit));
+    }
+    
+    /**
+     * @return the max number of host names cached by the server-side
+     *          {@link SNIConfig} cache, or <tt>0</tt> if the cache is disabled
+     * 
+     * @since 3.0
+     */
+    public int getServerConfigCacheMaxSize() {
+        final SNIConfigCache cache = serverConfigCache;
+        return cache != null ? cache.getMaxSize() : 0;
+    }
+    
+    /**
+     * @param timeUnit the result {@link TimeUnit}
+     * @return the time a resolved {@link SNIConfig} stays in the cache,
+     *          or <tt>-1</tt> if the cache is disabled
+     * 
+     * @since 3.0
+     */
+    public long getServerConfigCacheTtl(final TimeUnit timeUnit) {
+        final SNIConfigCache cache = serverConfigCache;
+        return cache != null
+                ? timeUnit.convert(cache.getTtlMillis(), TimeUnit.MILLISECONDS)
+                : -1;
+    }
+    
+    /**
+     * Removes all the cached {@link SNIConfig}s, for example after the
+     * certificates have been changed.
+     * 
+     * @since 3.0
+     */
+    public void clearServerConfigCache() {
+        final SNIConfigCache cache = serverConfigCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+    
+    /**
+     * @return the max number of SNI host names, whose server-side handshakes
+     *          are counted separately
+     * 
+     * @since 3.0
+     */
+    public int getMaxTrackedHostNames() {
+        return maxTrackedHostNames;
+    }
+
+    /**
+     * Sets the max number of SNI host names, whose server-side handshakes
+     * are counted separately. The handshakes for the host names beyond this
+     * limit are counted by {@link #getUntrackedHandshakeCount()}, so the
+     * statistics can't be bloated by the host names sent by clients.
+     * 
+     * @param maxTrackedHostNames the max number of tracked host names
+     * 
+     * @since 3.0
+     */
+    public void setMaxTrackedHostNames(final int maxTrackedHostNames) {
+        this.maxTrackedHostNames = maxTrackedHostNames;
+    }
+    
+    /**
+     * @param hostName the SNI host name, or <tt>null</tt> for the handshakes
+     *          without SNI host name
+     * @return the number of server-side handshakes initiated for the host name
+     * 
+     * @since 3.0
+     */
+    public long getHandshakeCount(final String hostName) {
+        final AtomicLong counter = handshakeCounters.get(
+                hostName != null ? hostName : SNIConfigCache.NO_HOST_NAME);
+        return counter != null ? counter.get() : 0;
+    }
+    
+    /**
+     * @return the number of server-side handshakes, whose host names
+     *          were not tracked because of {@link #getMaxTrackedHostNames()} limit
+     * 
+     * @since 3.0
+     */
+    public long getUntrackedHandshakeCount() {
+        return untrackedHandshakes.get();
+    }
+    
+    /**
+     * @return the snapshot of the SNI host name to the number of initiated
+     *          server-side handshakes map, the handshakes without SNI host name
+     *          are mapped to the empty string
+     * 
+     * @since 3.0
+     */
+    public Map<String, Long> getHandshakeStatistics() {
+        final Map<String, Long> result =
+                new HashMap<String, Long>(handshakeCounters.size());
+        for (Map.Entry<String, AtomicLong> entry : handshakeCounters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        
+        return result;
+    }
+
     @Override
     protected SSLTransportFilterWrapper createOptimizedTransportFilter(
             final TransportFilter childFilter) {
@@ -266,8 +421,8 @@ public class SNIFilter extends SSLFilter {
                 
                 // extract SNI host name
                 final String hostName = getHostName(input, len);
-                final SNIConfig sniConfig =
-                        localResolver.resolve(c, hostName);
+                final SNIConfig sniConfig = resolveServerConfig(
+                        localResolver, c, hostName);
 
                 if (sniConfig != null && sniConfig.isClientConfig) {
                     throw new IllegalStateException("SNIConfig has to represent server config, not a client one");
@@ -286,14 +441,61 @@ public class SNIFilter extends SSLFilter {
                 sslCtx.configure(sslEngine);
                 sslEngine.beginHandshake();
                 notifyHandshakeStart(c);
+                countHandshake(hostName);
             }
         }
         
         return super.handleRead(ctx);
     }
 
+    private SNIConfig resolveServerConfig(
+            final SNIServerConfigResolver resolver,
+            final Connection connection, final String hostName) {
+        final SNIConfigCache cache = serverConfigCache;
+        if (cache == null) {
+            return resolver.resolve(connection, hostName);
+        }
+        
+        final long now = System.currentTimeMillis();
+        final SNIConfigCache.Entry entry = cache.get(hostName, now);
+        if (entry != null) {
+            return entry.config;
+        }
+        
+        final SNIConfig sniConfig = resolver.resolve(connection, hostName);
+        cache.put(hostName, sniConfig, now);
+        
+        return sniConfig;
+    }
+    
+    private void countHandshake(final String hostName) {
+        final String key = hostName != null
+                ? hostName
+                : SNIConfigCache.NO_HOST_NAME;
+        
+        AtomicLong counter = handshakeCounters.get(key);
+        if (counter == null) {
+            if (handshakeCounters.size() >= maxTrackedHostNames) {
+                untrackedHandshakes.incrementAndGet();
+                return;
+            }
+            
+            final AtomicLong newCounter = new AtomicLong();
+            counter = handshakeCounters.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        
+        counter.incrementAndGet();
+    }
+
+    /**
+     * Peeks the SNI host name from the CLIENT_HELLO in place, using absolute
+     * gets, so neither the input {@link Buffer} nor its position is changed.
+     */
     private String getHostName(final Buffer input, final int len) {
-        int current = SSLV3_RECORD_HEADER_SIZE;
+        int current = input.position() + SSLV3_RECORD_HEADER_SIZE;
         
         final int handshakeType = input.get(current++);
 
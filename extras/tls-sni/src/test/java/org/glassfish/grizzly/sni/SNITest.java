@@ -43,6 +43,7 @@ package org.glassfish.grizzly.sni;
 import java.io.IOException;
 import java.net.URL;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.glassfish.grizzly.Connection;
 import org.glassfish.grizzly.attributes.Attribute;
 import org.glassfish.grizzly.filterchain.BaseFilter;
@@ -154,6 +155,103 @@ public class SNITest {
         }
     }
     
+    @Test
+    public void testServerConfigCache() throws Exception {
+        final String sniHostValue = "sni-cache-test.com";
+        final String msg = "Hello world!";
+        
+        if (!JDK7_OR_HIGHER) {
+            return;
+        }
+        
+        final SSLEngineConfigurator sslServerEngineConfig = 
+                    new SSLEngineConfigurator(
+                            createSSLContextConfigurator().createSSLContext(),
+                    false, false, false);
+        final SSLEngineConfigurator sslClientEngineConfig = 
+                    new SSLEngineConfigurator(
+                            createSSLContextConfigurator().createSSLContext(),
+                    true, false, false);
+        
+        final AtomicInteger resolveCounter = new AtomicInteger();
+        
+        final SNIFilter sniFilter = new SNIFilter();
+        sniFilter.setServerConfigCache(16, 1, TimeUnit.MINUTES);
+        sniFilter.setServerSSLConfigResolver(new SNIServerConfigResolver() {
+
+            @Override
+            public SNIConfig resolve(Connection connection, String hostname) {
+                resolveCounter.incrementAndGet();
+                return SNIConfig.newServerConfig(sslServerEngineConfig);
+            }
+        });
+        
+        sniFilter.setClientSSLConfigResolver(new SNIClientConfigResolver() {
+
+            @Override
+            public SNIConfig resolve(Connection connection) {
+                return SNIConfig.newClientConfig(sniHostValue,
+                        sslClientEngineConfig);
+            }
+        });
+
+        final AtomicInteger receivedCounter = new AtomicInteger();
+        final FutureImpl<Boolean> resultFuture = Futures.<Boolean>createSafeFuture();
+        final FilterChain chain = FilterChainBuilder.newInstance()
+                .add(new TransportFilter())
+                .add(sniFilter)
+                .add(new StringFilter())
+                .add(new BaseFilter() {
+
+                    @Override
+                    public NextAction handleRead(final FilterChainContext ctx)
+                            throws IOException {
+                        if (receivedCounter.incrementAndGet() == 2) {
+                            resultFuture.result(Boolean.TRUE);
+                        }
+                        
+                        return ctx.getStopAction();
+                    }
+
+                })
+                .build();
+        
+        TCPNIOTransport transport = TCPNIOTransportBuilder.newInstance()
+                .filterChain(chain)
+                .build();
+        
+        try {
+            transport.bind(PORT);
+            transport.start();
+            
+            final Connection c1 = transport.connect("localhost", PORT).get();
+            c1.write(msg);
+            final Connection c2 = transport.connect("localhost", PORT).get();
+            c2.write(msg);
+            
+            assertTrue(resultFuture.get(10, TimeUnit.SECONDS));
+            assertEquals(1, resolveCounter.get());
+            assertEquals(2, sniFilter.getHandshakeCount(sniHostValue));
+            assertEquals(Long.valueOf(2),
+                    sniFilter.getHandshakeStatistics().get(sniHostValue));
+            
+            sniFilter.clearServerConfigCache();
+            final Connection c3 = transport.connect("localhost", PORT).get();
+            c3.write(msg);
+            
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (receivedCounter.get() < 3
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            
+            assertEquals(3, receivedCounter.get());
+            assertEquals(2, resolveCounter.get());
+        } finally {
+            transport.shutdownNow();
+        }
+    }
+    
     private static SSLContextConfigurator createSSLContextConfigurator() {
         SSLContextConfigurator sslContextConfigurator =
                 new SSLContextConfigurator();
@@ -41,11 +41,18 @@
 package org.glassfish.grizzly.comet;
 
 import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.glassfish.grizzly.CloseListener;
@@ -87,7 +94,8 @@ import org.glassfish.grizzly.http.util.Header;
  * Grizzly thread pool, all CometHandler than have been added using the {@link #addCometHandler}. A {@link
  * NotificationHandler} can be used to filter or transform the content that will eventually be pushed back to all
  * connected clients. You can also use a {@link NotificationHandler} to throttle push like invoking only a subset of the
- * CometHandler, etc. <p/> <p>Idle suspended connection can be timed out by configuring the {@link
+ * CometHandler, etc. {@link ShardedNotificationHandler} notifies CometHandlers in parallel and isolates the slow ones.
+ * <p/> <p>Idle suspended connection can be timed out by configuring the {@link
  * #setExpirationDelay(long)}. The value needs to be in milliseconds. If there is no I/O operations and no invocation of
  * {@link #notify} during the expiration delay, Grizzly will resume all suspended connection. An application will have a
  * chance to send back data using the connection as Grizzly will invoke the {@link CometHandler#onInterrupt} before
@@ -123,9 +131,10 @@ public class CometContext<E> {
      */
     protected NotificationHandler notificationHandler;
     /**
-     * The list of registered {@link CometHandler}
+     * The set of registered {@link CometHandler}, iterated in the registration order. Backed by concurrent maps, so
+     * adding, removing and checking a handler doesn't copy or scan all the suspended connections.
      */
-    private final List<CometHandler> handlers;
+    private final Set<CometHandler> handlers;
     protected final CometEvent<CometContext> eventInterrupt;
     protected final CometEvent<CometContext> eventTerminate;
     private final CometEvent<CometContext> eventInitialize;
@@ -145,7 +154,7 @@ public class CometContext<E> {
     public CometContext(CometEngine engine, String contextTopic) {
         topic = contextTopic;
         attributes = new ConcurrentHashMap<>();
-        handlers = new CopyOnWriteArrayList<CometHandler>();
+        handlers = new HandlerSet();
         eventInterrupt = new CometEvent<CometContext>(CometEvent.Type.INTERRUPT, this);
         eventInitialize = new CometEvent<CometContext>(CometEvent.Type.INITIALIZE, this);
         eventTerminate = new CometEvent<CometContext>(CometEvent.Type.TERMINATE, this, this);
@@ -458,12 +467,22 @@ public class CometContext<E> {
     }
 
     /**
-     * Return the current list of active {@link CometHandler}
+     * Return a snapshot of the active {@link CometHandler}s in the order they were added. Changes made to the returned
+     * list are not reflected in this {@link CometContext}.
      *
      * @return the current list of active {@link CometHandler}
      */
     public List<CometHandler> getCometHandlers() {
-        return handlers;
+        return new ArrayList<CometHandler>(handlers);
+    }
+
+    /**
+     * Return the number of active {@link CometHandler}s.
+     *
+     * @return the number of active {@link CometHandler}s
+     */
+    public int getCometHandlersCount() {
+        return handlers.size();
     }
 
     /**
@@ -601,4 +620,95 @@ public class CometContext<E> {
             }
         }
     }
+
+    /**
+     * Concurrent {@link Set} of {@link CometHandler}s, which iterates the handlers in the order they were added.
+     * Each handler gets a sequence number on registration: a {@link ConcurrentHashMap} maps the handler to its number
+     * and a {@link ConcurrentSkipListMap} keeps the handlers sorted by it. The iterator is weakly consistent.
+     */
+    private static final class HandlerSet extends AbstractSet<CometHandler> {
+        private final ConcurrentMap<CometHandler, Long> handlerToSequence =
+            new ConcurrentHashMap<CometHandler, Long>();
+        private final ConcurrentSkipListMap<Long, CometHandler> sequenceToHandler =
+            new ConcurrentSkipListMap<Long, CometHandler>();
+        private final AtomicLong sequence = new AtomicLong();
+
+        @Override
+        public boolean add(final CometHandler handler) {
+            final Long seq = sequence.incrementAndGet();
+            // the ordered map is updated first, so a concurrent remove always finds the entry
+            sequenceToHandler.put(seq, handler);
+            if (handlerToSequence.putIfAbsent(handler, seq) != null) {
+                sequenceToHandler.remove(seq);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean remove(final Object handler) {
+            final Long seq = handlerToSequence.remove(handler);
+            if (seq == null) {
+                return false;
+            }
+            sequenceToHandler.remove(seq);
+            return true;
+        }
+
+        @Override
+        public boolean contains(final Object handler) {
+            return handlerToSequence.containsKey(handler);
+        }
+
+        @Override
+        public int size() {
+            return handlerToSequence.size();
+        }
+
+        @Override
+        public void clear() {
+            handlerToSequence.clear();
+            sequenceToHandler.clear();
+        }
+
+        @Override
+        public Iterator<CometHandler> iterator() {
+            final Iterator<Map.Entry<Long, CometHandler>> it = sequenceToHandler.entrySet().iterator();
+            return new Iterator<CometHandler>() {
+                private CometHandler next;
+                private CometHandler last;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && it.hasNext()) {
+                        final Map.Entry<Long, CometHandler> entry = it.next();
+                        // skip the entry of a duplicate add, which is being rolled back
+                        if (entry.getKey().equals(handlerToSequence.get(entry.getValue()))) {
+                            next = entry.getValue();
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public CometHandler next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    last = next;
+                    next = null;
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    HandlerSet.this.remove(last);
+                    last = null;
+                }
+            };
+        }
+    }
 }
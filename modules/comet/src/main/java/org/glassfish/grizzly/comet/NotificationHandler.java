@@ -54,7 +54,7 @@ public interface NotificationHandler {
      * Notify all {@link CometHandler}.
      *
      * @param cometEvent the CometEvent used to notify CometHandler
-     * @param iteratorHandlers An iterator over a list of CometHandler
+     * @param iteratorHandlers An iterator over the registered CometHandlers, in the order they were added
      */
     void notify(CometEvent cometEvent, Iterator<CometHandler> iteratorHandlers) throws IOException;
 
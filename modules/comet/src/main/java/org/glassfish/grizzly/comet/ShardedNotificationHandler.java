@@ -0,0 +1,473 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.comet;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.nio.NIOConnection;
+
+/**
+ * {@link NotificationHandler}, which delivers {@link CometEvent}s in parallel and keeps slow {@link CometHandler}s
+ * from delaying the rest of a {@link CometContext}.
+ * <p/>
+ * Every {@link CometHandler} with pending events owns a small mailbox. A broadcast appends the event to each
+ * mailbox and splits the handlers, which were idle so far, into {@link #getShardCount()} shards executed on the
+ * {@link CometEngine} thread pool or, if none is configured, on the worker thread pool of the handler's
+ * {@link Connection}. Events queued for a handler while it is being notified are delivered back-to-back by the same
+ * task, and once the batch is processed the data buffered by the handler is flushed with a single write.
+ * <p/>
+ * A handler, which has more than {@link #getMaxPendingEvents()} undelivered events or more than
+ * {@link #getMaxQueuedBytes()} bytes waiting to be written to its connection, is considered slow: the pending
+ * events are dropped and the handler is resumed, the same way a handler is resumed if its notification fails.
+ * <p/>
+ * The handler is enabled per topic:
+ * <pre><code>
+ * CometContext cc = CometEngine.getEngine().register("MyTopic", ShardedNotificationHandler.class);
+ * ((ShardedNotificationHandler) cc.getNotificationHandler()).setMaxQueuedBytes(64 * 1024);
+ * </code></pre>
+ *
+ * @since 3.0
+ */
+public class ShardedNotificationHandler extends DefaultNotificationHandler {
+    private static final Logger logger = Logger.getLogger(ShardedNotificationHandler.class.getName());
+
+    /**
+     * The default max number of undelivered events per {@link CometHandler}.
+     */
+    public static final int DEFAULT_MAX_PENDING_EVENTS = 1024;
+
+    /**
+     * The default max number of bytes, which may wait to be written to a {@link CometHandler}'s connection.
+     */
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 1024 * 1024;
+
+    private final ConcurrentHashMap<CometHandler, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private volatile int shardCount = Runtime.getRuntime().availableProcessors();
+    private volatile int maxPendingEvents = DEFAULT_MAX_PENDING_EVENTS;
+    private volatile int maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private volatile boolean coalesceWrites = true;
+
+    public ShardedNotificationHandler() {
+    }
+
+    /**
+     * @return the max number of tasks a single broadcast is split into.
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Sets the max number of tasks a single broadcast is split into.
+     *
+     * @param shardCount the number of shards, must be positive.
+     */
+    public void setShardCount(final int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * @return the max number of undelivered events per {@link CometHandler}.
+     */
+    public int getMaxPendingEvents() {
+        return maxPendingEvents;
+    }
+
+    /**
+     * Sets the max number of undelivered events per {@link CometHandler}. If the limit is exceeded the handler is
+     * resumed. Values less than or equal to zero disable the limit.
+     */
+    public void setMaxPendingEvents(final int maxPendingEvents) {
+        this.maxPendingEvents = maxPendingEvents;
+    }
+
+    /**
+     * @return the max number of bytes, which may wait to be written to a {@link CometHandler}'s connection.
+     */
+    public int getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    /**
+     * Sets the max number of bytes, which may wait to be written to a {@link CometHandler}'s connection, when a new
+     * event is about to be queued for the handler. If the limit is exceeded the handler is resumed. Values less than or
+     * equal to zero disable the limit.
+     */
+    public void setMaxQueuedBytes(final int maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * @return <tt>true</tt>, if the data written by a {@link CometHandler} during a batch of events is flushed once the
+     * batch is processed.
+     */
+    public boolean isCoalesceWrites() {
+        return coalesceWrites;
+    }
+
+    /**
+     * If <tt>true</tt> (default), the data written by a {@link CometHandler} during a batch of events is flushed once
+     * the batch is processed, otherwise flushing is left to the handler.
+     */
+    public void setCoalesceWrites(final boolean coalesceWrites) {
+        this.coalesceWrites = coalesceWrites;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void notify(final CometEvent cometEvent, final Iterator<CometHandler> iteratorHandlers)
+        throws IOException {
+        List<Mailbox> ready = null;
+        while (iteratorHandlers.hasNext()) {
+            final Mailbox mailbox = offer(cometEvent, iteratorHandlers.next());
+            if (mailbox != null) {
+                if (ready == null) {
+                    ready = new ArrayList<>();
+                }
+                ready.add(mailbox);
+            }
+        }
+
+        if (ready == null) {
+            return;
+        }
+
+        final int size = ready.size();
+        final int shards = Math.min(shardCount, size);
+        final int shardSize = (size + shards - 1) / shards;
+        final ExecutorService executor = getExecutor(ready.get(0).handler);
+        for (int from = 0; from < size; from += shardSize) {
+            execute(executor, ready.subList(from, Math.min(from + shardSize, size)));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void notify(final CometEvent cometEvent, final CometHandler cometHandler) throws IOException {
+        final Mailbox mailbox = offer(cometEvent, cometHandler);
+        if (mailbox != null) {
+            final List<Mailbox> shard = new ArrayList<>(1);
+            shard.add(mailbox);
+            execute(getExecutor(cometHandler), shard);
+        }
+    }
+
+    /**
+     * @return the number of {@link CometHandler}s, which have undelivered events or are being notified.
+     */
+    public int getPendingHandlersCount() {
+        return mailboxes.size();
+    }
+
+    /**
+     * Queues the event for the handler.
+     *
+     * @return the handler's {@link Mailbox}, if it has to be scheduled for delivery, or <tt>null</tt> if the mailbox
+     * is already scheduled.
+     */
+    private Mailbox offer(final CometEvent cometEvent, final CometHandler cometHandler) {
+        final boolean isData = isDataEvent(cometEvent);
+        while (true) {
+            Mailbox mailbox = mailboxes.get(cometHandler);
+            if (mailbox == null) {
+                final Mailbox newMailbox = new Mailbox(cometHandler);
+                mailbox = mailboxes.putIfAbsent(cometHandler, newMailbox);
+                if (mailbox == null) {
+                    mailbox = newMailbox;
+                }
+            }
+
+            final boolean isSlow = isData && isSlow(cometHandler, mailbox);
+            final int result = mailbox.offer(cometEvent, isData, isSlow, maxPendingEvents);
+            if (result == Mailbox.RETIRED) {
+                // the mailbox has just been drained and removed, so retry with a fresh one
+                mailboxes.remove(cometHandler, mailbox);
+                continue;
+            }
+
+            return result == Mailbox.SCHEDULE ? mailbox : null;
+        }
+    }
+
+    /**
+     * Called by the broadcasting thread, which mustn't touch the {@link Response} the handler may be writing to
+     * concurrently, so only the thread-safe async write queue size is read here.
+     */
+    private boolean isSlow(final CometHandler cometHandler, final Mailbox mailbox) {
+        final int limit = maxQueuedBytes;
+        if (limit <= 0) {
+            return false;
+        }
+        final Response response = cometHandler.getResponse();
+        if (response == null) {
+            return false;
+        }
+        long queued = mailbox.bufferedBytes;
+        final Connection connection = response.getRequest().getContext().getConnection();
+        if (connection instanceof NIOConnection) {
+            queued += ((NIOConnection) connection).getAsyncWriteQueueSize();
+        }
+        return queued > limit;
+    }
+
+    private ExecutorService getExecutor(final CometHandler cometHandler) {
+        if (threadPool != null) {
+            return threadPool;
+        }
+        final Response response = cometHandler.getResponse();
+        if (response == null) {
+            return null;
+        }
+        final Connection connection = response.getRequest().getContext().getConnection();
+        return connection != null ? connection.getTransport().getWorkerThreadPool() : null;
+    }
+
+    private void execute(final ExecutorService executor, final List<Mailbox> shard) {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                // deliver one batch per handler at a time, so a handler receiving
+                // events at a high rate doesn't starve the rest of the shard
+                List<Mailbox> current = shard;
+                while (!current.isEmpty()) {
+                    final List<Mailbox> next = new ArrayList<>(current.size());
+                    for (int i = 0, size = current.size(); i < size; i++) {
+                        final Mailbox mailbox = current.get(i);
+                        if (drainOnce(mailbox)) {
+                            next.add(mailbox);
+                        }
+                    }
+                    current = next;
+                }
+            }
+        };
+
+        if (executor != null) {
+            try {
+                executor.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                logger.log(Level.FINE, "Notification task rejected, notifying on the calling thread", e);
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Delivers the events queued for the handler so far.
+     *
+     * @return <tt>true</tt>, if the mailbox may have more events to deliver, or <tt>false</tt> if it has been retired.
+     */
+    private boolean drainOnce(final Mailbox mailbox) {
+        final CometHandler cometHandler = mailbox.handler;
+        final ArrayDeque<CometEvent> batch = mailbox.poll();
+        if (batch == null) {
+            mailboxes.remove(cometHandler, mailbox);
+            return false;
+        }
+
+        if (batch == Mailbox.OVERFLOW) {
+            resumeSlowHandler(cometHandler);
+            return true;
+        }
+
+        boolean hasData = false;
+        CometContext cometContext = null;
+        CometEvent cometEvent;
+        while ((cometEvent = batch.poll()) != null) {
+            hasData |= isDataEvent(cometEvent);
+            cometContext = cometEvent.getCometContext();
+            notify0(cometEvent, cometHandler);
+        }
+
+        if (hasData && cometContext.isActive(cometHandler)) {
+            if (coalesceWrites) {
+                flush(cometHandler);
+            }
+            final Response response = cometHandler.getResponse();
+            mailbox.bufferedBytes = response != null ? response.getOutputBuffer().getBufferedDataSize() : 0;
+        }
+        return true;
+    }
+
+    private static void flush(final CometHandler cometHandler) {
+        final Response response = cometHandler.getResponse();
+        if (response == null || response.getOutputBuffer().getBufferedDataSize() == 0) {
+            return;
+        }
+        try {
+            response.flush();
+        } catch (Throwable t) {
+            logger.log(Level.FINE, "Flush failed: ", t);
+        }
+    }
+
+    private static void resumeSlowHandler(final CometHandler cometHandler) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "Resuming slow CometHandler: {0}", cometHandler);
+        }
+        final CometContext cometContext = cometHandler.getCometContext();
+        if (cometContext == null) {
+            return;
+        }
+        try {
+            cometContext.resumeCometHandler(cometHandler);
+        } catch (Throwable t) {
+            logger.log(Level.FINE, "Resume phase failed: ", t);
+        }
+    }
+
+    private static boolean isDataEvent(final CometEvent cometEvent) {
+        switch (cometEvent.getType()) {
+            case NOTIFY:
+            case READ:
+            case WRITE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The events queued for a single {@link CometHandler}. A mailbox is drained by at most one thread at a time, so
+     * the handler observes its events in order and never concurrently.
+     */
+    private static final class Mailbox {
+        static final int QUEUED = 0;
+        static final int SCHEDULE = 1;
+        static final int RETIRED = 2;
+
+        static final ArrayDeque<CometEvent> OVERFLOW = new ArrayDeque<>(1);
+
+        final CometHandler handler;
+
+        /**
+         * The data buffered by the handler's {@link Response} after the last delivered batch. The response may only
+         * be inspected by the delivering thread, which publishes the value here for the broadcasting thread.
+         */
+        volatile int bufferedBytes;
+
+        private ArrayDeque<CometEvent> events = new ArrayDeque<>(4);
+        private int dataEvents;
+        private boolean scheduled;
+        private boolean overflowed;
+        private boolean retired;
+
+        Mailbox(final CometHandler handler) {
+            this.handler = handler;
+        }
+
+        synchronized int offer(final CometEvent cometEvent, final boolean isData, final boolean isSlow,
+            final int maxPendingEvents) {
+            if (retired) {
+                return RETIRED;
+            }
+
+            if (isData) {
+                if (overflowed) {
+                    return QUEUED;
+                }
+                if (isSlow || (maxPendingEvents > 0 && dataEvents >= maxPendingEvents)) {
+                    overflowed = true;
+                    for (Iterator<CometEvent> it = events.iterator(); it.hasNext(); ) {
+                        if (isDataEvent(it.next())) {
+                            it.remove();
+                        }
+                    }
+                    dataEvents = 0;
+                    return schedule();
+                }
+                dataEvents++;
+            }
+
+            events.add(cometEvent);
+            return schedule();
+        }
+
+        /**
+         * @return the events queued since the previous call, {@link #OVERFLOW} if the handler has to be resumed, or
+         * <tt>null</tt> if there are no more events, in which case the mailbox is retired.
+         */
+        synchronized ArrayDeque<CometEvent> poll() {
+            if (overflowed) {
+                overflowed = false;
+                return OVERFLOW;
+            }
+            if (events.isEmpty()) {
+                scheduled = false;
+                retired = true;
+                return null;
+            }
+
+            final ArrayDeque<CometEvent> batch = events;
+            events = new ArrayDeque<>(4);
+            dataEvents = 0;
+            return batch;
+        }
+
+        private int schedule() {
+            if (scheduled) {
+                return QUEUED;
+            }
+            scheduled = true;
+            return SCHEDULE;
+        }
+    }
+}
@@ -48,8 +48,16 @@ import java.net.HttpURLConnection;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -343,6 +351,117 @@ public class BasicCometTest extends TestCase {
         conn.disconnect();
     }
 
+    public void testShardedNotificationResumesSlowHandler() throws Exception {
+        LOGGER.fine("testShardedNotificationResumesSlowHandler");
+        final String topic = "/sharded-topic";
+        final String alias = "/Sharded";
+        final int clients = 4;
+        final CometContext<String> shardedContext =
+                CometEngine.getEngine().<String>register(topic, ShardedNotificationHandler.class);
+        final ShardedNotificationHandler notificationHandler =
+                (ShardedNotificationHandler) shardedContext.getNotificationHandler();
+        notificationHandler.setShardCount(clients + 1);
+        notificationHandler.setMaxPendingEvents(3);
+        final AtomicReference<CometHandler<String>> slowHandler = new AtomicReference<CometHandler<String>>();
+        final CountDownLatch slowHandlerEntered = new CountDownLatch(1);
+        final CountDownLatch slowHandlerRelease = new CountDownLatch(1);
+        final CountDownLatch fastHandlersNotified = new CountDownLatch(clients);
+
+        httpServer.getServerConfiguration().addHttpHandler(new HttpHandler() {
+            @Override
+            public void service(Request request, Response response) throws Exception {
+                final boolean isSlow = request.getParameter("slow") != null;
+                response.setContentType("text/plain");
+                final CometHandler<String> handler = new DefaultCometHandler<String>(shardedContext, response) {
+                    @Override
+                    public void onEvent(CometEvent event) throws IOException {
+                        if (isSlow && slowHandlerEntered.getCount() > 0) {
+                            slowHandlerEntered.countDown();
+                            try {
+                                slowHandlerRelease.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                        }
+                        final String data = (String) event.attachment();
+                        getResponse().getWriter().write(data);
+                        if (!isSlow && "a".equals(data)) {
+                            fastHandlersNotified.countDown();
+                        }
+                        if ("done".equals(data)) {
+                            getCometContext().resumeCometHandler(this);
+                        }
+                    }
+                };
+                if (isSlow) {
+                    slowHandler.set(handler);
+                }
+                shardedContext.addCometHandler(handler);
+            }
+        }, alias);
+
+        final ExecutorService clientPool = Executors.newFixedThreadPool(clients + 1);
+        try {
+            final List<Future<String>> fast = new ArrayList<Future<String>>();
+            for (int i = 0; i < clients; i++) {
+                fast.add(clientPool.submit(new ReadBodyTask(alias)));
+            }
+            final Future<String> slow = clientPool.submit(new ReadBodyTask(alias + "?slow=true"));
+
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (shardedContext.getCometHandlersCount() < clients + 1
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(clients + 1, shardedContext.getCometHandlersCount());
+
+            shardedContext.notify("a");
+            assertTrue(slowHandlerEntered.await(10, TimeUnit.SECONDS));
+            assertTrue(fastHandlersNotified.await(10, TimeUnit.SECONDS));
+            shardedContext.notify("b");
+            shardedContext.notify("c");
+            shardedContext.notify("done");
+            // the 4th pending event exceeds the limit, the slow handler gets resumed
+            shardedContext.notify("x", slowHandler.get());
+
+            for (Future<String> body : fast) {
+                assertEquals("abcdone", body.get(10, TimeUnit.SECONDS));
+            }
+            slowHandlerRelease.countDown();
+            assertEquals("a", slow.get(10, TimeUnit.SECONDS));
+            assertEquals(0, shardedContext.getCometHandlersCount());
+        } finally {
+            slowHandlerRelease.countDown();
+            clientPool.shutdownNow();
+            CometEngine.getEngine().deregister(topic);
+        }
+    }
+
+    private class ReadBodyTask implements Callable<String> {
+        private final String alias;
+
+        ReadBodyTask(String alias) {
+            this.alias = alias;
+        }
+
+        @Override
+        public String call() throws Exception {
+            final HttpURLConnection conn = getConnection(alias, 20000);
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+            try {
+                final StringBuilder sb = new StringBuilder();
+                final char[] buf = new char[128];
+                int len;
+                while ((len = reader.read(buf)) != -1) {
+                    sb.append(buf, 0, len);
+                }
+                return sb.toString();
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
     private HttpURLConnection getConnection(String alias, int timeout) throws IOException {
         HttpURLConnection urlConn = (HttpURLConnection) new URL("http", "localhost", PORT, alias).openConnection();
         urlConn.setConnectTimeout(5 * 1000);
@@ -76,13 +76,35 @@ public class GZipDecoder extends AbstractTransformer<Buffer, Buffer> {
     private final static int FCOMMENT	= 16;	// File comment
 
     private final int bufferSize;
+    
+    private final ZipPool zipPool;
 
     public GZipDecoder() {
         this(512);
     }
 
     public GZipDecoder(int bufferSize) {
+        this(bufferSize, ZipPool.getDefault());
+    }
+
+    /**
+     * @param bufferSize the output buffer size
+     * @param zipPool the {@link ZipPool} to take {@link Inflater}s from
+     * 
+     * @since 3.0
+     */
+    public GZipDecoder(int bufferSize, ZipPool zipPool) {
         this.bufferSize = bufferSize;
+        this.zipPool = zipPool;
+    }
+
+    /**
+     * @return the {@link ZipPool} {@link Inflater}s are taken from
+     * 
+     * @since 3.0
+     */
+    public ZipPool getZipPool() {
+        return zipPool;
     }
 
 
@@ -135,6 +157,10 @@ public class GZipDecoder extends AbstractTransformer<Buffer, Buffer> {
             if (decodeTrailer(input, state)) {
                 state.setDecodeStatus(DecodeStatus.DONE);
                 state.setInitialized(false);
+                
+                // the next member (if any) will acquire a new inflater
+                zipPool.releaseInflater(state.getInflater());
+                state.setInflater(null);
             }
         }
 
@@ -235,11 +261,14 @@ public class GZipDecoder extends AbstractTransformer<Buffer, Buffer> {
 
         Inflater inflater = state.getInflater();
         if (inflater == null) {
-            inflater = new Inflater(true);
-            final CRC32 crc32 = new CRC32();
+            inflater = zipPool.acquireInflater();
+            final CRC32 crc32 = state.getCrc32() != null
+                    ? state.getCrc32()
+                    : new CRC32();
             crc32.reset();
             state.setInflater(inflater);
             state.setCrc32(crc32);
+            state.setDecodeStatus(DecodeStatus.INITIAL);
         } else if (state.getDecodeStatus() == DecodeStatus.DONE) {
             state.setDecodeStatus(DecodeStatus.INITIAL);
             inflater.reset();
@@ -255,6 +284,20 @@ public class GZipDecoder extends AbstractTransformer<Buffer, Buffer> {
         return true;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release(AttributeStorage storage) {
+        final GZipInputState state = (GZipInputState) stateAttr.get(storage);
+        if (state != null && state.getInflater() != null) {
+            zipPool.releaseInflater(state.getInflater());
+            state.setInflater(null);
+        }
+        
+        super.release(storage);
+    }
+
     /*
      * Reads GZIP member header.
      */
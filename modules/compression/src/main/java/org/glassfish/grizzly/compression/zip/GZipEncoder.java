@@ -67,6 +67,8 @@ public class GZipEncoder extends AbstractTransformer<Buffer, Buffer> {
     private static final int TRAILER_SIZE = 8;
 
     private final int bufferSize;
+    
+    private final ZipPool zipPool;
 
     private static final Buffer header;
 
@@ -91,7 +93,27 @@ public class GZipEncoder extends AbstractTransformer<Buffer, Buffer> {
     }
 
     public GZipEncoder(int bufferSize) {
+        this(bufferSize, ZipPool.getDefault());
+    }
+
+    /**
+     * @param bufferSize the output buffer size
+     * @param zipPool the {@link ZipPool} to take {@link Deflater}s from
+     * 
+     * @since 3.0
+     */
+    public GZipEncoder(int bufferSize, ZipPool zipPool) {
         this.bufferSize = bufferSize;
+        this.zipPool = zipPool;
+    }
+
+    /**
+     * @return the {@link ZipPool} {@link Deflater}s are taken from
+     * 
+     * @since 3.0
+     */
+    public ZipPool getZipPool() {
+        return zipPool;
     }
 
 
@@ -130,7 +152,8 @@ public class GZipEncoder extends AbstractTransformer<Buffer, Buffer> {
         final GZipOutputState state = (GZipOutputState) obtainStateObject(storage);
 
         if (!state.isInitialized) {
-            state.initialize();
+            state.initialize(zipPool, getCompressionLevel(storage),
+                    getCompressionStrategy(storage));
         }
 
         Buffer encodedBuffer = null;
@@ -202,6 +225,39 @@ public class GZipEncoder extends AbstractTransformer<Buffer, Buffer> {
         return resultBuffer;
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release(AttributeStorage storage) {
+        final GZipOutputState state = (GZipOutputState) stateAttr.get(storage);
+        if (state != null && state.isInitialized) {
+            state.reset();
+        }
+        
+        super.release(storage);
+    }
+
+    /**
+     * Returns the {@link Deflater} compression level to be used for the
+     * stream associated with the given storage.
+     * 
+     * @since 3.0
+     */
+    protected int getCompressionLevel(AttributeStorage storage) {
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Returns the {@link Deflater} compression strategy to be used for the
+     * stream associated with the given storage.
+     * 
+     * @since 3.0
+     */
+    protected int getCompressionStrategy(AttributeStorage storage) {
+        return Deflater.DEFAULT_STRATEGY;
+    }
+    
     private Buffer getHeader() {
         final Buffer headerToWrite = header.duplicate();
         headerToWrite.allowBufferDispose(false);
@@ -318,22 +374,27 @@ public class GZipEncoder extends AbstractTransformer<Buffer, Buffer> {
          * Compressor for this stream.
          */
         private Deflater deflater;
+        
+        private ZipPool zipPool;
 
-        private void initialize() {
-            final Deflater newDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private void initialize(final ZipPool zipPool, final int level,
+                final int strategy) {
             final CRC32 newCrc32 = new CRC32();
             newCrc32.reset();
-            deflater = newDeflater;
+            deflater = zipPool.acquireDeflater(level, strategy);
             crc32 = newCrc32;
+            this.zipPool = zipPool;
             isInitialized = true;
         }
         
         private void reset() {
             isInitialized = false;
             isHeaderWritten = false;
-            deflater.end(); // ensure we don't leak memory in native compression library
+            // return the deflater, so we don't leak memory in native compression library
+            zipPool.releaseDeflater(deflater);
             crc32 = null;
             deflater = null;
+            zipPool = null;
         }
     }
 }
@@ -0,0 +1,272 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.compression.zip;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.glassfish.grizzly.monitoring.DefaultMonitoringConfig;
+import org.glassfish.grizzly.monitoring.MonitoringAware;
+import org.glassfish.grizzly.monitoring.MonitoringConfig;
+
+/**
+ * The pool of raw (<tt>nowrap</tt>) {@link Deflater}s and {@link Inflater}s
+ * used by {@link GZipEncoder} and {@link GZipDecoder}.
+ * 
+ * Each thread caches up to <tt>maxPerThread</tt> instances of each kind, so
+ * acquiring and releasing never contend. The released instances are
+ * {@link Deflater#reset()}/{@link Inflater#reset()} and, if the thread cache
+ * is full, {@link Deflater#end()}/{@link Inflater#end()}-ed, so the native
+ * zlib memory is freed eagerly instead of waiting for finalization.
+ * 
+ * @since 3.0
+ */
+public class ZipPool implements MonitoringAware<ZipPoolProbe> {
+    public static final int DEFAULT_MAX_PER_THREAD = Integer.getInteger(
+            ZipPool.class.getName() + ".max-per-thread", 4);
+    
+    private static final ZipPool DEFAULT = new ZipPool(DEFAULT_MAX_PER_THREAD);
+    
+    private final int maxPerThread;
+    
+    private final ThreadLocal<ThreadCache> cache = new ThreadLocal<ThreadCache>() {
+        @Override
+        protected ThreadCache initialValue() {
+            return new ThreadCache(maxPerThread);
+        }
+    };
+    
+    private final LongAdder deflaterHits = new LongAdder();
+    private final LongAdder deflaterMisses = new LongAdder();
+    private final LongAdder inflaterHits = new LongAdder();
+    private final LongAdder inflaterMisses = new LongAdder();
+    
+    protected final DefaultMonitoringConfig<ZipPoolProbe> monitoringConfig =
+            new DefaultMonitoringConfig<>(ZipPoolProbe.class);
+    
+    /**
+     * @return the <tt>ZipPool</tt> shared by the {@link GZipEncoder}s and
+     *  {@link GZipDecoder}s, which were not given a specific pool
+     */
+    public static ZipPool getDefault() {
+        return DEFAULT;
+    }
+    
+    /**
+     * @param maxPerThread the max number of {@link Deflater}s (and
+     *  {@link Inflater}s) cached per thread, <tt>0</tt> disables pooling
+     */
+    public ZipPool(final int maxPerThread) {
+        if (maxPerThread < 0) {
+            throw new IllegalArgumentException("maxPerThread can't be negative");
+        }
+        
+        this.maxPerThread = maxPerThread;
+    }
+
+    /**
+     * Returns a raw {@link Deflater} with the given compression level and strategy.
+     * The {@link Deflater} has to be returned using {@link #releaseDeflater(Deflater)}.
+     */
+    public Deflater acquireDeflater(final int level, final int strategy) {
+        final ThreadCache threadCache = cache.get();
+        final Deflater deflater = threadCache.deflatersCount > 0
+                ? threadCache.deflaters[--threadCache.deflatersCount]
+                : null;
+        
+        if (deflater != null) {
+            threadCache.deflaters[threadCache.deflatersCount] = null;
+            deflaterHits.increment();
+            notifyDeflaterHit();
+            
+            deflater.setLevel(level);
+            deflater.setStrategy(strategy);
+            return deflater;
+        }
+        
+        deflaterMisses.increment();
+        notifyDeflaterMiss();
+        
+        final Deflater newDeflater = new Deflater(level, true);
+        newDeflater.setStrategy(strategy);
+        return newDeflater;
+    }
+
+    /**
+     * Returns the {@link Deflater} to the pool.
+     */
+    public void releaseDeflater(final Deflater deflater) {
+        final ThreadCache threadCache = cache.get();
+        if (threadCache.deflatersCount < maxPerThread) {
+            deflater.reset();
+            threadCache.deflaters[threadCache.deflatersCount++] = deflater;
+        } else {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns a raw {@link Inflater}.
+     * The {@link Inflater} has to be returned using {@link #releaseInflater(Inflater)}.
+     */
+    public Inflater acquireInflater() {
+        final ThreadCache threadCache = cache.get();
+        if (threadCache.inflatersCount > 0) {
+            final Inflater inflater = threadCache.inflaters[--threadCache.inflatersCount];
+            threadCache.inflaters[threadCache.inflatersCount] = null;
+            inflaterHits.increment();
+            notifyInflaterHit();
+            
+            return inflater;
+        }
+        
+        inflaterMisses.increment();
+        notifyInflaterMiss();
+        
+        return new Inflater(true);
+    }
+
+    /**
+     * Returns the {@link Inflater} to the pool.
+     */
+    public void releaseInflater(final Inflater inflater) {
+        final ThreadCache threadCache = cache.get();
+        if (threadCache.inflatersCount < maxPerThread) {
+            inflater.reset();
+            threadCache.inflaters[threadCache.inflatersCount++] = inflater;
+        } else {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the max number of {@link Deflater}s (and {@link Inflater}s)
+     *  cached per thread
+     */
+    public int getMaxPerThread() {
+        return maxPerThread;
+    }
+    
+    /**
+     * @return the number of {@link Deflater}s taken from the pool
+     */
+    public long getDeflaterHits() {
+        return deflaterHits.sum();
+    }
+
+    /**
+     * @return the number of {@link Deflater}s created because the pool was empty
+     */
+    public long getDeflaterMisses() {
+        return deflaterMisses.sum();
+    }
+
+    /**
+     * @return the number of {@link Inflater}s taken from the pool
+     */
+    public long getInflaterHits() {
+        return inflaterHits.sum();
+    }
+
+    /**
+     * @return the number of {@link Inflater}s created because the pool was empty
+     */
+    public long getInflaterMisses() {
+        return inflaterMisses.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MonitoringConfig<ZipPoolProbe> getMonitoringConfig() {
+        return monitoringConfig;
+    }
+    
+    private void notifyDeflaterHit() {
+        final ZipPoolProbe[] probes = monitoringConfig.getProbesUnsafe();
+        if (probes != null) {
+            for (ZipPoolProbe probe : probes) {
+                probe.onDeflaterHitEvent();
+            }
+        }
+    }
+
+    private void notifyDeflaterMiss() {
+        final ZipPoolProbe[] probes = monitoringConfig.getProbesUnsafe();
+        if (probes != null) {
+            for (ZipPoolProbe probe : probes) {
+                probe.onDeflaterMissEvent();
+            }
+        }
+    }
+
+    private void notifyInflaterHit() {
+        final ZipPoolProbe[] probes = monitoringConfig.getProbesUnsafe();
+        if (probes != null) {
+            for (ZipPoolProbe probe : probes) {
+                probe.onInflaterHitEvent();
+            }
+        }
+    }
+
+    private void notifyInflaterMiss() {
+        final ZipPoolProbe[] probes = monitoringConfig.getProbesUnsafe();
+        if (probes != null) {
+            for (ZipPoolProbe probe : probes) {
+                probe.onInflaterMissEvent();
+            }
+        }
+    }
+    
+    private static final class ThreadCache {
+        private final Deflater[] deflaters;
+        private int deflatersCount;
+        
+        private final Inflater[] inflaters;
+        private int inflatersCount;
+
+        private ThreadCache(final int size) {
+            deflaters = new Deflater[size];
+            inflaters = new Inflater[size];
+        }
+    }
+}
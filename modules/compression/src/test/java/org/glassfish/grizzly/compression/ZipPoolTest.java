@@ -0,0 +1,102 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.compression;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.glassfish.grizzly.compression.zip.ZipPool;
+import org.glassfish.grizzly.compression.zip.ZipPoolProbe;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ZipPool} tests.
+ */
+public class ZipPoolTest {
+
+    @Test
+    public void testReuse() throws Exception {
+        final ZipPool pool = new ZipPool(1);
+        final int[] probeHits = new int[1];
+        pool.getMonitoringConfig().addProbes(new ZipPoolProbe.Adapter() {
+            @Override
+            public void onDeflaterHitEvent() {
+                probeHits[0]++;
+            }
+        });
+
+        final byte[] data = new byte[4096];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 7);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            final Deflater deflater = pool.acquireDeflater(
+                    i == 0 ? Deflater.BEST_SPEED : Deflater.BEST_COMPRESSION,
+                    Deflater.DEFAULT_STRATEGY);
+            deflater.setInput(data);
+            deflater.finish();
+            final byte[] compressed = new byte[8192];
+            int compressedLen = 0;
+            while (!deflater.finished()) {
+                compressedLen += deflater.deflate(compressed, compressedLen,
+                        compressed.length - compressedLen);
+            }
+            pool.releaseDeflater(deflater);
+
+            final Inflater inflater = pool.acquireInflater();
+            inflater.setInput(compressed, 0, compressedLen);
+            final byte[] decompressed = new byte[data.length];
+            assertEquals(data.length, inflater.inflate(decompressed));
+            pool.releaseInflater(inflater);
+
+            assertTrue(Arrays.equals(data, decompressed));
+        }
+
+        assertEquals(1, pool.getDeflaterMisses());
+        assertEquals(2, pool.getDeflaterHits());
+        assertEquals(1, pool.getInflaterMisses());
+        assertEquals(2, pool.getInflaterHits());
+        assertEquals(2, probeHits[0]);
+    }
+}
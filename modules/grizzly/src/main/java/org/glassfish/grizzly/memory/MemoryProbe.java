@@ -80,6 +80,30 @@ public interface MemoryProbe {
      */
     public void onPoolRestoredToFullEvent();
 
+    /**
+     * Called by {@link MemoryManager}, when a buffer gets allocated from the
+     * allocating thread's local cache. The event is fired on the allocating
+     * thread, so per-thread hit rates could be collected.
+     * Note: These events are currently only implemented for PooledMemoryManager
+     * probes with thread caching enabled.
+     *
+     * @param size buffer size
+     * @since 3.0
+     */
+    public void onThreadCacheHitEvent(int size);
+
+    /**
+     * Called by {@link MemoryManager}, when the allocating thread's local cache
+     * is empty and has to be refilled from the shared pool. The event is fired
+     * on the allocating thread, so per-thread hit rates could be collected.
+     * Note: These events are currently only implemented for PooledMemoryManager
+     * probes with thread caching enabled.
+     *
+     * @param size buffer size
+     * @since 3.0
+     */
+    public void onThreadCacheMissEvent(int size);
+
 
     // ---------------------------------------------------------- Nested Classes
 
@@ -124,5 +148,17 @@ public interface MemoryProbe {
          */
         public void onPoolRestoredToFullEvent() {}
 
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onThreadCacheHitEvent(int size) {}
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onThreadCacheMissEvent(int size) {}
+
     } // END Adapter
 }
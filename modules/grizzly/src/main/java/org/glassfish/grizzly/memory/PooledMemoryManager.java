@@ -42,9 +42,13 @@ package org.glassfish.grizzly.memory;
 
 import org.glassfish.grizzly.Buffer;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReferenceArray;
@@ -53,6 +57,7 @@ import java.util.concurrent.locks.LockSupport;
 import org.glassfish.grizzly.monitoring.DefaultMonitoringConfig;
 import org.glassfish.grizzly.monitoring.MonitoringConfig;
 import org.glassfish.grizzly.monitoring.MonitoringUtils;
+import org.glassfish.grizzly.threadpool.DefaultWorkerThread;
 
 /**
  * A {@link MemoryManager} implementation based on a series of shared memory pools.
@@ -67,6 +72,7 @@ import org.glassfish.grizzly.monitoring.MonitoringUtils;
  *     <li>The percentage of the heap that this manager will use when populating the pools</li>
  *     <li>The percentage of buffers to be pre-allocated during MemoryManager initialization</li>
  *     <li>The flag indicating whether direct or heap based {@link Buffer}s will be allocated</li>
+ *     <li>The number of buffers every thread may cache per pool</li>
  * </ul>
  *
  * If no explicit configuration is provided, the following defaults will be used:
@@ -78,15 +84,33 @@ import org.glassfish.grizzly.monitoring.MonitoringUtils;
  *     <li>Percentage of heap: 3% ({@link #DEFAULT_HEAP_USAGE_PERCENTAGE})</li>
  *     <li>Percentage of buffers to be pre-allocated: 100% ({@link #DEFAULT_PREALLOCATED_BUFFERS_PERCENTAGE})</li>
  *     <li>Heap based {@link Buffer}s will be allocated</li>
+ *     <li>Thread caching is disabled ({@link #DEFAULT_THREAD_CACHE_SIZE})</li>
  * </ul>
  *
  * The main advantage of this manager over {@link org.glassfish.grizzly.memory.HeapMemoryManager} or
  * {@link org.glassfish.grizzly.memory.ByteBufferManager} is that this implementation doesn't use ThreadLocal pools
  * and as such, doesn't suffer from the memory fragmentation/reallocation cycle that can impact the ThreadLocal versions.
  *
+ * A heap based manager can still hand out direct {@link Buffer}s via {@link #allocateDirect(int)},
+ * for example to stage outbound data, which is then written to the network without an intermediate copy.
+ * The direct pools, backing these allocations, are created on the first request and are populated on demand.
+ *
+ * Allocation requests are striped across the pool slices randomly, unless the requesting thread
+ * belongs to an affinity group (see {@link DefaultWorkerThread#getAffinityGroup()}), in which case
+ * the group's slice is used.
+ *
+ * If thread caching is enabled, every thread keeps a small per pool magazine
+ * of free buffers in front of the shared slices, so most allocations and
+ * releases don't touch the contended slice indexes. An empty magazine is
+ * refilled and a full one is flushed in batches of half its size. The
+ * magazines of terminated threads are returned to the slices lazily,
+ * by the threads missing their caches. Please note, the buffers cached by
+ * threads are not counted by the pool statistics.
+ *
  * @since 2.3.11
  */
-public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware {
+public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware,
+        DirectBufferProvider {
 
     public static final int DEFAULT_BASE_BUFFER_SIZE = 4 * 1024;
     public static final int DEFAULT_NUMBER_OF_POOLS = 3;
@@ -94,6 +118,7 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
     
     public static final float DEFAULT_HEAP_USAGE_PERCENTAGE = 0.03f;
     public static final float DEFAULT_PREALLOCATED_BUFFERS_PERCENTAGE = 1.0f;
+    public static final int DEFAULT_THREAD_CACHE_SIZE = 0;
     
     private static final boolean FORCE_BYTE_BUFFER_BASED_BUFFERS =
             Boolean.getBoolean(PooledMemoryManager.class + ".force-byte-buffer-based-buffers");
@@ -118,9 +143,20 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
     // number of pools with different buffer sizes
     private final Pool[] pools;
 
+    // the direct pools, the same as pools if this manager is direct,
+    // otherwise lazily created by the first allocateDirect() call
+    private volatile Pool[] directPools;
+
     // the max buffer size pooled by this memory manager
     private final int maxPooledBufferSize;
 
+    // the configuration, used to create the direct pools
+    private final int baseBufferSize;
+    private final int growthFactor;
+    private final int numberOfPoolSlices;
+    private final long memoryPerSubPool;
+    private final int threadCacheSize;
+
 
     // ------------------------------------------------------------ Constructors
 
@@ -181,6 +217,39 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
             final float percentOfHeap,
             final float percentPreallocated,
             final boolean isDirect) {
+        this(baseBufferSize,
+                numberOfPools,
+                growthFactor,
+                numberOfPoolSlices,
+                percentOfHeap,
+                percentPreallocated,
+                isDirect,
+                DEFAULT_THREAD_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a new <code>PooledMemoryManager</code> using the specified parameters for configuration.
+     *
+     * @param baseBufferSize the base size of the buffer for the 1st pool, every next pool n will have buffer size equal to bufferSize(n-1) * 2^growthFactor
+     * @param numberOfPools the number of pools, responsible for allocation of buffers of a pool-specific size
+     * @param growthFactor the buffer size growth factor, that defines 2^x multiplier, used to calculate buffer size for next allocated pool
+     * @param numberOfPoolSlices the number of pool slices that every pool will stripe allocation requests across
+     * @param percentOfHeap percentage of the heap that will be used when populating the pools
+     * @param percentPreallocated percentage of buffers to be pre-allocated during MemoryManager initialization
+     * @param isDirect flag, indicating whether direct or heap based {@link Buffer}s will be allocated
+     * @param threadCacheSize the number of buffers every thread may cache per pool, <tt>0</tt> disables thread caching
+     *
+     * @since 3.0
+     */
+    public PooledMemoryManager(
+            final int baseBufferSize,
+            final int numberOfPools,
+            final int growthFactor,
+            final int numberOfPoolSlices,
+            final float percentOfHeap,
+            final float percentPreallocated,
+            final boolean isDirect,
+            final int threadCacheSize) {
         if (baseBufferSize <= 0) {
             throw new IllegalArgumentException("baseBufferSize must be greater than zero");
         }
@@ -209,16 +278,24 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
             throw new IllegalArgumentException("percentPreallocated must be greater or equal to zero and less or equal to 1");
         }
 
+        if (threadCacheSize < 0) {
+            throw new IllegalArgumentException("threadCacheSize must be greater or equal to zero");
+        }
+
         final long heapSize = Runtime.getRuntime().maxMemory();
-        final long memoryPerSubPool = (long) (heapSize * percentOfHeap / numberOfPools);
 
-        pools = new Pool[numberOfPools];
-        for (int i = 0, bufferSize = baseBufferSize; i < numberOfPools; i++, bufferSize <<= growthFactor) {
-            pools[i] = new Pool(bufferSize, memoryPerSubPool,
-                    numberOfPoolSlices, percentPreallocated, isDirect,
-                    monitoringConfig);
-        }
+        this.baseBufferSize = baseBufferSize;
+        this.growthFactor = growthFactor;
+        this.numberOfPoolSlices = numberOfPoolSlices;
+        this.memoryPerSubPool = (long) (heapSize * percentOfHeap / numberOfPools);
+        this.threadCacheSize = threadCacheSize;
+
+        pools = createPools(numberOfPools, percentPreallocated, isDirect);
         maxPooledBufferSize = pools[numberOfPools - 1].bufferSize;
+        
+        if (isDirect) {
+            directPools = pools;
+        }
     }
 
     
@@ -257,9 +334,7 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
             return Buffers.EMPTY_BUFFER;
         }
         
-        return size <= maxPooledBufferSize ?
-                getPoolFor(size).allocate() :
-                allocateToCompositeBuffer(newCompositeBuffer(), size);
+        return allocateAtLeast(pools, size);
     }
 
     /**
@@ -278,12 +353,15 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
         }
         
         final int curBufSize = oldBuffer.capacity();
+        final Pool[] pools = oldBuffer.isDirect() && directPools != null
+                ? directPools
+                : this.pools;
         
         if (oldBuffer instanceof PoolBuffer) {
             if (curBufSize >= newSize) {
                 final PoolBuffer oldPoolBuffer = (PoolBuffer) oldBuffer;
                 
-                final Pool newPool = getPoolFor(newSize);
+                final Pool newPool = getPoolFor(pools, newSize);
                 if (newPool != oldPoolBuffer.owner().owner) {
                     final int pos = Math.min(oldPoolBuffer.position(), newSize);
 
@@ -304,7 +382,7 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
 
                 if (newSize <= maxPooledBufferSize) {
 
-                    final Pool newPool = getPoolFor(newSize);
+                    final Pool newPool = getPoolFor(pools, newSize);
 
                     final Buffer newPoolBuffer = newPool.allocate();
                     newPoolBuffer.put(oldBuffer);
@@ -316,7 +394,7 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
                 } else {
                     final CompositeBuffer cb = newCompositeBuffer();
                     cb.append(oldBuffer);
-                    allocateToCompositeBuffer(cb, newSize - curBufSize);
+                    allocateToCompositeBuffer(pools, cb, newSize - curBufSize);
                     Buffers.setPositionLimit(cb, pos, newSize);
                     return cb;
                 }
@@ -332,7 +410,7 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
                 
                 return oldCompositeBuffer;
             } else {
-                return allocateToCompositeBuffer(oldCompositeBuffer,
+                return allocateToCompositeBuffer(pools, oldCompositeBuffer,
                         newSize - curBufSize);
             }
         }
@@ -363,6 +441,26 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
     }
 
 
+    // --------------------------------------- Methods from DirectBufferProvider
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer allocateDirect(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Requested allocation size must be greater than or equal to zero.");
+        }
+        
+        if (size == 0) {
+            return Buffers.EMPTY_BUFFER;
+        }
+        
+        return allocateAtLeast(getDirectPools(), size).limit(size);
+    }
+
+
     // ----------------------------------------------- Methods from WrapperAware
 
 
@@ -392,6 +490,17 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
     }
 
 
+    /**
+     * @return the number of buffers every thread may cache per pool,
+     *  <tt>0</tt> means thread caching is disabled
+     *
+     * @since 3.0
+     */
+    public int getThreadCacheSize() {
+        return threadCacheSize;
+    }
+
+
     // ------------------------------------------------------- Protected Methods
 
 
@@ -410,7 +519,41 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
     // --------------------------------------------------------- Private Methods
 
 
-    private Pool getPoolFor(final int size) {
+    private Pool[] createPools(final int numberOfPools,
+            final float percentPreallocated, final boolean isDirect) {
+        final Pool[] newPools = new Pool[numberOfPools];
+        for (int i = 0, bufferSize = baseBufferSize; i < numberOfPools; i++, bufferSize <<= growthFactor) {
+            newPools[i] = new Pool(bufferSize, memoryPerSubPool,
+                    numberOfPoolSlices, percentPreallocated, isDirect,
+                    threadCacheSize, monitoringConfig);
+        }
+        
+        return newPools;
+    }
+
+    private Pool[] getDirectPools() {
+        Pool[] localPools = directPools;
+        if (localPools == null) {
+            synchronized (this) {
+                localPools = directPools;
+                if (localPools == null) {
+                    // the direct pools are populated on demand
+                    localPools = createPools(pools.length, 0, true);
+                    directPools = localPools;
+                }
+            }
+        }
+        
+        return localPools;
+    }
+
+    private Buffer allocateAtLeast(final Pool[] pools, final int size) {
+        return size <= maxPooledBufferSize ?
+                getPoolFor(pools, size).allocate() :
+                allocateToCompositeBuffer(pools, newCompositeBuffer(), size);
+    }
+
+    private static Pool getPoolFor(final Pool[] pools, final int size) {
         for (int i = 0; i < pools.length; i++) {
             final Pool pool = pools[i];
             if (pool.bufferSize >= size) {
@@ -422,7 +565,7 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
                 "There is no pool big enough to allocate " + size + " bytes");
     }
 
-    private CompositeBuffer allocateToCompositeBuffer(
+    private CompositeBuffer allocateToCompositeBuffer(final Pool[] pools,
             final CompositeBuffer cb, int size) {
 
         assert size >= 0;
@@ -486,12 +629,22 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
     static final class Pool {
         private final PoolSlice[] slices;
         private final int bufferSize;
+        private final DefaultMonitoringConfig<MemoryProbe> monitoringConfig;
+        
+        // the per-thread magazines, null if thread caching is disabled
+        private final ThreadLocal<Magazine> magazines;
+        private final int magazineSize;
+        // the references to the magazine owners, which let us find
+        // the magazines of the terminated threads
+        private final Set<MagazineRef> magazineRefs;
+        private final ReferenceQueue<Thread> terminatedThreads;
 
         public Pool(final int bufferSize, final long memoryPerSubPool,
                 final int numberOfPoolSlices, final float percentPreallocated,
-                final boolean isDirect,
+                final boolean isDirect, final int threadCacheSize,
                 final DefaultMonitoringConfig<MemoryProbe> monitoringConfig) {
             this.bufferSize = bufferSize;
+            this.monitoringConfig = monitoringConfig;
             slices = new PoolSlice[numberOfPoolSlices];
             final long memoryPerSlice = memoryPerSubPool / numberOfPoolSlices;
             
@@ -499,6 +652,25 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
                 slices[i] = new PoolSlice(this, memoryPerSlice, bufferSize,
                         percentPreallocated, isDirect, monitoringConfig);
             }
+            
+            magazineSize = threadCacheSize;
+            if (threadCacheSize > 0) {
+                magazineRefs = ConcurrentHashMap.newKeySet();
+                terminatedThreads = new ReferenceQueue<>();
+                magazines = new ThreadLocal<Magazine>() {
+                    @Override
+                    protected Magazine initialValue() {
+                        final Magazine magazine = new Magazine(magazineSize);
+                        magazineRefs.add(new MagazineRef(
+                                Thread.currentThread(), magazine, terminatedThreads));
+                        return magazine;
+                    }
+                };
+            } else {
+                magazineRefs = null;
+                terminatedThreads = null;
+                magazines = null;
+            }
         }
 
         public int elementsCount() {
@@ -523,6 +695,10 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
         }
         
         public Buffer allocate() {
+            if (magazines != null) {
+                return allocateCached().prepare();
+            }
+            
             final PoolSlice slice = getSlice();
             PoolBuffer b = slice.poll();
             if (b == null) {
@@ -531,6 +707,25 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
             
             return b.prepare();
         }
+        
+        /**
+         * Returns the released {@link PoolBuffer} to the current thread's
+         * magazine or, if thread caching is disabled, to its slice.
+         */
+        void release(final PoolBuffer b) {
+            if (magazines == null) {
+                b.owner().offer(b);
+                return;
+            }
+            
+            final Magazine magazine = magazines.get();
+            if (magazine.count == magazineSize) {
+                magazine.flush(batchSize());
+            }
+            
+            magazine.buffers[magazine.count++] = b;
+            ProbeNotifier.notifyBufferReleasedToPool(monitoringConfig, bufferSize);
+        }
 
         @Override
         public String toString() {
@@ -552,12 +747,110 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
             return sb.toString();
         }
         
+        private PoolBuffer allocateCached() {
+            final Magazine magazine = magazines.get();
+            if (magazine.count > 0) {
+                ProbeNotifier.notifyThreadCacheHit(monitoringConfig, bufferSize);
+            } else {
+                ProbeNotifier.notifyThreadCacheMiss(monitoringConfig, bufferSize);
+                reclaimTerminatedThreadsMagazines();
+                
+                final PoolSlice slice = getSlice();
+                if (!magazine.refill(slice, batchSize())) {
+                    return slice.allocate();
+                }
+            }
+            
+            ProbeNotifier.notifyBufferAllocatedFromPool(monitoringConfig, bufferSize);
+            final PoolBuffer b = magazine.buffers[--magazine.count];
+            magazine.buffers[magazine.count] = null;
+            return b;
+        }
+        
+        private int batchSize() {
+            return Math.max(1, magazineSize >> 1);
+        }
+        
+        void reclaimTerminatedThreadsMagazines() {
+            MagazineRef ref;
+            while ((ref = (MagazineRef) terminatedThreads.poll()) != null) {
+                magazineRefs.remove(ref);
+                ref.magazine.flush(ref.magazine.count);
+            }
+        }
+        
         @SuppressWarnings("unchecked")
         private PoolSlice getSlice() {
+            // threads of the same affinity group share a slice,
+            // so the buffers stay within the group
+            final Thread currentThread = Thread.currentThread();
+            if (currentThread instanceof DefaultWorkerThread) {
+                final int group =
+                        ((DefaultWorkerThread) currentThread).getAffinityGroup();
+                if (group >= 0) {
+                    return slices[group % slices.length];
+                }
+            }
+            
             return slices[ThreadLocalRandom.current().nextInt(slices.length)];
         }
     }
 
+    /**
+     * The per-thread stack of free {@link PoolBuffer}s of a {@link Pool}.
+     */
+    private static final class Magazine {
+        private final PoolBuffer[] buffers;
+        private int count;
+
+        private Magazine(final int size) {
+            buffers = new PoolBuffer[size];
+        }
+        
+        /**
+         * Moves up to <tt>n</tt> buffers from the slice to the magazine.
+         * 
+         * @return <tt>false</tt> if the slice is empty
+         */
+        private boolean refill(final PoolSlice slice, final int n) {
+            for (int i = 0; i < n; i++) {
+                final PoolBuffer b = slice.poll(false);
+                if (b == null) {
+                    break;
+                }
+                
+                buffers[count++] = b;
+            }
+            
+            return count > 0;
+        }
+
+        /**
+         * Returns the <tt>n</tt> least recently released buffers to their slices.
+         */
+        private void flush(final int n) {
+            for (int i = 0; i < n; i++) {
+                final PoolBuffer b = buffers[i];
+                // if the slice is full - let GC take care of the buffer
+                b.owner().offer(b, false);
+            }
+            
+            System.arraycopy(buffers, n, buffers, 0, count - n);
+            Arrays.fill(buffers, count - n, count, null);
+            count -= n;
+        }
+    }
+    
+    private static final class MagazineRef extends WeakReference<Thread> {
+        private final Magazine magazine;
+
+        private MagazineRef(final Thread thread, final Magazine magazine,
+                final ReferenceQueue<Thread> queue) {
+            super(thread, queue);
+            this.magazine = magazine;
+        }
+    }
+
     /*
      *   This array backed by this pool can only support
      *   2^30-1 elements instead of the usual 2^32-1.
@@ -663,6 +956,14 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
 
 
         public final PoolBuffer poll() {
+            return poll(true);
+        }
+        
+        /**
+         * @param notify <tt>false</tt> if the {@link MemoryProbe}s shouldn't
+         *  be notified, because the buffer goes to a thread cache
+         */
+        final PoolBuffer poll(final boolean notify) {
             int pollIdx;
             for (;;) {
                 pollIdx = this.pollIdx.get();
@@ -687,6 +988,10 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
                 // unmask the current read value to the actual array index.
                 final PoolBuffer pb = pool.getAndSet(unmaskedPollIdx, null);
                 if (pb != null) {
+                    if (!notify) {
+                        return pb;
+                    }
+                    
                     ProbeNotifier.notifyBufferAllocatedFromPool(monitoringConfig,
                                                                 bufferSize);
                     pollIdx = this.pollIdx.get();
@@ -703,6 +1008,14 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
         }
 
         public final boolean offer(final PoolBuffer b) {
+            return offer(b, true);
+        }
+        
+        /**
+         * @param notify <tt>false</tt> if the {@link MemoryProbe}s shouldn't
+         *  be notified, because the buffer comes from a thread cache
+         */
+        final boolean offer(final PoolBuffer b, final boolean notify) {
             int offerIdx;
             for (;;) {
                 offerIdx = this.offerIdx.get();
@@ -725,6 +1038,10 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
             for (;;) {
                 // unmask the current write value to the actual array index.
                 if (pool.compareAndSet(unmaskedOfferIdx, null, b)) {
+                    if (!notify) {
+                        return true;
+                    }
+                    
                     ProbeNotifier.notifyBufferReleasedToPool(monitoringConfig,
                                                              bufferSize);
                     final int pollIdx = this.pollIdx.get();
@@ -1087,7 +1404,7 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
             // clear
             clear();
             
-            owner.offer(this);
+            owner.owner.release(this);
         }
         
         // ----------------------------------------------------- Protected Methods
@@ -1303,7 +1620,7 @@ public class PooledMemoryManager implements MemoryManager<Buffer>, WrapperAware
             // should be called on "source" only
             visible = origVisible;
             visible.clear();
-            owner.offer(this);
+            owner.owner.release(this);
         }
     } // END PoolBuffer    
 }
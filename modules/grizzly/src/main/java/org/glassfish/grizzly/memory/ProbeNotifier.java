@@ -133,4 +133,37 @@ final class ProbeNotifier {
         }
     }
 
+    /**
+     * Notify registered {@link MemoryProbe}s about the "thread cache hit" event.
+     *
+     * @param size buffer size
+     */
+    static void notifyThreadCacheHit(
+            final DefaultMonitoringConfig<MemoryProbe> config,
+            final int size) {
+
+        final MemoryProbe[] probes = config.getProbesUnsafe();
+        if (probes != null) {
+            for (MemoryProbe probe : probes) {
+                probe.onThreadCacheHitEvent(size);
+            }
+        }
+    }
+
+    /**
+     * Notify registered {@link MemoryProbe}s about the "thread cache miss" event.
+     *
+     * @param size buffer size
+     */
+    static void notifyThreadCacheMiss(
+            final DefaultMonitoringConfig<MemoryProbe> config,
+            final int size) {
+
+        final MemoryProbe[] probes = config.getProbesUnsafe();
+        if (probes != null) {
+            for (MemoryProbe probe : probes) {
+                probe.onThreadCacheMissEvent(size);
+            }
+        }
+    }
 }
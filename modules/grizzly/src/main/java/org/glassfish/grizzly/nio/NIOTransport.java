@@ -99,6 +99,7 @@ public abstract class NIOTransport extends AbstractTransport
             SocketConnectorHandler.DEFAULT_CONNECTION_TIMEOUT;
     public static final int DEFAULT_SELECTOR_RUNNER_COUNT = -1;
     public static final boolean DEFAULT_OPTIMIZED_FOR_MULTIPLEXING = false;
+    public static final boolean DEFAULT_SELECTOR_RUNNER_AFFINITY = false;
 
     private static final Logger LOGGER = Grizzly.logger(NIOTransport.class);
 
@@ -132,6 +133,12 @@ public abstract class NIOTransport extends AbstractTransport
     
     protected NIOChannelDistributor nioChannelDistributor;
 
+    /**
+     * If <tt>true</tt> - every {@link SelectorRunner} owns a dedicated slice
+     * of the worker thread pool.
+     */
+    protected boolean selectorRunnerAffinity = DEFAULT_SELECTOR_RUNNER_AFFINITY;
+
     protected SelectorProvider selectorProvider = SelectorProvider.provider();
 
     protected final TemporarySelectorIO temporarySelectorIO;
@@ -348,6 +355,46 @@ public abstract class NIOTransport extends AbstractTransport
         getAsyncQueueWriter().setAllowDirectWrite(!isOptimizedForMultiplexing);
     }
 
+    /**
+     * Returns <tt>true</tt>, if every {@link SelectorRunner} owns a dedicated
+     * slice of the worker thread pool, or <tt>false</tt> if all the
+     * {@link SelectorRunner}s share the transport worker thread pool.
+     *
+     * @since 3.0
+     */
+    public boolean isSelectorRunnerAffinity() {
+        return selectorRunnerAffinity;
+    }
+
+    /**
+     * Configures the transport to give every {@link SelectorRunner} its own
+     * slice of the worker thread pool (affinity mode).
+     * A connection's IO events are then processed by the worker threads of
+     * the {@link SelectorRunner} the connection is registered with, so the
+     * connection's read, processing and write stay on the same group of
+     * threads. The threads of each group (including the selector thread) are
+     * assigned to the same {@link ThreadPoolConfig#setAffinityGroup(int) affinity group},
+     * which the {@link org.glassfish.grizzly.memory.PooledMemoryManager}
+     * uses to serve the whole group from the same pool slice.
+     *
+     * The worker thread pool slices are created from the worker
+     * {@link ThreadPoolConfig}, with the core and max pool sizes divided
+     * between the {@link SelectorRunner}s. The transport worker thread pool
+     * is then created with a single thread for the tasks, which are not bound
+     * to any connection. The mode has no effect if a custom worker thread
+     * pool is set using {@link #setWorkerThreadPool(java.util.concurrent.ExecutorService)}.
+     *
+     * The value is applied on transport start.
+     *
+     * @param selectorRunnerAffinity <tt>true</tt> to enable the affinity mode
+     *
+     * @since 3.0
+     */
+    public void setSelectorRunnerAffinity(final boolean selectorRunnerAffinity) {
+        this.selectorRunnerAffinity = selectorRunnerAffinity;
+        notifyProbesConfigChanged(this);
+    }
+
     /**
      * @see AsyncQueueWriter#getMaxPendingBytesPerConnection()
      * 
@@ -478,7 +525,9 @@ public abstract class NIOTransport extends AbstractTransport
                     }
                     workerPoolConfig.setMemoryManager(memoryManager);
                     setWorkerThreadPool0(GrizzlyExecutorService.createInstance(
-                            workerPoolConfig));
+                            selectorRunnerAffinity
+                                    ? createSharedWorkerPoolConfig()
+                                    : workerPoolConfig));
                 }
             }
 
@@ -490,9 +539,13 @@ public abstract class NIOTransport extends AbstractTransport
                 if (strategy instanceof SameThreadIOStrategy) {
                     selectorPoolSize = selectorRunnersCnt;
                 } else {
-                    selectorPoolSize = Math.min(
-                            ((AbstractThreadPool) workerThreadPool).getConfig()
-                                    .getMaxPoolSize(),
+                    // in affinity mode the worker threads are spread
+                    // over the SelectorRunners' pool slices
+                    final ThreadPoolConfig config = selectorRunnerAffinity
+                            && managedWorkerPool && workerPoolConfig != null
+                            ? workerPoolConfig
+                            : ((AbstractThreadPool) workerThreadPool).getConfig();
+                    selectorPoolSize = Math.min(config.getMaxPoolSize(),
                             selectorPoolSize);
                 }
             }
@@ -683,12 +736,60 @@ public abstract class NIOTransport extends AbstractTransport
     protected synchronized void startSelectorRunners() throws IOException {
         selectorRunners = new SelectorRunner[selectorRunnersCount];
         
+        final boolean isAffinity = selectorRunnerAffinity;
+        
         for (int i = 0; i < selectorRunnersCount; i++) {
             final SelectorRunner runner = SelectorRunner.create(this);
+            if (isAffinity) {
+                runner.setAffinityGroup(i);
+                if (managedWorkerPool && workerPoolConfig != null) {
+                    runner.setWorkerThreadPool(createAffinityWorkerThreadPool(i));
+                }
+            }
+            
             runner.start();
             selectorRunners[i] = runner;
         }
     }
+
+    /**
+     * Creates the worker thread pool slice, dedicated to the
+     * {@link SelectorRunner} with the given index.
+     */
+    protected ExecutorService createAffinityWorkerThreadPool(final int index) {
+        final int runnersCount = selectorRunnersCount;
+        final ThreadPoolConfig config = workerPoolConfig.copy();
+        
+        config.setPoolName(config.getPoolName() + '-' + index)
+                .setCorePoolSize(
+                    slicePoolSize(config.getCorePoolSize(), runnersCount))
+                .setMaxPoolSize(
+                    slicePoolSize(config.getMaxPoolSize(), runnersCount))
+                .setQueue(null) // the queue can't be shared
+                .setAffinityGroup(index)
+                .setMemoryManager(memoryManager);
+        
+        return GrizzlyExecutorService.createInstance(config);
+    }
+    
+    /**
+     * Creates the transport worker thread pool config for the affinity mode.
+     * The {@link SelectorRunner}s' worker thread pool slices already take
+     * the configured pool size, so the transport worker thread pool keeps
+     * a single thread for the tasks, which are not bound to any connection.
+     */
+    protected ThreadPoolConfig createSharedWorkerPoolConfig() {
+        final ThreadPoolConfig config = workerPoolConfig.copy();
+        
+        return config.setCorePoolSize(Math.min(config.getCorePoolSize(), 1))
+                .setMaxPoolSize(1);
+    }
+    
+    private static int slicePoolSize(final int size, final int runnersCount) {
+        return size <= 0
+                ? size
+                : Math.max(1, (size + runnersCount - 1) / runnersCount);
+    }
     
     protected synchronized void stopSelectorRunners() {
         if (selectorRunners == null) {
@@ -699,6 +800,14 @@ public abstract class NIOTransport extends AbstractTransport
             final SelectorRunner runner = selectorRunners[i];
             if (runner != null) {
                 runner.stop();
+                
+                final ExecutorService runnerWorkerPool =
+                        runner.getWorkerThreadPool();
+                if (runnerWorkerPool != null) {
+                    runnerWorkerPool.shutdown();
+                    runner.setWorkerThreadPool(null);
+                }
+                
                 selectorRunners[i] = null;
             }
         }
@@ -87,6 +87,7 @@ public abstract class NIOTransportBuilder<T extends NIOTransportBuilder> {
     protected boolean reuseAddress = NIOTransport.DEFAULT_REUSE_ADDRESS;
     protected int maxPendingBytesPerConnection = AsyncQueueWriter.AUTO_SIZE;
     protected boolean optimizedForMultiplexing = NIOTransport.DEFAULT_OPTIMIZED_FOR_MULTIPLEXING;
+    protected boolean selectorRunnerAffinity = NIOTransport.DEFAULT_SELECTOR_RUNNER_AFFINITY;
 
     protected long blockingReadTimeout = TimeUnit.MILLISECONDS.convert(Transport.DEFAULT_READ_TIMEOUT, TimeUnit.SECONDS);
     protected long blockingWriteTimeout = TimeUnit.MILLISECONDS.convert(Transport.DEFAULT_WRITE_TIMEOUT, TimeUnit.SECONDS);
@@ -256,6 +257,18 @@ public abstract class NIOTransportBuilder<T extends NIOTransportBuilder> {
         return getThis();
     }
 
+    /**
+     * @see NIOTransport#setSelectorRunnerAffinity(boolean)
+     *
+     * @return this <code>NIOTransportBuilder</code>
+     *
+     * @since 3.0
+     */
+    public T selectorRunnerAffinity(final boolean selectorRunnerAffinity) {
+        this.selectorRunnerAffinity = selectorRunnerAffinity;
+        return getThis();
+    }
+
     /**
      * @return this <code>NIOTransportBuilder</code>
      * @see NIOTransport#setClientSocketSoTimeout(int)
@@ -345,6 +358,7 @@ public abstract class NIOTransportBuilder<T extends NIOTransportBuilder> {
         transport.setWriteBufferSize(writeBufferSize);
         transport.setReuseAddress(reuseAddress);
         transport.setOptimizedForMultiplexing(optimizedForMultiplexing);
+        transport.setSelectorRunnerAffinity(selectorRunnerAffinity);
         transport.getAsyncQueueWriter()
                     .setMaxPendingBytesPerConnection(maxPendingBytesPerConnection);
         return transport;
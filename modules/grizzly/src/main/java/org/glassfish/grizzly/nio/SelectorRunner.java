@@ -54,6 +54,7 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -65,6 +66,7 @@ import org.glassfish.grizzly.Grizzly;
 import org.glassfish.grizzly.Transport.State;
 import org.glassfish.grizzly.impl.FutureImpl;
 import org.glassfish.grizzly.localization.LogMessages;
+import org.glassfish.grizzly.threadpool.DefaultWorkerThread;
 import org.glassfish.grizzly.threadpool.Threads;
 import org.glassfish.grizzly.utils.Futures;
 import org.glassfish.grizzly.utils.StateHolder;
@@ -104,6 +106,10 @@ public final class SelectorRunner implements Runnable {
     private final AtomicBoolean selectorWakeupFlag = new AtomicBoolean();
     private final AtomicInteger runnerThreadActivityCounter = new AtomicInteger();
 
+    // affinity mode settings, see NIOTransport.setSelectorRunnerAffinity(boolean)
+    private int affinityGroup = -1;
+    private volatile ExecutorService workerThreadPool;
+
     public static SelectorRunner create(final NIOTransport transport)
             throws IOException {
         return new SelectorRunner(transport,
@@ -182,6 +188,37 @@ public final class SelectorRunner implements Runnable {
     public State getState() {
         return stateHolder.get();
     }
+
+    /**
+     * Returns the worker thread pool dedicated to this {@link SelectorRunner},
+     * or <tt>null</tt> if the {@link SelectorRunner} shares the transport
+     * worker thread pool.
+     *
+     * @see NIOTransport#setSelectorRunnerAffinity(boolean)
+     * @since 3.0
+     */
+    public ExecutorService getWorkerThreadPool() {
+        return workerThreadPool;
+    }
+
+    void setWorkerThreadPool(final ExecutorService workerThreadPool) {
+        this.workerThreadPool = workerThreadPool;
+    }
+
+    /**
+     * Returns the affinity group of this {@link SelectorRunner} threads,
+     * or <tt>-1</tt> if the affinity mode is off.
+     *
+     * @see NIOTransport#setSelectorRunnerAffinity(boolean)
+     * @since 3.0
+     */
+    public int getAffinityGroup() {
+        return affinityGroup;
+    }
+
+    void setAffinityGroup(final int affinityGroup) {
+        this.affinityGroup = affinityGroup;
+    }
     
     public void postpone() {
         assert selectorRunnerThread != null;
@@ -268,6 +305,10 @@ public final class SelectorRunner implements Runnable {
 
             setRunnerThread(currentThread);
             Threads.setService(true);
+            
+            if (affinityGroup >= 0 && currentThread instanceof DefaultWorkerThread) {
+                ((DefaultWorkerThread) currentThread).setAffinityGroup(affinityGroup);
+            }
 
             final StateHolder<State> transportStateHolder = transport.getState();
 
@@ -302,6 +343,11 @@ public final class SelectorRunner implements Runnable {
 
             removeThreadNameMarker(currentThread);
             Threads.setService(false);
+            
+            if (affinityGroup >= 0 && currentThread instanceof DefaultWorkerThread) {
+                // the kernel thread may be reused, when the affinity mode is off
+                ((DefaultWorkerThread) currentThread).setAffinityGroup(-1);
+            }
         }
     }
 
@@ -245,11 +245,17 @@ public final class TCPNIOAsyncQueueWriter extends AbstractNIOAsyncQueueWriter {
     private RecordWriteResult update(final CompositeQueueRecord queueRecord,
             final int written) {
         
+        final TCPNIOTransport tcpTransport =
+                (TCPNIOTransport) queueRecord.getConnection().getTransport();
+        int writtenToAttribute = written;
+        
         // Restore buffer state
         for (int i = 0; i < queueRecord.savedBufferStates.size(); i++) {
             final BufferArray savedState = queueRecord.savedBufferStates.get(i);
             if (savedState != null) {
                 savedState.restore();
+                writtenToAttribute = TCPNIOUtils.updateWriteStats(
+                        tcpTransport, savedState, writtenToAttribute);
                 savedState.recycle();
             }
         }
@@ -54,6 +54,7 @@ import java.nio.channels.SocketChannel;
 import java.util.Collection;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -151,6 +152,16 @@ public class TCPNIOTransport extends NIOTransport {
 
     int linger = DEFAULT_LINGER;
 
+    /**
+     * The number of bytes written straight from direct {@link Buffer}s.
+     */
+    final LongAdder zeroCopyWrittenBytes = new LongAdder();
+    /**
+     * The number of bytes written from heap {@link Buffer}s, which had to be
+     * copied to a direct buffer first.
+     */
+    final LongAdder copiedWrittenBytes = new LongAdder();
+
     public TCPNIOTransport() {
         this(DEFAULT_TRANSPORT_NAME);
     }
@@ -587,6 +598,29 @@ public class TCPNIOTransport extends NIOTransport {
         this.serverConnectionBackLog = serverConnectionBackLog;
     }
 
+    /**
+     * Returns the number of bytes this transport has written to the network
+     * straight from direct {@link Buffer}s, without an intermediate copy.
+     *
+     * @return the number of bytes written without copying.
+     * @since 3.0
+     */
+    public long getZeroCopyWrittenBytes() {
+        return zeroCopyWrittenBytes.sum();
+    }
+
+    /**
+     * Returns the number of bytes this transport has written to the network
+     * from heap {@link Buffer}s, which had to be copied to a direct buffer
+     * before the write.
+     *
+     * @return the number of bytes copied before being written.
+     * @since 3.0
+     */
+    public long getCopiedWrittenBytes() {
+        return copiedWrittenBytes.sum();
+    }
+
     @Override
     public Filter getTransportFilter() {
         return defaultTransportFilter;
@@ -96,6 +96,7 @@ public class TCPNIOUtils {
             ioRecord.release();
             
             bufferArray.restore();
+            updateWriteStats(((TCPNIOTransport) connection.getTransport()), bufferArray, written);
             bufferArray.recycle();
         }
         
@@ -120,6 +121,10 @@ public class TCPNIOUtils {
             } finally {
                 directByteBuffer.position(pos);
             }
+            
+            if (written > 0) {
+                ((TCPNIOTransport) connection.getTransport()).zeroCopyWrittenBytes.add(written);
+            }
         } else {
             final int bufferSize = calcWriteBufferSize(connection, buffer.remaining());
             buffer.limit(oldPos + bufferSize);
@@ -134,6 +139,10 @@ public class TCPNIOUtils {
             } finally {
                 ioRecord.release();
             }
+            
+            if (written > 0) {
+                ((TCPNIOTransport) connection.getTransport()).copiedWrittenBytes.add(written);
+            }
         }
 
         Buffers.setPositionLimit(buffer, oldPos + written, oldLim);
@@ -208,6 +217,51 @@ public class TCPNIOUtils {
 
     }
 
+    /**
+     * Attributes the first <tt>written</tt> bytes of the {@link BufferArray}
+     * either to the direct {@link Buffer}s, which were passed to the channel
+     * as they are, or to the heap ones, whose content was copied by
+     * {@link #fill(BufferArray, int, DirectByteBufferRecord)}.
+     * The {@link BufferArray} state has to be restored before the call.
+     *
+     * @return the number of written bytes, which are beyond this
+     *          {@link BufferArray}
+     */
+    static int updateWriteStats(final TCPNIOTransport transport,
+            final BufferArray bufferArray, final int written) {
+        if (written <= 0) {
+            return 0;
+        }
+        
+        final Buffer buffers[] = bufferArray.getArray();
+        final int size = bufferArray.size();
+
+        int remaining = written;
+        int zeroCopied = 0;
+        int copied = 0;
+        
+        for (int i = 0; i < size && remaining > 0; i++) {
+            final Buffer buffer = buffers[i];
+            final int len = Math.min(buffer.remaining(), remaining);
+            if (buffer.isDirect()) {
+                zeroCopied += len;
+            } else {
+                copied += len;
+            }
+            
+            remaining -= len;
+        }
+        
+        if (zeroCopied > 0) {
+            transport.zeroCopyWrittenBytes.add(zeroCopied);
+        }
+        if (copied > 0) {
+            transport.copiedWrittenBytes.add(copied);
+        }
+        
+        return remaining;
+    }
+
     private static int calcWriteBufferSize(final TCPNIOConnection connection,
             final int bufferSize) {
         return Math.min(TCPNIOTransport.MAX_SEND_BUFFER_SIZE,
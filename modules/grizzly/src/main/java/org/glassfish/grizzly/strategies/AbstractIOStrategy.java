@@ -46,6 +46,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.glassfish.grizzly.*;
 import org.glassfish.grizzly.localization.LogMessages;
+import org.glassfish.grizzly.nio.NIOConnection;
+import org.glassfish.grizzly.nio.SelectorRunner;
 import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 
 /**
@@ -82,6 +84,17 @@ public abstract class AbstractIOStrategy implements IOStrategy {
     // ------------------------------------------------------- Protected Methods
 
     protected static Executor getWorkerThreadPool(final Connection c) {
+        if (c instanceof NIOConnection) {
+            // in affinity mode the SelectorRunner owns a worker pool slice
+            final SelectorRunner runner = ((NIOConnection) c).getSelectorRunner();
+            if (runner != null) {
+                final Executor runnerWorkerPool = runner.getWorkerThreadPool();
+                if (runnerWorkerPool != null) {
+                    return runnerWorkerPool;
+                }
+            }
+        }
+        
         return c.getTransport().getWorkerThreadPool();
     }
 
@@ -543,6 +543,7 @@ public abstract class AbstractThreadPool extends AbstractExecutorService
                 thread.setUncaughtExceptionHandler(AbstractThreadPool.this);
                 thread.setPriority(config.getPriority());
                 thread.setDaemon(config.isDaemon());
+                thread.setAffinityGroup(config.getAffinityGroup());
                 final ClassLoader initial = config.getInitialClassLoader();
                 if (initial != null) {
                     thread.setContextClassLoader(initial);
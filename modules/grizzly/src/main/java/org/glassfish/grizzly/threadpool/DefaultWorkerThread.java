@@ -63,6 +63,8 @@ public class DefaultWorkerThread extends Thread implements WorkerThread {
     private long transactionTimeoutMillis =
             WorkerThread.UNLIMITED_TRANSACTION_TIMEOUT;
 
+    private int affinityGroup = -1;
+
     public DefaultWorkerThread(AttributeBuilder attrBuilder,
                                String name,
                                ThreadLocalPool pool,
@@ -87,6 +89,29 @@ public class DefaultWorkerThread extends Thread implements WorkerThread {
         return memoryPool;
     }
 
+    /**
+     * @return the affinity group this thread is assigned to, or <tt>-1</tt>
+     *  if the thread doesn't belong to any group.
+     *
+     * @see ThreadPoolConfig#setAffinityGroup(int)
+     * @since 3.0
+     */
+    public int getAffinityGroup() {
+        return affinityGroup;
+    }
+
+    /**
+     * Assigns this thread to the given affinity group.
+     *
+     * @param affinityGroup the affinity group, or <tt>-1</tt> to not assign
+     *  the thread to any group.
+     *
+     * @since 3.0
+     */
+    public void setAffinityGroup(final int affinityGroup) {
+        this.affinityGroup = affinityGroup;
+    }
+
     /**
      * Get the cached object with the given type index from cache.
      * Unlike {@link #takeFromCache(org.glassfish.grizzly.ThreadCache.CachedTypeIndex)}, the
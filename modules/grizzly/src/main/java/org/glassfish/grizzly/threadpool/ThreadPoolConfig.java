@@ -97,6 +97,7 @@ public final class ThreadPoolConfig {
     protected DelayedExecutor transactionMonitor;
     protected long transactionTimeoutMillis;
     protected ClassLoader initialClassLoader;
+    protected int affinityGroup = -1;
 
     /**
      * Thread pool probes
@@ -155,6 +156,7 @@ public final class ThreadPoolConfig {
         this.keepAliveTimeMillis   = cfg.keepAliveTimeMillis;
         this.mm              = cfg.mm;
         this.initialClassLoader = cfg.initialClassLoader;
+        this.affinityGroup   = cfg.affinityGroup;
         
         this.threadPoolMonitoringConfig =
                 new DefaultMonitoringConfig<ThreadPoolProbe>(ThreadPoolProbe.class);
@@ -420,6 +422,37 @@ public final class ThreadPoolConfig {
         return this;
     }
 
+    /**
+     * @return the affinity group threads of this pool are assigned to,
+     *  or <tt>-1</tt> if the threads don't belong to any group.
+     *
+     * @since 3.0
+     */
+    public int getAffinityGroup() {
+        return affinityGroup;
+    }
+
+    /**
+     * Assigns the threads of this pool to the given affinity group.
+     * Components, which maintain striped state (like
+     * {@link org.glassfish.grizzly.memory.PooledMemoryManager} pool slices),
+     * may use the group to keep all the threads of the group on the same
+     * stripe instead of picking one at random.
+     *
+     * @param affinityGroup the affinity group, or <tt>-1</tt> to not assign
+     *  the threads to any group.
+     *
+     * @return the {@link ThreadPoolConfig}
+     *
+     * @see DefaultWorkerThread#getAffinityGroup()
+     *
+     * @since 3.0
+     */
+    public ThreadPoolConfig setAffinityGroup(final int affinityGroup) {
+        this.affinityGroup = affinityGroup;
+        return this;
+    }
+
     @Override
     public String toString() {
         return ThreadPoolConfig.class.getSimpleName() + " :\r\n"
@@ -434,6 +467,7 @@ public final class ThreadPoolConfig {
                 + "  transactionTimeoutMillis: " + transactionTimeoutMillis + "\r\n"
                 + "  priority: " + priority + "\r\n"
                 + "  isDaemon: " + isDaemon + "\r\n"
-                + "  initialClassLoader: " + initialClassLoader;
+                + "  initialClassLoader: " + initialClassLoader + "\r\n"
+                + "  affinityGroup: " + affinityGroup;
     }
 }
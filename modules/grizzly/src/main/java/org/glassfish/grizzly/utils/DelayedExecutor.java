@@ -40,6 +40,7 @@
 
 package org.glassfish.grizzly.utils;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
@@ -49,12 +50,22 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * The executor, which checks registered {@link DelayQueue}s periodically and
+ * executes the {@link Worker} for the elements, whose timeout has expired.
  * 
- *
+ * By default each {@link DelayQueue} checks every registered element on every
+ * tick. If the timing wheel mode is enabled (either via constructor or by
+ * setting the <tt>org.glassfish.grizzly.utils.DelayedExecutor.use-timing-wheel</tt>
+ * system property to <tt>true</tt>) {@link #createDelayQueue(org.glassfish.grizzly.utils.DelayedExecutor.Worker, org.glassfish.grizzly.utils.DelayedExecutor.Resolver)}
+ * returns {@link TimingWheelDelayQueue}s, which only look at the elements
+ * whose timeout is (about to be) expired.
  */
 public class DelayedExecutor {
     public final static long UNSET_TIMEOUT = -1;
     
+    private static final boolean USE_TIMING_WHEEL = Boolean.getBoolean(
+            DelayedExecutor.class.getName() + ".use-timing-wheel");
+    
     private final ExecutorService threadPool;
 
     private final DelayedRunnable runnable = new DelayedRunnable();
@@ -68,18 +79,36 @@ public class DelayedExecutor {
 
     private final long checkIntervalMillis;
 
+    private final boolean useTimingWheel;
+    
     public DelayedExecutor(final ExecutorService threadPool) {
         this(threadPool, 1000, TimeUnit.MILLISECONDS);
     }
 
     public DelayedExecutor(final ExecutorService threadPool,
             final long checkInterval, final TimeUnit timeunit) {
+        this(threadPool, checkInterval, timeunit, USE_TIMING_WHEEL);
+    }
+
+    /**
+     * Constructs the <tt>DelayedExecutor</tt>.
+     * 
+     * @param threadPool the {@link ExecutorService} to run the check task on
+     * @param checkInterval the interval between two checks
+     * @param timeunit the check interval {@link TimeUnit}
+     * @param useTimingWheel if <tt>true</tt>, {@link DelayQueue}s created by
+     *  this executor will be {@link TimingWheelDelayQueue}s
+     */
+    public DelayedExecutor(final ExecutorService threadPool,
+            final long checkInterval, final TimeUnit timeunit,
+            final boolean useTimingWheel) {
         if (checkInterval < 0) {
             throw new IllegalArgumentException("check interval can't be negative");
         }
         
         this.threadPool = threadPool;
         this.checkIntervalMillis = TimeUnit.MILLISECONDS.convert(checkInterval, timeunit);
+        this.useTimingWheel = useTimingWheel;
     }
 
     public void start() {
@@ -112,10 +141,20 @@ public class DelayedExecutor {
         return threadPool;
     }
 
+    /**
+     * @return <tt>true</tt>, if the {@link DelayQueue}s created by this
+     *  executor are {@link TimingWheelDelayQueue}s, or <tt>false</tt> otherwise
+     */
+    public boolean isUseTimingWheel() {
+        return useTimingWheel;
+    }
+    
     public <E> DelayQueue<E> createDelayQueue(final Worker<E> worker,
             final Resolver<E> resolver) {
         
-        final DelayQueue<E> queue = new DelayQueue<>(worker, resolver);
+        final DelayQueue<E> queue = useTimingWheel
+                ? new TimingWheelDelayQueue<>(worker, resolver)
+                : new DelayQueue<>(worker, resolver);
 
         queues.add(queue);
 
@@ -128,42 +167,13 @@ public class DelayedExecutor {
 
     private class DelayedRunnable implements Runnable {
 
-        @SuppressWarnings("unchecked")
         @Override
         public void run() {
             while(isStarted) {
                 final long currentTimeMillis = System.currentTimeMillis();
                 
                 for (final DelayQueue delayQueue : queues) {
-                    if (delayQueue.queue.isEmpty()) continue;
-                    
-                    final Resolver resolver = delayQueue.resolver;
-
-                    for (Iterator it = delayQueue.queue.keySet().iterator(); it.hasNext(); ) {
-                        final Object element = it.next();
-                        final long timeoutMillis = resolver.getTimeoutMillis(element);
-                        
-                        if (timeoutMillis == UNSET_TIMEOUT) {
-                            it.remove();
-                            if (wasModified(timeoutMillis,
-                                    resolver.getTimeoutMillis(element))) {                                
-                                delayQueue.queue.put(element, delayQueue);
-                            }
-                        } else if (currentTimeMillis - timeoutMillis >= 0) {
-                            it.remove();
-                            if (wasModified(timeoutMillis,
-                                    resolver.getTimeoutMillis(element))) {
-                                delayQueue.queue.put(element, delayQueue);
-                            } else {
-                                try {
-                                    if (!delayQueue.worker.doWork(element)) {
-                                        delayQueue.queue.put(element, delayQueue);
-                                    }
-                                } catch (Exception ignored) {
-                                }
-                            }
-                        }
-                    }
+                    delayQueue.expire(currentTimeMillis);
                 }
 
                 synchronized(sync) {
@@ -205,8 +215,431 @@ public class DelayedExecutor {
         public void destroy() {
             queues.remove(this);
         }
+        
+        /**
+         * Checks the queue elements and runs the {@link Worker} for the
+         * elements, whose timeout has expired.
+         * The method is called by the <tt>DelayedExecutor</tt> thread only.
+         * 
+         * @param currentTimeMillis the current time in milliseconds
+         */
+        void expire(final long currentTimeMillis) {
+            if (queue.isEmpty()) {
+                return;
+            }
+
+            for (Iterator<E> it = queue.keySet().iterator(); it.hasNext(); ) {
+                final E element = it.next();
+                final long timeoutMillis = resolver.getTimeoutMillis(element);
+
+                if (timeoutMillis == UNSET_TIMEOUT) {
+                    it.remove();
+                    if (wasModified(timeoutMillis,
+                            resolver.getTimeoutMillis(element))) {
+                        queue.put(element, this);
+                    }
+                } else if (currentTimeMillis - timeoutMillis >= 0) {
+                    it.remove();
+                    if (wasModified(timeoutMillis,
+                            resolver.getTimeoutMillis(element))) {
+                        queue.put(element, this);
+                    } else {
+                        try {
+                            if (!worker.doWork(element)) {
+                                queue.put(element, this);
+                            }
+                        } catch (Exception ignored) {
+                        }
+                    }
+                }
+            }
+        }
     }
 
+    /**
+     * {@link DelayQueue} implementation based on a hierarchical timing wheel.
+     * 
+     * Each element is hashed into the wheel bucket, which corresponds to its
+     * timeout, so on every tick only the elements of the due bucket are examined,
+     * instead of the entire queue. The wheel consists of {@link #WHEEL_LEVELS}
+     * levels of {@link #WHEEL_SIZE} buckets each, every next level's bucket
+     * spans the entire previous level; once a higher level bucket becomes due
+     * its elements are cascaded down to the lower levels.
+     * Elements, whose timeout exceeds the wheel span (for example
+     * {@link Long#MAX_VALUE} a.k.a. "never"), are kept in the overflow bucket,
+     * which is examined on every tick.
+     * 
+     * The {@link Resolver} remains the only source of truth for the element
+     * timeout: when the element's bucket becomes due, the timeout is resolved
+     * again and the element either expires or is rescheduled, so the timeouts
+     * updated directly via {@link Resolver} (without calling {@link #add(java.lang.Object, long, java.util.concurrent.TimeUnit)})
+     * keep working the same way they do with the default {@link DelayQueue},
+     * just make sure such updates only prolong the timeout or switch it from
+     * {@link Long#MAX_VALUE} to a finite value.
+     * 
+     * Every bucket is guarded by its own lock, so concurrent
+     * {@link #add(java.lang.Object, long, java.util.concurrent.TimeUnit)} and
+     * {@link #remove(java.lang.Object)} operations rarely contend with each other.
+     */
+    public class TimingWheelDelayQueue<E> extends DelayQueue<E> {
+        private final ConcurrentMap<E, WheelEntry<E>> entries =
+                new ConcurrentHashMap<>();
+        
+        private final long tickMillis;
+        private final long spanMillis;
+        
+        private final WheelBucket[][] wheel;
+        private final WheelBucket overflow = new WheelBucket();
+        
+        // the last processed tick
+        private volatile long currentTick;
+        
+        // the buffers used by the DelayedExecutor thread to drain a bucket
+        private WheelEntry[] drainEntries = new WheelEntry[16];
+        private int[] drainStamps = new int[16];
+        
+        public TimingWheelDelayQueue(final Worker<E> worker,
+                final Resolver<E> resolver) {
+            super(worker, resolver);
+            
+            tickMillis = Math.max(1, checkIntervalMillis);
+            spanMillis = tickMillis << (WHEEL_BITS * WHEEL_LEVELS);
+            
+            wheel = new WheelBucket[WHEEL_LEVELS][WHEEL_SIZE];
+            for (int i = 0; i < WHEEL_LEVELS; i++) {
+                for (int j = 0; j < WHEEL_SIZE; j++) {
+                    wheel[i][j] = new WheelBucket();
+                }
+            }
+            
+            currentTick = System.currentTimeMillis() / tickMillis;
+        }
+
+        @Override
+        public void add(final E elem, final long delay, final TimeUnit timeUnit) {
+            if (delay >= 0) {
+                final long currentTimeMillis = System.currentTimeMillis();
+                final long delayWithSysTime =
+                        currentTimeMillis + TimeUnit.MILLISECONDS.convert(delay, timeUnit);
+                final long timeoutMillis = (delayWithSysTime < 0)
+                        ? Long.MAX_VALUE
+                        : delayWithSysTime;
+                
+                resolver.setTimeoutMillis(elem, timeoutMillis);
+                enqueue(elem, timeoutMillis, currentTimeMillis);
+            }
+        }
+
+        @Override
+        public void remove(final E elem) {
+            resolver.removeTimeout(elem);
+            
+            // make sure the element is checked on the next tick
+            final WheelEntry<E> entry = entries.get(elem);
+            if (entry != null) {
+                schedule(entry, currentTick + 1);
+            }
+        }
+
+        /**
+         * @return the number of elements registered in the queue
+         */
+        public int size() {
+            return entries.size();
+        }
+        
+        @Override
+        void expire(final long currentTimeMillis) {
+            final long nowTick = currentTimeMillis / tickMillis;
+            long tick = currentTick;
+
+            if (nowTick - tick > (1L << (WHEEL_BITS * WHEEL_LEVELS))) {
+                // the time jumped over the entire wheel span,
+                // check all the buckets at once
+                currentTick = nowTick;
+                for (int i = WHEEL_LEVELS - 1; i >= 0; i--) {
+                    for (int j = 0; j < WHEEL_SIZE; j++) {
+                        expireBucket(wheel[i][j],
+                                (nowTick >> (WHEEL_BITS * i)) - 1,
+                                currentTimeMillis);
+                    }
+                }
+            } else {
+                while (tick < nowTick) {
+                    currentTick = ++tick;
+
+                    // cascade the higher levels first
+                    for (int i = WHEEL_LEVELS - 1; i > 0; i--) {
+                        final int shift = WHEEL_BITS * i;
+                        if ((tick & ((1L << shift) - 1)) == 0) {
+                            final long key = tick >> shift;
+                            expireBucket(wheel[i][(int) (key & WHEEL_MASK)],
+                                    key, currentTimeMillis);
+                        }
+                    }
+
+                    expireBucket(wheel[0][(int) (tick & WHEEL_MASK)],
+                            tick, currentTimeMillis);
+                }
+            }
+            
+            expireBucket(overflow, Long.MIN_VALUE, currentTimeMillis);
+        }
+
+        private void enqueue(final E elem, final long timeoutMillis,
+                final long currentTimeMillis) {
+            final long tick = toTick(timeoutMillis, currentTimeMillis);
+            
+            WheelEntry<E> entry = entries.get(elem);
+            
+            while (true) {
+                if (entry == null) {
+                    final WheelEntry<E> newEntry = new WheelEntry<>(elem);
+                    entry = entries.putIfAbsent(elem, newEntry);
+                    if (entry == null) {
+                        entry = newEntry;
+                    }
+                }
+                
+                if (schedule(entry, tick)) {
+                    return;
+                }
+                
+                // the entry has just been retired
+                entries.remove(elem, entry);
+                entry = null;
+            }
+        }
+        
+        private void retire(final WheelEntry<E> entry) {
+            final E element;
+            synchronized (entry) {
+                element = entry.element;
+                entry.isRetired = true;
+                // stale bucket records may keep the entry until their tick,
+                // don't let them keep the element as well
+                entry.element = null;
+            }
+            
+            entries.remove(element, entry);
+        }
+        
+        /**
+         * Schedules the entry to be checked on the given tick.
+         * If the entry is already scheduled to be checked earlier - the method
+         * does nothing, because the actual timeout will be resolved anyway
+         * once the entry is checked.
+         * 
+         * @return <tt>false</tt> if the entry has been retired, or <tt>true</tt> otherwise
+         */
+        private boolean schedule(final WheelEntry<E> entry, final long tick) {
+            final int stamp;
+            synchronized (entry) {
+                if (entry.isRetired) {
+                    return false;
+                }
+                
+                if (entry.scheduledTick <= tick) {
+                    return true;
+                }
+                
+                entry.scheduledTick = tick;
+                stamp = ++entry.stamp;
+            }
+            
+            place(entry, stamp, tick);
+            return true;
+        }
+        
+        private void place(final WheelEntry<E> entry, final int stamp,
+                final long tick) {
+            if (tick != OVERFLOW_TICK) {
+                final long delta = tick - currentTick;
+
+                for (int i = 0; i < WHEEL_LEVELS; i++) {
+                    final int shift = WHEEL_BITS * i;
+                    if (delta < (1L << (shift + WHEEL_BITS))) {
+                        final long key = tick >> shift;
+                        if (wheel[i][(int) (key & WHEEL_MASK)].offer(
+                                entry, stamp, key)) {
+                            return;
+                        }
+
+                        // the bucket has already been processed for this key,
+                        // let the overflow bucket take care of the entry
+                        break;
+                    }
+                }
+            }
+
+            overflow.offer(entry, stamp, Long.MAX_VALUE);
+        }
+        
+        private long toTick(final long timeoutMillis,
+                final long currentTimeMillis) {
+            if (timeoutMillis - currentTimeMillis >= spanMillis) {
+                return OVERFLOW_TICK;
+            }
+            
+            final long minTick = currentTick + 1;
+            if (timeoutMillis <= 0) {
+                return minTick;
+            }
+            
+            final long tick = (timeoutMillis + tickMillis - 1) / tickMillis;
+            return tick > minTick ? tick : minTick;
+        }
+        
+        @SuppressWarnings("unchecked")
+        private void expireBucket(final WheelBucket bucket, final long key,
+                final long currentTimeMillis) {
+            final int size = bucket.drain(this, key);
+            if (size == 0) {
+                return;
+            }
+
+            final WheelEntry[] drainedEntries = drainEntries;
+            final int[] drainedStamps = drainStamps;
+
+            for (int i = 0; i < size; i++) {
+                final WheelEntry<E> entry = drainedEntries[i];
+                drainedEntries[i] = null;
+
+                synchronized (entry) {
+                    if (entry.isRetired || entry.stamp != drainedStamps[i]) {
+                        // stale record, the entry has been rescheduled
+                        continue;
+                    }
+
+                    entry.scheduledTick = NOT_SCHEDULED;
+                }
+
+                check(entry, currentTimeMillis);
+            }
+        }
+
+        private void check(final WheelEntry<E> entry,
+                final long currentTimeMillis) {
+            final E element = entry.element;
+            final long timeoutMillis = resolver.getTimeoutMillis(element);
+            
+            if (timeoutMillis == UNSET_TIMEOUT) {
+                retire(entry);
+                final long newTimeoutMillis = resolver.getTimeoutMillis(element);
+                if (wasModified(timeoutMillis, newTimeoutMillis)) {
+                    enqueue(element, newTimeoutMillis, currentTimeMillis);
+                }
+            } else if (currentTimeMillis - timeoutMillis >= 0) {
+                retire(entry);
+                final long newTimeoutMillis = resolver.getTimeoutMillis(element);
+                if (wasModified(timeoutMillis, newTimeoutMillis)) {
+                    enqueue(element, newTimeoutMillis, currentTimeMillis);
+                } else {
+                    try {
+                        if (!worker.doWork(element)) {
+                            // check the element again on the next tick
+                            enqueue(element, UNSET_TIMEOUT, currentTimeMillis);
+                        }
+                    } catch (Exception ignored) {
+                    }
+                }
+            } else {
+                schedule(entry, toTick(timeoutMillis, currentTimeMillis));
+            }
+        }
+    }
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int WHEEL_LEVELS = 4;
+
+    private static final long NOT_SCHEDULED = Long.MAX_VALUE;
+    private static final long OVERFLOW_TICK = Long.MAX_VALUE - 1;
+    
+    private static final class WheelEntry<E> {
+        // the fields are guarded by the entry monitor
+        private E element;
+        private long scheduledTick = NOT_SCHEDULED;
+        private int stamp;
+        private boolean isRetired;
+
+        private WheelEntry(final E element) {
+            this.element = element;
+        }
+    }
+    
+    /**
+     * The timing wheel bucket, which is guarded by its own monitor.
+     * Along with each entry the bucket keeps the entry stamp, which was actual
+     * at the time the entry was added, so the records of rescheduled entries
+     * could be recognized as stale.
+     */
+    private static final class WheelBucket {
+        private WheelEntry[] entries;
+        private int[] stamps;
+        private int size;
+        
+        // the last key, the bucket has been drained for
+        private long drainedKey = Long.MIN_VALUE;
+
+        synchronized boolean offer(final WheelEntry entry, final int stamp,
+                final long key) {
+            if (key <= drainedKey) {
+                return false;
+            }
+            
+            if (entries == null) {
+                entries = new WheelEntry[4];
+                stamps = new int[4];
+            } else if (size == entries.length) {
+                final int newLength = size << 1;
+                entries = Arrays.copyOf(entries, newLength);
+                stamps = Arrays.copyOf(stamps, newLength);
+            }
+            
+            entries[size] = entry;
+            stamps[size++] = stamp;
+            return true;
+        }
+        
+        /**
+         * Moves the bucket content to the queue's drain buffers.
+         * 
+         * @return the number of drained records
+         */
+        synchronized int drain(final TimingWheelDelayQueue<?> queue,
+                final long key) {
+            if (key > drainedKey) {
+                drainedKey = key;
+            }
+            
+            final int sizeLocal = size;
+            if (sizeLocal == 0) {
+                return 0;
+            }
+            
+            if (queue.drainEntries.length < sizeLocal) {
+                queue.drainEntries = new WheelEntry[sizeLocal];
+                queue.drainStamps = new int[sizeLocal];
+            }
+            
+            System.arraycopy(entries, 0, queue.drainEntries, 0, sizeLocal);
+            System.arraycopy(stamps, 0, queue.drainStamps, 0, sizeLocal);
+            
+            if (entries.length > 64 && sizeLocal < (entries.length >> 2)) {
+                // shrink the bucket, which grew because of a temporary spike
+                entries = new WheelEntry[entries.length >> 1];
+                stamps = new int[stamps.length >> 1];
+            } else {
+                Arrays.fill(entries, 0, sizeLocal, null);
+            }
+            
+            size = 0;
+            return sizeLocal;
+        }
+    }
+    
     public interface Worker<E> {
         /**
          * The method is executed by <tt>DelayExecutor</tt> once element's timeout expires.
@@ -43,6 +43,7 @@ package org.glassfish.grizzly;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.util.Arrays;
@@ -67,6 +68,7 @@ import org.glassfish.grizzly.filterchain.TransportFilter;
 import org.glassfish.grizzly.impl.FutureImpl;
 import org.glassfish.grizzly.impl.SafeFutureImpl;
 import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.BuffersBuffer;
 import org.glassfish.grizzly.memory.ByteBufferWrapper;
 import org.glassfish.grizzly.memory.MemoryManager;
 import org.glassfish.grizzly.nio.AbstractNIOConnectionDistributor;
@@ -79,6 +81,8 @@ import org.glassfish.grizzly.nio.transport.TCPNIOServerConnection;
 import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
 import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
 import org.glassfish.grizzly.strategies.SameThreadIOStrategy;
+import org.glassfish.grizzly.threadpool.DefaultWorkerThread;
+import org.glassfish.grizzly.threadpool.GrizzlyExecutorService;
 import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 import org.glassfish.grizzly.utils.BufferInQueueFilter;
 import org.glassfish.grizzly.utils.ClientCheckFilter;
@@ -341,6 +345,113 @@ public class TCPNIOTransportTest {
         }
     }
 
+    @Test
+    public void testZeroCopyWriteStats() throws Exception {
+        Connection connection = null;
+
+        final FilterChainBuilder serverChainBuilder = FilterChainBuilder.newInstance()
+                .add(new TransportFilter());
+
+        TCPNIOTransport transport = TCPNIOTransportBuilder.newInstance().build();
+        transport.setFilterChain(serverChainBuilder.build());
+
+        try {
+            transport.bind(PORT);
+            transport.start();
+
+            final Future<Connection> connectFuture = transport.connect(
+                    new InetSocketAddress("localhost", PORT));
+
+            connection = connectFuture.get(10, TimeUnit.SECONDS);
+            assertTrue(connection != null);
+
+            connection.configureBlocking(true);
+
+            final MemoryManager mm = transport.getMemoryManager();
+
+            // heap buffer - copied
+            connection.write(Buffers.wrap(mm, new byte[1000])).get(10, TimeUnit.SECONDS);
+            // direct buffer - written as it is
+            connection.write(new ByteBufferWrapper(ByteBuffer.allocateDirect(300)))
+                    .get(10, TimeUnit.SECONDS);
+            // composite - only the heap part is copied
+            connection.write(BuffersBuffer.create(mm,
+                    Buffers.wrap(mm, new byte[100]),
+                    new ByteBufferWrapper(ByteBuffer.allocateDirect(200))))
+                    .get(10, TimeUnit.SECONDS);
+
+            assertEquals(1100, transport.getCopiedWrittenBytes());
+            assertEquals(500, transport.getZeroCopyWrittenBytes());
+        } finally {
+            if (connection != null) {
+                connection.closeSilently();
+            }
+
+            transport.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSelectorRunnerAffinity() throws Exception {
+        Connection connection = null;
+
+        final FutureImpl<int[]> serverFuture = SafeFutureImpl.create();
+        final FilterChainBuilder serverChainBuilder = FilterChainBuilder.newInstance()
+                .add(new TransportFilter())
+                .add(new BaseFilter() {
+                    @Override
+                    public NextAction handleRead(final FilterChainContext ctx)
+                            throws IOException {
+                        final SelectorRunner runner =
+                                ((NIOConnection) ctx.getConnection()).getSelectorRunner();
+                        final Thread thread = Thread.currentThread();
+                        serverFuture.result(new int[] {
+                            runner.getAffinityGroup(),
+                            thread instanceof DefaultWorkerThread
+                                    ? ((DefaultWorkerThread) thread).getAffinityGroup()
+                                    : -2,
+                            runner.getWorkerThreadPool() != null ? 1 : 0
+                        });
+                        return ctx.getStopAction();
+                    }
+                });
+
+        TCPNIOTransport transport = TCPNIOTransportBuilder.newInstance()
+                .selectorRunnersCount(2)
+                .selectorRunnerAffinity(true)
+                .build();
+        transport.setFilterChain(serverChainBuilder.build());
+
+        try {
+            transport.bind(PORT);
+            transport.start();
+
+            // the worker threads are spread over the runners' pool slices
+            assertEquals(1, ((GrizzlyExecutorService) transport.getWorkerThreadPool())
+                    .getConfiguration().getMaxPoolSize());
+
+            final Future<Connection> connectFuture = transport.connect(
+                    new InetSocketAddress("localhost", PORT));
+
+            connection = connectFuture.get(10, TimeUnit.SECONDS);
+            assertTrue(connection != null);
+
+            connection.write(Buffers.wrap(transport.getMemoryManager(), "affinity"));
+
+            final int[] result = serverFuture.get(10, TimeUnit.SECONDS);
+            assertTrue(result[0] >= 0);
+            // the read was processed by the runner's worker pool slice
+            assertEquals(result[0], result[1]);
+            assertEquals(1, result[2]);
+        } finally {
+            if (connection != null) {
+                connection.closeSilently();
+            }
+
+            transport.shutdownNow();
+        }
+    }
+
     @Test
     public void testSeveralPacketsEcho() throws Exception {
         Connection connection = null;
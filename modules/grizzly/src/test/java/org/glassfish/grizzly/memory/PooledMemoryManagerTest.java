@@ -409,6 +409,50 @@ public class PooledMemoryManagerTest {
 
     }
 
+    @Test
+    public void testAllocateDirect() throws Exception {
+
+        PooledMemoryManager mm =
+                new PooledMemoryManager(DEFAULT_BASE_BUFFER_SIZE,
+                        2,
+                        1,
+                        1,
+                        DEFAULT_HEAP_USAGE_PERCENTAGE,
+                        DEFAULT_PREALLOCATED_BUFFERS_PERCENTAGE,
+                        isDirect);
+
+        // regular allocations are not affected
+        Buffer b = mm.allocate(1024);
+        assertEquals(isDirect, b.isDirect());
+        b.tryDispose();
+
+        // direct buffer from the pool, no matter how the manager is configured
+        b = mm.allocateDirect(1024);
+        assertTrue(b.isDirect());
+        assertEquals(1024, b.remaining());
+        b.tryDispose();
+
+        // reallocation stays in the direct pools
+        b = mm.allocateDirect(2048);
+        final Buffer nb = mm.reallocate(b, 8000);
+        assertTrue(nb.isDirect());
+        assertEquals(8000, nb.limit());
+        nb.tryDispose();
+
+        // larger than the max pooled buffer size - composite of direct buffers
+        b = mm.allocateDirect(20000);
+        assertTrue(b.isComposite());
+        assertEquals(20000, b.remaining());
+        for (Buffer part : ((BuffersBuffer) b).underlying()) {
+            if (part != null) {
+                assertTrue(part.isDirect());
+            }
+        }
+        b.tryDispose();
+
+        assertSame(Buffers.EMPTY_BUFFER, mm.allocateDirect(0));
+    }
+
 
     @Test
     public void testBufferTrim() throws Exception {
@@ -826,6 +870,61 @@ public class PooledMemoryManagerTest {
         assertEquals(1, probe.poolRestoredToFull.get());
     }
 
+    @Test
+    public void testThreadCache() throws Exception {
+        final PooledMemoryManager mm = new PooledMemoryManager(
+                128, 1, 0, 1,
+                1024.0f / Runtime.getRuntime().maxMemory(),
+                DEFAULT_PREALLOCATED_BUFFERS_PERCENTAGE,
+                isDirect, 4);
+        final TestProbe probe = new TestProbe();
+        mm.getMonitoringConfig().addProbes(probe);
+
+        final PooledMemoryManager.Pool pool = mm.getPools()[0];
+        final PooledMemoryManager.PoolSlice slice0 = pool.getSlices()[0];
+        final int elementCount = slice0.elementsCount();
+
+        // the miss refills half of the magazine
+        final Buffer b1 = mm.allocate(128);
+        assertEquals(1, probe.threadCacheMiss.get());
+        assertEquals(elementCount - 2, slice0.elementsCount());
+        final Buffer b2 = mm.allocate(128);
+        assertEquals(1, probe.threadCacheHit.get());
+        
+        b1.tryDispose();
+        b2.tryDispose();
+        assertEquals(elementCount - 2, slice0.elementsCount());
+        
+        // the full magazine flushes half of its buffers
+        final Buffer[] buffers = new Buffer[5];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = mm.allocate(128);
+        }
+        for (Buffer buffer : buffers) {
+            buffer.tryDispose();
+        }
+        assertEquals(elementCount - 4, slice0.elementsCount());
+
+        // the magazine of a terminated thread gets back to the slice
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                mm.allocate(128).tryDispose();
+            }
+        };
+        t.start();
+        t.join();
+        t = null;
+        assertEquals(elementCount - 6, slice0.elementsCount());
+
+        for (int i = 0; i < 100 && slice0.elementsCount() != elementCount - 4; i++) {
+            System.gc();
+            Thread.sleep(10);
+            pool.reclaimTerminatedThreadsMagazines();
+        }
+        assertEquals(elementCount - 4, slice0.elementsCount());
+    }
+
     @Test
     public void stressTest() {
         final int poolsNum = 3;
@@ -923,6 +1022,8 @@ public class PooledMemoryManagerTest {
         AtomicInteger bufferReleasedToPool = new AtomicInteger();
         AtomicInteger poolDepleted = new AtomicInteger();
         AtomicInteger poolRestoredToFull = new AtomicInteger();
+        AtomicInteger threadCacheHit = new AtomicInteger();
+        AtomicInteger threadCacheMiss = new AtomicInteger();
 
         @Override
         public void onBufferAllocateEvent(int size) {
@@ -948,5 +1049,15 @@ public class PooledMemoryManagerTest {
         public void onPoolRestoredToFullEvent() {
             poolRestoredToFull.incrementAndGet();
         }
+
+        @Override
+        public void onThreadCacheHitEvent(int size) {
+            threadCacheHit.incrementAndGet();
+        }
+
+        @Override
+        public void onThreadCacheMissEvent(int size) {
+            threadCacheMiss.incrementAndGet();
+        }
     }
 }
@@ -439,5 +439,15 @@ public class ThreadLocalMemoryManagerTest extends AbstractThreadLocalMemoryManag
         public void onPoolRestoredToFullEvent() {
             LOGGER.log(Level.INFO, "onPoolRestoredToFullEvent");
         }
+
+        @Override
+        public void onThreadCacheHitEvent(int size) {
+            LOGGER.log(Level.INFO, "threadCacheHitEvent: {0}", size);
+        }
+
+        @Override
+        public void onThreadCacheMissEvent(int size) {
+            LOGGER.log(Level.INFO, "threadCacheMissEvent: {0}", size);
+        }
     }
 }
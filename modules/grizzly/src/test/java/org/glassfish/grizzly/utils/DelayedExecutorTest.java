@@ -0,0 +1,218 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.grizzly.utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link DelayedExecutor} tests, which run against both the default
+ * {@link DelayedExecutor.DelayQueue} and the timing wheel based one.
+ */
+@RunWith(Parameterized.class)
+public class DelayedExecutorTest {
+    private static final long CHECK_INTERVAL_MILLIS = 10;
+    
+    @Parameters
+    public static Collection<Object[]> useTimingWheel() {
+        return Arrays.asList(new Object[][]{
+                    {Boolean.FALSE},
+                    {Boolean.TRUE}
+                });
+    }
+    
+    private final boolean useTimingWheel;
+    
+    private ExecutorService threadPool;
+    private DelayedExecutor delayedExecutor;
+    
+    public DelayedExecutorTest(final boolean useTimingWheel) {
+        this.useTimingWheel = useTimingWheel;
+    }
+
+    @Before
+    public void before() {
+        threadPool = Executors.newSingleThreadExecutor();
+        delayedExecutor = new DelayedExecutor(threadPool,
+                CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS, useTimingWheel);
+        delayedExecutor.start();
+    }
+    
+    @After
+    public void after() {
+        delayedExecutor.destroy();
+        threadPool.shutdownNow();
+    }
+    
+    @Test
+    public void testExpire() throws Exception {
+        final TestWorker worker = new TestWorker(3);
+        final DelayedExecutor.DelayQueue<Task> queue =
+                delayedExecutor.createDelayQueue(worker, new TaskResolver());
+        
+        final long start = System.currentTimeMillis();
+        queue.add(new Task(), 100, TimeUnit.MILLISECONDS);
+        queue.add(new Task(), 200, TimeUnit.MILLISECONDS);
+        queue.add(new Task(), 2, TimeUnit.SECONDS);
+        
+        assertTrue(worker.latch.await(10, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 2000);
+        assertEquals(3, worker.counter.get());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        final TestWorker worker = new TestWorker(1);
+        final DelayedExecutor.DelayQueue<Task> queue =
+                delayedExecutor.createDelayQueue(worker, new TaskResolver());
+        
+        final Task removed = new Task();
+        queue.add(removed, 100, TimeUnit.MILLISECONDS);
+        queue.add(new Task(), 300, TimeUnit.MILLISECONDS);
+        queue.remove(removed);
+        
+        assertTrue(worker.latch.await(10, TimeUnit.SECONDS));
+        Thread.sleep(CHECK_INTERVAL_MILLIS * 5);
+        assertEquals(1, worker.counter.get());
+    }
+    
+    @Test
+    public void testProlong() throws Exception {
+        final TestWorker worker = new TestWorker(1);
+        final DelayedExecutor.DelayQueue<Task> queue =
+                delayedExecutor.createDelayQueue(worker, new TaskResolver());
+        
+        final Task task = new Task();
+        final long start = System.currentTimeMillis();
+        queue.add(task, 100, TimeUnit.MILLISECONDS);
+        queue.add(task, 500, TimeUnit.MILLISECONDS);
+        
+        assertTrue(worker.latch.await(10, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 500);
+        assertEquals(1, worker.counter.get());
+    }
+    
+    @Test
+    public void testResolverUpdate() throws Exception {
+        final TestWorker worker = new TestWorker(1);
+        final TaskResolver resolver = new TaskResolver();
+        final DelayedExecutor.DelayQueue<Task> queue =
+                delayedExecutor.createDelayQueue(worker, resolver);
+        
+        final Task task = new Task();
+        queue.add(task, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        Thread.sleep(CHECK_INTERVAL_MILLIS * 5);
+        assertEquals(0, worker.counter.get());
+        
+        // update the timeout directly via Resolver
+        resolver.setTimeoutMillis(task, System.currentTimeMillis() + 100);
+        
+        assertTrue(worker.latch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, worker.counter.get());
+    }
+    
+    @Test
+    public void testManyElements() throws Exception {
+        final int count = 10000;
+        final TestWorker worker = new TestWorker(count);
+        final DelayedExecutor.DelayQueue<Task> queue =
+                delayedExecutor.createDelayQueue(worker, new TaskResolver());
+        
+        for (int i = 0; i < count; i++) {
+            queue.add(new Task(), i % 1000, TimeUnit.MILLISECONDS);
+        }
+        
+        assertTrue(worker.latch.await(10, TimeUnit.SECONDS));
+        Thread.sleep(CHECK_INTERVAL_MILLIS * 5);
+        assertEquals(count, worker.counter.get());
+    }
+    
+    private static final class Task {
+        private volatile long timeoutMillis = DelayedExecutor.UNSET_TIMEOUT;
+    }
+    
+    private static final class TaskResolver implements DelayedExecutor.Resolver<Task> {
+
+        @Override
+        public boolean removeTimeout(final Task element) {
+            element.timeoutMillis = DelayedExecutor.UNSET_TIMEOUT;
+            return true;
+        }
+
+        @Override
+        public long getTimeoutMillis(final Task element) {
+            return element.timeoutMillis;
+        }
+
+        @Override
+        public void setTimeoutMillis(final Task element, final long timeoutMillis) {
+            element.timeoutMillis = timeoutMillis;
+        }
+    }
+    
+    private static final class TestWorker implements DelayedExecutor.Worker<Task> {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final CountDownLatch latch;
+
+        private TestWorker(final int expectedCount) {
+            latch = new CountDownLatch(expectedCount);
+        }
+        
+        @Override
+        public boolean doWork(final Task element) {
+            counter.incrementAndGet();
+            latch.countDown();
+            return true;
+        }
+    }
+}
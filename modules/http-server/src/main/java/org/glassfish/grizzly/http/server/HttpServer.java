@@ -662,6 +662,8 @@ public class HttpServer {
                     serverConfig.isAllowPayloadForUndefinedHttpMethods());
             httpServerCodecFilter.setMaxPayloadRemainderToSkip(
                     serverConfig.getMaxPayloadRemainderToSkip());
+            httpServerCodecFilter.setSwarHeaderParsing(
+                    listener.isSwarHeaderParsing());
             
             httpServerCodecFilter.getMonitoringConfig().addProbes(
                     serverConfig.getMonitoringConfig().getHttpConfig().getProbes());
@@ -749,7 +751,8 @@ public class HttpServer {
                 GZipContentEncoding.DEFAULT_IN_BUFFER_SIZE,
                 GZipContentEncoding.DEFAULT_OUT_BUFFER_SIZE,
                 new CompressionEncodingFilter(compressionConfig,
-                    GZipContentEncoding.getGzipAliases()));
+                    GZipContentEncoding.getGzipAliases()),
+                compressionConfig);
             final ContentEncoding lzmaEncoding = new LZMAContentEncoding(
                     new CompressionEncodingFilter(compressionConfig,
                     LZMAContentEncoding.getLzmaAliases()));
@@ -192,6 +192,11 @@ public class NetworkListener {
      * The maximum size of an incoming <code>HTTP</code> message.
      */
     private int maxHttpHeaderSize = -1;
+    /**
+     * Flag indicating whether or not the HTTP headers are parsed eight bytes at a time.
+     * Defaults to <code>false</code>.
+     */
+    private boolean swarHeaderParsing;
     /**
      * {@link FileCache} to be used by this <code>NetworkListener</code>.
      */
@@ -631,6 +636,33 @@ public class NetworkListener {
 
     }
 
+    /**
+     * @return <code>true</code> if the HTTP request headers are parsed eight bytes at a time,
+     *         otherwise <code>false</code>.
+     *
+     * @see HttpCodecFilter#isSwarHeaderParsing()
+     * @since 3.0
+     */
+    public boolean isSwarHeaderParsing() {
+        return swarHeaderParsing;
+    }
+
+    /**
+     * <p> Enables/disables SWAR (eight bytes at a time) parsing of the HTTP request headers,
+     * see {@link HttpCodecFilter#setSwarHeaderParsing(boolean)}. Disabled by default. </p>
+     * <p/>
+     * <p> Attempts to change this value while the listener is running will be ignored. </p>
+     *
+     * @param swarHeaderParsing <code>true</code> to enable SWAR header parsing.
+     * @since 3.0
+     */
+    public void setSwarHeaderParsing(final boolean swarHeaderParsing) {
+        if (!isStopped()) {
+            return;
+        }
+        this.swarHeaderParsing = swarHeaderParsing;
+    }
+
     /**
      * @return the {@link FilterChain} used to by the {@link TCPNIOTransport} associated with this listener.
      */
@@ -100,6 +100,7 @@ import org.glassfish.grizzly.http.util.ContentType;
 import org.glassfish.grizzly.http.util.CookieSerializerUtils;
 import org.glassfish.grizzly.http.util.FastHttpDateFormat;
 import org.glassfish.grizzly.http.util.Header;
+import org.glassfish.grizzly.http.util.HeaderTemplate;
 import org.glassfish.grizzly.http.util.HeaderValue;
 import org.glassfish.grizzly.http.util.HttpRequestURIDecoder;
 import org.glassfish.grizzly.http.util.HttpStatus;
@@ -1550,6 +1551,22 @@ public class Response {
         response.setHeader(header, value);
     }
 
+    /**
+     * Adds the pre-serialized {@link HeaderTemplate} headers to the response.
+     *
+     * @param template the {@link HeaderTemplate}
+     *
+     * @see HttpResponsePacket#setHeaderTemplate(HeaderTemplate)
+     * @since 3.0
+     */
+    public void setHeaderTemplate(final HeaderTemplate template) {
+        checkResponse();
+        if (isCommitted())
+            return;
+
+        response.setHeaderTemplate(template);
+    }
+
     /**
      * Set the specified integer header to the specified value.
      *
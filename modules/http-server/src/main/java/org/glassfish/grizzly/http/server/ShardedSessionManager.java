@@ -0,0 +1,736 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.http.Cookie;
+import org.glassfish.grizzly.http.server.util.Globals;
+import org.glassfish.grizzly.utils.DelayedExecutor;
+
+/**
+ * {@link SessionManager} implementation, which is meant to hold large amounts
+ * of (mostly idle) sessions.
+ * 
+ * Unlike {@link DefaultSessionManager}, the sessions are spread over a number
+ * of independently locked shards, each of which is an access-ordered LRU map,
+ * so the total number of sessions may be bounded: once a shard overflows, its
+ * least recently used session gets invalidated.
+ * The sessions are expired using a timing wheel
+ * (see {@link DelayedExecutor.TimingWheelDelayQueue}), so the expiration
+ * thread only looks at the sessions, whose timeout is (about to be) expired,
+ * instead of sweeping all the sessions every few seconds.
+ * Session ids are generated by per-thread {@link SecureRandom}s.
+ * 
+ * Optionally the attributes of the sessions, which haven't been accessed
+ * longer than <tt>spillAfterIdle</tt>, might be serialized and moved to a
+ * {@link SpillStore}, for example the off-heap {@link DirectSpillStore}, and
+ * restored on the next {@link #getSession(Request, String)}. Only sessions
+ * with {@link Serializable} attributes are spilled. Please note, the spilled
+ * attributes are not visible via {@link Session} references obtained before
+ * the session was spilled, so <tt>spillAfterIdle</tt> has to be larger than
+ * the longest request processing time.
+ * 
+ * @since 3.0
+ */
+public class ShardedSessionManager implements SessionManager {
+    private static final Logger LOGGER = Grizzly.logger(ShardedSessionManager.class);
+    
+    /**
+     * The interval, which is used to re-check the sessions without timeout.
+     */
+    private static final long NO_TIMEOUT_RECHECK_MILLIS = TimeUnit.HOURS.toMillis(1);
+    
+    private static final ThreadLocal<SecureRandom> RANDOM =
+            new ThreadLocal<SecureRandom>() {
+                @Override
+                protected SecureRandom initialValue() {
+                    return new SecureRandom();
+                }
+            };
+    
+    private final Shard[] shards;
+    private final int shardMask;
+    
+    private final SpillStore spillStore;
+    private final long spillAfterIdleMillis;
+    
+    private final ExecutorService expirerThreadPool;
+    private final DelayedExecutor delayedExecutor;
+    private final DelayedExecutor.DelayQueue<ManagedSession> expirationQueue;
+    
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder spilledCount = new LongAdder();
+    
+    private volatile String sessionCookieName = Globals.SESSION_COOKIE_NAME;
+
+    /**
+     * @return the <tt>ShardedSessionManager</tt> builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    protected ShardedSessionManager(final Builder builder) {
+        int shardsCount = 1;
+        while (shardsCount < builder.shards) {
+            shardsCount <<= 1;
+        }
+        
+        final int shardCapacity = builder.maxSessions > 0
+                ? (builder.maxSessions + shardsCount - 1) / shardsCount
+                : -1;
+        
+        shards = new Shard[shardsCount];
+        for (int i = 0; i < shardsCount; i++) {
+            shards[i] = new Shard(shardCapacity);
+        }
+        shardMask = shardsCount - 1;
+        
+        spillStore = builder.spillStore;
+        spillAfterIdleMillis = builder.spillAfterIdleMillis;
+        
+        expirerThreadPool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "Grizzly-HttpSession-Expirer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        
+        delayedExecutor = new DelayedExecutor(expirerThreadPool,
+                builder.checkIntervalMillis, TimeUnit.MILLISECONDS, true);
+        expirationQueue = delayedExecutor.createDelayQueue(
+                new ExpirationWorker(), new ExpirationResolver());
+        delayedExecutor.start();
+    }
+
+    @Override
+    public Session getSession(final Request request,
+            final String requestedSessionId) {
+        if (requestedSessionId == null) {
+            return null;
+        }
+        
+        final Shard shard = shardFor(requestedSessionId);
+        synchronized (shard) {
+            final ManagedSession session = shard.get(requestedSessionId);
+            if (session == null || !session.isValid()) {
+                return null;
+            }
+            
+            if (session.isSpilled && !restore(session)) {
+                session.setValid(false);
+                return null;
+            }
+            
+            return session;
+        }
+    }
+
+    @Override
+    public Session createSession(final Request request) {
+        final ManagedSession session = new ManagedSession();
+        
+        while (true) {
+            final String sessionId = generateSessionId();
+            final Shard shard = shardFor(sessionId);
+            synchronized (shard) {
+                if (!shard.containsKey(sessionId)) {
+                    session.setIdInternal(sessionId);
+                    shard.put(sessionId, session);
+                    break;
+                }
+            }
+        }
+        
+        // the session timeout is normally set after the session is created,
+        // so let the expiration queue resolve it on the next check
+        expirationQueue.add(session, 0, TimeUnit.MILLISECONDS);
+        
+        return session;
+    }
+
+    @Override
+    public String changeSessionId(final Request request, final Session session) {
+        final String oldSessionId = session.getIdInternal();
+        final Shard oldShard = shardFor(oldSessionId);
+        
+        synchronized (oldShard) {
+            oldShard.remove(oldSessionId);
+            if (session instanceof ManagedSession) {
+                final ManagedSession managedSession = (ManagedSession) session;
+                if (managedSession.isSpilled && !restore(managedSession)) {
+                    managedSession.setValid(false);
+                }
+            }
+        }
+        
+        while (true) {
+            final String newSessionId = generateSessionId();
+            final Shard shard = shardFor(newSessionId);
+            synchronized (shard) {
+                if (!shard.containsKey(newSessionId)) {
+                    session.setIdInternal(newSessionId);
+                    if (session instanceof ManagedSession) {
+                        shard.put(newSessionId, (ManagedSession) session);
+                    }
+                    break;
+                }
+            }
+        }
+        
+        return oldSessionId;
+    }
+
+    @Override
+    public void configureSessionCookie(final Request request,
+            final Cookie cookie) {
+    }
+
+    @Override
+    public void setSessionCookieName(final String name) {
+        if (name != null && !name.isEmpty()) {
+            sessionCookieName = name;
+        }
+    }
+
+    @Override
+    public String getSessionCookieName() {
+        return sessionCookieName;
+    }
+
+    /**
+     * @return the number of sessions currently held by this manager,
+     *  including the spilled ones
+     */
+    public int getSessionCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                count += shard.size();
+            }
+        }
+        
+        return count;
+    }
+    
+    /**
+     * @return the number of sessions, which were invalidated, because the
+     *  manager reached its <tt>maxSessions</tt> limit
+     */
+    public long getEvictedSessionCount() {
+        return evictedCount.sum();
+    }
+    
+    /**
+     * @return the number of times session attributes were moved to the
+     *  {@link SpillStore}
+     */
+    public long getSpilledSessionCount() {
+        return spilledCount.sum();
+    }
+    
+    /**
+     * @return the {@link SpillStore} idle sessions are moved to, or
+     *  <tt>null</tt> if spilling is disabled
+     */
+    public SpillStore getSpillStore() {
+        return spillStore;
+    }
+    
+    /**
+     * Stops the expiration thread and invalidates all the sessions.
+     */
+    public void destroy() {
+        delayedExecutor.destroy();
+        expirerThreadPool.shutdownNow();
+        
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (ManagedSession session : shard.values()) {
+                    if (session.isSpilled && spillStore != null) {
+                        spillStore.remove(session.getIdInternal());
+                    }
+                    session.setValid(false);
+                }
+                shard.clear();
+            }
+        }
+    }
+    
+    private Shard shardFor(final String sessionId) {
+        final int h = sessionId.hashCode();
+        return shards[(h ^ (h >>> 16)) & shardMask];
+    }
+    
+    /**
+     * Generates a new URL and cookie safe session id, which carries 128 random bits.
+     */
+    private static String generateSessionId() {
+        final byte[] bytes = new byte[16];
+        RANDOM.get().nextBytes(bytes);
+        
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+    
+    /**
+     * Moves the session attributes to the {@link SpillStore}.
+     * Must be called with the session shard locked.
+     */
+    private void spill(final ManagedSession session) {
+        final Map<String, Object> attributes = session.attributes();
+        if (attributes.isEmpty()) {
+            return;
+        }
+        
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(new HashMap<>(attributes));
+        } catch (IOException e) {
+            // some of the attributes aren't serializable, keep them in heap
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.log(Level.FINEST, "Can't spill session " + session.getIdInternal(), e);
+            }
+            return;
+        }
+        
+        if (spillStore.store(session.getIdInternal(), baos.toByteArray())) {
+            attributes.clear();
+            session.isSpilled = true;
+            spilledCount.increment();
+        }
+    }
+    
+    /**
+     * Restores the session attributes from the {@link SpillStore}.
+     * Must be called with the session shard locked.
+     * 
+     * @return <tt>false</tt> if the session attributes were lost
+     */
+    @SuppressWarnings("unchecked")
+    private boolean restore(final ManagedSession session) {
+        session.isSpilled = false;
+        
+        final byte[] data = spillStore.load(session.getIdInternal());
+        if (data == null) {
+            return false;
+        }
+        
+        try (final ObjectInputStream ois =
+                new ContextObjectInputStream(new ByteArrayInputStream(data))) {
+            session.attributes().putAll((Map<String, Object>) ois.readObject());
+            return true;
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Can't restore session " + session.getIdInternal(), e);
+            return false;
+        }
+    }
+    
+    private void invalidate(final ManagedSession session) {
+        session.setValid(false);
+        if (session.isSpilled) {
+            session.isSpilled = false;
+            spillStore.remove(session.getIdInternal());
+        }
+    }
+    
+    private static boolean isExpired(final Session session,
+            final long currentTimeMillis) {
+        final long timeout = session.getSessionTimeout();
+        return !session.isValid()
+                || (timeout > 0 && currentTimeMillis - session.getTimestamp() > timeout);
+    }
+    
+    // ---------------------------------------------------------- Nested Classes
+    
+    
+    /**
+     * The storage the idle session attributes are moved to.
+     * The implementation has to be thread-safe.
+     */
+    public interface SpillStore {
+        /**
+         * Stores the serialized session attributes.
+         * 
+         * @param sessionId the session id
+         * @param data the serialized session attributes
+         * @return <tt>true</tt>, if the data has been stored, or <tt>false</tt>
+         *  if the store is full and the session has to stay in heap
+         */
+        boolean store(String sessionId, byte[] data);
+        
+        /**
+         * Removes and returns the serialized session attributes.
+         * 
+         * @param sessionId the session id
+         * @return the serialized session attributes, or <tt>null</tt> if
+         *  nothing is stored for the session
+         */
+        byte[] load(String sessionId);
+
+        /**
+         * Removes the serialized session attributes, if any.
+         * 
+         * @param sessionId the session id
+         */
+        void remove(String sessionId);
+    }
+    
+    /**
+     * {@link SpillStore}, which keeps the session data in direct
+     * {@link ByteBuffer}s, so it doesn't occupy Java heap.
+     */
+    public static class DirectSpillStore implements SpillStore {
+        private final ConcurrentMap<String, ByteBuffer> buffers =
+                new ConcurrentHashMap<>();
+        
+        private final long capacity;
+        private final AtomicLong size = new AtomicLong();
+
+        /**
+         * @param capacity the maximum number of bytes the store may hold
+         */
+        public DirectSpillStore(final long capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity has to be positive");
+            }
+            
+            this.capacity = capacity;
+        }
+        
+        @Override
+        public boolean store(final String sessionId, final byte[] data) {
+            if (size.addAndGet(data.length) > capacity) {
+                size.addAndGet(-data.length);
+                return false;
+            }
+            
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data);
+            buffer.flip();
+            
+            final ByteBuffer old = buffers.put(sessionId, buffer);
+            if (old != null) {
+                size.addAndGet(-old.capacity());
+            }
+            
+            return true;
+        }
+
+        @Override
+        public byte[] load(final String sessionId) {
+            final ByteBuffer buffer = buffers.remove(sessionId);
+            if (buffer == null) {
+                return null;
+            }
+            
+            size.addAndGet(-buffer.capacity());
+            
+            final byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            return data;
+        }
+
+        @Override
+        public void remove(final String sessionId) {
+            final ByteBuffer buffer = buffers.remove(sessionId);
+            if (buffer != null) {
+                size.addAndGet(-buffer.capacity());
+            }
+        }
+
+        /**
+         * @return the number of bytes held by the store
+         */
+        public long getSize() {
+            return size.get();
+        }
+
+        /**
+         * @return the maximum number of bytes the store may hold
+         */
+        public long getCapacity() {
+            return capacity;
+        }
+    }
+    
+    public static class Builder {
+        private int maxSessions = -1;
+        private int shards = Runtime.getRuntime().availableProcessors() * 2;
+        private long checkIntervalMillis = 1000;
+        private SpillStore spillStore;
+        private long spillAfterIdleMillis = TimeUnit.MINUTES.toMillis(5);
+        
+        /**
+         * Sets the maximum number of sessions. Once the limit is reached,
+         * the least recently used sessions get invalidated.
+         * Non-positive value means no limit (default).
+         */
+        public Builder maxSessions(final int maxSessions) {
+            this.maxSessions = maxSessions;
+            return this;
+        }
+
+        /**
+         * Sets the number of independently locked shards, the value is
+         * rounded up to the power of two.
+         */
+        public Builder shards(final int shards) {
+            if (shards <= 0) {
+                throw new IllegalArgumentException("shards has to be positive");
+            }
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * Sets the expiration check interval, which is also the expiration precision
+         * (1 second by default).
+         */
+        public Builder checkInterval(final long checkInterval, final TimeUnit timeUnit) {
+            this.checkIntervalMillis = timeUnit.toMillis(checkInterval);
+            return this;
+        }
+
+        /**
+         * Sets the {@link SpillStore} the idle sessions are moved to.
+         * <tt>null</tt> (default) disables spilling.
+         */
+        public Builder spillStore(final SpillStore spillStore) {
+            this.spillStore = spillStore;
+            return this;
+        }
+
+        /**
+         * Sets the idle time after which the session is moved to the
+         * {@link SpillStore} (5 minutes by default).
+         */
+        public Builder spillAfterIdle(final long idleTime, final TimeUnit timeUnit) {
+            if (idleTime <= 0) {
+                throw new IllegalArgumentException("idle time has to be positive");
+            }
+            this.spillAfterIdleMillis = timeUnit.toMillis(idleTime);
+            return this;
+        }
+        
+        public ShardedSessionManager build() {
+            return new ShardedSessionManager(this);
+        }
+    }
+    
+    private final class ManagedSession extends Session {
+        // the fields are updated with the shard monitor held
+        private volatile boolean isSpilled;
+        
+        // the last access timestamp the spilling was considered for
+        private volatile long spillCheckTimestamp = Long.MIN_VALUE;
+
+        @Override
+        public void setSessionTimeout(final long sessionTimeout) {
+            final long oldSessionTimeout = getSessionTimeout();
+            super.setSessionTimeout(sessionTimeout);
+            
+            if (sessionTimeout != oldSessionTimeout
+                    && getIdInternal() != null && isValid()) {
+                // the session may be scheduled for a far check, for example
+                // NO_TIMEOUT_RECHECK_MILLIS, so let the expiration queue
+                // resolve the new timeout on the next check
+                expirationQueue.add(this, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    private final class Shard extends LinkedHashMap<String, ManagedSession> {
+        private static final long serialVersionUID = 1L;
+        
+        private final int capacity;
+
+        private Shard(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                final Map.Entry<String, ManagedSession> eldest) {
+            if (capacity > 0 && size() > capacity) {
+                final ManagedSession session = eldest.getValue();
+                invalidate(session);
+                
+                // release the attributes right away and let the expiration
+                // queue retire the session on the next check, instead of
+                // holding it until its original timeout
+                session.attributes().clear();
+                expirationQueue.remove(session);
+                
+                evictedCount.increment();
+                return true;
+            }
+            
+            return false;
+        }
+    }
+    
+    private final class ExpirationResolver
+            implements DelayedExecutor.Resolver<ManagedSession> {
+
+        @Override
+        public boolean removeTimeout(final ManagedSession session) {
+            // the timeout is derived from the session state
+            return false;
+        }
+
+        @Override
+        public long getTimeoutMillis(final ManagedSession session) {
+            if (!session.isValid()) {
+                // remove ASAP
+                return 0;
+            }
+            
+            final long timestamp = session.getTimestamp();
+            final long timeout = session.getSessionTimeout();
+            long timeoutMillis = timeout > 0
+                    ? timestamp + timeout + 1
+                    : Long.MAX_VALUE;
+            
+            if (spillStore != null && !session.isSpilled
+                    && session.spillCheckTimestamp != timestamp) {
+                timeoutMillis = Math.min(timeoutMillis, timestamp + spillAfterIdleMillis);
+            }
+            
+            return timeoutMillis != Long.MAX_VALUE
+                    ? timeoutMillis
+                    : System.currentTimeMillis() + NO_TIMEOUT_RECHECK_MILLIS;
+        }
+
+        @Override
+        public void setTimeoutMillis(final ManagedSession session,
+                final long timeoutMillis) {
+            // the timeout is derived from the session state
+        }
+    }
+    
+    private final class ExpirationWorker
+            implements DelayedExecutor.Worker<ManagedSession> {
+
+        @Override
+        public boolean doWork(final ManagedSession session) {
+            final long currentTimeMillis = System.currentTimeMillis();
+            final String sessionId = session.getIdInternal();
+            final Shard shard = shardFor(sessionId);
+            
+            synchronized (shard) {
+                if (isExpired(session, currentTimeMillis)) {
+                    invalidate(session);
+                    
+                    final ManagedSession mapped = shard.remove(sessionId);
+                    if (mapped != null && mapped != session) {
+                        // the session has already been evicted and
+                        // the id is taken by another session
+                        shard.put(sessionId, mapped);
+                    }
+                    
+                    return true;
+                }
+                
+                final long timestamp = session.getTimestamp();
+                if (spillStore != null && !session.isSpilled
+                        && currentTimeMillis - timestamp >= spillAfterIdleMillis) {
+                    session.spillCheckTimestamp = timestamp;
+                    spill(session);
+                }
+            }
+            
+            // keep tracking the session
+            return false;
+        }
+    }
+    
+    /**
+     * {@link ObjectInputStream}, which resolves the classes using the thread
+     * context {@link ClassLoader}, so the web application classes may be restored.
+     */
+    private static final class ContextObjectInputStream extends ObjectInputStream {
+
+        private ContextObjectInputStream(final InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            if (cl != null) {
+                try {
+                    return Class.forName(desc.getName(), false, cl);
+                } catch (ClassNotFoundException ignored) {
+                }
+            }
+            
+            return super.resolveClass(desc);
+        }
+    }
+}
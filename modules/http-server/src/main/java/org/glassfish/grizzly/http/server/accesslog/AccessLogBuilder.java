@@ -72,6 +72,11 @@ public class AccessLogBuilder {
     private String rotationPattern;
     /* Non-synchronous, always use a Queue+Thread */
     private boolean synchronous;
+    /* Plain streams by default, not memory-mapped files */
+    private boolean memoryMapped;
+    /* The ring buffer for memory-mapped, non-synchronous logs */
+    private int bufferCapacity = RingBufferAppender.DEFAULT_CAPACITY;
+    private RingBufferAppender.OverflowPolicy overflowPolicy = RingBufferAppender.OverflowPolicy.DROP;
 
     /* The base file name of the access log */
     private final File file;
@@ -106,7 +111,9 @@ public class AccessLogBuilder {
         AccessLogAppender appender;
         try {
             if (rotationPattern == null) {
-                appender = new FileAppender(file.getCanonicalFile());
+                appender = memoryMapped ?
+                        new MappedFileAppender(file.getCanonicalFile()) :
+                        new FileAppender(file.getCanonicalFile());
             } else {
                 /* Get directory and base file name (encode ' single quotes) */
                 final File directory = file.getCanonicalFile().getParentFile();
@@ -132,14 +139,20 @@ public class AccessLogBuilder {
                                         .toString();
 
                 /* Create our appender */
-                appender = new RotatingFileAppender(directory, name, archive);
+                appender = memoryMapped ?
+                        new MappedFileAppender(directory, name, archive) :
+                        new RotatingFileAppender(directory, name, archive);
             }
         } catch (IOException exception) {
             throw new IllegalStateException("I/O error creating acces log", exception);
         }
 
         /* Wrap the synch in a queue in a-synchronous */
-        if (!synchronous) appender = new QueueingAppender(appender);
+        if (!synchronous) {
+            appender = memoryMapped ?
+                    new RingBufferAppender((MappedFileAppender) appender, bufferCapacity, overflowPolicy) :
+                    new QueueingAppender(appender);
+        }
 
         /* Create and return our probe */
         return new AccessLogProbe(appender, format, statusThreshold);
@@ -268,4 +281,39 @@ public class AccessLogBuilder {
         this.synchronous = synchronous;
         return this;
     }
+
+    /**
+     * Specify whether access log entries should be written to
+     * <em>memory-mapped</em> files.
+     *
+     * <p>If <b>true</b> a {@link MappedFileAppender} will be used, and unless
+     * access logs are {@linkplain #synchronous(boolean) synchronous}, entries
+     * will be queued in a {@link RingBufferAppender} instead of a
+     * {@link QueueingAppender}.</p>
+     */
+    public AccessLogBuilder memoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
+    /**
+     * Set the capacity, in bytes, of the {@link RingBufferAppender} used by
+     * {@linkplain #memoryMapped(boolean) memory-mapped} access logs.
+     */
+    public AccessLogBuilder bufferCapacity(int bufferCapacity) {
+        if (bufferCapacity < 1) throw new IllegalArgumentException("Invalid buffer capacity " + bufferCapacity);
+        this.bufferCapacity = bufferCapacity;
+        return this;
+    }
+
+    /**
+     * Set what the {@link RingBufferAppender} used by
+     * {@linkplain #memoryMapped(boolean) memory-mapped} access logs does with
+     * new entries when full (default, {@linkplain RingBufferAppender.OverflowPolicy#DROP drop}).
+     */
+    public AccessLogBuilder overflowPolicy(RingBufferAppender.OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) throw new NullPointerException("Null overflow policy");
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
 }
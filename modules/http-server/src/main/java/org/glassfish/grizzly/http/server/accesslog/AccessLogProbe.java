@@ -70,6 +70,8 @@ public class AccessLogProbe extends HttpServerProbe.Adapter {
 
     /* Our timestamp request attribute */
     private static final String ATTRIBUTE_TIME_STAMP = AccessLogProbe.class.getName() + ".timeStamp";
+    /* The max capacity of a per-thread builder we keep around */
+    private static final int MAX_BUILDER_CAPACITY = 8192;
     /* Our logger, for eventualities */
     private static final Logger LOGGER = Grizzly.logger(HttpServer.class);
 
@@ -79,6 +81,8 @@ public class AccessLogProbe extends HttpServerProbe.Adapter {
     private final AccessLogFormat format;
     /* The minimum status threshold */
     private final int statusThreshold;
+    /* Per-thread builders, when formatting straight into a ring buffer */
+    private final ThreadLocal<StringBuilder> builders;
 
     /**
      * Create a new {@link AccessLogProbe} formatting data with the specified
@@ -104,6 +108,8 @@ public class AccessLogProbe extends HttpServerProbe.Adapter {
         this.appender = appender;
         this.format = format;
         this.statusThreshold = statusThreshold;
+        builders = (appender instanceof RingBufferAppender) && (format instanceof ApacheLogFormat) ?
+                new ThreadLocal<StringBuilder>() : null;
     }
 
     /**
@@ -145,10 +151,28 @@ public class AccessLogProbe extends HttpServerProbe.Adapter {
 
         /* Create a formatted log entry string and append it */
         try {
-            appender.append(format.format(response, requestMillis, responseNanos));
+            if (builders != null) {
+                /* Format into our re-used builder, the ring buffer copies it */
+                final StringBuilder builder = builder();
+                ((ApacheLogFormat) format).format(response, requestMillis, responseNanos, builder);
+                ((RingBufferAppender) appender).append(builder);
+            } else {
+                appender.append(format.format(response, requestMillis, responseNanos));
+            }
         } catch (Throwable throwable) {
             LOGGER.log(WARNING, "Exception caught appending to access log", throwable);
         }
     }
 
+    private StringBuilder builder() {
+        StringBuilder builder = builders.get();
+        if (builder == null || builder.capacity() > MAX_BUILDER_CAPACITY) {
+            /* Don't keep around builders grown by unusually large entries */
+            builder = new StringBuilder(256);
+            builders.set(builder);
+        }
+        builder.setLength(0);
+        return builder;
+    }
+
 }
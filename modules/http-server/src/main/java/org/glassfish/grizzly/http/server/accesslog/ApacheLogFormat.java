@@ -209,7 +209,20 @@ public class ApacheLogFormat implements AccessLogFormat {
 
     @Override
     public String format(Response response, Date timeStamp, long responseNanos) {
-        final StringBuilder builder = new StringBuilder();
+        return format(response, timeStamp, responseNanos, new StringBuilder()).toString();
+    }
+
+    /**
+     * Format the data contained in the specified {@link Response} appending
+     * it to the specified {@link StringBuilder}.
+     *
+     * <p>This allows callers to re-use the same {@link StringBuilder} for
+     * every entry, rather than creating a new {@link String} per request.</p>
+     *
+     * @return The same {@link StringBuilder} specified as a parameter.
+     * @since 3.0
+     */
+    public StringBuilder format(Response response, Date timeStamp, long responseNanos, StringBuilder builder) {
         final Request request = response.getRequest();
         for (Field field: fields) try {
             field.format(builder, request, response, timeStamp, responseNanos);
@@ -217,7 +230,7 @@ public class ApacheLogFormat implements AccessLogFormat {
             LOGGER.log(WARNING, "Exception formatting access log entry", exception);
             builder.append('-');
         }
-        return builder.toString();
+        return builder;
     }
 
     String unsafeFormat(Response response, Date timeStamp, long responseNanos) {
@@ -575,6 +588,8 @@ public class ApacheLogFormat implements AccessLogFormat {
         private final TimeZone timeZone;
         private final String pattern;
         private final String format;
+        /* The last formatted second, null if the pattern has sub-second precision */
+        private final ThreadLocal<CachedTimeStamp> cachedTimeStamp;
 
         RequestTimeField(String format, TimeZone zone) {
             this.format = format;
@@ -604,21 +619,45 @@ public class ApacheLogFormat implements AccessLogFormat {
 
             /* Get our simple date format */
             simpleDateFormat = new SimpleDateFormatThreadLocal(pattern);
+
+            /* Without milliseconds ('S') the text only changes once per second */
+            cachedTimeStamp = pattern.indexOf('S') < 0 ? new ThreadLocal<CachedTimeStamp>() : null;
         }
 
         @Override
         StringBuilder format(StringBuilder builder, Request request, Response response, Date timeStamp, long responseNanos) {
             if (timeStamp == null) return builder.append('-');
 
+            if (cachedTimeStamp == null) return builder.append(formatDate(timeStamp));
+
+            final long second = Math.floorDiv(timeStamp.getTime(), 1000L);
+            CachedTimeStamp cached = cachedTimeStamp.get();
+            if (cached == null) {
+                cached = new CachedTimeStamp();
+                cachedTimeStamp.set(cached);
+            }
+            if (cached.text == null || cached.second != second) {
+                cached.second = second;
+                cached.text = formatDate(timeStamp);
+            }
+            return builder.append(cached.text);
+        }
+
+        private String formatDate(Date timeStamp) {
             final SimpleDateFormat format = simpleDateFormat.get();
             format.setTimeZone(timeZone);
-            return builder.append(format.format(timeStamp));
+            return format.format(timeStamp);
         }
 
         @Override
         public String toString() {
             return format == null ? "%t" : "%{" + format + "}t";
         }
+
+        private static final class CachedTimeStamp {
+            long second;
+            String text;
+        }
     }
 
     /* ====================================================================== */
@@ -0,0 +1,300 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http.server.accesslog;
+
+import static java.util.logging.Level.WARNING;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Logger;
+
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.http.server.HttpServer;
+
+/**
+ * An {@link AccessLogAppender appender} writing log entries to a memory-mapped
+ * {@link File}, optionally rotating it like the {@link RotatingFileAppender}.
+ *
+ * <p>The file is mapped in regions of {@link #DEFAULT_REGION_SIZE} bytes, so
+ * appending an entry is a plain memory copy. While open, the file is therefore
+ * padded with zeroes up to the end of the current region: tools reading the
+ * live file should stop at the first <code>NUL</code> byte. When the file is
+ * closed or rotated it is truncated to the size of the data actually written;
+ * if it was never closed, the padding is trimmed the next time it is
+ * opened.</p>
+ *
+ * <p>Log entries will <b>always</b> encoded in <em>UTF-8</em>. Pre-encoded
+ * entries can be written with {@link #write(byte[], int, int)}, or with
+ * {@link #write(byte[], int, int, byte[], int, int)} as done by the
+ * {@link RingBufferAppender}.</p>
+ *
+ * @since 3.0
+ */
+public class MappedFileAppender implements AccessLogAppender {
+
+    /** The default size of the memory-mapped regions of the file (1 MB). */
+    public static final int DEFAULT_REGION_SIZE = 1024 * 1024;
+
+    private static final Logger LOGGER = Grizzly.logger(HttpServer.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /* Line separator for entries, respect Windoshhhh */
+    private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes(UTF8);
+
+    /* The SDF that will format the "archive" file name, null if not rotating */
+    private final SimpleDateFormat archiveFormat;
+    /* The directory where to keep files */
+    private final File directory;
+    /* The file we're actually writing to */
+    private final File currentFile;
+    /* The size of each mapped region */
+    private final int regionSize;
+
+    /* The name of the current archive file name */
+    private File currentArchive;
+    /* The second when we last checked for rotation */
+    private long lastRotationCheck;
+
+    /* Our file and the currently mapped region */
+    private FileChannel channel;
+    private MappedByteBuffer region;
+    /* The position in the file where the next byte will be written */
+    private long position;
+    /* Flag, closed, byebye */
+    private boolean closed;
+
+    /**
+     * Create a new {@link MappedFileAppender} <em>appending to</em> (and not
+     * overwriting) the specified {@link File}.
+     *
+     * @throws IOException If an I/O error occurred opening the file.
+     */
+    public MappedFileAppender(File file)
+    throws IOException {
+        this.directory = file.getCanonicalFile().getParentFile();
+        this.currentFile = file.getCanonicalFile();
+        this.archiveFormat = null;
+        this.regionSize = DEFAULT_REGION_SIZE;
+        open();
+    }
+
+    /**
+     * Create a {@link MappedFileAppender} writing access log files in the
+     * specified directory, and archiving them according to the specified
+     * {@link SimpleDateFormat} pattern.
+     *
+     * <p>As with {@link RotatingFileAppender#RotatingFileAppender(File, String, String)},
+     * entries will always be written to the file identified by the
+     * <code>fileName</code> parameter, which will then be renamed to the
+     * archive file whenever the formatted archive name changes.</p>
+     *
+     * @param directory The directory where access log files will be written to.
+     * @param fileName A file name where log entries will be written to.
+     * @param archivePattern A properly escaped {@link SimpleDateFormat} pattern
+     *                       for the access log archive files.
+     * @throws IOException If an I/O error occurred accessing the filesystem.
+     */
+    public MappedFileAppender(File directory, String fileName, String archivePattern)
+    throws IOException {
+        if (fileName == null) throw new NullPointerException("Null file name");
+        if (archivePattern == null) throw new NullPointerException("Null archive pattern");
+
+        this.directory = directory.getCanonicalFile();
+        this.currentFile = new File(this.directory, fileName).getCanonicalFile();
+        this.archiveFormat = new SimpleDateFormat(archivePattern);
+        this.regionSize = DEFAULT_REGION_SIZE;
+
+        currentArchive = new File(this.directory, archiveFormat.format(new Date())).getCanonicalFile();
+
+        /* Validate the arguments */
+        if (!this.directory.equals(currentFile.getParentFile()))
+            throw new IllegalArgumentException("Access log file \"" + currentFile + "\" is not a child of the configured directory \"" + this.directory + "\"");
+        if (!this.directory.equals(currentArchive.getParentFile()))
+            throw new IllegalArgumentException("Archive file \"" + currentArchive + "\" is not a child of the configured directory \"" + this.directory + "\"");
+        if (currentArchive.equals(currentFile))
+            throw new IllegalArgumentException("Access log file and archive file point to the same file \"" + currentFile + "\"");
+
+        LOGGER.fine("Creating memory-mapped log appender in \"" + directory + "\" writing to \"" + fileName + "\" and archive pattern \"" + archivePattern + "\"");
+        open();
+    }
+
+    /* ====================================================================== */
+    /* DO SOME ACTUAL WORK                                                    */
+    /* ====================================================================== */
+
+    @Override
+    public void append(String accessLogEntry)
+    throws IOException {
+        final byte[] bytes = accessLogEntry.getBytes(UTF8);
+        write(bytes, 0, bytes.length, LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+    }
+
+    /**
+     * Append the specified, already encoded, bytes to the access log. No line
+     * separator is added.
+     *
+     * @throws IOException If an I/O error occurred mapping the file.
+     */
+    public void write(byte[] bytes, int offset, int length)
+    throws IOException {
+        write(bytes, offset, length, bytes, 0, 0);
+    }
+
+    /**
+     * Append two ranges of already encoded bytes as a single write: rotation
+     * is checked once, before writing, so the two ranges always end up in the
+     * same file. This is how the {@link RingBufferAppender} writes entries
+     * wrapping around the end of its ring. No line separator is added.
+     *
+     * @throws IOException If an I/O error occurred mapping the file.
+     */
+    public synchronized void write(byte[] first, int firstOffset, int firstLength,
+                                   byte[] second, int secondOffset, int secondLength)
+    throws IOException {
+        if (closed) return;
+        if (archiveFormat != null) checkRotation();
+        if (channel == null) throw new IOException("Access log file \"" + currentFile + "\" is not open");
+
+        put(first, firstOffset, firstLength);
+        put(second, secondOffset, secondLength);
+    }
+
+    @Override
+    public synchronized void close()
+    throws IOException {
+        if (closed) return;
+        closed = true;
+        closeFile();
+    }
+
+    /* ====================================================================== */
+
+    private void put(byte[] bytes, int offset, int length)
+    throws IOException {
+        while (length > 0) {
+            if (region == null || !region.hasRemaining()) {
+                region = channel.map(FileChannel.MapMode.READ_WRITE, position, regionSize);
+            }
+            final int chunk = Math.min(length, region.remaining());
+            region.put(bytes, offset, chunk);
+            position += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void checkRotation() {
+        /* The archive name can only change when the second changes */
+        final long now = System.currentTimeMillis();
+        final long second = now / 1000L;
+        if (second == lastRotationCheck) return;
+        lastRotationCheck = second;
+
+        final File archive = new File(directory, archiveFormat.format(new Date(now)));
+        if (!archive.equals(currentArchive)) try {
+            closeFile();
+            LOGGER.info("Archiving \"" + currentFile + "\" to \"" + currentArchive + "\"");
+            if (!currentFile.renameTo(currentArchive))
+                throw new IOException("Unable to rename \"" + currentFile + "\" to \"" + currentArchive + "\"");
+        } catch (IOException exception) {
+            LOGGER.log(WARNING, "I/O error rotating access log file", exception);
+        } finally {
+            currentArchive = archive;
+        }
+
+        /* Re-open after rotating, or if we failed to do so earlier */
+        if (channel == null) try {
+            open();
+        } catch (IOException exception) {
+            LOGGER.log(WARNING, "I/O error opening access log file \"" + currentFile + "\"", exception);
+        }
+    }
+
+    private void open()
+    throws IOException {
+        channel = FileChannel.open(currentFile.toPath(),
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        position = trimmedSize(channel);
+        region = null;
+        LOGGER.info("Access log file \"" + currentFile.getAbsolutePath() + "\" opened");
+    }
+
+    private void closeFile()
+    throws IOException {
+        if (channel == null) return;
+
+        /* Mapped regions are released by the GC, drop our reference */
+        region = null;
+        try {
+            channel.truncate(position);
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /* Find the size of the file, ignoring the zeroes left by a crash */
+    private static long trimmedSize(FileChannel channel)
+    throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long size = channel.size();
+        while (size > 0) {
+            final long start = Math.max(0, size - buffer.capacity());
+            buffer.clear().limit((int) (size - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) break;
+            }
+            for (int x = buffer.position() - 1; x >= 0; x --) {
+                if (buffer.get(x) != 0) return start + x + 1;
+            }
+            size = start;
+        }
+        return 0;
+    }
+}
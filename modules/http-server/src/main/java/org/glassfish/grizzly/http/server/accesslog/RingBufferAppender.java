@@ -0,0 +1,339 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http.server.accesslog;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+import java.io.IOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.http.server.HttpServer;
+
+/**
+ * An {@link AccessLogAppender appender} encoding log entries (in
+ * <em>UTF-8</em>) straight into a pre-allocated ring of bytes, which a
+ * separate {@link Thread} then writes to a {@link MappedFileAppender}.
+ *
+ * <p>Unlike the {@link QueueingAppender} no object is created per entry and
+ * the memory used is bounded: when the ring is full, depending on the
+ * configured {@link OverflowPolicy}, new entries are either
+ * {@linkplain OverflowPolicy#DROP dropped} or the
+ * {@linkplain OverflowPolicy#BLOCK caller blocks} until there is space.</p>
+ *
+ * <p>Entries formatted into a re-used {@link StringBuilder} can be appended
+ * with {@link #append(CharSequence)}, this is what the {@link AccessLogProbe}
+ * does when used with an {@link ApacheLogFormat}.</p>
+ *
+ * @since 3.0
+ */
+public class RingBufferAppender implements AccessLogAppender {
+
+    /**
+     * What to do with new entries when the ring buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** Discard the entry, counting it in {@link #getDroppedCount()}. */
+        DROP,
+        /** Wait for the writer thread to free enough space. */
+        BLOCK
+    }
+
+    /** The default capacity of the ring buffer, in bytes (1 MB). */
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    private static final Logger LOGGER = Grizzly.logger(HttpServer.class);
+    /* Line separator for entries, respect Windoshhhh */
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /* Our ring, and the total number of bytes read from / written to it */
+    private final byte[] ring;
+    private long head;
+    private long tail;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /* Where to write stuff to */
+    private final MappedFileAppender appender;
+    /* What to do when we're full */
+    private final OverflowPolicy overflowPolicy;
+    /* The thread doing the writing */
+    private final Thread thread;
+
+    private long droppedCount;
+    private volatile boolean closed;
+
+    /**
+     * Create a new {@link RingBufferAppender} with a ring buffer of
+     * {@link #DEFAULT_CAPACITY} bytes, dropping entries when full.
+     */
+    public RingBufferAppender(MappedFileAppender appender) {
+        this(appender, DEFAULT_CAPACITY, OverflowPolicy.DROP);
+    }
+
+    /**
+     * Create a new {@link RingBufferAppender} instance.
+     *
+     * @param appender The {@link MappedFileAppender} to write entries to.
+     * @param capacity The size of the ring buffer, in bytes.
+     * @param overflowPolicy What to do with entries when the ring is full.
+     */
+    public RingBufferAppender(MappedFileAppender appender, int capacity, OverflowPolicy overflowPolicy) {
+        if (appender == null) throw new NullPointerException("Null appender");
+        if (overflowPolicy == null) throw new NullPointerException("Null overflow policy");
+        if (capacity < 1) throw new IllegalArgumentException("Invalid capacity " + capacity);
+        this.appender = appender;
+        this.overflowPolicy = overflowPolicy;
+        ring = new byte[capacity];
+
+        thread = new Thread(new Writer());
+        thread.setName(toString());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /* ====================================================================== */
+
+    @Override
+    public void append(String accessLogEntry)
+    throws IOException {
+        append((CharSequence) accessLogEntry);
+    }
+
+    /**
+     * Append the specified access log entry, followed by a line separator.
+     *
+     * <p>The characters are copied before this method returns, the specified
+     * {@link CharSequence} can be re-used straight away.</p>
+     *
+     * @return <b>true</b> if the entry was queued, <b>false</b> if it was
+     *         dropped or this appender is closed.
+     */
+    public boolean append(CharSequence accessLogEntry) {
+        if (closed) return false;
+
+        final int length = encodedLength(accessLogEntry) + LINE_SEPARATOR.length();
+        final int capacity = ring.length;
+
+        lock.lock();
+        try {
+            if (length > capacity) {
+                droppedCount ++;
+                return false;
+            }
+
+            while (capacity - (tail - head) < length) {
+                if (closed) return false;
+                if (overflowPolicy == OverflowPolicy.DROP) {
+                    droppedCount ++;
+                    return false;
+                }
+                notFull.awaitUninterruptibly();
+            }
+
+            final boolean wasEmpty = tail == head;
+            int index = encode(accessLogEntry, (int) (tail % capacity));
+            encode(LINE_SEPARATOR, index);
+            tail += length;
+            if (wasEmpty) notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of entries dropped because the ring buffer was full.
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of bytes queued and not yet written.
+     */
+    public int getQueuedBytes() {
+        lock.lock();
+        try {
+            return (int) (tail - head);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close this appender, writing any queued entry before closing the
+     * underlying {@link MappedFileAppender}.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException exception) {
+            LOGGER.log(FINE, "Interrupted stopping writer", exception);
+        } finally {
+            appender.close();
+        }
+    }
+
+    /* ====================================================================== */
+    /* UTF-8 ENCODING                                                         */
+    /* ====================================================================== */
+
+    private static int encodedLength(CharSequence sequence) {
+        final int length = sequence.length();
+        int bytes = length;
+        for (int x = 0; x < length; x ++) {
+            final char c = sequence.charAt(x);
+            if (c < 0x80) continue;
+            if (c < 0x800) {
+                bytes ++;
+            } else if (Character.isHighSurrogate(c) && x + 1 < length
+                       && Character.isLowSurrogate(sequence.charAt(x + 1))) {
+                bytes += 2; // 4 bytes for 2 chars
+                x ++;
+            } else if (Character.isSurrogate(c)) {
+                continue; // unpaired, written as '?'
+            } else {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /* Encode in the ring starting at the specified index, return the next index */
+    private int encode(CharSequence sequence, int index) {
+        final byte[] ring = this.ring;
+        final int length = sequence.length();
+        for (int x = 0; x < length; x ++) {
+            final char c = sequence.charAt(x);
+            if (c < 0x80) {
+                ring[index] = (byte) c;
+                if (++ index == ring.length) index = 0;
+            } else if (c < 0x800) {
+                index = put(index, 0xC0 | (c >> 6));
+                index = put(index, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && x + 1 < length
+                       && Character.isLowSurrogate(sequence.charAt(x + 1))) {
+                final int codePoint = Character.toCodePoint(c, sequence.charAt(++ x));
+                index = put(index, 0xF0 | (codePoint >> 18));
+                index = put(index, 0x80 | ((codePoint >> 12) & 0x3F));
+                index = put(index, 0x80 | ((codePoint >> 6) & 0x3F));
+                index = put(index, 0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                index = put(index, '?');
+            } else {
+                index = put(index, 0xE0 | (c >> 12));
+                index = put(index, 0x80 | ((c >> 6) & 0x3F));
+                index = put(index, 0x80 | (c & 0x3F));
+            }
+        }
+        return index;
+    }
+
+    private int put(int index, int value) {
+        ring[index] = (byte) value;
+        return ++ index == ring.length ? 0 : index;
+    }
+
+    /* ====================================================================== */
+    /* OUR WRITER                                                             */
+    /* ====================================================================== */
+
+    private final class Writer implements Runnable {
+        @Override
+        public void run() {
+            final int capacity = ring.length;
+            while (true) {
+                final long from;
+                final long to;
+                lock.lock();
+                try {
+                    while (tail == head) {
+                        if (closed) return;
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    from = head;
+                    to = tail;
+                } finally {
+                    lock.unlock();
+                }
+
+                /* Producers never touch [from, to) until we move the head */
+                try {
+                    final int start = (int) (from % capacity);
+                    final int length = (int) (to - from);
+                    final int first = Math.min(length, capacity - start);
+                    appender.write(ring, start, first, ring, 0, length - first);
+                } catch (Throwable throwable) {
+                    LOGGER.log(WARNING, "Exception caught writing access log entries", throwable);
+                }
+
+                lock.lock();
+                try {
+                    head = to;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
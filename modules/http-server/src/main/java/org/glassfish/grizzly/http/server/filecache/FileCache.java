@@ -59,12 +59,14 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
@@ -107,7 +109,19 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
      * Cache size.
      */
     private final AtomicInteger cacheSize = new AtomicInteger();
-    
+
+    /**
+     * The maximum entries in the {@link FileCache}
+     */
+    private volatile int maxCacheEntries = 1024;
+
+    /**
+     * The admission and eviction policy, guarded by the <tt>policyLock</tt>.
+     */
+    private final FileCachePolicy policy = new FileCachePolicy(maxCacheEntries);
+
+    private final ReentrantLock policyLock = new ReentrantLock();
+
     /**
      * A {@link ByteBuffer} cache of static pages.
      */
@@ -120,11 +134,6 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
      */
     private int secondsMaxAge = -1;
 
-    /**
-     * The maximum entries in the {@link FileCache}
-     */
-    private volatile int maxCacheEntries = 1024;
-
     /**
      * The maximum size of a cached resource.
      */
@@ -223,6 +232,9 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
     
     /**
      * Add a resource to the cache.
+     * If the cache is full, the resource is admitted only if it's requested
+     * more often than the entries, which have to be evicted to make room
+     * for it, otherwise {@link CacheResult#FAILED_CACHE_FULL} is returned.
      */
     protected CacheResult add(final HttpRequestPacket request,
             final File cacheFile, final long lastModified) {
@@ -240,15 +252,15 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
             return CacheResult.FAILED_ENTRY_EXISTS;
         }
 
-        final int size = cacheSize.incrementAndGet();
-        // cache is full.
-        if (size > getMaxCacheEntries()) {
-            cacheSize.decrementAndGet();
-            fileCacheMap.remove(key);
-            key.recycle();
-            return CacheResult.FAILED_CACHE_FULL;
+        final CacheType type = cacheFile != null
+                ? resolveType(cacheFile.length())
+                : CacheType.TIMESTAMP;
+        
+        // check the admission before mapping the file
+        if (!canAdmit(key, type, cacheFile != null ? cacheFile.length() : 0)) {
+            return reject(key, host, requestURI);
         }
-
+        
         final HttpResponsePacket response = request.getResponse();
         final MimeHeaders headers = response.getHeaders();
         
@@ -256,7 +268,7 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
         
         final FileCacheEntry entry;
         if (cacheFile != null) { // If we have a file - try to create File-aware cache resource
-            entry = createEntry(cacheFile);
+            entry = createEntry(cacheFile, type);
             entry.setCanBeCompressed(canBeCompressed(cacheFile, contentType));
         } else {
             entry = new FileCacheEntry(this);
@@ -275,7 +287,46 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
         entry.Etag = headers.getHeader(Header.ETag);
         entry.server = headers.getHeader(Header.Server);
 
-        fileCacheMap.put(key, entry);
+        final long weight = weightOf(entry.type, entry.plainFileSize);
+        final List<FileCacheEntry> victims;
+        
+        policyLock.lock();
+        try {
+            victims = policy.selectVictims(key.hashCode(), entry.type, weight,
+                    budgetOf(entry.type), getMaxCacheEntries());
+            
+            if (victims != null) {
+                for (int i = 0; i < victims.size(); i++) {
+                    removeLocked(victims.get(i));
+                }
+                
+                policy.add(entry, weight);
+                if (entry.type == CacheType.MAPPED) {
+                    addMappedMemorySize(weight);
+                } else if (entry.type == CacheType.HEAP) {
+                    addHeapSize(weight);
+                }
+                cacheSize.incrementAndGet();
+                
+                fileCacheMap.put(key, entry);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+        
+        if (victims == null) {
+            return reject(key, host, requestURI);
+        }
+        
+        for (int i = 0; i < victims.size(); i++) {
+            final FileCacheEntry victim = victims.get(i);
+            if (delayQueue != null) {
+                delayQueue.remove(victim);
+            }
+
+            notifyProbesEntryEvicted(this, victim);
+            notifyProbesEntryRemoved(this, victim);
+        }
         
         notifyProbesEntryAdded(this, entry);
         
@@ -300,9 +351,12 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
 
         final LazyFileCacheKey key = LazyFileCacheKey.create(request);
         final FileCacheEntry entry = fileCacheMap.get(key);
+        final int hashCode = key.hashCode();
         key.recycle();
         try {
             if (entry != null && entry != NULL_CACHE_ENTRY) {
+                recordHit(entry);
+                
                 // determine if we need to send the cache entry bytes
                 // to the user-agent
                 final HttpStatus httpStatus = checkIfHeaders(entry, request);
@@ -320,6 +374,7 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
                 return entry;
             }
 
+            recordMiss(hashCode);
             notifyProbesEntryMissed(this, request);
         } catch (Exception e) {
             notifyProbesError(this, e);
@@ -333,17 +388,136 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
     }
 
     protected void remove(final FileCacheEntry entry) {
-        if (fileCacheMap.remove(entry.key) != null) {
-            cacheSize.decrementAndGet();
+        final boolean isRemoved;
+        
+        policyLock.lock();
+        try {
+            isRemoved = removeLocked(entry);
+        } finally {
+            policyLock.unlock();
+        }
+
+        if (isRemoved) {
+            notifyProbesEntryRemoved(this, entry);
         }
+    }
+
+    /**
+     * Removes the entry from the cache, must be called under the
+     * <tt>policyLock</tt>.
+     * 
+     * @return <tt>true</tt> if the entry has been removed, or <tt>false</tt>
+     *         if it has been already removed
+     */
+    private boolean removeLocked(final FileCacheEntry entry) {
+        if (!policy.remove(entry)) {
+            return false;
+        }
+        
+        fileCacheMap.remove(entry.key, entry);
+        cacheSize.decrementAndGet();
 
         if (entry.type == FileCache.CacheType.MAPPED) {
-            subMappedMemorySize(entry.bb.remaining());
+            subMappedMemorySize(entry.weight);
         } else if (entry.type == FileCache.CacheType.HEAP) {
-            subHeapSize(entry.bb.remaining());
+            subHeapSize(entry.weight);
+        }
+        
+        return true;
+    }
+
+    /**
+     * Records the hit in the admission policy. The hit is skipped if the
+     * policy is busy, so the concurrent requests don't wait for each other.
+     */
+    private void recordHit(final FileCacheEntry entry) {
+        if (policyLock.tryLock()) {
+            try {
+                policy.recordHit(entry, budgetOf(entry.type));
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Records the request of the resource, which is not cached, in the
+     * admission policy. The request is skipped if the policy is busy.
+     */
+    private void recordMiss(final int hashCode) {
+        if (policyLock.tryLock()) {
+            try {
+                policy.recordAccess(hashCode);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Checks if the entry with the given key and type could be admitted,
+     * the result may change by the time the entry is actually added.
+     */
+    private boolean canAdmit(final FileCacheKey key, final CacheType type,
+            final long size) {
+        policyLock.lock();
+        try {
+            return policy.selectVictims(key.hashCode(), type,
+                    weightOf(type, size), budgetOf(type),
+                    getMaxCacheEntries()) != null;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private CacheResult reject(final FileCacheKey key, final String host,
+            final String requestURI) {
+        fileCacheMap.remove(key, NULL_CACHE_ENTRY);
+        key.recycle();
+        notifyProbesEntryRejected(this, host, requestURI);
+        
+        return CacheResult.FAILED_CACHE_FULL;
+    }
+
+    /**
+     * Returns the {@link CacheType} of the file with the given size.
+     * The files, which don't fit the heap or memory mapped cache budget,
+     * are cached as {@link CacheType#FILE}.
+     */
+    private CacheType resolveType(final long size) {
+        if (size > getMaxEntrySize()) {
+            return CacheType.FILE;
+        }
+        
+        if (size > getMinEntrySize()) {
+            return size <= getMaxLargeFileCacheSize()
+                    ? CacheType.MAPPED
+                    : CacheType.FILE;
         }
+        
+        return size <= getMaxSmallFileCacheSize()
+                ? CacheType.HEAP
+                : CacheType.FILE;
+    }
 
-        notifyProbesEntryRemoved(this, entry);
+    /**
+     * Returns the entry weight: the size for the heap and memory mapped
+     * entries, or <tt>1</tt> for the entries, which only reference the file.
+     */
+    private static long weightOf(final CacheType type, final long size) {
+        return type == CacheType.HEAP || type == CacheType.MAPPED ? size : 1;
+    }
+
+    /**
+     * Returns the budget of the {@link FileCachePolicy} region the entries
+     * of the given type belong to.
+     */
+    private long budgetOf(final CacheType type) {
+        switch (type) {
+            case HEAP: return getMaxSmallFileCacheSize();
+            case MAPPED: return getMaxLargeFileCacheSize();
+            default: return getMaxCacheEntries();
+        }
     }
 
     protected Object createJmxManagementObject() {
@@ -355,8 +529,12 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
     /**
      * Creates {@link FileCacheEntry}.
      */
-    private FileCacheEntry createEntry(final File file) {
-        FileCacheEntry entry = tryMapFileToBuffer(file);
+    private FileCacheEntry createEntry(final File file, final CacheType type) {
+        FileCacheEntry entry = null;
+        if (type == CacheType.HEAP || type == CacheType.MAPPED) {
+            entry = tryMapFileToBuffer(file, type);
+        }
+        
         if (entry == null) {
             entry = new FileCacheEntry(this);
             entry.type = CacheType.FILE;
@@ -372,36 +550,14 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
      * Map the file to a {@link ByteBuffer}
      * @return the preinitialized {@link FileCacheEntry}
      */
-    private FileCacheEntry tryMapFileToBuffer(final File file) {
+    private FileCacheEntry tryMapFileToBuffer(final File file,
+            final CacheType type) {
         
         final long size = file.length();
-        if (size > getMaxEntrySize()) {
-            return null;
-        }
-        
-        final CacheType type;
         final ByteBuffer bb;
         FileChannel fileChannel = null;
         FileInputStream stream = null;
         try {
-            if (size > getMinEntrySize()) {
-                if (addMappedMemorySize(size) > getMaxLargeFileCacheSize()) {
-                    // Cache full
-                    subMappedMemorySize(size);
-                    return null;
-                }
-                
-                type = CacheType.MAPPED;
-            } else {
-                if (addHeapSize(size) > getMaxSmallFileCacheSize()) {
-                    // Cache full
-                    subHeapSize(size);
-                    return null;
-                }
-
-                type = CacheType.HEAP;
-            }
-
             stream = new FileInputStream(file);
             fileChannel = stream.getChannel();
 
@@ -491,6 +647,13 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
      */
     public void setMaxCacheEntries(int maxCacheEntries) {
         this.maxCacheEntries = maxCacheEntries;
+        
+        policyLock.lock();
+        try {
+            policy.setMaxEntries(maxCacheEntries);
+        } finally {
+            policyLock.unlock();
+        }
     }
 
 
@@ -997,6 +1160,41 @@ public class FileCache implements MonitoringAware<FileCacheProbe> {
         }
     }
 
+    /**
+     * Notify registered {@link FileCacheProbe}s about the "entry evicted" event.
+     *
+     * @param fileCache the <tt>FileCache</tt> event occurred on.
+     * @param entry entry been evicted
+     */
+    protected static void notifyProbesEntryEvicted(final FileCache fileCache,
+            final FileCacheEntry entry) {
+        final FileCacheProbe[] probes =
+                fileCache.monitoringConfig.getProbesUnsafe();
+        if (probes != null) {
+            for (FileCacheProbe probe : probes) {
+                probe.onEntryEvictedEvent(fileCache, entry);
+            }
+        }
+    }
+
+    /**
+     * Notify registered {@link FileCacheProbe}s about the "entry rejected" event.
+     *
+     * @param fileCache the <tt>FileCache</tt> event occurred on.
+     * @param host the requested HTTP "Host" header.
+     * @param requestURI the requested HTTP URL.
+     */
+    protected static void notifyProbesEntryRejected(final FileCache fileCache,
+            final String host, final String requestURI) {
+        final FileCacheProbe[] probes =
+                fileCache.monitoringConfig.getProbesUnsafe();
+        if (probes != null) {
+            for (FileCacheProbe probe : probes) {
+                probe.onEntryRejectedEvent(fileCache, host, requestURI);
+            }
+        }
+    }
+
     /**
      * Notify registered {@link FileCacheProbe}s about the "entry hit event.
      *
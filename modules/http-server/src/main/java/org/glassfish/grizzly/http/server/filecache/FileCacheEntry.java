@@ -85,6 +85,12 @@ public final class FileCacheEntry implements Runnable {
 
     public volatile long timeoutMillis;
 
+    // the FileCachePolicy state, guarded by the FileCache policy lock
+    FileCacheEntry prev;
+    FileCacheEntry next;
+    int segment;
+    long weight;
+
     private final FileCache fileCache;
 
     public FileCacheEntry(FileCache fileCache) {
@@ -0,0 +1,342 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http.server.filecache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@link FileCache} admission and eviction policy.
+ * 
+ * The cached entries are split into three regions, each of them has its own
+ * budget: the {@link FileCache.CacheType#HEAP} entries are weighted by their
+ * size and limited by {@link FileCache#getMaxSmallFileCacheSize()}, the
+ * {@link FileCache.CacheType#MAPPED} entries are weighted by their size and
+ * limited by {@link FileCache#getMaxLargeFileCacheSize()}, the rest of the
+ * entries just reference the files, so each of them weighs <tt>1</tt> and
+ * they're limited by {@link FileCache#getMaxCacheEntries()}. The total
+ * number of entries is limited by {@link FileCache#getMaxCacheEntries()} too.
+ * 
+ * Every region is a segmented LRU: a new entry is added to the probation
+ * segment and is promoted to the protected segment once it's hit, the
+ * protected segment takes up to 80% of the region budget. The eviction
+ * candidates are the least recently used probation entries followed by the
+ * least recently used protected entries.
+ * 
+ * If there is no room for a new entry, it's admitted only if its
+ * {@link FrequencySketch} frequency is higher than the frequency of every
+ * entry, which has to be evicted to make room for it (TinyLFU). So a single
+ * request of a rarely used resource can't push out the popular ones, while a
+ * resource, which becomes popular after the cache has been filled, replaces
+ * the less popular ones.
+ * 
+ * The policy is not thread-safe, it's guarded by the {@link FileCache} policy
+ * lock.
+ * 
+ * @since 3.0
+ */
+final class FileCachePolicy {
+    static final int NONE = 0;
+    static final int PROBATION = 1;
+    static final int PROTECTED = 2;
+    
+    private static final int PROTECTED_PERCENT = 80;
+    
+    private final FrequencySketch sketch;
+    
+    private final Region heapRegion = new Region();
+    private final Region mappedRegion = new Region();
+    private final Region referenceRegion = new Region();
+    
+    /**
+     * The number of entries in all the regions
+     */
+    private int size;
+    
+    FileCachePolicy(final int maxEntries) {
+        sketch = new FrequencySketch(maxEntries);
+    }
+    
+    /**
+     * Resizes the {@link FrequencySketch} for the new max number of entries
+     * in the cache.
+     */
+    void setMaxEntries(final int maxEntries) {
+        sketch.ensureCapacity(maxEntries);
+    }
+    
+    /**
+     * Records the request of the resource.
+     */
+    void recordAccess(final int hashCode) {
+        sketch.increment(hashCode);
+    }
+    
+    /**
+     * Records the hit of the cached entry and updates its recency.
+     */
+    void recordHit(final FileCacheEntry entry, final long budget) {
+        sketch.increment(entry.key.hashCode());
+        
+        if (entry.segment != NONE) {
+            regionOf(entry.type).onHit(entry, budget);
+        }
+    }
+    
+    /**
+     * Selects the entries to be evicted to make room for the candidate entry.
+     * 
+     * @param hashCode the candidate key hash code
+     * @param type the candidate {@link FileCache.CacheType}
+     * @param weight the candidate weight
+     * @param budget the candidate region budget
+     * @param maxEntries the max number of entries in the cache
+     * @return the entries to be evicted, or <tt>null</tt> if the candidate
+     *          has to be rejected
+     */
+    List<FileCacheEntry> selectVictims(final int hashCode,
+            final FileCache.CacheType type, final long weight,
+            final long budget, final int maxEntries) {
+        if (weight > budget) {
+            return null;
+        }
+        
+        final Region region = regionOf(type);
+        long excessWeight = region.weight + weight - budget;
+        int excessCount = size + 1 - maxEntries;
+        
+        if (excessWeight <= 0 && excessCount <= 0) {
+            return Collections.emptyList();
+        }
+        
+        final int frequency = sketch.frequency(hashCode);
+        final List<FileCacheEntry> victims = new ArrayList<FileCacheEntry>(2);
+        
+        // make room in the candidate region first
+        FileCacheEntry victim = region.lru();
+        while (excessWeight > 0) {
+            if (victim == null || frequencyOf(victim) >= frequency) {
+                return null;
+            }
+            
+            victims.add(victim);
+            excessWeight -= victim.weight;
+            excessCount--;
+            victim = region.nextLru(victim);
+        }
+        
+        // the cache is full, evict the least frequently used of the regions'
+        // eviction candidates
+        if (excessCount > 0) {
+            final Region[] regions = {region, heapRegion, mappedRegion, referenceRegion};
+            final FileCacheEntry[] candidates = {victim,
+                    region != heapRegion ? heapRegion.lru() : null,
+                    region != mappedRegion ? mappedRegion.lru() : null,
+                    region != referenceRegion ? referenceRegion.lru() : null};
+            
+            while (excessCount > 0) {
+                int selected = -1;
+                int selectedFrequency = frequency;
+                for (int i = 0; i < candidates.length; i++) {
+                    if (candidates[i] != null) {
+                        final int candidateFrequency = frequencyOf(candidates[i]);
+                        if (candidateFrequency < selectedFrequency) {
+                            selected = i;
+                            selectedFrequency = candidateFrequency;
+                        }
+                    }
+                }
+                
+                if (selected == -1) {
+                    return null;
+                }
+                
+                victims.add(candidates[selected]);
+                candidates[selected] = regions[selected].nextLru(candidates[selected]);
+                excessCount--;
+            }
+        }
+        
+        return victims;
+    }
+    
+    /**
+     * Adds the admitted entry to the probation segment of its region.
+     */
+    void add(final FileCacheEntry entry, final long weight) {
+        regionOf(entry.type).add(entry, weight);
+        size++;
+    }
+    
+    /**
+     * Removes the entry from its region.
+     * 
+     * @return <tt>true</tt> if the entry has been removed, or <tt>false</tt>
+     *          if it's not managed by the policy
+     */
+    boolean remove(final FileCacheEntry entry) {
+        if (entry.segment == NONE) {
+            return false;
+        }
+        
+        regionOf(entry.type).remove(entry);
+        size--;
+        return true;
+    }
+    
+    private int frequencyOf(final FileCacheEntry entry) {
+        return sketch.frequency(entry.key.hashCode());
+    }
+    
+    private Region regionOf(final FileCache.CacheType type) {
+        switch (type) {
+            case HEAP: return heapRegion;
+            case MAPPED: return mappedRegion;
+            default: return referenceRegion;
+        }
+    }
+    
+    /**
+     * The segmented LRU. Both segments are circular doubly-linked lists,
+     * the sentinel's <tt>next</tt> is the most recently used entry, the
+     * sentinel's <tt>prev</tt> is the least recently used one.
+     */
+    private static final class Region {
+        private final FileCacheEntry probation = createSentinel();
+        private final FileCacheEntry protectedSegment = createSentinel();
+        
+        private long weight;
+        private long protectedWeight;
+        
+        void add(final FileCacheEntry entry, final long entryWeight) {
+            entry.weight = entryWeight;
+            entry.segment = PROBATION;
+            linkFirst(probation, entry);
+            weight += entryWeight;
+        }
+        
+        void remove(final FileCacheEntry entry) {
+            unlink(entry);
+            weight -= entry.weight;
+            if (entry.segment == PROTECTED) {
+                protectedWeight -= entry.weight;
+            }
+            
+            entry.segment = NONE;
+        }
+        
+        void onHit(final FileCacheEntry entry, final long budget) {
+            unlink(entry);
+            linkFirst(protectedSegment, entry);
+            
+            if (entry.segment == PROBATION) {
+                entry.segment = PROTECTED;
+                protectedWeight += entry.weight;
+                
+                // demote the least recently used protected entries
+                final long maxProtectedWeight = budget / 100 * PROTECTED_PERCENT;
+                while (protectedWeight > maxProtectedWeight) {
+                    final FileCacheEntry demoted = protectedSegment.prev;
+                    if (demoted == entry) {
+                        break;
+                    }
+                    
+                    unlink(demoted);
+                    linkFirst(probation, demoted);
+                    demoted.segment = PROBATION;
+                    protectedWeight -= demoted.weight;
+                }
+            }
+        }
+        
+        /**
+         * @return the first eviction candidate, or <tt>null</tt> if the
+         *          region is empty
+         */
+        FileCacheEntry lru() {
+            if (probation.prev != probation) {
+                return probation.prev;
+            }
+            
+            return protectedSegment.prev != protectedSegment
+                    ? protectedSegment.prev
+                    : null;
+        }
+        
+        /**
+         * @return the eviction candidate following the passed one, or
+         *          <tt>null</tt> if there are no more candidates
+         */
+        FileCacheEntry nextLru(final FileCacheEntry entry) {
+            final FileCacheEntry prev = entry.prev;
+            if (prev == probation) {
+                return protectedSegment.prev != protectedSegment
+                        ? protectedSegment.prev
+                        : null;
+            }
+            
+            return prev != protectedSegment ? prev : null;
+        }
+        
+        private static void linkFirst(final FileCacheEntry sentinel,
+                final FileCacheEntry entry) {
+            entry.prev = sentinel;
+            entry.next = sentinel.next;
+            sentinel.next.prev = entry;
+            sentinel.next = entry;
+        }
+        
+        private static void unlink(final FileCacheEntry entry) {
+            entry.prev.next = entry.next;
+            entry.next.prev = entry.prev;
+            entry.prev = null;
+            entry.next = null;
+        }
+        
+        private static FileCacheEntry createSentinel() {
+            final FileCacheEntry sentinel = new FileCacheEntry(null);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            return sentinel;
+        }
+    }
+}
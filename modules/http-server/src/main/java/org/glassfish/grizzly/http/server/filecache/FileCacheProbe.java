@@ -64,6 +64,31 @@ public interface FileCacheProbe {
      */
     public void onEntryRemovedEvent(FileCache fileCache, FileCacheEntry entry);
 
+    /**
+     * Method will be called, when file cache entry gets evicted to make room
+     * for a more frequently requested resource. The
+     * {@link #onEntryRemovedEvent(FileCache, FileCacheEntry)} is called for
+     * the evicted entry as well.
+     *
+     * @param fileCache {@link FileCache}, the event belongs to.
+     * @param entry {@link FileCacheEntry} been evicted.
+     *
+     * @since 3.0
+     */
+    public void onEntryEvictedEvent(FileCache fileCache, FileCacheEntry entry);
+
+    /**
+     * Method will be called, when the resource is not added to the full file
+     * cache, because it's requested less frequently than the cached entries.
+     *
+     * @param fileCache {@link FileCache}, the event belongs to.
+     * @param host the requested HTTP "Host" header.
+     * @param requestURI the requested HTTP URL.
+     *
+     * @since 3.0
+     */
+    public void onEntryRejectedEvent(FileCache fileCache, String host, String requestURI);
+
     /**
      * Method will be called, when file cache entry gets hit.
      *
@@ -116,6 +141,18 @@ public interface FileCacheProbe {
         @Override
         public void onEntryRemovedEvent(FileCache fileCache, FileCacheEntry entry) {}
 
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onEntryEvictedEvent(FileCache fileCache, FileCacheEntry entry) {}
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onEntryRejectedEvent(FileCache fileCache, String host, String requestURI) {}
+
         /**
          * {@inheritDoc}
          */
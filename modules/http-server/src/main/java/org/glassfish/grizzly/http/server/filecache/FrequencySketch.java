@@ -0,0 +1,179 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http.server.filecache;
+
+/**
+ * The count-min sketch, which estimates how often the {@link FileCache}
+ * resources are requested. It's used by the TinyLFU admission: a new resource
+ * is cached only if it's requested more often than the resources it would
+ * replace.
+ * 
+ * Each resource is counted by four 4-bit counters, sixteen counters are packed
+ * into a <tt>long</tt>. The estimated frequency is the minimum of the four
+ * counters, so it's never lower than the real one, unless the sketch has been
+ * aged. The sketch is aged every time the number of the recorded requests
+ * reaches ten times the table size: all the counters are halved, so the
+ * resources, which used to be popular, don't stay in the cache forever.
+ * 
+ * The sketch is not thread-safe, it's guarded by the {@link FileCache}
+ * policy lock.
+ * 
+ * The design (the counter layout, the hashing and the aging) follows the
+ * <tt>FrequencySketch</tt> of the Caffeine library by Ben Manes, licensed
+ * under the Apache License, Version 2.0.
+ * 
+ * @since 3.0
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+        0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    
+    private static final int MIN_TABLE_SIZE = 16;
+    private static final int MAX_TABLE_SIZE = 1 << 24;
+    
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    FrequencySketch(final int maxEntries) {
+        ensureCapacity(maxEntries);
+    }
+    
+    /**
+     * Resizes the sketch, if it's smaller than the number of the resources
+     * being tracked. The counters are lost on resize, so it's meant to be
+     * called when the cache is configured, not on the request path.
+     */
+    void ensureCapacity(final int maxEntries) {
+        final int tableSize = tableSizeFor(maxEntries);
+        if (table != null && table.length >= tableSize) {
+            return;
+        }
+        
+        table = new long[tableSize];
+        tableMask = tableSize - 1;
+        sampleSize = tableSize * 10;
+        size = 0;
+    }
+    
+    /**
+     * Returns the estimated number of times the resource has been requested,
+     * up to <tt>15</tt>.
+     */
+    int frequency(final int hashCode) {
+        final int hash = spread(hashCode);
+        final int start = (hash & 3) << 2;
+        
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            final int index = indexOf(hash, i);
+            final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        
+        return frequency;
+    }
+    
+    /**
+     * Records the resource request.
+     */
+    void increment(final int hashCode) {
+        final int hash = spread(hashCode);
+        final int start = (hash & 3) << 2;
+        
+        boolean isAdded = false;
+        for (int i = 0; i < 4; i++) {
+            isAdded |= incrementAt(indexOf(hash, i), start + i);
+        }
+        
+        if (isAdded && ++size == sampleSize) {
+            reset();
+        }
+    }
+    
+    /**
+     * Increments the counter, unless it's saturated.
+     */
+    private boolean incrementAt(final int index, final int counter) {
+        final int offset = counter << 2;
+        final long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Halves all the counters.
+     */
+    private void reset() {
+        int oddCount = 0;
+        for (int i = 0; i < table.length; i++) {
+            oddCount += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        
+        size = (size >>> 1) - (oddCount >>> 2);
+    }
+    
+    private int indexOf(final int hash, final int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+    
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+    
+    private static int tableSizeFor(final int maxEntries) {
+        final int n = Math.max(MIN_TABLE_SIZE, Math.min(MAX_TABLE_SIZE, maxEntries));
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+}
@@ -1329,6 +1329,14 @@ public class FileCacheTest {
             entryRemovedCounter.incrementAndGet();
         }
 
+        @Override
+        public void onEntryEvictedEvent(FileCache fileCache, FileCacheEntry entry) {
+        }
+
+        @Override
+        public void onEntryRejectedEvent(FileCache fileCache, String host, String requestURI) {
+        }
+
         @Override
         public void onEntryHitEvent(FileCache fileCache, FileCacheEntry entry) {
             entryHitCounter.incrementAndGet();
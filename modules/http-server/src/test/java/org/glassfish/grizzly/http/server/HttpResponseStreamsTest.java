@@ -63,11 +63,15 @@ import junit.framework.TestCase;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.glassfish.grizzly.memory.ByteBufferManager;
 import org.glassfish.grizzly.memory.CompositeBuffer;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.glassfish.grizzly.utils.Charsets;
 
 public class HttpResponseStreamsTest extends TestCase {
 
@@ -726,6 +730,69 @@ public class HttpResponseStreamsTest extends TestCase {
 
     }
 
+    public void testCharacterUtf8() throws Exception {
+
+        // 2-, 3- and 4-byte sequences and a lone surrogate, crossing the
+        // char and byte buffer boundaries
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            sb.append((char) ('a' + i % 26)).append("\u00e9\u20ac\ud83d\ude00");
+        }
+        sb.append('\ud800');
+        final String content = sb.toString();
+
+        WriteStrategy s = new WriteStrategy() {
+            @Override
+            public void doWrite(Response response)
+                    throws IOException {
+                response.setCharacterEncoding("UTF-8");
+                Writer writer = response.getWriter();
+                writer.write(content.substring(0, 3001));
+                writer.write(content.substring(3001).toCharArray());
+            }
+        };
+
+        final String expected = content.substring(0, content.length() - 1) + '?';
+        doTest(s, expected, Charsets.UTF8_CHARSET);
+        // direct buffers are encoded through a heap buffer
+        doTest(s, expected, Charsets.UTF8_CHARSET, new ByteBufferManager(true));
+
+        // a 3-byte char not fitting at the end of the 8K direct buffer
+        final String boundary = buildBuffer(8191).append("\u20ac").append(content).toString();
+        s = new WriteStrategy() {
+            @Override
+            public void doWrite(Response response)
+                    throws IOException {
+                response.setCharacterEncoding("UTF-8");
+                response.setBufferSize(8192);
+                Writer writer = response.getWriter();
+                writer.write(boundary);
+            }
+        };
+
+        doTest(s, boundary.substring(0, boundary.length() - 1) + '?',
+                Charsets.UTF8_CHARSET, new ByteBufferManager(true));
+    }
+
+    public void testCharacterIso88591() throws Exception {
+
+        final String content = "caf\u00e9 \u20ac \ud83d\ude00 \u00ff";
+
+        WriteStrategy s = new WriteStrategy() {
+            @Override
+            public void doWrite(Response response)
+                    throws IOException {
+                response.setCharacterEncoding("ISO-8859-1");
+                Writer writer = response.getWriter();
+                writer.write(content);
+            }
+        };
+
+        final Charset charset = Charsets.lookupCharset("ISO-8859-1");
+        doTest(s, "caf\u00e9 ? ? \u00ff", charset);
+        doTest(s, "caf\u00e9 ? ? \u00ff", charset, new ByteBufferManager(true));
+    }
+
     // ------------------------------------------------------------ Binary Tests
 
 
@@ -1056,8 +1123,27 @@ public class HttpResponseStreamsTest extends TestCase {
     private void doTest(WriteStrategy strategy,
                         String expectedResult)
     throws Exception {
+        doTest(strategy, expectedResult, null);
+    }
+
+    private void doTest(WriteStrategy strategy,
+                        String expectedResult,
+                        Charset charset)
+    throws Exception {
+        doTest(strategy, expectedResult, charset, null);
+    }
+
+    private void doTest(WriteStrategy strategy,
+                        String expectedResult,
+                        Charset charset,
+                        MemoryManager serverMemoryManager)
+    throws Exception {
 
         HttpServer server = HttpServer.createSimpleServer("/tmp", PORT);
+        if (serverMemoryManager != null) {
+            server.getListener("grizzly").getTransport()
+                    .setMemoryManager(serverMemoryManager);
+        }
         ServerConfiguration sconfig = server.getServerConfiguration();
         sconfig.addHttpHandler(new TestHttpHandler(strategy), new String[] { "/*" });
 
@@ -1070,7 +1156,7 @@ public class HttpResponseStreamsTest extends TestCase {
             clientFilterChainBuilder.add(new TransportFilter());
             clientFilterChainBuilder.add(new ChunkingFilter(1024));
             clientFilterChainBuilder.add(new HttpClientFilter());
-            clientFilterChainBuilder.add(new ClientFilter(parseResult));
+            clientFilterChainBuilder.add(new ClientFilter(parseResult, charset));
             ctransport.setFilterChain(clientFilterChainBuilder.build());
 
             ctransport.start();
@@ -1131,6 +1217,8 @@ public class HttpResponseStreamsTest extends TestCase {
 
         private FutureImpl<String> completeFuture;
 
+        private final Charset charset;
+
         // number of bytes downloaded
         private volatile int bytesDownloaded;
 
@@ -1138,9 +1226,10 @@ public class HttpResponseStreamsTest extends TestCase {
         // -------------------------------------------------------- Constructors
 
 
-        public ClientFilter(FutureImpl<String> completeFuture) {
+        public ClientFilter(FutureImpl<String> completeFuture, Charset charset) {
 
             this.completeFuture = completeFuture;
+            this.charset = charset;
 
         }
 
@@ -1196,7 +1285,9 @@ public class HttpResponseStreamsTest extends TestCase {
                     if (logger.isLoggable(Level.FINE)) {
                         logger.log(Level.FINE, "Response complete: {0} bytes", bytesDownloaded);
                     }
-                    completeFuture.result(buf.toStringContent());
+                    completeFuture.result(charset != null
+                            ? buf.toStringContent(charset)
+                            : buf.toStringContent());
                     close();
                 }
             } catch (IOException e) {
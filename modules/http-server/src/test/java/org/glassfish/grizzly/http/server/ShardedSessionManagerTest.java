@@ -0,0 +1,201 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http.server;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ShardedSessionManager} tests.
+ */
+public class ShardedSessionManagerTest {
+
+    @Test
+    public void testCreateAndChangeId() {
+        final ShardedSessionManager manager = ShardedSessionManager.builder().build();
+        try {
+            final Session session = manager.createSession(null);
+            final String id = session.getIdInternal();
+            assertSame(session, manager.getSession(null, id));
+
+            assertEquals(id, manager.changeSessionId(null, session));
+            assertNull(manager.getSession(null, id));
+            assertSame(session, manager.getSession(null, session.getIdInternal()));
+            assertEquals(1, manager.getSessionCount());
+        } finally {
+            manager.destroy();
+        }
+    }
+
+    @Test
+    public void testLruEviction() {
+        final ShardedSessionManager manager = ShardedSessionManager.builder()
+                .shards(1).maxSessions(2).build();
+        try {
+            final Session s1 = manager.createSession(null);
+            final Session s2 = manager.createSession(null);
+            manager.getSession(null, s1.getIdInternal());
+            final Session s3 = manager.createSession(null);
+
+            assertFalse(s2.isValid());
+            assertNull(manager.getSession(null, s2.getIdInternal()));
+            assertSame(s1, manager.getSession(null, s1.getIdInternal()));
+            assertSame(s3, manager.getSession(null, s3.getIdInternal()));
+            assertEquals(1, manager.getEvictedSessionCount());
+        } finally {
+            manager.destroy();
+        }
+    }
+
+    @Test
+    public void testEvictedSessionIsReleased() throws Exception {
+        final ShardedSessionManager manager = ShardedSessionManager.builder()
+                .shards(1).maxSessions(1)
+                .checkInterval(10, TimeUnit.MILLISECONDS).build();
+        try {
+            Session session = manager.createSession(null);
+            session.setSessionTimeout(TimeUnit.HOURS.toMillis(1));
+            session.setAttribute("name", "value");
+            final WeakReference<Session> sessionRef =
+                    new WeakReference<Session>(session);
+            
+            // let the expiration queue schedule the session timeout
+            Thread.sleep(100);
+            
+            manager.createSession(null);
+            assertFalse(session.isValid());
+            assertNull(session.getAttribute("name"));
+            session = null;
+
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (sessionRef.get() != null
+                    && System.currentTimeMillis() < deadline) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            
+            assertNull("The evicted session is still referenced", sessionRef.get());
+            assertEquals(1, manager.getSessionCount());
+        } finally {
+            manager.destroy();
+        }
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        final ShardedSessionManager manager = ShardedSessionManager.builder()
+                .checkInterval(10, TimeUnit.MILLISECONDS).build();
+        try {
+            final Session session = manager.createSession(null);
+            session.setSessionTimeout(100);
+
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (manager.getSessionCount() > 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(0, manager.getSessionCount());
+            assertFalse(session.isValid());
+        } finally {
+            manager.destroy();
+        }
+    }
+
+    @Test
+    public void testTimeoutSetAfterCheck() throws Exception {
+        final ShardedSessionManager manager = ShardedSessionManager.builder()
+                .checkInterval(10, TimeUnit.MILLISECONDS).build();
+        try {
+            final Session session = manager.createSession(null);
+            
+            // let the expiration queue check the session without timeout
+            Thread.sleep(100);
+            session.setSessionTimeout(100);
+
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (manager.getSessionCount() > 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(0, manager.getSessionCount());
+            assertFalse(session.isValid());
+        } finally {
+            manager.destroy();
+        }
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        final ShardedSessionManager.DirectSpillStore store =
+                new ShardedSessionManager.DirectSpillStore(1024 * 1024);
+        final ShardedSessionManager manager = ShardedSessionManager.builder()
+                .checkInterval(10, TimeUnit.MILLISECONDS)
+                .spillStore(store)
+                .spillAfterIdle(50, TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            final Session session = manager.createSession(null);
+            session.setSessionTimeout(TimeUnit.MINUTES.toMillis(1));
+            session.setAttribute("name", "value");
+
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (manager.getSpilledSessionCount() == 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(1, manager.getSpilledSessionCount());
+            assertTrue(store.getSize() > 0);
+            assertNull(session.getAttribute("name"));
+
+            assertSame(session, manager.getSession(null, session.getIdInternal()));
+            assertEquals("value", session.getAttribute("name"));
+            assertEquals(0, store.getSize());
+        } finally {
+            manager.destroy();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http.server.accesslog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.grizzly.http.server.accesslog.RingBufferAppender.OverflowPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link RingBufferAppender} and {@link MappedFileAppender}
+ */
+public class RingBufferAppenderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String EOL = System.getProperty("line.separator");
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("access", ".log");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testEncodingAcrossRingBoundary() throws Exception {
+        final StringBuilder expected = new StringBuilder();
+        /* A tiny ring, so entries keep wrapping around its end */
+        final RingBufferAppender appender = new RingBufferAppender(new MappedFileAppender(file), 61, OverflowPolicy.BLOCK);
+        final StringBuilder entry = new StringBuilder();
+        for (int x = 0; x < 1000; x ++) {
+            entry.setLength(0);
+            entry.append(x).append(" caf\u00e9 \u20ac \ud83d\ude00 \ud800!");
+            assertTrue(appender.append(entry));
+            expected.append(x).append(" caf\u00e9 \u20ac \ud83d\ude00 ?!").append(EOL);
+        }
+        appender.close();
+
+        assertEquals(0, appender.getDroppedCount());
+        assertEquals(expected.toString(), read());
+        assertEquals(expected.toString().getBytes(UTF8).length, file.length());
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MappedFileAppender mapped = new MappedFileAppender(file) {
+            @Override
+            public void write(byte[] first, int firstOffset, int firstLength,
+                              byte[] second, int secondOffset, int secondLength) throws IOException {
+                writing.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException exception) {
+                    throw new IOException(exception);
+                }
+                super.write(first, firstOffset, firstLength, second, secondOffset, secondLength);
+            }
+        };
+        final RingBufferAppender appender = new RingBufferAppender(mapped, 64, OverflowPolicy.DROP);
+
+        /* The first entry keeps the writer busy */
+        assertTrue(appender.append((CharSequence) "first"));
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        final StringBuilder expected = new StringBuilder("first").append(EOL);
+        int accepted = 0;
+        for (int x = 0; x < 100; x ++) {
+            if (appender.append((CharSequence) ("entry-" + x))) {
+                expected.append("entry-").append(x).append(EOL);
+                accepted ++;
+            }
+        }
+        assertTrue(accepted > 0);
+        assertEquals(100 - accepted, appender.getDroppedCount());
+        assertFalse(appender.append((CharSequence) new String(new char[100])));
+
+        release.countDown();
+        appender.close();
+        assertEquals(expected.toString(), read());
+    }
+
+    @Test
+    public void testMappedFileAppendsAfterCrash() throws Exception {
+        /* Simulate the zeroes left by a crash after the last mapped region */
+        Files.write(file.toPath(), ("before" + EOL).getBytes(UTF8));
+        Files.write(file.toPath(), new byte[10000], java.nio.file.StandardOpenOption.APPEND);
+
+        MappedFileAppender appender = new MappedFileAppender(file);
+        appender.append("after");
+        appender.close();
+        assertEquals("before" + EOL + "after" + EOL, read());
+
+        appender = new MappedFileAppender(file);
+        appender.append("again");
+        appender.close();
+        assertEquals("before" + EOL + "after" + EOL + "again" + EOL, read());
+    }
+
+    @Test
+    public void testRotationKeepsEntriesWhole() throws Exception {
+        final File directory = Files.createTempDirectory("access").toFile();
+        try {
+            /* Rotate every second, with a tiny ring so most drains wrap around its end */
+            final RingBufferAppender appender = new RingBufferAppender(
+                    new MappedFileAppender(directory, "access.log", "'access-'yyyyMMdd-HHmmss'.log'"),
+                    61, OverflowPolicy.BLOCK);
+            final StringBuilder expected = new StringBuilder();
+            final long deadline = System.currentTimeMillis() + 10000;
+            int x = 0;
+            while (directory.list().length < 3 && System.currentTimeMillis() < deadline) {
+                final String entry = x ++ + " caf\u00e9 \u20ac \ud83d\ude00";
+                assertTrue(appender.append((CharSequence) entry));
+                expected.append(entry).append(EOL);
+                Thread.sleep(1);
+            }
+            appender.close();
+
+            /* Archives sort chronologically, the current file comes last */
+            final File[] files = directory.listFiles();
+            assertTrue(files.length >= 3);
+            Arrays.sort(files);
+            final StringBuilder actual = new StringBuilder();
+            for (File archive : files) {
+                if (archive.getName().equals("access.log")) continue;
+                final String content = read(archive);
+                assertTrue(archive + " ends with a partial entry", content.endsWith(EOL));
+                actual.append(content);
+            }
+            actual.append(read(new File(directory, "access.log")));
+            assertEquals(expected.toString(), actual.toString());
+        } finally {
+            for (File child : directory.listFiles()) child.delete();
+            directory.delete();
+        }
+    }
+
+    private String read() throws IOException {
+        return read(file);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF8);
+    }
+}
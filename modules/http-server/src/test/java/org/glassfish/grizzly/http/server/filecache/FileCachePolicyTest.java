@@ -0,0 +1,233 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http.server.filecache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.glassfish.grizzly.http.HttpRequestPacket;
+import org.glassfish.grizzly.http.HttpResponsePacket;
+import org.glassfish.grizzly.http.Method;
+import org.glassfish.grizzly.http.ProcessingState;
+import org.glassfish.grizzly.http.server.filecache.FileCache.CacheResult;
+import org.glassfish.grizzly.http.server.filecache.FileCache.CacheType;
+import org.glassfish.grizzly.http.util.Header;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The {@link FileCache} admission and eviction tests.
+ */
+public class FileCachePolicyTest {
+    private static final int FILE_SIZE = 1000;
+    
+    private final List<File> files = new ArrayList<File>();
+    private FileCache fileCache;
+    private EvictionProbe probe;
+    
+    @Before
+    public void before() throws IOException {
+        fileCache = new FileCache();
+        // keep the test files on heap
+        fileCache.setMinEntrySize(FILE_SIZE);
+        probe = new EvictionProbe();
+        fileCache.getMonitoringConfig().addProbes(probe);
+        
+        for (int i = 0; i < 4; i++) {
+            files.add(createFile());
+        }
+    }
+    
+    @After
+    public void after() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testFrequentResourceReplacesRareOne() throws Exception {
+        fileCache.setMaxSmallFileCacheSize(FILE_SIZE * 3);
+        
+        assertEquals(CacheResult.OK_CACHED, add("/0", files.get(0)));
+        assertEquals(CacheResult.OK_CACHED, add("/1", files.get(1)));
+        assertEquals(CacheResult.OK_CACHED, add("/2", files.get(2)));
+        assertEquals(FILE_SIZE * 3, fileCache.getHeapCacheSize());
+        
+        // "/1" has been requested once, "/0" and "/2" are popular
+        assertNotNull(fileCache.get(createRequest("/1")));
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(fileCache.get(createRequest("/0")));
+            assertNotNull(fileCache.get(createRequest("/2")));
+        }
+        
+        // a single request isn't enough to push out the cached resource
+        assertNull(fileCache.get(createRequest("/3")));
+        assertEquals(CacheResult.FAILED_CACHE_FULL, add("/3", files.get(3)));
+        assertEquals(1, probe.rejected.size());
+        
+        // "/3" becomes popular
+        for (int i = 0; i < 3; i++) {
+            assertNull(fileCache.get(createRequest("/3")));
+        }
+        
+        assertEquals(CacheResult.OK_CACHED, add("/3", files.get(3)));
+        assertEquals(Arrays.asList("/1"), probe.evicted);
+        assertEquals(FILE_SIZE * 3, fileCache.getHeapCacheSize());
+        
+        assertNotNull(fileCache.get(createRequest("/0")));
+        assertNull(fileCache.get(createRequest("/1")));
+        assertNotNull(fileCache.get(createRequest("/2")));
+        
+        final FileCacheEntry entry = fileCache.get(createRequest("/3"));
+        assertNotNull(entry);
+        assertEquals(CacheType.HEAP, entry.type);
+    }
+    
+    @Test
+    public void testRequestsBeforeCacheIsFullAreCounted() throws Exception {
+        fileCache.setMaxSmallFileCacheSize(FILE_SIZE * 3);
+        
+        assertEquals(CacheResult.OK_CACHED, add("/0", files.get(0)));
+        
+        // "/3" becomes popular before the cache is full
+        for (int i = 0; i < 3; i++) {
+            assertNull(fileCache.get(createRequest("/3")));
+        }
+        
+        assertEquals(CacheResult.OK_CACHED, add("/1", files.get(1)));
+        assertEquals(CacheResult.OK_CACHED, add("/2", files.get(2)));
+        
+        assertEquals(CacheResult.OK_CACHED, add("/3", files.get(3)));
+        assertEquals(Arrays.asList("/0"), probe.evicted);
+    }
+    
+    @Test
+    public void testMaxCacheEntries() throws Exception {
+        fileCache.setMaxCacheEntries(2);
+        
+        assertEquals(CacheResult.OK_CACHED, add("/0", files.get(0)));
+        assertEquals(CacheResult.OK_CACHED, add("/1", files.get(1)));
+        
+        assertNotNull(fileCache.get(createRequest("/1")));
+        for (int i = 0; i < 2; i++) {
+            assertNull(fileCache.get(createRequest("/2")));
+        }
+        
+        // the least frequently requested entry is evicted
+        assertEquals(CacheResult.OK_CACHED, add("/2", files.get(2)));
+        assertEquals(Arrays.asList("/0"), probe.evicted);
+        assertEquals(FILE_SIZE * 2, fileCache.getHeapCacheSize());
+    }
+    
+    @Test
+    public void testTooLargeFileIsReferenced() throws Exception {
+        fileCache.setMaxSmallFileCacheSize(FILE_SIZE - 1);
+        
+        assertEquals(CacheResult.OK_CACHED, add("/0", files.get(0)));
+        
+        final FileCacheEntry entry = fileCache.get(createRequest("/0"));
+        assertNotNull(entry);
+        assertEquals(CacheType.FILE, entry.type);
+        assertEquals(0, fileCache.getHeapCacheSize());
+    }
+    
+    private CacheResult add(final String uri, final File file) {
+        return fileCache.add(createRequest(uri), file);
+    }
+    
+    private static HttpRequestPacket createRequest(final String uri) {
+        final HttpRequestPacket request = new HttpRequestPacket() {
+            private final ProcessingState processingState = new ProcessingState();
+            
+            {
+                setResponse(HttpResponsePacket.builder(this).build());
+            }
+            
+            @Override
+            public ProcessingState getProcessingState() {
+                return processingState;
+            }
+        };
+        
+        request.setMethod(Method.GET);
+        request.setRequestURI(uri);
+        request.addHeader(Header.Host, "localhost");
+        
+        return request;
+    }
+    
+    private static File createFile() throws IOException {
+        final File file = File.createTempFile("grizzly-file-cache", ".txt");
+        file.deleteOnExit();
+        
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[FILE_SIZE]);
+        } finally {
+            out.close();
+        }
+        
+        return file;
+    }
+    
+    private static final class EvictionProbe extends FileCacheProbe.Adapter {
+        private final List<String> evicted = new ArrayList<String>();
+        private final List<String> rejected = new ArrayList<String>();
+
+        @Override
+        public void onEntryEvictedEvent(final FileCache fileCache,
+                final FileCacheEntry entry) {
+            evicted.add(entry.requestURI);
+        }
+
+        @Override
+        public void onEntryRejectedEvent(final FileCache fileCache,
+                final String host, final String requestURI) {
+            rejected.add(requestURI);
+        }
+    }
+}
@@ -42,7 +42,10 @@ package org.glassfish.grizzly.http;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.zip.Deflater;
 import org.glassfish.grizzly.http.util.DataChunk;
 import org.glassfish.grizzly.http.util.Header;
 import org.glassfish.grizzly.http.util.HttpUtils;
@@ -50,6 +53,11 @@ import org.glassfish.grizzly.utils.ArraySet;
 
 /**
  * Compression configuration class.
+ *
+ * The compression level and strategy, including the mime-type specific ones,
+ * may be changed while the config is used by an encoder. The rest of the
+ * settings aren't safe to change concurrently, so the components using them
+ * keep their own copy of the config.
  */
 public final class CompressionConfig {
 
@@ -88,6 +96,16 @@ public final class CompressionConfig {
             new ArraySet<String>(String.class);
     // Allow decompression of incoming data
     private boolean decompressionEnabled;
+    // the default deflater compression level and strategy
+    private volatile int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private volatile int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+    // mime-type specific deflater compression levels and strategies.
+    // The maps are never modified once published, the setters replace them,
+    // so encoders may read them while the configuration is being changed.
+    private volatile Map<String, Integer> mimeTypeCompressionLevels =
+            Collections.emptyMap();
+    private volatile Map<String, Integer> mimeTypeCompressionStrategies =
+            Collections.emptyMap();
 
     public CompressionConfig() {
         compressionMode = CompressionMode.OFF;
@@ -139,6 +157,10 @@ public final class CompressionConfig {
         setCompressibleMimeTypes(compression.compressibleMimeTypes);
         setNoCompressionUserAgents(compression.noCompressionUserAgents);
         decompressionEnabled = compression.isDecompressionEnabled();
+        compressionLevel = compression.compressionLevel;
+        compressionStrategy = compression.compressionStrategy;
+        mimeTypeCompressionLevels = compression.mimeTypeCompressionLevels;
+        mimeTypeCompressionStrategies = compression.mimeTypeCompressionStrategies;
     }
     
     /**
@@ -275,6 +297,96 @@ public final class CompressionConfig {
         this.decompressionEnabled = decompressionEnabled;
     }
 
+    /**
+     * Returns the default {@link Deflater} compression level, which is used
+     * for the mime-types without specific compression level.
+     *
+     * @since 3.0
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the default {@link Deflater} compression level, which is used
+     * for the mime-types without specific compression level.
+     *
+     * @since 3.0
+     */
+    public void setCompressionLevel(final int compressionLevel) {
+        this.compressionLevel = checkLevel(compressionLevel);
+    }
+
+    /**
+     * Sets the {@link Deflater} compression level for the resources, whose
+     * content-type starts with the given mime-type.
+     *
+     * @since 3.0
+     */
+    public void setCompressionLevel(final String mimeType,
+            final int compressionLevel) {
+        final Integer level = checkLevel(compressionLevel);
+        synchronized (this) {
+            mimeTypeCompressionLevels =
+                    with(mimeTypeCompressionLevels, mimeType, level);
+        }
+    }
+
+    /**
+     * Returns the {@link Deflater} compression level to be used for the
+     * resource with the given content-type.
+     *
+     * @since 3.0
+     */
+    public int getCompressionLevel(final String contentType) {
+        return lookup(mimeTypeCompressionLevels, contentType, compressionLevel);
+    }
+
+    /**
+     * Returns the default {@link Deflater} compression strategy, which is used
+     * for the mime-types without specific compression strategy.
+     *
+     * @since 3.0
+     */
+    public int getCompressionStrategy() {
+        return compressionStrategy;
+    }
+
+    /**
+     * Sets the default {@link Deflater} compression strategy, which is used
+     * for the mime-types without specific compression strategy.
+     *
+     * @since 3.0
+     */
+    public void setCompressionStrategy(final int compressionStrategy) {
+        this.compressionStrategy = checkStrategy(compressionStrategy);
+    }
+
+    /**
+     * Sets the {@link Deflater} compression strategy for the resources, whose
+     * content-type starts with the given mime-type.
+     *
+     * @since 3.0
+     */
+    public void setCompressionStrategy(final String mimeType,
+            final int compressionStrategy) {
+        final Integer strategy = checkStrategy(compressionStrategy);
+        synchronized (this) {
+            mimeTypeCompressionStrategies =
+                    with(mimeTypeCompressionStrategies, mimeType, strategy);
+        }
+    }
+
+    /**
+     * Returns the {@link Deflater} compression strategy to be used for the
+     * resource with the given content-type.
+     *
+     * @since 3.0
+     */
+    public int getCompressionStrategy(final String contentType) {
+        return lookup(mimeTypeCompressionStrategies, contentType, compressionStrategy);
+    }
+
     /**
      * Returns <tt>true</tt> if a client, based on its {@link HttpRequestPacket},
      * could be responded with compressed data, or <tt>false</tt> otherwise.
@@ -395,6 +507,46 @@ public final class CompressionConfig {
         return -1;
     }
 
+    private static int lookup(final Map<String, Integer> mimeTypeValues,
+            final String contentType, final int defaultValue) {
+        if (contentType != null && !mimeTypeValues.isEmpty()) {
+            for (Map.Entry<String, Integer> entry : mimeTypeValues.entrySet()) {
+                if (contentType.startsWith(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+        }
+        
+        return defaultValue;
+    }
+    
+    private static Map<String, Integer> with(
+            final Map<String, Integer> mimeTypeValues,
+            final String mimeType, final Integer value) {
+        final Map<String, Integer> copy =
+                new LinkedHashMap<String, Integer>(mimeTypeValues);
+        copy.put(mimeType, value);
+        return Collections.unmodifiableMap(copy);
+    }
+    
+    private static int checkLevel(final int level) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        }
+        
+        return level;
+    }
+
+    private static int checkStrategy(final int strategy) {
+        if (strategy != Deflater.DEFAULT_STRATEGY
+                && strategy != Deflater.FILTERED
+                && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("invalid compression strategy: " + strategy);
+        }
+        
+        return strategy;
+    }
+    
     private static int indexOfStartsWith(String[] aliases, String s) {
         if (s == null || s.length() == 0) {
             return -1;
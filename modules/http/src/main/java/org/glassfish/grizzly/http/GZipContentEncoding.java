@@ -42,6 +42,7 @@ package org.glassfish.grizzly.http;
 
 import org.glassfish.grizzly.Buffer;
 import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.attributes.AttributeStorage;
 import org.glassfish.grizzly.compression.TransformationResult;
 import org.glassfish.grizzly.memory.Buffers;
 import org.glassfish.grizzly.compression.zip.GZipDecoder;
@@ -92,8 +93,31 @@ public class GZipContentEncoding implements ContentEncoding {
      */
     public GZipContentEncoding(int inBufferSize, int outBufferSize,
             EncodingFilter encoderFilter) {
+        this(inBufferSize, outBufferSize, encoderFilter, null);
+    }
+
+    /**
+     * Construct <tt>GZipContentEncoding</tt> using specific buffer sizes.
+     * @param inBufferSize input buffer size
+     * @param outBufferSize output buffer size
+     * @param encoderFilter {@link EncodingFilter}, which will decide if
+     *          <tt>GZipContentEncoding</tt> should be applied to encode specific
+     *          {@link HttpHeader} packet.
+     * @param compressionConfig {@link CompressionConfig}, which provides
+     *          the compression level and strategy for the encoded content-type,
+     *          or <tt>null</tt> to use the defaults. The config is not copied,
+     *          so later changes of the level and strategy apply to the
+     *          subsequently encoded responses.
+     *
+     * @since 3.0
+     */
+    public GZipContentEncoding(int inBufferSize, int outBufferSize,
+            EncodingFilter encoderFilter,
+            CompressionConfig compressionConfig) {
         this.decoder = new GZipDecoder(inBufferSize);
-        this.encoder = new GZipEncoder(outBufferSize);
+        this.encoder = compressionConfig != null
+                ? new ConfiguredGZipEncoder(outBufferSize, compressionConfig)
+                : new GZipEncoder(outBufferSize);
 
         if (encoderFilter != null) {
             this.encoderFilter = encoderFilter;
@@ -250,4 +274,35 @@ public class GZipContentEncoding implements ContentEncoding {
         hash = 53 * hash + (getName().hashCode());
         return hash;
     }
+
+    
+    /**
+     * {@link GZipEncoder}, which takes the compression level and strategy
+     * from the {@link CompressionConfig} based on the content-type.
+     */
+    private static final class ConfiguredGZipEncoder extends GZipEncoder {
+        private final CompressionConfig compressionConfig;
+
+        private ConfiguredGZipEncoder(final int bufferSize,
+                final CompressionConfig compressionConfig) {
+            super(bufferSize);
+            this.compressionConfig = compressionConfig;
+        }
+
+        @Override
+        protected int getCompressionLevel(final AttributeStorage storage) {
+            return compressionConfig.getCompressionLevel(getContentType(storage));
+        }
+
+        @Override
+        protected int getCompressionStrategy(final AttributeStorage storage) {
+            return compressionConfig.getCompressionStrategy(getContentType(storage));
+        }
+        
+        private static String getContentType(final AttributeStorage storage) {
+            return storage instanceof HttpHeader
+                    ? ((HttpHeader) storage).getContentType()
+                    : null;
+        }
+    }
 }
@@ -41,6 +41,8 @@
 package org.glassfish.grizzly.http;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
@@ -96,6 +98,19 @@ public abstract class HttpCodecFilter extends HttpBaseFilter
 
     private final static Logger LOGGER = Grizzly.logger(HttpCodecFilter.class);
     
+    private static final long COLON_PATTERN = swarPattern(Constants.COLON);
+    private static final long CR_PATTERN = swarPattern(Constants.CR);
+    private static final long LF_PATTERN = swarPattern(Constants.LF);
+    
+    private static final long[] CONTENT_LENGTH_WORDS =
+            toSwarWords(Header.ContentLength.getLowerCaseBytes());
+    private static final long[] TRANSFER_ENCODING_WORDS =
+            toSwarWords(Header.TransferEncoding.getLowerCaseBytes());
+    private static final long[] UPGRADE_WORDS =
+            toSwarWords(Header.Upgrade.getLowerCaseBytes());
+    private static final long[] EXPECT_WORDS =
+            toSwarWords(Header.Expect.getLowerCaseBytes());
+    
     private final static byte[] CHUNKED_ENCODING_BYTES =
             Constants.CHUNKED_ENCODING.getBytes(ASCII_CHARSET);
     /**
@@ -172,6 +187,11 @@ public abstract class HttpCodecFilter extends HttpBaseFilter
     protected boolean preserveHeaderCase =
             Boolean.parseBoolean(System.getProperty("org.glassfish.grizzly.http.PRESERVE_HEADER_CASE", "false"));
 
+    /**
+     * @see #setSwarHeaderParsing(boolean)
+     */
+    protected boolean swarHeaderParsing;
+
     /**
      * Method is responsible for parsing initial line of HTTP message (different
      * for {@link HttpRequestPacket} and {@link HttpResponsePacket}).
@@ -421,6 +441,33 @@ public abstract class HttpCodecFilter extends HttpBaseFilter
         this.preserveHeaderCase = preserveHeaderCase;
     }
 
+    /**
+     * @return <code>true</code> if the headers of heap buffer backed HTTP
+     *  packets are parsed eight bytes at a time, otherwise <code>false</code>.
+     *  Default is <code>false</code>.
+     *
+     * @since 3.0
+     */
+    public boolean isSwarHeaderParsing() {
+        return swarHeaderParsing;
+    }
+
+    /**
+     * Set to <code>true</code> to parse the headers of heap buffer backed
+     * HTTP packets using SWAR (SIMD within a register): the header name and
+     * value delimiters are looked up, and the header names are lower-cased,
+     * eight bytes at a time. The headers, which are split across buffers or
+     * span multiple lines, are still parsed byte by byte.
+     * Default is <code>false</code>.
+     *
+     * @param swarHeaderParsing <code>true</code> to enable SWAR header parsing.
+     *
+     * @since 3.0
+     */
+    public void setSwarHeaderParsing(boolean swarHeaderParsing) {
+        this.swarHeaderParsing = swarHeaderParsing;
+    }
+
     /**
      * <p>
      * Gets registered {@link TransferEncoding}s.
@@ -805,6 +852,11 @@ public abstract class HttpCodecFilter extends HttpBaseFilter
                 } else if (eol == -2) { // not enough data
                     return false;
                 }
+                
+                if (swarHeaderParsing && parseHeaderFromBytesSwar(httpHeader,
+                        mimeHeaders, parsingState, input, end)) {
+                    continue;
+                }
             }
 
             if (!parseHeaderFromBytes(httpHeader, mimeHeaders, parsingState, input, end)) {
@@ -879,6 +931,126 @@ public abstract class HttpCodecFilter extends HttpBaseFilter
         }
     }
     
+    /**
+     * Parses the header, which starts at the current offset, eight bytes at
+     * a time. The header is parsed only if it's completely available and
+     * doesn't span multiple lines, otherwise the method returns
+     * <tt>false</tt> without changing the parsing state, so the header could
+     * be parsed by {@link #parseHeaderFromBytes(HttpHeader, MimeHeaders, HeaderParsingState, byte[], int)}.
+     */
+    private static boolean parseHeaderFromBytesSwar(final HttpHeader httpHeader,
+            final MimeHeaders mimeHeaders, final HeaderParsingState parsingState,
+            final byte[] input, final int end) {
+        final int arrayOffs = parsingState.arrayOffset;
+        final int limit = Math.min(end, arrayOffs + parsingState.packetLimit);
+        final int start = arrayOffs + parsingState.offset;
+        final ByteBuffer view = parsingState.getSwarView(input);
+        
+        // lower-case the header name in place up to the colon
+        int colon = -1;
+        int offset = start;
+        while (offset + 8 <= limit) {
+            final long word = view.getLong(offset);
+            final long lowerCaseWord = swarToLowerCase(word);
+            final long colons = swarMatch(word, COLON_PATTERN);
+            
+            if (colons != 0) {
+                colon = offset + swarFirstIndex(colons);
+                if (lowerCaseWord != word) {
+                    final long nameMask = (1L << ((colon - offset) << 3)) - 1;
+                    view.putLong(offset,
+                            (lowerCaseWord & nameMask) | (word & ~nameMask));
+                }
+                
+                break;
+            }
+            
+            if (lowerCaseWord != word) {
+                view.putLong(offset, lowerCaseWord);
+            }
+            
+            offset += 8;
+        }
+        
+        if (colon == -1) {
+            for (; offset < limit; offset++) {
+                final byte b = input[offset];
+                if (b == Constants.COLON) {
+                    colon = offset;
+                    break;
+                } else if ((b >= Constants.A) && (b <= Constants.Z)) {
+                    input[offset] = (byte) (b - Constants.LC_OFFSET);
+                }
+            }
+            
+            if (colon == -1) {
+                return false;
+            }
+        }
+        
+        int valueStart = colon + 1;
+        while (valueStart < limit && isSpaceOrTab(input[valueStart])) {
+            valueStart++;
+        }
+        
+        // look for the LF and the first CR, which is allowed only before the LF
+        int lf = -1;
+        int cr = -1;
+        offset = valueStart;
+        while (lf == -1 && offset + 8 <= limit) {
+            final long word = view.getLong(offset);
+            final long lfs = swarMatch(word, LF_PATTERN);
+            if (lfs != 0) {
+                lf = offset + swarFirstIndex(lfs);
+            }
+            
+            if (cr == -1) {
+                final long crs = swarMatch(word, CR_PATTERN);
+                if (crs != 0) {
+                    cr = offset + swarFirstIndex(crs);
+                }
+            }
+            
+            offset += 8;
+        }
+        
+        for (; lf == -1 && offset < limit; offset++) {
+            final byte b = input[offset];
+            if (b == Constants.LF) {
+                lf = offset;
+            } else if (b == Constants.CR && cr == -1) {
+                cr = offset;
+            }
+        }
+        
+        if (lf == -1 || lf + 1 >= limit || isSpaceOrTab(input[lf + 1])
+                || (cr != -1 && cr < lf - 1)) {
+            // incomplete, multi line or malformed header
+            return false;
+        }
+        
+        int valueEnd = lf;
+        if (valueEnd > valueStart && input[valueEnd - 1] == Constants.CR) {
+            valueEnd--;
+        }
+        while (valueEnd > valueStart && input[valueEnd - 1] == Constants.SP) {
+            valueEnd--;
+        }
+        
+        parsingState.headerValueStorage =
+                mimeHeaders.addValue(input, start, colon - start);
+        finalizeKnownHeaderNamesSwar(httpHeader, parsingState, view,
+                input, start, colon);
+        finalizeKnownHeaderValues(httpHeader, parsingState, input,
+                valueStart, valueEnd);
+        parsingState.headerValueStorage.setBytes(input, valueStart, valueEnd);
+        
+        parsingState.offset = lf + 1 - arrayOffs;
+        parsingState.start = -1;
+        
+        return true;
+    }
+    
     protected static boolean parseHeaderName(final HttpHeader httpHeader,
             final MimeHeaders mimeHeaders, final HeaderParsingState parsingState,
             final byte[] input, final int end) {
@@ -996,6 +1168,41 @@ public abstract class HttpCodecFilter extends HttpBaseFilter
         }
     }
 
+    /**
+     * Same as {@link #finalizeKnownHeaderNames(HttpHeader, HeaderParsingState, byte[], int, int)},
+     * but compares the already lower-cased header name with the known
+     * header names eight bytes at a time.
+     */
+    private static void finalizeKnownHeaderNamesSwar(final HttpHeader httpHeader,
+            final HeaderParsingState parsingState, final ByteBuffer view,
+            final byte[] input, final int start, final int end) {
+        
+        final int size = end - start;
+        if (size < 8 && start + 8 > input.length) {
+            // short header name at the very end of the array
+            finalizeKnownHeaderNames(httpHeader, parsingState, input, start, end);
+            return;
+        }
+        
+        if (size == Header.ContentLength.getLowerCaseBytes().length) {
+            if (swarEquals(view, start, size, CONTENT_LENGTH_WORDS)) {
+                parsingState.isContentLengthHeader = true;
+            }
+        } else if (size == Header.TransferEncoding.getLowerCaseBytes().length) {
+            if (swarEquals(view, start, size, TRANSFER_ENCODING_WORDS)) {
+                parsingState.isTransferEncodingHeader = true;
+            }
+        } else if (size == Header.Upgrade.getLowerCaseBytes().length) {
+            if (swarEquals(view, start, size, UPGRADE_WORDS)) {
+                parsingState.isUpgradeHeader = true;
+            }
+        } else if (size == Header.Expect.getLowerCaseBytes().length) {
+            if (swarEquals(view, start, size, EXPECT_WORDS)) {
+                ((HttpRequestPacket) httpHeader).requiresAcknowledgement(true);
+            }
+        }
+    }
+
     private static void finalizeKnownHeaderValues(final HttpHeader httpHeader,
             final HeaderParsingState parsingState, final byte[] input,
             final int start, final int end) {
@@ -1599,6 +1806,7 @@ public abstract class HttpCodecFilter extends HttpBaseFilter
 
             final MimeHeaders mimeHeaders = httpHeader.getHeaders();
             final byte[] tempEncodingBuffer = httpHeader.getTempHeaderEncodingBuffer();
+            encodedBuffer = encodeHeaderTemplate(memoryManager, encodedBuffer, mimeHeaders);
             encodedBuffer = encodeMimeHeaders(memoryManager, encodedBuffer, mimeHeaders, tempEncodingBuffer);
             onHttpHeadersEncoded(httpHeader, ctx);
             encodedBuffer = put(memoryManager, encodedBuffer, CRLF_BYTES);
@@ -1699,6 +1907,22 @@ public abstract class HttpCodecFilter extends HttpBaseFilter
         return buffer;
     }
     
+    /**
+     * Writes the pre-serialized {@link org.glassfish.grizzly.http.util.HeaderTemplate}
+     * headers, if the template was applied to the {@link MimeHeaders} and
+     * its headers haven't been changed since then.
+     */
+    protected static Buffer encodeHeaderTemplate(final MemoryManager memoryManager,
+                                                 Buffer buffer,
+                                                 final MimeHeaders mimeHeaders) {
+        if (mimeHeaders.setTemplateSerialized()) {
+            buffer = put(memoryManager, buffer,
+                    mimeHeaders.getTemplate().getBytes());
+        }
+
+        return buffer;
+    }
+
     protected static Buffer encodeMimeHeaders(final MemoryManager memoryManager,
                                               Buffer buffer,
                                               final MimeHeaders mimeHeaders,
@@ -2037,6 +2261,12 @@ public abstract class HttpCodecFilter extends HttpBaseFilter
         public boolean isTransferEncodingHeader;
         public boolean isUpgradeHeader;
 
+        /**
+         * Little-endian view of the last parsed array, used by the SWAR
+         * header parsing
+         */
+        private ByteBuffer swarView;
+
         public void initialize(final HttpCodecFilter codecFilter,
                                final int initialOffset,
                                final int maxHeaderSize) {
@@ -2063,6 +2293,17 @@ public abstract class HttpCodecFilter extends HttpBaseFilter
             parsingNumericValue = 0;
             contentLengthHeadersCount = 0;
             contentLengthsDiffer = false;
+            swarView = null;
+        }
+
+        ByteBuffer getSwarView(final byte[] array) {
+            ByteBuffer view = swarView;
+            if (view == null || view.array() != array) {
+                view = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+                swarView = view;
+            }
+            
+            return view;
         }
 
         public final void checkOverflow(final int pos,
@@ -44,6 +44,7 @@ import java.util.Locale;
 
 import org.glassfish.grizzly.Buffer;
 import org.glassfish.grizzly.http.util.DataChunk;
+import org.glassfish.grizzly.http.util.HeaderTemplate;
 import org.glassfish.grizzly.http.util.HttpStatus;
 import org.glassfish.grizzly.http.util.MimeHeaders;
 
@@ -297,6 +298,22 @@ public abstract class HttpResponsePacket extends HttpHeader {
     }
 
 
+    /**
+     * Adds the pre-serialized {@link HeaderTemplate} headers to this response.
+     * As long as the template headers are not changed, they're written by
+     * copying the {@link HeaderTemplate} bytes instead of encoding each
+     * header separately.
+     *
+     * @param template the {@link HeaderTemplate}
+     *
+     * @see MimeHeaders#setTemplate(HeaderTemplate)
+     * @since 3.0
+     */
+    public void setHeaderTemplate(final HeaderTemplate template) {
+        getHeaders().setTemplate(template);
+    }
+
+
     // --------------------
 
 
@@ -90,6 +90,7 @@ import org.glassfish.grizzly.impl.FutureImpl;
 import org.glassfish.grizzly.memory.BufferArray;
 import org.glassfish.grizzly.memory.Buffers;
 import org.glassfish.grizzly.memory.CompositeBuffer;
+import org.glassfish.grizzly.memory.DirectBufferProvider;
 import org.glassfish.grizzly.memory.MemoryManager;
 import org.glassfish.grizzly.threadpool.Threads;
 import org.glassfish.grizzly.utils.Charsets;
@@ -114,6 +115,12 @@ public class OutputBuffer implements OutputSink {
 
     private static final int MIN_BUFFER_SIZE = 512;
     
+    /**
+     * The size of the heap buffer used to encode chars for non heap
+     * {@link Buffer}s
+     */
+    private static final int ENCODING_BUFFER_SIZE = 2048;
+    
     /**
      * Flag indicating whether or not async operations are being used on the
      * input streams.
@@ -121,6 +128,15 @@ public class OutputBuffer implements OutputSink {
     private final static boolean IS_BLOCKING =
             Boolean.getBoolean(OutputBuffer.class.getName() + ".isBlocking");
 
+    /**
+     * Flag indicating whether or not the content should be buffered in direct
+     * {@link Buffer}s, if the {@link MemoryManager} is able to provide them
+     * (see {@link DirectBufferProvider}). Direct {@link Buffer}s are written
+     * to the network without an intermediate copy.
+     */
+    private final static boolean USE_DIRECT_BUFFERS =
+            Boolean.getBoolean(OutputBuffer.class.getName() + ".use-direct-buffers");
+
     private FilterChainContext ctx;
 
     private CompositeBuffer compositeBuffer;
@@ -154,6 +170,7 @@ public class OutputBuffer implements OutputSink {
     private char[] charsArray;
     private int charsArrayLength;
     private CharBuffer charsBuffer;
+    private ByteBuffer encodingBuffer;
 
     private MemoryManager memoryManager;
     private Connection connection;
@@ -407,7 +424,7 @@ public class OutputBuffer implements OutputSink {
         checkCharBuffer();
 
         if (charsArrayLength == charsArray.length) {
-            flushCharsToBuf(true);
+            flushFullCharsToBuf(true);
         }
 
         charsArray[charsArrayLength++] = (char) c;
@@ -438,10 +455,10 @@ public class OutputBuffer implements OutputSink {
             System.arraycopy(cbuf, off, charsArray, charsArrayLength, remaining);
             charsArrayLength += remaining;
             
-            flushCharsToBuf(true);
+            flushFullCharsToBuf(true);
             
-            System.arraycopy(cbuf, off + remaining, charsArray, 0, len - remaining);
-            charsArrayLength = len - remaining;
+            System.arraycopy(cbuf, off + remaining, charsArray, charsArrayLength, len - remaining);
+            charsArrayLength += len - remaining;
         } else {
             flushCharsToBuf(false);
             flushCharsToBuf(CharBuffer.wrap(cbuf, off, len), true);
@@ -497,7 +514,7 @@ public class OutputBuffer implements OutputSink {
             lenLocal -= workingLen;
 
             if (lenLocal > 0) { // If string processing is not entirely complete
-                flushCharsToBuf(false);
+                flushFullCharsToBuf(false);
             }
         } while (lenLocal > 0);
 
@@ -692,7 +709,7 @@ public class OutputBuffer implements OutputSink {
         } else {
             // if we can't write the chunk - buffer it.
             finishCurrentBuffer();
-            final Buffer cloneBuffer = memoryManager.allocate(len);
+            final Buffer cloneBuffer = allocateBuffer(len);
             cloneBuffer.put(b, off, len);
             cloneBuffer.flip();
             checkCompositeBuffer();
@@ -1049,11 +1066,17 @@ public class OutputBuffer implements OutputSink {
 
     private void checkCurrentBuffer() {
         if (currentBuffer == null) {
-            currentBuffer = memoryManager.allocate(bufferSize);
+            currentBuffer = allocateBuffer(bufferSize);
             currentBuffer.allowBufferDispose(true);
         }
     }
 
+    private Buffer allocateBuffer(final int size) {
+        return USE_DIRECT_BUFFERS && memoryManager instanceof DirectBufferProvider
+                ? ((DirectBufferProvider) memoryManager).allocateDirect(size)
+                : memoryManager.allocate(size);
+    }
+
     private void finishCurrentBuffer() {
         if (currentBuffer != null && currentBuffer.position() > 0) {
             currentBuffer.trim();
@@ -1143,6 +1166,24 @@ public class OutputBuffer implements OutputSink {
         }
     }
 
+    /**
+     * Flushes the full chars buffer, keeping a trailing high surrogate in it,
+     * so it's encoded together with the low surrogate written next rather
+     * than replaced as malformed input.
+     */
+    private void flushFullCharsToBuf(final boolean canFlushToNet) throws IOException {
+        final char last = charsArray[charsArrayLength - 1];
+        if (!Character.isHighSurrogate(last)) {
+            flushCharsToBuf(canFlushToNet);
+            return;
+        }
+        
+        charsArrayLength--;
+        flushCharsToBuf(canFlushToNet);
+        charsArray[0] = last;
+        charsArrayLength = 1;
+    }
+
     private void flushCharsToBuf(final CharBuffer charBuf, final boolean canFlushToNet) throws IOException {
         
         if (!charBuf.hasRemaining()) return;
@@ -1157,9 +1198,14 @@ public class OutputBuffer implements OutputSink {
             checkCurrentBuffer();
         }
         
-        final CoderResult res = !currentBuffer.isComposite()
-                ? convertToSimpleBuffer(charBuf, enc)
-                : convertToCompositeBuffer(charBuf, enc);
+        final CoderResult res;
+        if (currentBuffer.isComposite()) {
+            res = convertToCompositeBuffer(charBuf, enc);
+        } else if (currentBuffer.hasArray()) {
+            res = convertToSimpleBuffer(charBuf, enc);
+        } else {
+            res = convertToNonHeapBuffer(charBuf, enc);
+        }
 
         if (res != CoderResult.UNDERFLOW) {
             throw new IOException("Encoding error");
@@ -1196,6 +1242,42 @@ public class OutputBuffer implements OutputSink {
         return res;
     }
     
+    /**
+     * The JDK {@link CharsetEncoder}s are much faster when encoding into a
+     * heap {@link ByteBuffer}: they work with its backing array and use
+     * intrinsics for ASCII and ISO-8859-1, while a direct {@link ByteBuffer}
+     * is encoded a char at a time. So the chars are encoded into a heap
+     * buffer and then copied into the current {@link Buffer} in bulk.
+     */
+    private CoderResult convertToNonHeapBuffer(final CharBuffer charBuf,
+            final CharsetEncoder enc) {
+        if (encodingBuffer == null) {
+            encodingBuffer = ByteBuffer.allocate(ENCODING_BUFFER_SIZE);
+        }
+        
+        CoderResult res;
+        do {
+            encodingBuffer.clear();
+            encodingBuffer.limit(Math.min(ENCODING_BUFFER_SIZE,
+                    currentBuffer.remaining()));
+            
+            res = enc.encode(charBuf, encodingBuffer, true);
+            
+            encodingBuffer.flip();
+            final boolean isEncoded = encodingBuffer.hasRemaining();
+            currentBuffer.put(encodingBuffer);
+            
+            if (res == CoderResult.OVERFLOW
+                    && (!isEncoded || !currentBuffer.hasRemaining())) {
+                // the current buffer is full, or too short for the next char
+                finishCurrentBuffer();
+                checkCurrentBuffer();
+            }
+        } while (res == CoderResult.OVERFLOW);
+        
+        return res;
+    }
+    
     private CoderResult convertToCompositeBuffer(final CharBuffer charBuf,
             final CharsetEncoder enc) {
         final BufferArray bufferArray = BufferArray.create();
@@ -123,6 +123,7 @@ public enum Header {
     private final String headerName;
     private final String headerNameLowerCase;
     private final int length;
+    private final int lowerCaseHash;
 
     // ------------------------------------------------------------ Constructors
 
@@ -135,6 +136,12 @@ public enum Header {
         headerNameLowerCaseBytes = headerNameLowerCase.getBytes(Charsets.ASCII_CHARSET);
         
         length = headerNameBytes.length;
+        
+        int hash = 0;
+        for (byte b : headerNameLowerCaseBytes) {
+            hash = hash * 31 + b;
+        }
+        lowerCaseHash = hash;
     }
 
 
@@ -211,6 +218,14 @@ public enum Header {
         return headerNameBytes;
     }
 
+    /**
+     * @return the case-insensitive hash of the header name, the same as
+     *  {@link MimeHeaders} computes for the header names it indexes.
+     */
+    final int getLowerCaseHash() {
+        return lowerCaseHash;
+    }
+
     /**
      * <p>
      * Attempts to find a HTTP header by it's standard textual definition which
@@ -0,0 +1,211 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.glassfish.grizzly.http.util.HttpCodecUtils.*;
+
+/**
+ * An immutable, pre-serialized set of HTTP headers.
+ *
+ * Applications, which send the same headers with (almost) every response,
+ * may register them once as a <tt>HeaderTemplate</tt> and apply the template
+ * using {@link MimeHeaders#setTemplate(HeaderTemplate)}. The template headers
+ * are added to the {@link MimeHeaders} like any other header, so they are
+ * visible to the code inspecting the headers, but as long as they are not
+ * changed or removed the HTTP/1.x codec writes the pre-serialized bytes
+ * instead of encoding the headers one by one. If any template header is
+ * changed, the headers are encoded as usual.
+ *
+ * The <tt>Content-Length</tt> and <tt>Transfer-Encoding</tt> headers are
+ * managed by the codec and can't be part of a template.
+ *
+ * <pre>
+ * private static final HeaderTemplate COMMON_HEADERS = HeaderTemplate.builder()
+ *         .add(Header.Server, "grizzly")
+ *         .add(Header.ContentType, "text/plain")
+ *         .build();
+ * ...
+ * response.setHeaderTemplate(COMMON_HEADERS);
+ * </pre>
+ *
+ * @since 3.0
+ */
+public final class HeaderTemplate {
+
+    private final String[] names;
+    private final String[] values;
+    private final byte[] bytes;
+
+    /**
+     * @return a new {@link Builder} to construct a <tt>HeaderTemplate</tt>.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private HeaderTemplate(final String[] names, final String[] values) {
+        this.names = names;
+        this.values = values;
+
+        int length = 0;
+        for (int i = 0; i < names.length; i++) {
+            length += names[i].length() + values[i].length() + 4;
+        }
+
+        // "name: value\r\n" for each header
+        final byte[] array = new byte[length];
+        int offs = 0;
+        for (int i = 0; i < names.length; i++) {
+            toCheckedByteArray(names[i], array, offs);
+            offs += names[i].length();
+            array[offs++] = Constants.COLON;
+            array[offs++] = Constants.SP;
+            toCheckedByteArray(values[i], array, offs);
+            offs += values[i].length();
+            array[offs++] = Constants.CR;
+            array[offs++] = Constants.LF;
+        }
+
+        bytes = array;
+    }
+
+    /**
+     * @return the number of headers in the template.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return the name of the n-th template header.
+     */
+    public String getName(final int n) {
+        return names[n];
+    }
+
+    /**
+     * @return the value of the n-th template header.
+     */
+    public String getValue(final int n) {
+        return values[n];
+    }
+
+    /**
+     * Returns the serialized template headers, each of them followed by CRLF.
+     * The returned array is shared and must not be modified.
+     *
+     * @return the serialized template headers.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(bytes.length + 32);
+        sb.append("HeaderTemplate {");
+        for (int i = 0; i < names.length; i++) {
+            sb.append(' ').append(names[i]).append(": ").append(values[i])
+                    .append(';');
+        }
+        return sb.append(" }").toString();
+    }
+
+    /**
+     * The {@link HeaderTemplate} builder.
+     */
+    public static final class Builder {
+        private final List<String> names = new ArrayList<String>();
+        private final List<String> values = new ArrayList<String>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds the header to the template.
+         *
+         * @param name the header name
+         * @param value the header value
+         *
+         * @return this <tt>Builder</tt>
+         */
+        public Builder add(final String name, final String value) {
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("Header name can't be empty");
+            }
+            if (value == null) {
+                throw new IllegalArgumentException("Header value can't be null");
+            }
+            if (Header.ContentLength.toString().equalsIgnoreCase(name)
+                    || Header.TransferEncoding.toString().equalsIgnoreCase(name)) {
+                throw new IllegalArgumentException(name
+                        + " header is managed by the codec and can't be a part of the template");
+            }
+
+            names.add(name);
+            values.add(value);
+            return this;
+        }
+
+        /**
+         * Adds the header to the template.
+         *
+         * @param header the {@link Header}
+         * @param value the header value
+         *
+         * @return this <tt>Builder</tt>
+         */
+        public Builder add(final Header header, final String value) {
+            return add(header.toString(), value);
+        }
+
+        /**
+         * @return the {@link HeaderTemplate}
+         */
+        public HeaderTemplate build() {
+            return new HeaderTemplate(names.toArray(new String[names.size()]),
+                    values.toArray(new String[values.size()]));
+        }
+    }
+}
@@ -42,6 +42,7 @@ package org.glassfish.grizzly.http.util;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import org.glassfish.grizzly.Buffer;
 import org.glassfish.grizzly.Connection;
 import org.glassfish.grizzly.http.HttpCodecFilter;
@@ -57,6 +58,10 @@ public class HttpCodecUtils {
     static final byte[] EMPTY_ARRAY = new byte[0];
     private static final int[] DEC = HexUtils.getDecBytes();
     
+    private static final long SWAR_ONES = 0x0101010101010101L;
+    private static final long SWAR_HIGH_BITS = 0x8080808080808080L;
+    private static final long SWAR_LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    
     public static void parseHost(final DataChunk hostDC,
                                  final DataChunk serverNameDC,
                                  final HttpRequestPacket request) {
@@ -525,6 +530,128 @@ public class HttpCodecUtils {
         return ((ub <= 31 && ub != 9) || ub >= 127);
     }
     
+    /**
+     * Returns the SWAR (SIMD within a register) pattern for the byte,
+     * which is the byte repeated in all the eight bytes of a long.
+     * 
+     * @param b the byte
+     * @return the pattern to be passed to {@link #swarMatch(long, long)}
+     * 
+     * @since 3.0
+     */
+    public static long swarPattern(final byte b) {
+        return SWAR_ONES * (b & 0xFF);
+    }
+    
+    /**
+     * Looks for the pattern byte in the eight bytes of the word at once.
+     * The word's bytes above the first match might be reported as false
+     * positives, so only the lowest match is exact. It's the first match in
+     * the memory order if the word was read as a little-endian long.
+     * 
+     * @param word the eight bytes to check
+     * @param pattern the pattern returned by {@link #swarPattern(byte)}
+     * @return non-zero value, with the high bit set for the matching bytes,
+     *         if the word contains the pattern byte, or <tt>0</tt> otherwise
+     * 
+     * @since 3.0
+     */
+    public static long swarMatch(final long word, final long pattern) {
+        final long x = word ^ pattern;
+        return (x - SWAR_ONES) & ~x & SWAR_HIGH_BITS;
+    }
+    
+    /**
+     * @param matches non-zero value returned by {@link #swarMatch(long, long)}
+     * @return the index of the first matching byte in a little-endian word
+     * 
+     * @since 3.0
+     */
+    public static int swarFirstIndex(final long matches) {
+        return Long.numberOfTrailingZeros(matches) >>> 3;
+    }
+    
+    /**
+     * Lower-cases the US-ASCII upper case letters among the eight bytes of
+     * the word, the other bytes are not changed.
+     * 
+     * @param word the eight bytes to convert
+     * @return the converted word
+     * 
+     * @since 3.0
+     */
+    public static long swarToLowerCase(final long word) {
+        final long heptets = word & SWAR_LOW_BITS;
+        // the high bit is set for the bytes, which are >= 'A' and > 'Z' respectively
+        final long aboveA = heptets + SWAR_ONES * (0x80 - 'A');
+        final long aboveZ = heptets + SWAR_ONES * (0x7F - 'Z');
+        final long upperCase = (aboveA ^ aboveZ) & ~word & SWAR_HIGH_BITS;
+        
+        return word | (upperCase >>> 2);
+    }
+    
+    /**
+     * Packs the byte array into little-endian longs to be compared with
+     * {@link #swarEquals(java.nio.ByteBuffer, int, int, long[])}.
+     * The array longer than eight bytes is packed as a sequence of eight byte
+     * words, the last word is aligned to the end of the array, so it may
+     * overlap with the previous one.
+     * 
+     * @param bytes the bytes to pack
+     * @return the packed words
+     * 
+     * @since 3.0
+     */
+    public static long[] toSwarWords(final byte[] bytes) {
+        final int len = bytes.length;
+        final long[] words = new long[Math.max(1, (len + 7) >>> 3)];
+        
+        for (int i = 0; i < words.length; i++) {
+            final int offs = len >= 8 ? Math.min(i << 3, len - 8) : 0;
+            final int wordLen = Math.min(8, len);
+            
+            long word = 0;
+            for (int j = wordLen - 1; j >= 0; j--) {
+                word = (word << 8) | (bytes[offs + j] & 0xFF);
+            }
+            words[i] = word;
+        }
+        
+        return words;
+    }
+    
+    /**
+     * Compares the <tt>len</tt> bytes of the little-endian {@link ByteBuffer}
+     * starting at <tt>offset</tt> with the words returned by
+     * {@link #toSwarWords(byte[])} for a byte array of the same length.
+     * The byte sequence shorter than eight bytes is compared using an eight
+     * byte read, so the caller has to make sure the buffer has at least eight
+     * bytes starting at <tt>offset</tt>.
+     * 
+     * @param view the little-endian {@link ByteBuffer}
+     * @param offset the absolute offset of the byte sequence in the buffer
+     * @param len the byte sequence length
+     * @param words the words to compare with
+     * @return <tt>true</tt> if the bytes are equal to the words
+     * 
+     * @since 3.0
+     */
+    public static boolean swarEquals(final ByteBuffer view, final int offset,
+            final int len, final long[] words) {
+        if (len < 8) {
+            final long mask = (1L << (len << 3)) - 1;
+            return (view.getLong(offset) & mask) == words[0];
+        }
+        
+        for (int i = 0; i < words.length; i++) {
+            if (view.getLong(offset + Math.min(i << 3, len - 8)) != words[i]) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
     private static void fastAsciiEncode(final String s,
                                         byte[] tempBuffer,
                                         final Buffer dstBuffer) {
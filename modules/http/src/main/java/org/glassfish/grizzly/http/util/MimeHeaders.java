@@ -167,6 +167,14 @@ servlet needs direct access to headers).
 
     public static DataChunk NOOP_CHUNK = new DataChunk.Immutable(null);
 
+    /**
+     * The number of headers starting from which the header lookups are served
+     * by a hash index, instead of scanning the headers. A negative value
+     * disables the index.
+     */
+    private static final int INDEX_THRESHOLD = Integer.getInteger(
+            MimeHeaders.class.getName() + ".index-threshold", 16);
+
     /**
      * The header fields.
      */
@@ -180,6 +188,24 @@ servlet needs direct access to headers).
 
     private int maxNumHeaders = MAX_NUM_HEADERS_DEFAULT;
 
+    /**
+     * The applied header template and the index of its first header.
+     */
+    private HeaderTemplate template;
+    private int templateStart;
+
+    /**
+     * The open-addressing (linear probing) header name index.
+     * Every slot contains the header position + 1, or 0 if it's empty.
+     * The index is built lazily by the lookups, new headers are added to it
+     * incrementally, removing headers invalidates it. The arrays are reused
+     * across {@link #recycle()}s.
+     */
+    private int[] indexSlots;
+    private int[] indexHashes;
+    // the number of indexed headers, -1 if the index is invalid
+    private int indexedCount = -1;
+
     /**
      * The header names {@link Iterable}.
      */
@@ -222,6 +248,9 @@ servlet needs direct access to headers).
         count = 0;
         mark = 0;
         marked = false;
+        template = null;
+        templateStart = 0;
+        indexedCount = -1;
 
     }
 
@@ -250,6 +279,7 @@ servlet needs direct access to headers).
         }
         this.maxNumHeaders = source.maxNumHeaders;
         this.count = source.count;
+        this.indexedCount = -1;
         if (headers.length < count) {
             MimeHeaderField tmp[] = new MimeHeaderField[count * 2];
             System.arraycopy(headers, 0, tmp, 0, headers.length);
@@ -359,17 +389,93 @@ servlet needs direct access to headers).
         return value;
     }
 
+    /**
+     * Adds the {@link HeaderTemplate} headers.
+     * The headers are added like any other header, but as long as they stay
+     * unchanged, the HTTP/1.x codec serializes them by writing the
+     * pre-serialized template bytes.
+     *
+     * @param template the {@link HeaderTemplate}
+     *
+     * @throws IllegalStateException if a template has already been applied
+     *
+     * @since 3.0
+     */
+    public void setTemplate(final HeaderTemplate template) {
+        if (this.template != null) {
+            throw new IllegalStateException("Header template has already been set");
+        }
+
+        final int start = count;
+        for (int i = 0, len = template.size(); i < len; i++) {
+            final MimeHeaderField mh = createHeader();
+            mh.getName().setString(template.getName(i));
+            mh.getValue().setString(template.getValue(i));
+        }
+
+        this.template = template;
+        this.templateStart = start;
+    }
+
+    /**
+     * @return the applied {@link HeaderTemplate}, or <tt>null</tt> if
+     *  no template has been applied.
+     *
+     * @since 3.0
+     */
+    public HeaderTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Marks the {@link HeaderTemplate} headers as serialized, if none of them
+     * has been changed, removed or serialized since the template has been
+     * applied. If <tt>true</tt> is returned, the caller is responsible for
+     * writing the {@link HeaderTemplate#getBytes()}, otherwise the template
+     * headers have to be serialized as usual.
+     *
+     * @return <tt>true</tt> if the template headers have been marked as serialized.
+     *
+     * @since 3.0
+     */
+    public boolean setTemplateSerialized() {
+        final HeaderTemplate t = template;
+        if (t == null) {
+            return false;
+        }
+
+        final int start = templateStart;
+        final int len = t.size();
+        if (start + len > count) {
+            return false;
+        }
+
+        for (int i = 0; i < len; i++) {
+            final MimeHeaderField field = headers[start + i];
+            if (field.isSerialized()
+                    || !isSameString(field.getName(), t.getName(i))
+                    || !isSameString(field.getValue(), t.getValue(i))) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < len; i++) {
+            headers[start + i].setSerialized(true);
+        }
+
+        return true;
+    }
+
     /**
      * Find the index of a header with the given name.
      */
     public int indexOf(String name, int fromIndex) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
-
-        // A custom search tree may be better
+        // the number of headers is usually small (4-5), so the headers are
+        // scanned unless there's enough of them to make the index pay off
+        if (updateIndex()) {
+            return indexLookup(name, fromIndex);
+        }
+        
         for (int i = fromIndex; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 return i;
@@ -382,13 +488,10 @@ servlet needs direct access to headers).
      * Find the index of a header with the given name.
      */
     public int indexOf(final Header header, final int fromIndex) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
-
-        // A custom search tree may be better
+        if (updateIndex()) {
+            return indexLookup(header, fromIndex);
+        }
+        
         final byte[] bytes = header.getLowerCaseBytes();
         for (int i = fromIndex; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCaseLowerCase(bytes)) {
@@ -547,15 +650,12 @@ servlet needs direct access to headers).
         if (!isValidName(name)) {
             return NOOP_CHUNK;
         }
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                for (int j = i + 1; j < count; j++) {
-                    if (headers[j].getName().equalsIgnoreCase(name)) {
-                        removeHeader(j--);
-                    }
-                }
-                return headers[i].getValue();
+        final int i = indexOf(name, 0);
+        if (i >= 0) {
+            for (int j = indexOf(name, i + 1); j >= 0; j = indexOf(name, j)) {
+                removeHeader(j);
             }
+            return headers[i].getValue();
         }
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
@@ -572,16 +672,12 @@ servlet needs direct access to headers).
         if (!isValidName(header)) {
             return NOOP_CHUNK;
         }
-        final byte[] bytes = header.getLowerCaseBytes();
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCaseLowerCase(bytes)) {
-                for (int j = i + 1; j < count; j++) {
-                    if (headers[j].getName().equalsIgnoreCaseLowerCase(bytes)) {
-                        removeHeader(j--);
-                    }
-                }
-                return headers[i].getValue();
+        final int i = indexOf(header, 0);
+        if (i >= 0) {
+            for (int j = indexOf(header, i + 1); j >= 0; j = indexOf(header, j)) {
+                removeHeader(j);
             }
+            return headers[i].getValue();
         }
         MimeHeaderField mh = createHeader();
         mh.getName().setBytes(header.toByteArray());
@@ -596,12 +692,8 @@ servlet needs direct access to headers).
      * in the header, an arbitrary one is returned.
      */
     public DataChunk getValue(String name) {
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                return headers[i].getValue();
-            }
-        }
-        return null;
+        final int i = indexOf(name, 0);
+        return i >= 0 ? headers[i].getValue() : null;
     }
 
     /**
@@ -610,13 +702,8 @@ servlet needs direct access to headers).
      * in the header, an arbitrary one is returned.
      */
     public DataChunk getValue(final Header header) {
-        final byte[] bytes = header.getLowerCaseBytes();
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCaseLowerCase(bytes)) {
-                return headers[i].getValue();
-            }
-        }
-        return null;
+        final int i = indexOf(header, 0);
+        return i >= 0 ? headers[i].getValue() : null;
     }
 
     // bad shortcut - it'll convert to string ( too early probably,
@@ -727,6 +814,163 @@ servlet needs direct access to headers).
         headers[idx] = headers[count - 1];
         headers[count - 1] = mh;
         count--;
+        indexedCount = -1;
+    }
+
+
+    // ------------------------------------------------------- Header Name Index
+
+
+    /**
+     * Makes sure all the headers are indexed, if the index is enabled and
+     * there are enough headers to use it.
+     *
+     * @return <tt>true</tt> if the lookups have to be served by the index.
+     */
+    private boolean updateIndex() {
+        final int n = count;
+        if (n < INDEX_THRESHOLD || INDEX_THRESHOLD < 0) {
+            return false;
+        }
+
+        int from = indexedCount;
+        if (from == n) {
+            return true;
+        }
+
+        // keep the load factor below 0.5
+        final int capacity = Integer.highestOneBit(n * 4 - 1);
+        if (from < 0 || indexSlots.length < capacity) {
+            if (indexSlots == null || indexSlots.length < capacity) {
+                indexSlots = new int[capacity];
+            } else {
+                Arrays.fill(indexSlots, 0);
+            }
+            from = 0;
+        }
+
+        if (indexHashes == null || indexHashes.length < n) {
+            indexHashes = from == 0
+                    ? new int[headers.length]
+                    : Arrays.copyOf(indexHashes, headers.length);
+        }
+
+        final int[] slots = indexSlots;
+        final int mask = slots.length - 1;
+        for (int i = from; i < n; i++) {
+            final int hash = hashIgnoreCase(headers[i].getName());
+            indexHashes[i] = hash;
+
+            int slot = spread(hash) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+
+        indexedCount = n;
+        return true;
+    }
+
+    /**
+     * The headers are indexed in their order, so the probe sequence meets
+     * the headers with the same name in the same order, which lets us
+     * return the first one at or after <tt>fromIndex</tt>.
+     */
+    private int indexLookup(final String name, final int fromIndex) {
+        final int hash = hashIgnoreCase(name);
+        final int[] slots = indexSlots;
+        final int mask = slots.length - 1;
+
+        int slot = spread(hash) & mask;
+        int pos;
+        while ((pos = slots[slot]) != 0) {
+            pos--;
+            if (pos >= fromIndex && indexHashes[pos] == hash
+                    && headers[pos].getName().equalsIgnoreCase(name)) {
+                return pos;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private int indexLookup(final Header header, final int fromIndex) {
+        final int hash = header.getLowerCaseHash();
+        final byte[] bytes = header.getLowerCaseBytes();
+        final int[] slots = indexSlots;
+        final int mask = slots.length - 1;
+
+        int slot = spread(hash) & mask;
+        int pos;
+        while ((pos = slots[slot]) != 0) {
+            pos--;
+            if (pos >= fromIndex && indexHashes[pos] == hash
+                    && headers[pos].getName().equalsIgnoreCaseLowerCase(bytes)) {
+                return pos;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hashIgnoreCase(final String s) {
+        int hash = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            hash = hash * 31 + Ascii.toLower(s.charAt(i));
+        }
+        return hash;
+    }
+
+    private static int hashIgnoreCase(final DataChunk name) {
+        int hash = 0;
+        switch (name.getType()) {
+            case Bytes: {
+                final ByteChunk bc = name.getByteChunk();
+                final byte[] b = bc.getBuffer();
+                for (int i = bc.getStart(), end = bc.getEnd(); i < end; i++) {
+                    hash = hash * 31 + Ascii.toLower(b[i]);
+                }
+                return hash;
+            }
+            case Buffer: {
+                final BufferChunk bc = name.getBufferChunk();
+                final Buffer b = bc.getBuffer();
+                for (int i = bc.getStart(), end = bc.getEnd(); i < end; i++) {
+                    hash = hash * 31 + Ascii.toLower(b.get(i));
+                }
+                return hash;
+            }
+            case Chars: {
+                final CharChunk cc = name.getCharChunk();
+                final char[] c = cc.getBuffer();
+                for (int i = cc.getStart(), end = cc.getEnd(); i < end; i++) {
+                    hash = hash * 31 + Ascii.toLower(c[i]);
+                }
+                return hash;
+            }
+            case String:
+                return hashIgnoreCase(name.toString());
+            default:
+                return 0;
+        }
+    }
+
+
+    /**
+     * Checks whether the {@link DataChunk} still holds the {@link String}
+     * it was set to. The reference comparison is intended: any change made
+     * to the chunk replaces or resets the stored value.
+     */
+    @SuppressWarnings("StringEquality")
+    private static boolean isSameString(final DataChunk chunk, final String s) {
+        return chunk.getType() == DataChunk.Type.String && chunk.toString() == s;
     }
 
 
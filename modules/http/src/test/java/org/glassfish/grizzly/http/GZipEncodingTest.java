@@ -60,6 +60,7 @@ import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
 import org.glassfish.grizzly.utils.ChunkingFilter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -68,6 +69,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 import junit.framework.TestCase;
 import org.glassfish.grizzly.memory.Buffers;
@@ -328,6 +330,21 @@ public class GZipEncodingTest extends TestCase {
         doTest(reqHttpContent, result, gzipServerContentEncoding, gzipClientContentEncoding);
     }
     
+    public void testCompressionConfigChangesApplied() throws Throwable {
+        final CompressionConfig compressionConfig = new CompressionConfig();
+        final GZipContentEncoding gzipContentEncoding =
+                new GZipContentEncoding(512, 512, null, compressionConfig);
+
+        compressionConfig.setCompressionLevel("text/", Deflater.NO_COMPRESSION);
+        final int storedSize = encodeTextContent(gzipContentEncoding);
+
+        compressionConfig.setCompressionLevel("text/", Deflater.BEST_COMPRESSION);
+        final int compressedSize = encodeTextContent(gzipContentEncoding);
+
+        assertTrue("stored=" + storedSize + " compressed=" + compressedSize,
+                compressedSize < storedSize / 2);
+    }
+
     // --------------------------------------------------------- Private Methods
 
     private void doTest(HttpPacket request, ExpectedResult expectedResults,
@@ -526,6 +543,24 @@ public class GZipEncodingTest extends TestCase {
         }
     }
 
+    private static int encodeTextContent(
+            final GZipContentEncoding gzipContentEncoding) {
+        final HttpResponsePacket response = HttpResponsePacket.builder(
+                HttpRequestPacket.builder().method("GET").uri("/")
+                .protocol(Protocol.HTTP_1_1).build())
+                .contentType("text/plain").build();
+        
+        final char[] text = new char[64 * 1024];
+        Arrays.fill(text, 'a');
+        final HttpContent content = response.httpContentBuilder()
+                .content(Buffers.wrap(MemoryManager.DEFAULT_MEMORY_MANAGER,
+                new String(text)))
+                .build();
+
+        final HttpContent encoded = gzipContentEncoding.encode(null, content);
+        return encoded != null ? encoded.getContent().remaining() : 0;
+    }
+
     private String generateBigString(int size) {
         final Random r = new Random();
         
@@ -43,6 +43,8 @@ package org.glassfish.grizzly.http;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -61,6 +63,8 @@ import org.glassfish.grizzly.filterchain.FilterChainBuilder;
 import org.glassfish.grizzly.filterchain.FilterChainContext;
 import org.glassfish.grizzly.filterchain.NextAction;
 import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.http.util.Header;
+import org.glassfish.grizzly.http.util.HttpCodecUtils;
 import org.glassfish.grizzly.http.util.MimeHeaders;
 import org.glassfish.grizzly.impl.FutureImpl;
 import org.glassfish.grizzly.impl.SafeFutureImpl;
@@ -208,8 +212,75 @@ public class HttpRequestParseTest extends TestCase {
         assertTrue(((HttpRequestPacket) packet.getHttpHeader()).isChunked());
     }
     
-    @SuppressWarnings({"unchecked"})
+    public void testSwarDecoderOverflowHeader() {
+        try {
+            doTestDecoder("GET /index.html HTTP/1.0\nHost: localhost\r\n\r\n", 43, true);
+            fail("Overflow exception had to be thrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        
+        doTestDecoder("GET /index.html HTTP/1.0\nHost: localhost\r\n\r\n", 44, true);
+    }
+    
+    public void testSwarDecoderMatchesDefault() {
+        final String[] requests = {
+            "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n",
+            "GET / HTTP/1.1\nHOST:localhost\nAccept-Encoding:  gzip, deflate  \n\n",
+            "POST / HTTP/1.1\r\nHost: localhost\r\nCONTENT-LENGTH: 0\r\nX-Very-Long-Header-Name-Here: v\r\n\r\n",
+            "POST / HTTP/1.1\r\nHost: localhost\r\nTransfer-ENCODING: chunked\r\n\r\n0\r\n\r\n",
+            "GET / HTTP/1.1\r\nHost: localhost\r\nUpgrade-Insecure-Requests: 1\r\nConnection: keep-alive\r\n\r\n",
+            "POST / HTTP/1.1\r\nHost: localhost\r\nExpecx: 100-continue\r\nUpgradx: h2c\r\nContent-Length: 5\r\n\r\nhello",
+            "GET / HTTP/1.1\r\nHost: localhost\r\nEmpty:\r\nSpaces:   \r\nTab:\tvalue\t\r\n\r\n",
+            "GET / HTTP/1.1\r\nHost: localhost\r\nMulti: first\r\n  second\r\nAfter: x\r\n\r\n",
+            "GET / HTTP/1.1\r\nHost: localhost\r\nCr: a\rb\r\nA:b\r\n\r\n",
+            "GET / HTTP/1.1\r\nHost: localhost\r\nX-Forwarded-For: 10.0.0.1, 10.0.0.2\r\nCookie: a=b; c=d\r\n\r\n"
+        };
+        
+        for (String request : requests) {
+            final HttpRequestPacket expected = (HttpRequestPacket)
+                    doTestDecoder(request, 4096, false).getHttpHeader();
+            final HttpRequestPacket actual = (HttpRequestPacket)
+                    doTestDecoder(request, 4096, true).getHttpHeader();
+            
+            final MimeHeaders expectedHeaders = expected.getHeaders();
+            final MimeHeaders actualHeaders = actual.getHeaders();
+            assertEquals(request, expectedHeaders.size(), actualHeaders.size());
+            for (int i = 0; i < expectedHeaders.size(); i++) {
+                assertEquals(request, expectedHeaders.getName(i).toString(),
+                        actualHeaders.getName(i).toString());
+                assertEquals(request, expectedHeaders.getValue(i).toString(),
+                        actualHeaders.getValue(i).toString());
+            }
+            
+            assertEquals(request, expected.getContentLength(), actual.getContentLength());
+            assertEquals(request, expected.isChunked(), actual.isChunked());
+            assertEquals(request, expected.isUpgrade(), actual.isUpgrade());
+            assertEquals(request, expected.requiresAcknowledgement(),
+                    actual.requiresAcknowledgement());
+        }
+    }
+    
+    public void testSwarKnownHeaderNames() {
+        final byte[] input = "upgrade: websocket\r\nexpect: 100-continue\r\n".getBytes();
+        final ByteBuffer view = ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN);
+        
+        assertTrue(HttpCodecUtils.swarEquals(view, 0, 7,
+                HttpCodecUtils.toSwarWords(Header.Upgrade.getLowerCaseBytes())));
+        assertTrue(HttpCodecUtils.swarEquals(view, 20, 6,
+                HttpCodecUtils.toSwarWords(Header.Expect.getLowerCaseBytes())));
+        assertFalse(HttpCodecUtils.swarEquals(view, 20, 6,
+                HttpCodecUtils.toSwarWords(Header.Accept.getLowerCaseBytes())));
+        assertEquals('u', (byte) HttpCodecUtils.swarToLowerCase('U'));
+    }
+    
     private HttpPacket doTestDecoder(String request, int limit) {
+        return doTestDecoder(request, limit, false);
+    }
+    
+    @SuppressWarnings({"unchecked"})
+    private HttpPacket doTestDecoder(String request, int limit,
+            boolean swarHeaderParsing) {
 
         MemoryManager mm = MemoryManager.DEFAULT_MEMORY_MANAGER;
         Buffer input = Buffers.wrap(mm, request);
@@ -223,6 +294,7 @@ public class HttpRequestParseTest extends TestCase {
                 throw new IllegalStateException(t);
             }
         };
+        filter.setSwarHeaderParsing(swarHeaderParsing);
         FilterChainContext ctx = FilterChainContext.create(new StandaloneConnection());
         ctx.setMessage(input);
 
@@ -167,4 +167,97 @@ public class MimeHeadersTest {
         Assert.assertArrayEquals(expectedValuesSet2, list.toArray(new String[list.size()]));
     }
 
+    @Test
+    public void testTemplate() throws Exception {
+        final HeaderTemplate template = HeaderTemplate.builder()
+                .add(Header.Server, "grizzly")
+                .add("X-Custom", "custom")
+                .build();
+        Assert.assertEquals("Server: grizzly\r\nX-Custom: custom\r\n",
+                new String(template.getBytes(), "ISO-8859-1"));
+
+        mimeHeaders.setTemplate(template);
+        Assert.assertSame(template, mimeHeaders.getTemplate());
+        Assert.assertEquals("grizzly", mimeHeaders.getHeader(Header.Server));
+        Assert.assertEquals("custom", mimeHeaders.getHeader("x-custom"));
+
+        // unchanged template is serialized as a whole, but only once
+        Assert.assertTrue(mimeHeaders.setTemplateSerialized());
+        Assert.assertTrue(mimeHeaders.isSerialized(mimeHeaders.indexOf("Server", 0)));
+        Assert.assertFalse(mimeHeaders.setTemplateSerialized());
+
+        mimeHeaders.clear();
+        Assert.assertNull(mimeHeaders.getTemplate());
+        Assert.assertFalse(mimeHeaders.setTemplateSerialized());
+
+        // changed template header makes the template headers encoded as usual
+        mimeHeaders.setTemplate(template);
+        mimeHeaders.setValue(Header.Server).setString("changed");
+        Assert.assertFalse(mimeHeaders.setTemplateSerialized());
+        Assert.assertFalse(mimeHeaders.isSerialized(mimeHeaders.indexOf("X-Custom", 0)));
+
+        mimeHeaders.clear();
+        mimeHeaders.setTemplate(template);
+        mimeHeaders.removeHeader("X-Custom");
+        Assert.assertFalse(mimeHeaders.setTemplateSerialized());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTemplateContentLength() throws Exception {
+        HeaderTemplate.builder().add(Header.ContentLength, "10");
+    }
+
+    @Test
+    public void testIndexedLookup() throws Exception {
+        final MimeHeaders headers = new MimeHeaders();
+        for (int round = 0; round < 2; round++) {
+            // large enough header set to be served by the index
+            for (int i = 0; i < 60; i++) {
+                final String name = "X-Header-" + (i % 20);
+                if (i % 3 == 0) {
+                    headers.addValue(name).setString(Integer.toString(i));
+                } else {
+                    final byte[] bytes = name.toLowerCase().getBytes("ISO-8859-1");
+                    headers.addValue(bytes, 0, bytes.length).setString(Integer.toString(i));
+                }
+            }
+            headers.addValue(Header.Host).setString("localhost");
+
+            assertLookups(headers);
+            Assert.assertEquals("localhost", headers.getHeader("host"));
+            Assert.assertEquals("localhost", headers.getHeader(Header.Host));
+            Assert.assertNull(headers.getValue(Header.Accept));
+
+            // additions are indexed incrementally
+            headers.addValue(Header.Accept).setString("*/*");
+            Assert.assertEquals("*/*", headers.getHeader("ACCEPT"));
+
+            // removals invalidate the index
+            headers.removeHeader("X-Header-5");
+            Assert.assertEquals(-1, headers.indexOf("x-header-5", 0));
+            headers.setValue("x-header-7").setString("single");
+            assertLookups(headers);
+            Assert.assertEquals("single", headers.getHeader("X-Header-7"));
+
+            headers.recycle();
+            Assert.assertEquals(-1, headers.indexOf("X-Header-1", 0));
+        }
+    }
+
+    private static void assertLookups(final MimeHeaders headers) {
+        for (int n = 0; n < 20; n++) {
+            final String name = "X-HEADER-" + n;
+            for (int from = 0; from <= headers.size(); from++) {
+                int expected = -1;
+                for (int i = from; i < headers.size(); i++) {
+                    if (headers.getName(i).equalsIgnoreCase(name)) {
+                        expected = i;
+                        break;
+                    }
+                }
+                Assert.assertEquals(expected, headers.indexOf(name, from));
+            }
+        }
+    }
+
 }
@@ -432,7 +432,7 @@ public abstract class Http2BaseFilter extends HttpBaseFilter {
                 break;
             }
             case PriorityFrame.TYPE: {
-                processPriorityFrame(frame);
+                processPriorityFrame(http2Session, frame);
                 break;
             }
             case HeadersFrame.TYPE:
@@ -472,7 +472,8 @@ public abstract class Http2BaseFilter extends HttpBaseFilter {
 
     }
 
-    private void processPriorityFrame(final Http2Frame frame)
+    private void processPriorityFrame(final Http2Session http2Session,
+            final Http2Frame frame)
     throws Http2SessionException, Http2StreamException {
         final int streamId = frame.getStreamId();
         try {
@@ -482,9 +483,16 @@ public abstract class Http2BaseFilter extends HttpBaseFilter {
             if (frame.getLength() != 5) {
                 throw new Http2StreamException(streamId, ErrorCode.FRAME_SIZE_ERROR);
             }
-            if (streamId == ((PriorityFrame) frame).getStreamDependency()) {
+            final PriorityFrame priorityFrame = (PriorityFrame) frame;
+            if (streamId == priorityFrame.getStreamDependency()) {
                 throw new Http2SessionException(ErrorCode.PROTOCOL_ERROR, "PRIORITY frame dependent on itself.");
             }
+            
+            // the weight is sent as (weight - 1)
+            http2Session.getOutputSink().onPriorityUpdate(streamId,
+                    priorityFrame.getStreamDependency(),
+                    priorityFrame.isExclusive(),
+                    priorityFrame.getWeight() + 1);
         } finally {
             frame.recycle();
         }
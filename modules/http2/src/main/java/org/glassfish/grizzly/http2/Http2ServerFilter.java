@@ -859,11 +859,14 @@ public class Http2ServerFilter extends Http2BaseFilter {
             return;
         }
 
+        // the weight is sent as (weight - 1), 0 means the default weight
         stream = http2Session.acceptStream(request,
                                               headersFrame.getStreamId(),
                                               headersFrame.getStreamDependency(),
                                               headersFrame.isExclusive(),
-                                              0);
+                                              headersFrame.isPrioritized()
+                                                      ? headersFrame.getWeight() + 1
+                                                      : 0);
         if (stream == null) { // GOAWAY has been sent, so ignoring this request
             request.recycle();
             return;
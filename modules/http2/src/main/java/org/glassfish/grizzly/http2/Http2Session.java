@@ -1407,6 +1407,9 @@ public class Http2Session {
 
         streamsMap.put(streamId, stream);
         incStreamCount();
+        
+        outputSink.onStreamOpen(streamId, stream.getParentStreamId(),
+                stream.isExclusive(), stream.getPriority());
     }
 
     void incStreamCount() {
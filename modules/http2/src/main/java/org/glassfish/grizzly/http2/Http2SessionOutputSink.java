@@ -40,8 +40,13 @@
 
 package org.glassfish.grizzly.http2;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
@@ -66,6 +71,12 @@ import org.glassfish.grizzly.http2.utils.ChunkedCompletionHandler;
  * Class represents an output sink associated with specific {@link Http2Session}
  * and is responsible for session (connection) level flow control.
  * 
+ * The DATA frames, queued because of the connection flow control, are
+ * scheduled according to the stream priorities (RFC 7540 section 5.3):
+ * each stream has its own queue, a stream is served before its dependent streams
+ * and the sibling streams share the connection according to their weights,
+ * so a small response doesn't have to wait until a large one, which was queued
+ * earlier, is completely sent.
  *
  */
 public class Http2SessionOutputSink {
@@ -76,6 +87,9 @@ public class Http2SessionOutputSink {
     private static final int MAX_FRAME_PAYLOAD_SIZE = 16383;
     private static final int MAX_OUTPUT_QUEUE_SIZE = 65536;
 
+    static final int DEFAULT_WEIGHT = 16;
+    static final int MAX_WEIGHT = 256;
+
     // async output queue
     private final TaskQueue<Http2SessionOutputSink.OutputQueueRecord> outputQueue =
             TaskQueue.createTaskQueue(new TaskQueue.MutableMaxQueueSize() {
@@ -90,6 +104,11 @@ public class Http2SessionOutputSink {
     private final List<Http2Frame> tmpFramesList = new LinkedList<>();
     private final AtomicBoolean writerLock = new AtomicBoolean();
 
+    // the stream priority tree, guarded by the root node monitor
+    private final StreamNode priorityRoot = new StreamNode(0, DEFAULT_WEIGHT);
+    private final Map<Integer, StreamNode> priorityNodes = new HashMap<>();
+    private boolean isClosed;
+    
     public Http2SessionOutputSink(Http2Session session) {
         this.http2Session = session;
         availConnectionWindowSize = new AtomicInteger(
@@ -211,12 +230,240 @@ public class Http2SessionOutputSink {
                 stream.getId(), data,
                 completionHandler, isLast);
 
-        outputQueue.offer(record);
+        if (!offer(stream.getId(), record)) {
+            record.notifyFailure(new IOException("Connection closed"));
+            return;
+        }
+        
         outputQueue.reserveSpace(record.isZeroSizeData() ? 1 : dataSize);
 
         flushOutputQueue();
     }
 
+    /**
+     * Adds the stream to the priority tree.
+     * 
+     * @param streamId the stream ID
+     * @param parentStreamId the ID of the stream the stream depends on
+     * @param exclusive <tt>true</tt>, if the stream is an exclusive dependency
+     * @param weight the stream weight [1..256], any other value means the default weight
+     */
+    protected void onStreamOpen(final int streamId, final int parentStreamId,
+            final boolean exclusive, final int weight) {
+        synchronized (priorityRoot) {
+            final StreamNode node = priorityNodes.get(streamId);
+            if (node == null) {
+                final StreamNode parent = getParentNode(parentStreamId);
+                final StreamNode newNode = new StreamNode(streamId, weight);
+                priorityNodes.put(streamId, newNode);
+                parent.addChild(newNode, exclusive);
+                if (exclusive) {
+                    newNode.recount();
+                }
+            } else if (parentStreamId != 0 || weight > 0) {
+                // the stream node has been created by PRIORITY frame
+                // before the stream was opened
+                reprioritize(node, parentStreamId, exclusive, weight);
+            }
+        }
+    }
+    
+    /**
+     * Updates the stream position in the priority tree as requested by
+     * PRIORITY frame.
+     * 
+     * @param streamId the stream ID
+     * @param parentStreamId the ID of the stream the stream depends on
+     * @param exclusive <tt>true</tt>, if the stream is an exclusive dependency
+     * @param weight the stream weight [1..256]
+     */
+    protected void onPriorityUpdate(final int streamId, final int parentStreamId,
+            final boolean exclusive, final int weight) {
+        synchronized (priorityRoot) {
+            StreamNode node = priorityNodes.get(streamId);
+            if (node == null) {
+                // PRIORITY frame could be sent for an idle stream,
+                // but we don't want to keep unlimited number of such nodes
+                if (priorityNodes.size() >= 2 * http2Session.getLocalMaxConcurrentStreams()) {
+                    return;
+                }
+                
+                node = new StreamNode(streamId, DEFAULT_WEIGHT);
+                priorityNodes.put(streamId, node);
+                priorityRoot.addChild(node);
+            }
+            
+            reprioritize(node, parentStreamId, exclusive, weight);
+        }
+    }
+    
+    /**
+     * Removes the stream from the priority tree, the dependent streams
+     * become dependent on the stream's parent.
+     * If the stream still has queued data - the stream will be removed
+     * once the data is sent.
+     * 
+     * @param streamId the stream ID
+     */
+    protected void onStreamClosed(final int streamId) {
+        synchronized (priorityRoot) {
+            final StreamNode node = priorityNodes.get(streamId);
+            if (node != null) {
+                if (node.records.isEmpty()) {
+                    removeNode(node);
+                } else {
+                    node.isClosed = true;
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return the number of streams in the priority tree
+     */
+    int getPrioritizedStreamsCount() {
+        synchronized (priorityRoot) {
+            return priorityNodes.size();
+        }
+    }
+    
+    private StreamNode getParentNode(final int parentStreamId) {
+        if (parentStreamId == 0) {
+            return priorityRoot;
+        }
+        
+        final StreamNode parent = priorityNodes.get(parentStreamId);
+        return parent != null ? parent : priorityRoot;
+    }
+    
+    private void reprioritize(final StreamNode node, final int parentStreamId,
+            final boolean exclusive, final int weight) {
+        node.weight = normalizeWeight(weight);
+        
+        final StreamNode newParent = getParentNode(parentStreamId);
+        if (newParent == node) {
+            return;
+        }
+
+        // RFC 7540 section 5.3.3: if the stream is made dependent on one of
+        // its own dependencies, the formerly dependent stream is first moved
+        // to be dependent on the reprioritized stream's previous parent
+        if (newParent.isDescendantOf(node)) {
+            newParent.parent.detach(newParent.id);
+            node.parent.addChild(newParent);
+        }
+        
+        node.parent.detach(node.id);
+        newParent.addChild(node, exclusive);
+        
+        priorityRoot.recount();
+    }
+    
+    private void removeNode(final StreamNode node) {
+        priorityNodes.remove(node.id);
+        if (node.parent != null) {
+            node.parent.remove(node.id);
+        }
+    }
+    
+    private boolean offer(final int streamId, final OutputQueueRecord record) {
+        synchronized (priorityRoot) {
+            if (isClosed) {
+                return false;
+            }
+            
+            StreamNode node = priorityNodes.get(streamId);
+            if (node == null) {
+                node = new StreamNode(streamId, DEFAULT_WEIGHT);
+                priorityNodes.put(streamId, node);
+                priorityRoot.addChild(node);
+            }
+            
+            node.records.offer(record);
+            
+            // update the queued records counters up to the root and
+            // don't let the streams, which become active, to take advantage
+            // of the time they were idle
+            for (StreamNode n = node; n != priorityRoot; n = (StreamNode) n.parent) {
+                if (n.queuedCount++ == 0) {
+                    final StreamNode p = (StreamNode) n.parent;
+                    if (n.pass < p.virtualTime) {
+                        n.pass = p.virtualTime;
+                    }
+                }
+            }
+            priorityRoot.queuedCount++;
+            
+            return true;
+        }
+    }
+
+    /**
+     * Picks the next stream to be served according to the stream priorities
+     * and serializes its current record (or the record's chunk) to the frames list.
+     * 
+     * @return the record, which has been serialized, or <tt>null</tt> if
+     *          there are no queued records
+     */
+    private OutputQueueRecord serializeNext(final List<Http2Frame> frames,
+            final int maxDataSize) {
+        synchronized (priorityRoot) {
+            if (priorityRoot.queuedCount == 0) {
+                return null;
+            }
+            
+            // a stream is served before its dependencies,
+            // the siblings are served according to their weights
+            StreamNode node = priorityRoot;
+            while (node.records.isEmpty()) {
+                StreamNode next = null;
+                for (Node n = node.firstChild; n != null; n = n.next) {
+                    final StreamNode child = (StreamNode) n;
+                    if (child.queuedCount > 0
+                            && (next == null || child.pass < next.pass)) {
+                        next = child;
+                    }
+                }
+                
+                if (next == null) {
+                    return null;
+                }
+                
+                node = next;
+            }
+            
+            final OutputQueueRecord record = node.records.peek();
+            final int serializedBytes = record.serializeTo(frames, maxDataSize);
+            final boolean isFinished = record.isFinished();
+            
+            if (isFinished) {
+                node.records.poll();
+            }
+            
+            for (StreamNode n = node; n != priorityRoot; n = (StreamNode) n.parent) {
+                final StreamNode p = (StreamNode) n.parent;
+                p.virtualTime = n.pass;
+                n.pass += ((long) serializedBytes * MAX_WEIGHT) / n.weight;
+                if (isFinished) {
+                    n.queuedCount--;
+                }
+            }
+            
+            if (isFinished) {
+                priorityRoot.queuedCount--;
+                if (node.isClosed && node.records.isEmpty()) {
+                    removeNode(node);
+                }
+            }
+            
+            return record;
+        }
+    }
+    
+    private static int normalizeWeight(final int weight) {
+        return weight > 0 && weight <= MAX_WEIGHT ? weight : DEFAULT_WEIGHT;
+    }
+
     private void flushOutputQueue() {
         int backoffDelay = 0;
 
@@ -252,7 +499,10 @@ public class Http2SessionOutputSink {
             while (availWindowSize > bytesToTransfer &&
                     queueSize > queueSizeToFree) {
 
-                final Http2SessionOutputSink.OutputQueueRecord record = outputQueue.poll();
+                final int maxDataSize = Math.min(MAX_FRAME_PAYLOAD_SIZE,
+                        availWindowSize - bytesToTransfer);
+                final Http2SessionOutputSink.OutputQueueRecord record =
+                        serializeNext(tmpFramesList, maxDataSize);
 
                 if (record == null) {
                     // keep this warning for now
@@ -260,22 +510,15 @@ public class Http2SessionOutputSink {
                     LOGGER.log(Level.WARNING, "UNEXPECTED NULL RECORD. Queue-size: {0} "
                                     + "tmpcnt={1} byteToTransfer={2} queueSizeToFree={3} queueSize={4}",
                             new Object[]{outputQueue.size(), tmpcnt, bytesToTransfer, queueSizeToFree, queueSize});
+                    break;
                 }
 
-                assert record != null;
-
-                final int serializedBytes = record.serializeTo(
-                        tmpFramesList,
-                        Math.min(MAX_FRAME_PAYLOAD_SIZE, availWindowSize - bytesToTransfer));
+                final int serializedBytes = record.lastSerializedBytes;
                 bytesToTransfer += serializedBytes;
                 queueSizeToFree += serializedBytes;
 
-                if (record.isFinished()) {
-                    if (record.isZeroSizeData()) {
-                        queueSizeToFree++;
-                    }
-                } else {
-                    outputQueue.setCurrentElement(record);
+                if (record.isFinished() && record.isZeroSizeData()) {
+                    queueSizeToFree++;
                 }
 
                 final CompletionHandler<WriteResult> recordCompletionHandler =
@@ -338,6 +581,69 @@ public class Http2SessionOutputSink {
 
     public void close() {
         outputQueue.onClose();
+        
+        final List<OutputQueueRecord> records = new ArrayList<>();
+        synchronized (priorityRoot) {
+            isClosed = true;
+            for (StreamNode node : priorityNodes.values()) {
+                records.addAll(node.records);
+                node.records.clear();
+                node.queuedCount = 0;
+            }
+            priorityRoot.queuedCount = 0;
+        }
+        
+        if (!records.isEmpty()) {
+            final IOException error = new IOException("Connection closed");
+            for (OutputQueueRecord record : records) {
+                record.notifyFailure(error);
+            }
+        }
+    }
+
+    /**
+     * The stream priority tree node, which holds the stream's queued records.
+     */
+    private static final class StreamNode extends Node {
+        private final ArrayDeque<OutputQueueRecord> records = new ArrayDeque<>(2);
+        private int weight;
+        
+        // the number of queued records in this node's subtree
+        private int queuedCount;
+        
+        // the node's virtual time: the lower the pass, the earlier
+        // the node will be served comparing to its siblings
+        private long pass;
+        
+        // the pass of the child, which has been served last
+        private long virtualTime;
+        
+        private boolean isClosed;
+
+        private StreamNode(final int id, final int weight) {
+            super(id);
+            this.weight = normalizeWeight(weight);
+        }
+
+        private boolean isDescendantOf(final StreamNode node) {
+            for (Node n = parent; n != null; n = n.parent) {
+                if (n == node) {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        private int recount() {
+            int count = records.size();
+            for (Node n = firstChild; n != null; n = n.next) {
+                count += ((StreamNode) n).recount();
+            }
+            
+            queuedCount = count;
+            return count;
+        }
     }
 
     private static class OutputQueueRecord extends AsyncQueueRecord<WriteResult> {
@@ -349,6 +655,9 @@ public class Http2SessionOutputSink {
         private final boolean isLast;
 
         private final boolean isZeroSizeData;
+        
+        // the number of bytes serialized by the last serializeTo() call
+        private int lastSerializedBytes;
 
         public OutputQueueRecord(final int streamId,
                                  final WritableMessage writableMessage,
@@ -409,6 +718,7 @@ public class Http2SessionOutputSink {
 
                 writableMessage = null;
 
+                lastSerializedBytes = recordSize;
                 return recordSize;
             } else {
                 if (originalCompletionHandler != null && chunkedCompletionHandler == null) {
@@ -431,6 +741,7 @@ public class Http2SessionOutputSink {
 
                 writableMessage = remainder;
 
+                lastSerializedBytes = maxDataSize;
                 return maxDataSize;
             }
         }
@@ -270,11 +270,23 @@ public class Http2Stream implements AttributeStorage, OutputSink, Closeable {
         return parentStreamId;
     }
 
+    /**
+     * @return the stream weight [1..256], or <tt>0</tt> if the default
+     *          weight is used
+     */
     @SuppressWarnings("unused")
     public int getPriority() {
         return priority;
     }
 
+    /**
+     * @return <tt>true</tt> if the stream is an exclusive dependency of
+     *          its parent stream
+     */
+    public boolean isExclusive() {
+        return exclusive;
+    }
+
     public boolean isPushStream() {
         return (streamId & 1) == 0;
     }
@@ -662,6 +674,7 @@ public class Http2Stream implements AttributeStorage, OutputSink, Closeable {
     private void closeStream() {
         // TODO ensure stream proper transitions to CLOSED state
         //Http2StreamState.close(this);
+        http2Session.getOutputSink().onStreamClosed(streamId);
         http2Session.deregisterStream();
     }
     
@@ -64,9 +64,6 @@
  */
 package org.glassfish.grizzly.http2.hpack;
 
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.NoSuchElementException;
 
 import static java.lang.String.format;
@@ -147,18 +144,18 @@ final class HeaderTable {
 
     private static final int STATIC_TABLE_LENGTH = staticTable.length - 1;
     private static final int ENTRY_SIZE = 32;
-    private static final Map<String, LinkedHashMap<String, Integer>> staticIndexes;
+    private static final FieldIndex staticNames = new FieldIndex(false);
+    private static final FieldIndex staticFields = new FieldIndex(true);
 
     static {
-        staticIndexes = new HashMap<>(STATIC_TABLE_LENGTH);
-        for (int i = 1; i <= STATIC_TABLE_LENGTH; i++) {
+        staticNames.reset(staticTable);
+        staticFields.reset(staticTable);
+        // backwards, so that a name maps to the lowest index it appears at
+        for (int i = STATIC_TABLE_LENGTH; i >= 1; i--) {
             HeaderField f = staticTable[i];
-            LinkedHashMap<String,Integer> values = staticIndexes.get(f.name);
-            if (values == null) {
-                values = new LinkedHashMap<>();
-                values.put(f.value, i);
-            }
-            staticIndexes.put(f.name, values);
+            int nameHash = hash(f.name);
+            staticNames.put(spread(nameHash), i);
+            staticFields.put(spread(31 * nameHash + hash(f.value)), i);
         }
     }
 
@@ -187,39 +184,27 @@ final class HeaderTable {
     // (the idea is the same as in java.util.Arrays.binarySearch(int[], int)).
     //
     public int indexOf(CharSequence name, CharSequence value) {
-        // Invoking toString() will possibly allocate Strings for the sake of
-        // the search, which doesn't feel right.
-        String n = name.toString();
-        String v = value.toString();
+        final int nameHash = hash(name);
+        final int nameKey = spread(nameHash);
+        final int fieldKey = spread(31 * nameHash + hash(value));
 
         // 1. Try exact match in the static region
-        Map<String, Integer> values = staticIndexes.get(n);
-        if (values != null) {
-            Integer idx = values.get(v);
-            if (idx != null) {
-                return idx;
-            }
+        int idx = staticFields.find(fieldKey, name, value);
+        if (idx > 0) {
+            return idx;
         }
         // 2. Try exact match in the dynamic region
-        int didx = dynamicTable.indexOf(n, v);
+        int didx = dynamicTable.indexOf(nameKey, fieldKey, name, value);
         if (didx > 0) {
             return STATIC_TABLE_LENGTH + didx;
-        } else if (didx < 0) {
-            if (values != null) {
-                // 3. Return name match from the static region
-                return -values.values().iterator().next(); // Iterator allocation
-            } else {
-                // 4. Return name match from the dynamic region
-                return -STATIC_TABLE_LENGTH + didx;
-            }
-        } else {
-            if (values != null) {
-                // 3. Return name match from the static region
-                return -values.values().iterator().next(); // Iterator allocation
-            } else {
-                return 0;
-            }
         }
+        // 3. Return name match from the static region
+        idx = staticNames.find(nameKey, name, null);
+        if (idx > 0) {
+            return -idx;
+        }
+        // 4. Return name match from the dynamic region
+        return didx < 0 ? -STATIC_TABLE_LENGTH + didx : 0;
     }
 
     public int size() {
@@ -302,6 +287,39 @@ final class HeaderTable {
         return f.name.length() + f.value.length() + ENTRY_SIZE;
     }
 
+    // Same as String.hashCode(), which is cached by String instances
+    static int hash(CharSequence s) {
+        if (s instanceof String) {
+            return s.hashCode();
+        }
+        int h = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static boolean contentEquals(String s, CharSequence cs) {
+        if (cs instanceof String) {
+            return s.equals(cs);
+        }
+        final int len = s.length();
+        if (len != cs.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) != cs.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     //
     // Diagnostic information in the form used in the RFC 7541
     //
@@ -360,201 +378,270 @@ final class HeaderTable {
     }
 
     //
-    // To quickly find an index of an entry in the dynamic table with the given
-    // contents an effective inverse mapping is needed. Here's a simple idea
-    // behind such a mapping.
-    //
-    // # The problem:
+    // To quickly find an index of an entry with the given contents an inverse
+    // mapping is needed. It is kept in open-addressing tables of primitives
+    // (see FieldIndex), so that neither a lookup nor an insertion allocates:
     //
-    // We have a queue with an O(1) lookup by index:
+    // * the name index maps a name to the most recently added entry with
+    //   that name
     //
-    //     get: index -> x
+    // * the field index maps a (name, value) pair to the most recently added
+    //   entry with that pair
     //
-    // What we want is an O(1) reverse lookup:
+    // The indexes store positions in the array holding the entries, rather
+    // than HPACK indexes. In the dynamic table an entry keeps its position
+    // while new entries push it further from the head, so the HPACK index is
+    // simply the distance from the head to the position. Positions only
+    // change when the array is resized, in which case the indexes are
+    // rebuilt.
     //
-    //     indexOf: x -> index
-    //
-    // # Solution:
-    //
-    // Let's store an inverse mapping in a Map<x, Integer>. This have a problem
-    // that when a new element is added to the queue, all indexes in the map
-    // become invalid. Namely, the new element is assigned with an index of 1,
-    // and each index i, i > 1 becomes shifted by 1 to the left:
-    //
-    //     1, 1, 2, 3, ... , n-1, n
-    //
-    // Re-establishing the invariant would seem to require a pass through the
-    // map incrementing all indexes (map values) by 1, which is O(n).
-    //
-    // The good news is we can do much better then this!
-    //
-    // Let's create a single field of type long, called 'counter'. Then each
-    // time a new element 'x' is added to the queue, a value of this field gets
-    // incremented. Then the resulting value of the 'counter_x' is then put as a
-    // value under key 'x' to the map:
-    //
-    //    map.put(x, counter_x)
-    //
-    // It gives us a map that maps an element to a value the counter had at the
-    // time the element had been added.
-    //
-    // In order to retrieve an index of any element 'x' in the queue (at any
-    // given time) we simply need to subtract the value (the snapshot of the
-    // counter at the time when the 'x' was added) from the current value of the
-    // counter. This operation basically answers the question:
-    //
-    //     How many elements ago 'x' was the tail of the queue?
-    //
-    // Which is the same as its index in the queue now. Given, of course, it's
-    // still in the queue.
-    //
-    // I'm pretty sure in a real life long overflow will never happen, so it's
-    // not too practical to add recalibrating code, but a pedantic person might
-    // want to do so:
-    //
-    //     if (counter == Long.MAX_VALUE) {
-    //         recalibrate();
-    //     }
-    //
-    // Where 'recalibrate()' goes through the table doing this:
-    //
-    //     value -= counter
-    //
-    // That's given, of course, the size of the table itself is less than
-    // Long.MAX_VALUE :-)
+    // The keys are hashes computed over the characters, which are the same as
+    // String.hashCode(), so the hash cached by String instances is reused. The
+    // candidates are then compared char by char with the CharSequences being
+    // looked up, which never have to be converted to Strings.
     //
     private static final class Table {
 
-        private final Map<String, Map<String, Long>> map;
-        private final CircularBuffer<HeaderField> buffer;
-        private long counter = 1;
+        private final FieldIndex names = new FieldIndex(false);
+        private final FieldIndex fields = new FieldIndex(true);
+
+        //                    head
+        //                    v
+        // [ ][ ][A][B][C][D][ ][ ][ ]
+        //        ^
+        //        tail
+        //
+        //       |<- size ->| (4)
+        // |<------ capacity ------->| (9)
+        //
+        private HeaderField[] elements;
+        private int tail, head, size;
 
         Table(int capacity) {
-            buffer = new CircularBuffer<>(capacity);
-            map = new HashMap<>(capacity);
+            elements = new HeaderField[capacity];
+            names.reset(elements);
+            fields.reset(elements);
         }
 
         void add(HeaderField f) {
-            buffer.add(f);
-            Map<String, Long> values = map.get(f.name);
-            if (values == null) {
-                values = new HashMap<>();
-                values.put(f.value, counter++);
+            final int capacity = elements.length;
+            if (size == capacity) {
+                throw new IllegalStateException(
+                        format("No room for '%s': capacity=%s", f, capacity));
             }
-            map.put(f.name, values);
+            final int position = head;
+            elements[position] = f;
+            head = (head + 1) % capacity;
+            size++;
+            index(f, position);
         }
 
         HeaderField get(int index) {
-            return buffer.get(index - 1);
+            if (index < 1 || index > size) {
+                throw new IndexOutOfBoundsException(
+                        format("1 <= index <= size: index=%s, size=%s",
+                                index, size));
+            }
+            return elements[(tail + size - index) % elements.length];
         }
 
-        int indexOf(String name, String value) {
-            Map<String, Long> values = map.get(name);
-            if (values == null) {
+        int indexOf(int nameKey, int fieldKey,
+                    CharSequence name, CharSequence value) {
+            if (size == 0) {
                 return 0;
             }
-            Long index = values.get(value);
-            if (index != null) {
-                return (int) (counter - index);
-            } else {
-                assert !values.isEmpty();
-                Long any = values.values().iterator().next(); // Iterator allocation
-                return -(int) (counter - any);
+            int position = fields.find(fieldKey, name, value);
+            if (position >= 0) {
+                return indexOf(position);
             }
+            position = names.find(nameKey, name, null);
+            return position >= 0 ? -indexOf(position) : 0;
         }
 
         HeaderField remove() {
-            HeaderField f = buffer.remove();
-            Map<String, Long> values = map.get(f.name);
-            Long index = values.remove(f.value);
-            assert index != null;
-            if (values.isEmpty()) {
-                map.remove(f.name);
+            if (size == 0) {
+                throw new NoSuchElementException("Empty");
             }
+            final int position = tail;
+            final HeaderField f = elements[position];
+            final int nameHash = hash(f.name);
+            names.remove(spread(nameHash), position);
+            fields.remove(spread(31 * nameHash + hash(f.value)), position);
+            elements[position] = null;
+            tail = (tail + 1) % elements.length;
+            size--;
             return f;
         }
 
         int size() {
-            return buffer.size;
+            return size;
         }
 
         public void setCapacity(int capacity) {
-            buffer.resize(capacity);
+            if (capacity < size) {
+                throw new IllegalStateException(
+                        format("newCapacity >= size: newCapacity=%s, size=%s",
+                                capacity, size));
+            }
+
+            final HeaderField[] newElements = new HeaderField[capacity];
+            for (int i = 0; i < size; i++) {
+                newElements[i] = elements[(tail + i) % elements.length];
+            }
+
+            elements = newElements;
+            tail = 0;
+            head = capacity == 0 ? 0 : size % capacity;
+            names.reset(newElements);
+            fields.reset(newElements);
+            for (int i = 0; i < size; i++) {
+                index(newElements[i], i);
+            }
+        }
+
+        private void index(HeaderField f, int position) {
+            final int nameHash = hash(f.name);
+            names.put(spread(nameHash), position);
+            fields.put(spread(31 * nameHash + hash(f.value)), position);
+        }
+
+        // the distance from the head, the most recent entry being 1
+        private int indexOf(int position) {
+            final int capacity = elements.length;
+            return (head - position - 1 + capacity) % capacity + 1;
         }
     }
 
-    //                    head
-    //                    v
-    // [ ][ ][A][B][C][D][ ][ ][ ]
-    //        ^
-    //        tail
     //
-    //       |<- size ->| (4)
-    // |<------ capacity ------->| (9)
+    // Linear probing hash table mapping the hash of a name or of a
+    // (name, value) pair to a position in the 'fields' array. The spread hash
+    // is stored alongside the position to avoid touching the entries on
+    // collisions. Removal uses backward shift deletion, so no tombstones are
+    // left behind.
     //
-    static final class CircularBuffer<E> {
+    private static final class FieldIndex {
+
+        // enough for a typical header list without growing
+        private static final int INITIAL_CAPACITY = 32;
 
-        int tail, head, size, capacity;
-        Object[] elements;
+        private final boolean byValue;
 
-        CircularBuffer(int capacity) {
-            this.capacity = capacity;
-            elements = new Object[capacity];
+        private HeaderField[] fields;
+        private int[] keys;
+        private int[] positions; // position + 1, 0 marks a free slot
+        private int mask;
+        private int count;
+
+        FieldIndex(boolean byValue) {
+            this.byValue = byValue;
         }
 
-        void add(E elem) {
-            if (size == capacity) {
-                throw new IllegalStateException(
-                        format("No room for '%s': capacity=%s", elem, capacity));
-            }
-            elements[head] = elem;
-            head = (head + 1) % capacity;
-            size++;
+        void reset(HeaderField[] fields) {
+            this.fields = fields;
+            // allocated by the first put()
+            keys = null;
+            positions = null;
+            count = 0;
         }
 
-        @SuppressWarnings("unchecked")
-        E remove() {
-            if (size == 0) {
-                throw new NoSuchElementException("Empty");
+        int find(int key, CharSequence name, CharSequence value) {
+            if (count == 0) {
+                return -1;
             }
-            E elem = (E) elements[tail];
-            elements[tail] = null;
-            tail = (tail + 1) % capacity;
-            size--;
-            return elem;
+            for (int i = key & mask; positions[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    final HeaderField f = fields[positions[i] - 1];
+                    if (contentEquals(f.name, name)
+                            && (!byValue || contentEquals(f.value, value))) {
+                        return positions[i] - 1;
+                    }
+                }
+            }
+            return -1;
         }
 
-        @SuppressWarnings("unchecked")
-        E get(int index) {
-            if (index < 0 || index >= size) {
-                throw new IndexOutOfBoundsException(
-                        format("0 <= index <= capacity: index=%s, capacity=%s",
-                                index, capacity));
+        // makes 'position' the one the key of its entry maps to
+        void put(int key, int position) {
+            if (keys == null) {
+                keys = new int[INITIAL_CAPACITY];
+                positions = new int[INITIAL_CAPACITY];
+                mask = INITIAL_CAPACITY - 1;
+            }
+            final HeaderField f = fields[position];
+            int i = key & mask;
+            for (; positions[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    final HeaderField other = fields[positions[i] - 1];
+                    if (f.name.equals(other.name)
+                            && (!byValue || f.value.equals(other.value))) {
+                        break;
+                    }
+                }
             }
-            int idx = (tail + (size - index - 1)) % capacity;
-            return (E) elements[idx];
+            if (positions[i] == 0) {
+                if ((count + 1) * 2 > keys.length) {
+                    grow();
+                    put(key, position);
+                    return;
+                }
+                count++;
+            }
+            keys[i] = key;
+            positions[i] = position + 1;
         }
 
-        public void resize(int newCapacity) {
-            if (newCapacity < size) {
-                throw new IllegalStateException(
-                        format("newCapacity >= size: newCapacity=%s, size=%s",
-                                newCapacity, size));
+        // removes the mapping only if it still refers to 'position'
+        void remove(int key, int position) {
+            if (count == 0) {
+                return;
             }
-
-            Object[] newElements = new Object[newCapacity];
-
-            if (tail < head || size == 0) {
-                System.arraycopy(elements, tail, newElements, 0, size);
-            } else {
-                System.arraycopy(elements, tail, newElements, 0, elements.length - tail);
-                System.arraycopy(elements, 0, newElements, elements.length - tail, head);
+            int i = key & mask;
+            for (; positions[i] != position + 1; i = (i + 1) & mask) {
+                if (positions[i] == 0) {
+                    return; // superseded by a more recent entry
+                }
             }
+            count--;
+            for (;;) {
+                positions[i] = 0;
+                int j = i;
+                for (;;) {
+                    j = (j + 1) & mask;
+                    if (positions[j] == 0) {
+                        return;
+                    }
+                    final int home = keys[j] & mask;
+                    // the entry at 'j' can stay unless the free slot 'i' lies
+                    // (cyclically) between its home slot and 'j'
+                    if (i <= j ? (i < home && home <= j)
+                               : (i < home || home <= j)) {
+                        continue;
+                    }
+                    break;
+                }
+                keys[i] = keys[j];
+                positions[i] = positions[j];
+                i = j;
+            }
+        }
 
-            elements = newElements;
-            tail = 0;
-            head = size;
-            this.capacity = newCapacity;
+        private void grow() {
+            final int[] oldKeys = keys;
+            final int[] oldPositions = positions;
+            final int capacity = oldKeys.length << 1;
+            keys = new int[capacity];
+            positions = new int[capacity];
+            mask = capacity - 1;
+            for (int k = 0; k < oldKeys.length; k++) {
+                if (oldPositions[k] != 0) {
+                    int i = oldKeys[k] & mask;
+                    while (positions[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[k];
+                    positions[i] = oldPositions[k];
+                }
+            }
         }
     }
 }
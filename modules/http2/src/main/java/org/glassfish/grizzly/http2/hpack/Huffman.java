@@ -67,6 +67,10 @@ package org.glassfish.grizzly.http2.hpack;
 import org.glassfish.grizzly.Buffer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static java.lang.String.format;
 
@@ -79,11 +83,25 @@ public final class Huffman {
 
     // TODO: check if reset is done in both reader and writer
 
+    /*
+       The decoder walks the trie 4 bits at a time using a precomputed
+       state-transition table. A state is an internal node of the trie and each
+       table entry packs the next state together with the symbol (if any)
+       completed while consuming the nibble. As the shortest code is 5 bits long,
+       a single nibble can complete at most one symbol.
+     */
+    private static final int NIBBLE_BITS = 4;
+    private static final int STATE_SHIFT = 16;
+    private static final int EMIT = 1 << 9;
+    private static final int EOS_SYMBOL = 1 << 10;
+    private static final int SYMBOL_MASK = 0x1ff;
+
     static final class Reader {
 
-        private Node curr; // position in the trie
-        private int len;   // length of the path from the root to 'curr'
-        private int p;     // byte probe
+        private static final int SINK_SIZE = 64;
+
+        private int state;  // index of the current position in the trie
+        private final char[] sink = new char[SINK_SIZE];
 
         {
             reset();
@@ -99,52 +117,65 @@ public final class Huffman {
         void read(Buffer source, Appendable destination, boolean reportEOS,
                   boolean isLast) {
 
-            Node c = curr;
-            int l = len;
+            final int[] table = INSTANCE.decodeTable;
+            final char[] out = sink;
             /*
-               Since ByteBuffer is itself stateful, its position is
-               remembered here NOT as a part of Reader's state,
-               but to set it back in the case of a failure
+               Since Buffer is itself stateful, its position is remembered
+               here NOT as a part of Reader's state, but to set it back
+               in the case of a failure
              */
-            int pos = source.position();
-
-            while (source.hasRemaining()) {
-                int d = source.get();
-                for (; p != 0; p >>= 1) {
-                    c = c.getChild(p & d);
-                    l++;
-                    if (c.isLeaf()) {
-                        if (reportEOS && c.isEOSPath) {
-                            throw new IllegalArgumentException("Encountered EOS");
-                        }
-                        try {
-                            destination.append(c.getChar());
-                        } catch (RuntimeException | Error e) {
-                            source.position(pos);
-                            throw e;
-                        } catch (IOException e) {
-                            source.position(pos);
-                            throw new RuntimeException(e);
-                        }
-                        c = INSTANCE.root;
-                        l = 0;
+            final int pos = source.position();
+            final int lim = source.limit();
+            final boolean hasArray = source.hasArray();
+            final byte[] array = hasArray ? source.array() : null;
+            final int offset = hasArray ? source.arrayOffset() : 0;
+
+            int s = state;
+            int n = 0;
+            for (int i = pos; i < lim; i++) {
+                final int d = (hasArray ? array[offset + i] : source.get(i)) & 0xff;
+
+                int e = table[(s << NIBBLE_BITS) | (d >>> NIBBLE_BITS)];
+                if ((e & EMIT) != 0) {
+                    if (reportEOS && (e & EOS_SYMBOL) != 0) {
+                        flushOnEOS(source, i, destination, n);
                     }
-                    curr = c;
-                    len = l;
+                    out[n++] = (char) (e & SYMBOL_MASK);
                 }
-                resetProbe();
-                pos++;
+                s = e >>> STATE_SHIFT;
+
+                e = table[(s << NIBBLE_BITS) | (d & 0xf)];
+                if ((e & EMIT) != 0) {
+                    if (reportEOS && (e & EOS_SYMBOL) != 0) {
+                        flushOnEOS(source, i, destination, n);
+                    }
+                    out[n++] = (char) (e & SYMBOL_MASK);
+                }
+                s = e >>> STATE_SHIFT;
+
+                if (n > SINK_SIZE - 2) {
+                    flush(destination, n, source, pos);
+                    n = 0;
+                }
+            }
+            if (n > 0) {
+                flush(destination, n, source, pos);
             }
+            source.position(lim);
+            state = s;
+
             if (!isLast) {
                 return; // it's too early to jump to any conclusions, let's wait
             }
-            if (c.isLeaf()) {
+            final int len = INSTANCE.stateDepth[s];
+            if (len == 0) {
                 return; // it's perfectly ok, no extra padding bits
             }
-            if (c.isEOSPath && len <= 7) {
+            final boolean isEOSPath = INSTANCE.stateIsEOSPath[s];
+            if (isEOSPath && len <= 7) {
                 return; // it's ok, some extra padding bits
             }
-            if (c.isEOSPath) {
+            if (isEOSPath) {
                 throw new IllegalArgumentException(
                         "Padding is too long (len=" + len + ") " +
                                 "or unexpected end of data");
@@ -154,23 +185,44 @@ public final class Huffman {
         }
 
         public void reset() {
-            curr = INSTANCE.root;
-            len = 0;
-            resetProbe();
+            state = 0;
         }
 
-        private void resetProbe() {
-            p = 0x80;
+        private void flushOnEOS(final Buffer source, final int i,
+                                final Appendable destination, final int n) {
+            // the symbols decoded before EOS are still delivered
+            source.position(i + 1);
+            if (n > 0) {
+                flush(destination, n, source, i + 1);
+            }
+            throw new IllegalArgumentException("Encountered EOS");
+        }
+
+        private void flush(final Appendable destination, final int n,
+                           final Buffer source, final int pos) {
+            try {
+                if (destination instanceof StringBuilder) {
+                    ((StringBuilder) destination).append(sink, 0, n);
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        destination.append(sink[i]);
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                source.position(pos);
+                throw e;
+            } catch (IOException e) {
+                source.position(pos);
+                throw new RuntimeException(e);
+            }
         }
     }
 
     static final class Writer {
 
         private int pos;       // position in 'source'
-        private int avail = 8; // number of least significant bits available in 'curr'
-        private int curr;      // next byte to put to the destination
-        private int rem;       // number of least significant bits in 'code' yet to be processed
-        private int code;      // current code being written
+        private long bits;     // pending code bits, the 'bitCount' least significant bits are valid
+        private int bitCount;  // number of pending bits, always < 8 between the characters
 
         private CharSequence source;
         private int end;
@@ -188,53 +240,75 @@ public final class Huffman {
         }
 
         public boolean write(Buffer destination) {
-            for (; pos < end; pos++) {
-                if (rem == 0) {
-                    Code desc = INSTANCE.codeOf(source.charAt(pos));
-                    rem = desc.length;
-                    code = desc.code;
-                }
-                while (rem > 0) {
-                    if (rem < avail) {
-                        curr |= (code << (avail - rem));
-                        avail -= rem;
-                        rem = 0;
-                    } else {
-                        int c = (curr | (code >>> (rem - avail)));
-                        if (destination.hasRemaining()) {
-                            destination.put((byte) c);
-                        } else {
+            final int[] codeValues = INSTANCE.codeValues;
+            final byte[] codeLengths = INSTANCE.codeLengths;
+            final CharSequence src = source;
+            final int e = end;
+            final boolean hasArray = destination.hasArray();
+            final byte[] array = hasArray ? destination.array() : null;
+            final int offset = hasArray ? destination.arrayOffset() : 0;
+            final int dl = destination.limit();
+
+            int dp = destination.position();
+            int p = pos;
+            long b = bits;
+            int n = bitCount;
+            try {
+                for (;;) {
+                    while (n >= 8) {
+                        if (dp == dl) {
                             return false;
                         }
-                        curr = c;
-                        code <<= (32 - rem + avail);  // throw written bits off the cliff (is this Sparta?)
-                        code >>>= (32 - rem + avail); // return to the position
-                        rem -= avail;
-                        curr = 0;
-                        avail = 8;
+                        n -= 8;
+                        final byte v = (byte) (b >>> n);
+                        if (hasArray) {
+                            array[offset + dp] = v;
+                        } else {
+                            destination.put(dp, v);
+                        }
+                        dp++;
+                    }
+                    if (p == e) {
+                        break;
                     }
+                    final char c = src.charAt(p);
+                    if (c > 255) {
+                        throw new IllegalArgumentException("char=" + ((int) c));
+                    }
+                    p++;
+                    // at most 7 + 30 bits are pending here
+                    b = (b << codeLengths[c]) | codeValues[c];
+                    n += codeLengths[c];
                 }
-            }
 
-            if (avail < 8) { // have to pad
-                if (destination.hasRemaining()) {
-                    destination.put((byte) (curr | (INSTANCE.EOS.code >>> (INSTANCE.EOS.length - avail))));
-                    avail = 8;
-                } else {
-                    return false;
+                if (n > 0) { // have to pad with the most significant bits of EOS
+                    if (dp == dl) {
+                        return false;
+                    }
+                    final byte v = (byte) ((b << (8 - n)) | (0xff >>> n));
+                    if (hasArray) {
+                        array[offset + dp] = v;
+                    } else {
+                        destination.put(dp, v);
+                    }
+                    dp++;
+                    n = 0;
                 }
+                return true;
+            } finally {
+                destination.position(dp);
+                pos = p;
+                bits = b;
+                bitCount = n;
             }
-
-            return true;
         }
 
         public Writer reset() {
             source = null;
             end = -1;
             pos = -1;
-            avail = 8;
-            curr = 0;
-            code = 0;
+            bits = 0;
+            bitCount = 0;
             return this;
         }
     }
@@ -246,11 +320,19 @@ public final class Huffman {
 
     private final Code EOS = new Code(0x3fffffff, 30);
     private final Code[] codes = new Code[257];
+    private final int[] codeValues = new int[257];
+    private final byte[] codeLengths = new byte[257];
     private final Node root = new Node() {
         @Override
         public String toString() { return "root"; }
     };
 
+    // decoder state-transition table, indexed by (state << 4 | nibble)
+    private int[] decodeTable;
+    // the length of the path from the root to the state's node
+    private byte[] stateDepth;
+    private boolean[] stateIsEOSPath;
+
     // TODO: consider builder and immutable trie
     private Huffman() {
         // @formatter:off
@@ -512,6 +594,7 @@ public final class Huffman {
         addChar(255, 0x3ffffee,  26);
         addEOS (256, EOS.code,   EOS.length);
         // @formatter:on
+        buildDecodeTable();
     }
 
 
@@ -555,7 +638,10 @@ public final class Huffman {
         int len = 0;
         for (int i = start; i < end; i++) {
             char c = value.charAt(i);
-            len += INSTANCE.codeOf(c).length;
+            if (c > 255) {
+                throw new IllegalArgumentException("char=" + ((int) c));
+            }
+            len += codeLengths[c];
         }
         // Integer division with ceiling, assumption:
         assert (len / 8 + (len % 8 != 0 ? 1 : 0)) == (len + 7) / 8 : len;
@@ -565,11 +651,15 @@ public final class Huffman {
     private void addChar(int c, int code, int bitLength) {
         addLeaf(c, code, bitLength, false);
         codes[c] = new Code(code, bitLength);
+        codeValues[c] = code;
+        codeLengths[c] = (byte) bitLength;
     }
 
     private void addEOS(int c, int code, int bitLength) {
         addLeaf(c, code, bitLength, true);
         codes[c] = new Code(code, bitLength);
+        codeValues[c] = code;
+        codeLengths[c] = (byte) bitLength;
     }
 
     private void addLeaf(int c, int code, int bitLength, boolean isEOS) {
@@ -588,11 +678,53 @@ public final class Huffman {
         curr.setChar((char) c);
     }
 
-    private Code codeOf(char c) {
-        if (c > 255) {
-            throw new IllegalArgumentException("char=" + ((int) c));
+    private void buildDecodeTable() {
+        // number the internal nodes of the trie, the root being state 0
+        final List<Node> states = new ArrayList<>();
+        final Map<Node, Integer> ids = new IdentityHashMap<>();
+        final List<Integer> depths = new ArrayList<>();
+        states.add(root);
+        ids.put(root, 0);
+        depths.add(0);
+        for (int i = 0; i < states.size(); i++) {
+            final Node n = states.get(i);
+            for (Node child : new Node[]{n.left, n.right}) {
+                if (child != null && !child.isLeaf()) {
+                    ids.put(child, states.size());
+                    states.add(child);
+                    depths.add(depths.get(i) + 1);
+                }
+            }
+        }
+
+        final int size = states.size();
+        decodeTable = new int[size << NIBBLE_BITS];
+        stateDepth = new byte[size];
+        stateIsEOSPath = new boolean[size];
+        for (int s = 0; s < size; s++) {
+            stateDepth[s] = depths.get(s).byteValue();
+            stateIsEOSPath[s] = states.get(s).isEOSPath;
+            for (int nibble = 0; nibble < (1 << NIBBLE_BITS); nibble++) {
+                Node curr = states.get(s);
+                int entry = 0;
+                for (int p = 1 << (NIBBLE_BITS - 1); p != 0; p >>= 1) {
+                    curr = curr.getChild(p & nibble);
+                    if (curr.isLeaf()) {
+                        if ((entry & EMIT) != 0) {
+                            throw new IllegalStateException(
+                                    "More than one symbol per nibble");
+                        }
+                        entry = EMIT | curr.getChar();
+                        if (curr.isEOSPath) {
+                            entry |= EOS_SYMBOL;
+                        }
+                        curr = root;
+                    }
+                }
+                decodeTable[(s << NIBBLE_BITS) | nibble] =
+                        (ids.get(curr) << STATE_SHIFT) | entry;
+            }
         }
-        return codes[c];
     }
 
     //
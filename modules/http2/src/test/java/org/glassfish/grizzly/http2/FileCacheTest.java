@@ -563,6 +563,14 @@ public class FileCacheTest extends AbstractHttp2Test {
             entryRemovedCounter.incrementAndGet();
         }
 
+        @Override
+        public void onEntryEvictedEvent(FileCache fileCache, FileCacheEntry entry) {
+        }
+
+        @Override
+        public void onEntryRejectedEvent(FileCache fileCache, String host, String requestURI) {
+        }
+
         @Override
         public void onEntryHitEvent(FileCache fileCache, FileCacheEntry entry) {
             entryHitCounter.incrementAndGet();
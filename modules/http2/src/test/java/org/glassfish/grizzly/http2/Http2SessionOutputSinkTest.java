@@ -0,0 +1,262 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http2;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import org.glassfish.grizzly.CompletionHandler;
+import org.glassfish.grizzly.WriteResult;
+import org.glassfish.grizzly.asyncqueue.LifeCycleHandler;
+import org.glassfish.grizzly.filterchain.FilterChainBuilder;
+import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.http.HttpRequestPacket;
+import org.glassfish.grizzly.http.Protocol;
+import org.glassfish.grizzly.http2.frames.DataFrame;
+import org.glassfish.grizzly.http2.frames.Http2Frame;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.glassfish.grizzly.nio.transport.TCPNIOConnection;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the order, in which {@link Http2SessionOutputSink} sends the DATA
+ * frames queued because of the connection flow control.
+ */
+public class Http2SessionOutputSinkTest {
+    private static final int CHUNK_SIZE = 1000;
+
+    private TCPNIOTransport transport;
+    private Http2Session session;
+    private TestOutputSink sink;
+
+
+    // ----------------------------------------------------------- Test Methods
+
+
+    @Before
+    public void before() throws IOException {
+        final Http2ServerFilter filter = new Http2ServerFilter(
+                Http2Configuration.builder().build());
+        transport = TCPNIOTransportBuilder.newInstance().build();
+        transport.setFilterChain(FilterChainBuilder.newInstance()
+                .add(new TransportFilter()).add(filter).build());
+
+        session = new Http2Session(new TCPNIOConnection(transport,
+                SocketChannel.open()), true, filter) {
+            @Override
+            protected Http2SessionOutputSink newOutputSink() {
+                return new TestOutputSink(this);
+            }
+        };
+        sink = (TestOutputSink) session.getOutputSink();
+
+        // queue everything until the test opens the connection window
+        sink.onPeerWindowUpdate(-sink.getAvailablePeerConnectionWindowSize());
+    }
+
+    @After
+    public void after() throws IOException {
+        transport.shutdownNow();
+    }
+
+    @Test
+    public void siblingsShareByWeight() throws Exception {
+        final Http2Stream heavy = openStream(1, 0, 64);
+        final Http2Stream light = openStream(3, 0, 16);
+        queue(heavy, 100);
+        queue(light, 100);
+
+        sink.onPeerWindowUpdate(50 * CHUNK_SIZE);
+
+        final int heavyChunks = sink.count(1);
+        final int lightChunks = sink.count(3);
+        assertEquals(50, heavyChunks + lightChunks);
+        // 4:1 give or take one chunk
+        assertTrue(heavyChunks + ":" + lightChunks,
+                Math.abs(heavyChunks - 4 * lightChunks) <= 5);
+    }
+
+    @Test
+    public void parentIsServedFirst() throws Exception {
+        final Http2Stream parent = openStream(1, 0, 16);
+        final Http2Stream child = openStream(3, 1, 256);
+        queue(child, 10);
+        queue(parent, 10);
+
+        sink.onPeerWindowUpdate(20 * CHUNK_SIZE);
+
+        assertEquals(20, sink.sent.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, sink.sent.get(i).intValue());
+            assertEquals(3, sink.sent.get(10 + i).intValue());
+        }
+    }
+
+    @Test
+    public void dependencyOnOwnDescendant() throws Exception {
+        // 1 <- 3 <- 5
+        final Http2Stream s1 = openStream(1, 0, 16);
+        final Http2Stream s3 = openStream(3, 1, 16);
+        final Http2Stream s5 = openStream(5, 3, 16);
+
+        // RFC 7540 5.3.3: 5 is moved to the root first, then 1 depends on 5,
+        // so the tree becomes 5 <- 1 <- 3
+        sink.onPriorityUpdate(1, 5, false, 16);
+
+        queue(s3, 2);
+        queue(s1, 2);
+        queue(s5, 2);
+        sink.onPeerWindowUpdate(6 * CHUNK_SIZE);
+
+        assertEquals(6, sink.sent.size());
+        final int[] expected = {5, 5, 1, 1, 3, 3};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], sink.sent.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void noBurstAfterIdle() throws Exception {
+        final Http2Stream busy = openStream(1, 0, 16);
+        final Http2Stream idle = openStream(3, 0, 16);
+
+        // only the first stream is active for a while
+        queue(busy, 50);
+        sink.onPeerWindowUpdate(50 * CHUNK_SIZE);
+        assertEquals(50, sink.count(1));
+        sink.sent.clear();
+
+        queue(busy, 50);
+        queue(idle, 50);
+        sink.onPeerWindowUpdate(20 * CHUNK_SIZE);
+
+        // the streams of the same weight alternate, the stream, which
+        // has been idle, doesn't take over the connection
+        assertEquals(20, sink.sent.size());
+        assertTrue(sink.sent.toString(), Math.abs(sink.count(1) - sink.count(3)) <= 2);
+    }
+
+    @Test
+    public void closedStreamIsRemoved() throws Exception {
+        openStream(1, 0, 16);
+        final Http2Stream s3 = openStream(3, 0, 16);
+        assertEquals(2, sink.getPrioritizedStreamsCount());
+
+        // no queued data, removed right away
+        sink.onStreamClosed(1);
+        assertEquals(1, sink.getPrioritizedStreamsCount());
+
+        // removed once the queued data is sent
+        queue(s3, 2);
+        sink.onStreamClosed(3);
+        assertEquals(1, sink.getPrioritizedStreamsCount());
+        sink.onPeerWindowUpdate(2 * CHUNK_SIZE);
+        assertEquals(2, sink.count(3));
+        assertEquals(0, sink.getPrioritizedStreamsCount());
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private Http2Stream openStream(final int streamId, final int parentStreamId,
+            final int weight) throws Http2SessionException {
+        final HttpRequestPacket request = HttpRequestPacket.builder()
+                .method("GET").uri("/").protocol(Protocol.HTTP_2_0).build();
+        return session.acceptStream(request, streamId, parentStreamId, false,
+                weight);
+    }
+
+    private void queue(final Http2Stream stream, final int chunks) {
+        final MemoryManager mm = MemoryManager.DEFAULT_MEMORY_MANAGER;
+        for (int i = 0; i < chunks; i++) {
+            sink.writeDataDownStream(stream, null,
+                    Buffers.wrap(mm, new byte[CHUNK_SIZE]), null, null, false);
+        }
+    }
+
+
+    // ---------------------------------------------------------- Nested Classes
+
+
+    /**
+     * Records the stream IDs of the DATA frames instead of writing them.
+     */
+    private static final class TestOutputSink extends Http2SessionOutputSink {
+        private final List<Integer> sent = new ArrayList<>();
+
+        TestOutputSink(final Http2Session session) {
+            super(session);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected <K> void writeDownStream(final K anyMessage,
+                final CompletionHandler<WriteResult> completionHandler,
+                final LifeCycleHandler lifeCycleHandler) {
+            final List<Http2Frame> frames = (List<Http2Frame>) anyMessage;
+            for (Http2Frame frame : frames) {
+                assertEquals(CHUNK_SIZE, ((DataFrame) frame).getData().remaining());
+                sent.add(frame.getStreamId());
+            }
+            frames.clear();
+        }
+
+        int count(final int streamId) {
+            int count = 0;
+            for (Integer id : sent) {
+                if (id == streamId) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
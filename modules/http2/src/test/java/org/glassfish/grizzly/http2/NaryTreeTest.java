@@ -266,6 +266,30 @@ public class NaryTreeTest {
         assertNull(n12.prev);
     }
 
+    @Test
+    public void removeOnlyChild() {
+        final Node root = new TestNode(0);
+        root.addChild(new TestNode(1));
+        root.find(1).addChild(new TestNode(2));
+        root.find(2).addChild(new TestNode(3));
+
+        final Node removed = root.remove(2);
+        assertNotNull(removed);
+        assertNull(root.find(2));
+
+        // the only child of the removed node is moved up to the node's parent
+        Node n1 = root.find(1);
+        assertEquals(3, n1.firstChild.id);
+        assertNull(n1.firstChild.next);
+        assertNull(n1.firstChild.prev);
+        assertEquals(1, n1.firstChild.parent.id);
+
+        assertNotNull(root.remove(3));
+        assertNull(n1.firstChild);
+        assertNotNull(root.remove(1));
+        assertNull(root.firstChild);
+    }
+
     @Test
     public void detach() {
         final Node root = createAndValidate();
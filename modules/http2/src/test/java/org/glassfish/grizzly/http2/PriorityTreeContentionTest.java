@@ -0,0 +1,188 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.grizzly.http2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Opens many HTTP/2 sessions concurrently, each of them building and
+ * reshaping its own stream priority tree, to make sure the trees of
+ * different sessions stay consistent without a JVM-wide lock.
+ *
+ * The timing comparison with a shared lock lives in the benchmarks module
+ * (PriorityTreeBenchmark).
+ */
+public class PriorityTreeContentionTest {
+    private static final int SESSIONS = 512;
+    private static final int STREAMS_PER_SESSION = 200;
+    private static final int THREADS =
+            Math.max(4, Runtime.getRuntime().availableProcessors());
+
+
+    // ----------------------------------------------------------- Test Methods
+
+
+    @Test
+    public void testPerSessionTrees() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Callable<Void>> sessions = new ArrayList<>(SESSIONS);
+            for (int i = 0; i < SESSIONS; i++) {
+                final int seed = i;
+                sessions.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final TestNode root = new TestNode(0);
+                        openSession(root, root, seed);
+                        return null;
+                    }
+                });
+            }
+
+            for (Future<Void> f : executor.invokeAll(sessions)) {
+                f.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    /**
+     * Mimics the traffic a session's output sink sees: streams are opened
+     * with a random dependency, reprioritized and closed, each operation
+     * guarded by the given lock.
+     */
+    private static void openSession(final TestNode root, final Object lock,
+            final long seed) {
+        final Random random = new Random(seed);
+        final TestNode[] nodes = new TestNode[STREAMS_PER_SESSION];
+        int opened = 0;
+        int closed = 0;
+
+        while (opened < STREAMS_PER_SESSION) {
+            final int op = random.nextInt(4);
+            synchronized (lock) {
+                if (op < 2 || opened == closed) {
+                    final TestNode node = new TestNode(opened * 2 + 1);
+                    final Node parent = pickParent(root, nodes, closed, opened, random);
+                    parent.addChild(node, random.nextInt(8) == 0);
+                    nodes[opened++] = node;
+                } else if (op == 2) {
+                    final TestNode node = nodes[closed + random.nextInt(opened - closed)];
+                    final Node parent = pickParent(root, nodes, closed, opened, random);
+                    if (parent != node && !isAncestor(node, parent)) {
+                        node.parent.detach(node.id);
+                        parent.addChild(node, random.nextBoolean());
+                    }
+                } else {
+                    assertSame(nodes[closed], root.remove(nodes[closed].id));
+                    closed++;
+                }
+            }
+        }
+
+        synchronized (lock) {
+            assertEquals(opened - closed, verify(root));
+            for (int i = 0; i < closed; i++) {
+                assertNull(root.find(nodes[i].id));
+            }
+            for (int i = closed; i < opened; i++) {
+                assertSame(nodes[i], root.find(nodes[i].id));
+            }
+        }
+    }
+
+    private static Node pickParent(final Node root, final TestNode[] nodes,
+            final int from, final int to, final Random random) {
+        final int idx = random.nextInt(to - from + 1);
+        return idx == 0 ? root : nodes[from + idx - 1];
+    }
+
+    private static boolean isAncestor(final Node node, final Node other) {
+        for (Node n = other.parent; n != null; n = n.parent) {
+            if (n == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks the sibling and parent links of the subtree and returns
+     * the number of descendants.
+     */
+    private static int verify(final Node node) {
+        int count = 0;
+        Node prev = null;
+        for (Node c = node.firstChild; c != null; c = c.next) {
+            assertSame(node, c.parent);
+            assertSame(prev, c.prev);
+            count += 1 + verify(c);
+            prev = c;
+        }
+        return count;
+    }
+
+
+    // --------------------------------------------------------- Nested Classes
+
+
+    private static final class TestNode extends Node {
+        TestNode(final int id) {
+            super(id);
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http2.hpack;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HeaderTableTest {
+
+
+    // ----------------------------------------------------------- Test Methods
+
+
+    @Test
+    public void staticTable() {
+        final HeaderTable table = new HeaderTable(0);
+        assertEquals(2, table.indexOf(":method", "GET"));
+        assertEquals(3, table.indexOf(":method", new StringBuilder("POST")));
+        assertEquals(-2, table.indexOf(":method", "PUT"));
+        assertEquals(-8, table.indexOf(new StringBuilder(":status"), "201"));
+        assertEquals(16, table.indexOf("accept-encoding", "gzip, deflate"));
+        assertEquals(0, table.indexOf("x-custom", "value"));
+    }
+
+    @Test
+    public void dynamicTable() {
+        final HeaderTable table = new HeaderTable(4096);
+        table.put("x-custom", "a");
+        table.put("x-custom", "b");
+        table.put(":method", "PUT");
+        assertEquals(62, table.indexOf(":method", "PUT"));
+        assertEquals(63, table.indexOf("x-custom", "b"));
+        assertEquals(64, table.indexOf(new StringBuilder("x-custom"), "a"));
+        assertEquals(-63, table.indexOf("x-custom", "c"));
+        assertEquals(-2, table.indexOf(":method", "DELETE"));
+
+        table.evictEntry();
+        assertEquals(-63, table.indexOf("x-custom", "a"));
+        table.evictEntry();
+        assertEquals(0, table.indexOf("x-custom", "b"));
+        assertEquals(62, table.indexOf(":method", "PUT"));
+    }
+
+    @Test
+    public void matchesLinearSearch() {
+        final Random random = new Random(7541);
+        final HeaderTable table = new HeaderTable(512);
+        for (int i = 0; i < 20000; i++) {
+            final String name = "n" + random.nextInt(12);
+            final String value = "v" + random.nextInt(6);
+            switch (random.nextInt(10)) {
+                case 0:
+                    table.setMaxSize(128 + random.nextInt(1024));
+                    break;
+                case 1:
+                case 2:
+                case 3:
+                    table.put(name, value);
+                    break;
+                default:
+                    assertEquals(linearIndexOf(table, name, value),
+                            table.indexOf(new StringBuilder(name), value));
+            }
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static int linearIndexOf(final HeaderTable table,
+            final String name, final String value) {
+        int nameIndex = 0;
+        for (int i = 1; i <= table.length(); i++) {
+            final HeaderTable.HeaderField f = table.get(i);
+            if (f.name.equals(name)) {
+                if (f.value.equals(value)) {
+                    return i;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = -i;
+                }
+            }
+        }
+        return nameIndex;
+    }
+}
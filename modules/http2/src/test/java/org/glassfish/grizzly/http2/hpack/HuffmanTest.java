@@ -0,0 +1,161 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.http2.hpack;
+
+import java.util.Random;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.memory.ByteBufferManager;
+import org.glassfish.grizzly.memory.HeapMemoryManager;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HuffmanTest {
+
+
+    // ----------------------------------------------------------- Test Methods
+
+
+    @Test
+    public void rfc7541Examples() {
+        // RFC 7541, C.4.1 - C.4.3
+        assertEncoded("www.example.com", "f1e3c2e5f23a6ba0ab90f4ff");
+        assertEncoded("no-cache", "a8eb10649cbf");
+        assertEncoded("custom-key", "25a849e95ba97d7f");
+        assertEncoded("custom-value", "25a849e95bb8e8b4bf");
+    }
+
+    @Test
+    public void roundTripInChunks() {
+        final Random random = new Random(7541);
+        final MemoryManager[] managers = {
+                new HeapMemoryManager(), new ByteBufferManager(true)};
+        for (int i = 0; i < 2000; i++) {
+            final StringBuilder value = new StringBuilder();
+            final int length = random.nextInt(100);
+            for (int j = 0; j < length; j++) {
+                value.append((char) random.nextInt(256));
+            }
+
+            final int encodedLength = Huffman.INSTANCE.lengthOf(value);
+            final Buffer encoded = managers[i % 2].allocate(encodedLength);
+            final Huffman.Writer writer =
+                    new Huffman.Writer().from(value, 0, value.length());
+            // the writer has to resume after the destination got full
+            while (true) {
+                encoded.limit(Math.min(encodedLength,
+                        encoded.position() + 1 + random.nextInt(4)));
+                if (writer.write(encoded)) {
+                    break;
+                }
+            }
+            assertEquals(encodedLength, encoded.position());
+            encoded.flip();
+
+            final Huffman.Reader reader = new Huffman.Reader();
+            final StringBuilder decoded = new StringBuilder();
+            do {
+                final Buffer chunk = encoded.duplicate();
+                chunk.limit(Math.min(encoded.limit(),
+                        encoded.position() + 1 + random.nextInt(5)));
+                encoded.position(chunk.limit());
+                reader.read(chunk, decoded, !encoded.hasRemaining());
+                assertFalse(chunk.hasRemaining());
+            } while (encoded.hasRemaining());
+            assertEquals(value.toString(), decoded.toString());
+        }
+    }
+
+    @Test
+    public void invalidInput() {
+        assertInvalid("ffffffff", "Encountered EOS");
+        assertInvalid("ff", "Padding is too long");
+        assertInvalid("00", "Not a EOS prefix padding");
+        try {
+            new Huffman.Writer().from("\u0100", 0, 1)
+                    .write(new HeapMemoryManager().allocate(4));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static void assertEncoded(final String value, final String hex) {
+        final Buffer encoded = new HeapMemoryManager().allocate(hex.length() / 2);
+        assertEquals(hex.length() / 2, Huffman.INSTANCE.lengthOf(value));
+        assertTrue(new Huffman.Writer().from(value, 0, value.length()).write(encoded));
+        encoded.flip();
+        assertEquals(hex, toHex(encoded));
+
+        final StringBuilder decoded = new StringBuilder();
+        new Huffman.Reader().read(encoded, decoded, true);
+        assertEquals(value, decoded.toString());
+    }
+
+    private static void assertInvalid(final String hex, final String message) {
+        final Buffer source = new HeapMemoryManager().allocate(hex.length() / 2);
+        for (int i = 0; i < hex.length(); i += 2) {
+            source.put((byte) Integer.parseInt(hex.substring(i, i + 2), 16));
+        }
+        source.flip();
+        try {
+            new Huffman.Reader().read(source, new StringBuilder(), true);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+
+    private static String toHex(final Buffer buffer) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            sb.append(String.format("%02x", buffer.get(i) & 0xff));
+        }
+        return sb.toString();
+    }
+}
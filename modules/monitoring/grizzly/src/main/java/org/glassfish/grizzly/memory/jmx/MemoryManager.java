@@ -70,6 +70,8 @@ public class MemoryManager extends JmxObject {
     private final AtomicLong poolReleasedBytes = new AtomicLong();
     private final AtomicLong poolDepletedEventCount = new AtomicLong();
     private final AtomicLong poolRestoredToFullEventCount = new AtomicLong();
+    private final AtomicLong threadCacheHitCount = new AtomicLong();
+    private final AtomicLong threadCacheMissCount = new AtomicLong();
 
     public MemoryManager(org.glassfish.grizzly.memory.MemoryManager memoryManager) {
         this.memoryManager = memoryManager;
@@ -134,6 +136,18 @@ public class MemoryManager extends JmxObject {
         return poolRestoredToFullEventCount.get();
     }
 
+    @ManagedAttribute(id="thread-cache-hit-count")
+    @Description("Total number of buffers allocated from the thread local caches.")
+    public long getThreadCacheHitCount() {
+        return threadCacheHitCount.get();
+    }
+
+    @ManagedAttribute(id="thread-cache-miss-count")
+    @Description("Total number of times the thread local caches had to be refilled from the shared pool.")
+    public long getThreadCacheMissCount() {
+        return threadCacheMissCount.get();
+    }
+
     private class JmxMemoryProbe implements MemoryProbe {
 
         @Override
@@ -163,5 +177,15 @@ public class MemoryManager extends JmxObject {
             poolRestoredToFullEventCount.incrementAndGet();
         }
 
+        @Override
+        public void onThreadCacheHitEvent(int size) {
+            threadCacheHitCount.incrementAndGet();
+        }
+
+        @Override
+        public void onThreadCacheMissEvent(int size) {
+            threadCacheMissCount.incrementAndGet();
+        }
+
     }
 }
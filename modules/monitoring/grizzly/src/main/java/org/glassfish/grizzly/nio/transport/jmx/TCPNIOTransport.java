@@ -85,4 +85,16 @@ public class TCPNIOTransport extends NIOTransport {
     public boolean getKeepAlive() {
         return ((org.glassfish.grizzly.nio.transport.TCPNIOTransport) transport).isKeepAlive();
     }
+
+    @ManagedAttribute(id="zero-copy-written-bytes")
+    @Description("The number of bytes written from direct buffers without an intermediate copy")
+    public long getZeroCopyWrittenBytes() {
+        return ((org.glassfish.grizzly.nio.transport.TCPNIOTransport) transport).getZeroCopyWrittenBytes();
+    }
+
+    @ManagedAttribute(id="copied-written-bytes")
+    @Description("The number of bytes copied from heap buffers to a direct buffer before being written")
+    public long getCopiedWrittenBytes() {
+        return ((org.glassfish.grizzly.nio.transport.TCPNIOTransport) transport).getCopiedWrittenBytes();
+    }
 }
@@ -82,6 +82,16 @@ public class FileCache extends JmxObject {
      */
     private final AtomicLong cacheMissCount = new AtomicLong();
 
+    /**
+     * The number of entries evicted to make room for other entries.
+     */
+    private final AtomicLong cacheEvictionCount = new AtomicLong();
+
+    /**
+     * The number of resources rejected by the full cache.
+     */
+    private final AtomicLong cacheRejectionCount = new AtomicLong();
+
     /**
      * The number of cache errors.
      */
@@ -246,6 +256,35 @@ public class FileCache extends JmxObject {
         return cacheMissCount.get();
     }
 
+    /**
+     * @return the ratio of cache hits to all the cache lookups.
+     */
+    @ManagedAttribute(id="cache-hit-ratio")
+    @Description("The ratio of cache hits to all the cache lookups.")
+    public double getCacheHitRatio() {
+        final long hits = cacheHitCount.get();
+        final long lookups = hits + cacheMissCount.get();
+        return lookups != 0 ? (double) hits / lookups : 0;
+    }
+
+    /**
+     * @return the total number of entries evicted to make room for other entries.
+     */
+    @ManagedAttribute(id="cache-eviction-count")
+    @Description("The total number of entries evicted to make room for more frequently requested resources.")
+    public long getCacheEvictionCount() {
+        return cacheEvictionCount.get();
+    }
+
+    /**
+     * @return the total number of resources rejected by the full cache.
+     */
+    @ManagedAttribute(id="cache-rejection-count")
+    @Description("The total number of resources, which were not cached, because they were requested less frequently than the cached ones.")
+    public long getCacheRejectionCount() {
+        return cacheRejectionCount.get();
+    }
+
     /**
      * @return the total number of cache errors.
      */
@@ -298,6 +337,16 @@ public class FileCache extends JmxObject {
             }
         }
 
+        @Override
+        public void onEntryEvictedEvent(org.glassfish.grizzly.http.server.filecache.FileCache fileCache, FileCacheEntry entry) {
+            cacheEvictionCount.incrementAndGet();
+        }
+
+        @Override
+        public void onEntryRejectedEvent(org.glassfish.grizzly.http.server.filecache.FileCache fileCache, String host, String requestURI) {
+            cacheRejectionCount.incrementAndGet();
+        }
+
         @Override
         public void onEntryHitEvent(org.glassfish.grizzly.http.server.filecache.FileCache fileCache, FileCacheEntry entry) {
             cacheHitCount.incrementAndGet();
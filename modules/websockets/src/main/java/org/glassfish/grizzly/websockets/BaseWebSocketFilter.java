@@ -126,6 +126,10 @@ public abstract class BaseWebSocketFilter extends BaseFilter {
                 // close it gracefully
                 ws.close();
             }
+            final WebSocketHolder holder = WebSocketHolder.get(connection);
+            if (holder != null && holder.handler != null) {
+                holder.handler.setPerMessageDeflate(null);
+            }
         }
         return ctx.getInvokeAction();
     }
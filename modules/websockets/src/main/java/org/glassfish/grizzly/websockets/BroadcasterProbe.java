@@ -0,0 +1,105 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.websockets;
+
+/**
+ * Monitoring probe providing callbacks that may be invoked by
+ * {@link Broadcaster} implementations.
+ *
+ * @since 3.0
+ */
+public interface BroadcasterProbe {
+
+    /**
+     * Method will be called, when a broadcast message couldn't be delivered
+     * to a recipient.
+     *
+     * @param broadcaster the {@link Broadcaster} event occurred on.
+     * @param recipient the {@link WebSocket} the message has been dropped for.
+     * @param error the cause.
+     */
+    public void onDropEvent(Broadcaster broadcaster, WebSocket recipient,
+            Throwable error);
+
+    /**
+     * Method will be called, when a broadcast message has been skipped for a
+     * recipient, whose asynchronous write queue is full. If the message
+     * couldn't be skipped without corrupting the recipient's frame sequence,
+     * the recipient is being closed.
+     *
+     * @param broadcaster the {@link Broadcaster} event occurred on.
+     * @param recipient the slow {@link WebSocket}.
+     * @param queuedBytes the number of bytes pending in the recipient's
+     *  write queue, or <tt>-1</tt> if unknown.
+     */
+    public void onSlowConsumerEvent(Broadcaster broadcaster, WebSocket recipient,
+            int queuedBytes);
+
+
+    // ---------------------------------------------------------- Nested Classes
+
+
+    /**
+     * {@link BroadcasterProbe} adapter that provides no-op implementations for
+     * all interface methods allowing easy extension by the developer.
+     *
+     * @since 3.0
+     */
+    public static class Adapter implements BroadcasterProbe {
+
+
+        // ------------------------------------- Methods from BroadcasterProbe
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onDropEvent(Broadcaster broadcaster, WebSocket recipient,
+                Throwable error) {}
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onSlowConsumerEvent(Broadcaster broadcaster,
+                WebSocket recipient, int queuedBytes) {}
+    }
+}
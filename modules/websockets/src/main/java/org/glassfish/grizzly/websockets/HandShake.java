@@ -76,6 +76,8 @@ public abstract class HandShake {
     //private final Map<String, String[]> queryParams = new TreeMap<String, String[]>();
     private List<String> subProtocol = new ArrayList<String>();
     private List<Extension> extensions = new ArrayList<Extension>(); // client extensions
+    private PerMessageDeflate perMessageDeflate; // permessage-deflate configuration
+    private PerMessageDeflate.Parameters perMessageDeflateParameters;
 
     public HandShake(URI url) {
         builder = HttpRequestPacket.builder()
@@ -193,6 +195,47 @@ public abstract class HandShake {
         this.extensions = extensions;
     }
 
+    /**
+     * Offers the <tt>permessage-deflate</tt> extension to the server.
+     * Client side only.
+     *
+     * @since 3.0
+     */
+    public void setPerMessageDeflate(final PerMessageDeflate perMessageDeflate) {
+        final List<Extension> offers = new ArrayList<Extension>(extensions.size() + 1);
+        for (Extension e : extensions) {
+            if (!PerMessageDeflate.NAME.equals(e.getName())) {
+                offers.add(e);
+            }
+        }
+        if (perMessageDeflate != null) {
+            offers.add(perMessageDeflate.createOffer());
+        }
+        this.perMessageDeflate = perMessageDeflate;
+        extensions = offers;
+    }
+
+    /**
+     * @return the <tt>permessage-deflate</tt> parameters negotiated by this
+     *  handshake, or <tt>null</tt> if the extension isn't used.
+     *
+     * @since 3.0
+     */
+    public PerMessageDeflate.Parameters getPerMessageDeflateParameters() {
+        return perMessageDeflateParameters;
+    }
+
+    /**
+     * @return a new compression context for the negotiated
+     *  <tt>permessage-deflate</tt> parameters, or <tt>null</tt> if the
+     *  extension isn't used.
+     */
+    PerMessageDeflate.Codec createPerMessageDeflateCodec() {
+        return perMessageDeflateParameters != null
+                ? perMessageDeflate.createCodec(perMessageDeflateParameters)
+                : null;
+    }
+
     protected final String joinExtensions(List<Extension> extensions) {
         StringBuilder sb = new StringBuilder();
         for (Extension e : extensions) {
@@ -253,6 +296,22 @@ public abstract class HandShake {
         }
     }
 
+    private void checkForPerMessageDeflate(final HttpResponsePacket headers) {
+        final String value = headers.getHeader(Constants.SEC_WS_EXTENSIONS_HEADER);
+        if (value == null) {
+            return;
+        }
+        for (Extension e : parseExtensionsHeader(value)) {
+            if (PerMessageDeflate.NAME.equals(e.getName())) {
+                if (perMessageDeflate == null || perMessageDeflateParameters != null) {
+                    throw new HandshakeException(String.format(
+                            "Invalid Sec-WebSocket-Extensions header returned: '%s'", value));
+                }
+                perMessageDeflateParameters = perMessageDeflate.toParameters(e, false);
+            }
+        }
+    }
+
     private void validate(final String header,
             final String validValue, final String value) {
         boolean found = false;
@@ -325,6 +384,7 @@ public abstract class HandShake {
         checkForHeader(headers, Constants.UPGRADE, Constants.WEBSOCKET);
         checkForHeader(headers, Constants.CONNECTION, Constants.UPGRADE);
         checkForSubProtocol(headers);
+        checkForPerMessageDeflate(headers);
     }
 
     public void respond(final FilterChainContext ctx,
@@ -340,14 +400,40 @@ public abstract class HandShake {
             response.setHeader(Constants.SEC_WS_PROTOCOL_HEADER,
                 join(application.getSupportedProtocols(getSubProtocol())));
         }
-        if (!application.getSupportedExtensions().isEmpty() && !getExtensions().isEmpty()) {
-            List<Extension> intersection =
-                    intersection(getExtensions(),
-                                 application.getSupportedExtensions());
+        if (!getExtensions().isEmpty()) {
+            final PerMessageDeflate deflate = application.getPerMessageDeflate();
+            final List<Extension> intersection;
+            if (!application.getSupportedExtensions().isEmpty()) {
+                intersection = intersection(getExtensions(),
+                                            application.getSupportedExtensions());
+            } else {
+                intersection = new ArrayList<Extension>(1);
+            }
+
+            Extension deflateResponse = null;
+            if (deflate != null) {
+                // permessage-deflate offers are answered by the configuration
+                for (int i = intersection.size() - 1; i >= 0; i--) {
+                    if (PerMessageDeflate.NAME.equals(intersection.get(i).getName())) {
+                        intersection.remove(i);
+                    }
+                }
+                deflateResponse = deflate.negotiate(getExtensions());
+                if (deflateResponse != null) {
+                    intersection.add(deflateResponse);
+                }
+            }
+
             if (!intersection.isEmpty()) {
                 application.onExtensionNegotiation(intersection);
-                response.setHeader(Constants.SEC_WS_EXTENSIONS_HEADER,
-                                   joinExtensions(intersection));
+                if (deflateResponse != null && intersection.contains(deflateResponse)) {
+                    perMessageDeflate = deflate;
+                    perMessageDeflateParameters = deflate.toParameters(deflateResponse, true);
+                }
+                if (!intersection.isEmpty()) {
+                    response.setHeader(Constants.SEC_WS_EXTENSIONS_HEADER,
+                                       joinExtensions(intersection));
+                }
             }
         }
 
@@ -40,14 +40,31 @@
 
 package org.glassfish.grizzly.websockets;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.SecureRandom;
 
 import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.memory.ByteBufferArray;
 
 public class Masker {
+    /**
+     * Source of the client frame masks. RFC 6455 requires masks to be
+     * unpredictable, but seeding a new {@link SecureRandom} per frame is
+     * expensive, so each thread keeps its own.
+     */
+    private static final ThreadLocal<SecureRandom> RANDOM =
+            new ThreadLocal<SecureRandom>() {
+                @Override
+                protected SecureRandom initialValue() {
+                    return new SecureRandom();
+                }
+            };
+
     private Buffer buffer;
     private byte[] mask;
-    private int index = 0;
+    private int maskInt;   // the mask as a big-endian int
+    private int index = 0; // position within the mask, always in [0, MASK_SIZE)
 
     public Masker(Buffer buffer) {
         this.buffer = buffer;
@@ -69,36 +86,60 @@ public class Masker {
 
     public byte unmask() {
         final byte b = get();
-        return mask == null ? b : (byte) (b ^ mask[index++ % Constants.MASK_SIZE]);
+        return mask == null ? b : (byte) (b ^ nextMaskByte());
     }
 
+    /**
+     * Reads and unmasks <tt>count</tt> bytes. The bytes are unmasked in
+     * place, in the underlying {@link Buffer}, before they are copied out.
+     */
     public byte[] unmask(int count) {
-        byte[] bytes = get(count);
         if (mask != null) {
-            for (int i = 0; i < bytes.length; i++) {
-                bytes[i] ^= mask[index++ % Constants.MASK_SIZE];
-            }
+            final int position = buffer.position();
+            mask(buffer, position, position + count);
         }
-
-        return bytes;
+        return get(count);
     }
 
     public void generateMask() {
-        mask = new byte[Constants.MASK_SIZE];
-        new SecureRandom().nextBytes(mask);
+        setMask(RANDOM.get().nextInt());
     }
 
     public void mask(byte[] bytes, int location, byte b) {
-        bytes[location] = mask == null ? b : (byte) (b ^ mask[index++ % Constants.MASK_SIZE]);
+        bytes[location] = mask == null ? b : (byte) (b ^ nextMaskByte());
     }
 
     public void mask(byte[] target, int location, byte[] bytes) {
         if(bytes != null && target != null) {
-            for (int i = 0; i < bytes.length; i++) {
-                target[location + i] = mask == null
-                        ? bytes[i]
-                        : (byte) (bytes[i] ^ mask[index++ % Constants.MASK_SIZE]);
+            System.arraycopy(bytes, 0, target, location, bytes.length);
+            if (mask != null) {
+                index = xor(ByteBuffer.wrap(target), location,
+                        location + bytes.length, maskInt, index);
+            }
+        }
+    }
+
+    /**
+     * Masks, or unmasks, as the operation is symmetric, the bytes of the
+     * {@link Buffer} between <tt>position</tt> and <tt>limit</tt> in place.
+     * The {@link Buffer}'s position and limit are not changed.
+     *
+     * @since 3.0
+     */
+    public void mask(final Buffer buffer, final int position, final int limit) {
+        if (mask == null || position == limit) {
+            return;
+        }
+        final ByteBufferArray array = buffer.toByteBufferArray(position, limit);
+        try {
+            final ByteBuffer[] byteBuffers = array.getArray();
+            for (int i = 0, size = array.size(); i < size; i++) {
+                final ByteBuffer bb = byteBuffers[i];
+                index = xor(bb, bb.position(), bb.limit(), maskInt, index);
             }
+        } finally {
+            array.restore();
+            array.recycle();
         }
     }
 
@@ -119,6 +160,48 @@ public class Masker {
     }
 
     public void readMask() {
-        mask = get(Constants.MASK_SIZE);
+        final byte[] bytes = get(Constants.MASK_SIZE);
+        setMask(((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16)
+                | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF));
+    }
+
+    private void setMask(final int maskInt) {
+        this.maskInt = maskInt;
+        mask = new byte[] {(byte) (maskInt >>> 24), (byte) (maskInt >>> 16),
+                (byte) (maskInt >>> 8), (byte) maskInt};
+        index = 0;
+    }
+
+    private byte nextMaskByte() {
+        final byte b = mask[index];
+        index = (index + 1) & (Constants.MASK_SIZE - 1);
+        return b;
+    }
+
+    /**
+     * XORs the bytes of <tt>bb</tt> between <tt>from</tt> and <tt>to</tt>
+     * with the mask, starting at mask byte <tt>index</tt>, eight bytes at a
+     * time, and returns the mask index following the last byte.
+     */
+    private static int xor(final ByteBuffer bb, final int from, final int to,
+                           final int maskInt, int index) {
+        int i = from;
+        if (to - i >= 8) {
+            // a long holds the mask twice, so it stays aligned with the
+            // mask index after every step
+            final int rotated = Integer.rotateLeft(maskInt, index << 3);
+            long word = ((long) rotated << 32) | (rotated & 0xFFFFFFFFL);
+            if (bb.order() == ByteOrder.LITTLE_ENDIAN) {
+                word = Long.reverseBytes(word);
+            }
+            for (final int end = to - 8; i <= end; i += 8) {
+                bb.putLong(i, bb.getLong(i) ^ word);
+            }
+        }
+        for (; i < to; i++) {
+            bb.put(i, (byte) (bb.get(i) ^ (maskInt >>> ((3 - index) << 3))));
+            index = (index + 1) & 3;
+        }
+        return index;
     }
 }
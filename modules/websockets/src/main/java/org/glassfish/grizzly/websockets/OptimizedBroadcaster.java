@@ -37,17 +37,93 @@
  * only if the new code is made subject to such option by the copyright
  * holder.
  */
-
 package org.glassfish.grizzly.websockets;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.EmptyCompletionHandler;
+import org.glassfish.grizzly.WriteResult;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.ByteBufferWrapper;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.glassfish.grizzly.monitoring.DefaultMonitoringConfig;
+import org.glassfish.grizzly.monitoring.MonitoringAware;
+import org.glassfish.grizzly.monitoring.MonitoringConfig;
+import org.glassfish.grizzly.nio.NIOConnection;
+import org.glassfish.grizzly.nio.SelectorHandler;
+import org.glassfish.grizzly.nio.SelectorRunner;
+
 /**
  * The default {@link Broadcaster} optimized to send the same text to a set of
  * clients.
  * NOTE: works with {@link DefaultWebSocket}s and inherited classes.
- * 
+ *
+ * The message is framed once, and a single read-only {@link Buffer} holding
+ * the frame is shared by the write queues of all the recipients. The
+ * {@link Buffer} is disposed once the last recipient has written it, so
+ * pooled (and direct) memory may be used safely. With
+ * <tt>permessage-deflate</tt> the frame is built once per
+ * {@link PerMessageDeflate.Parameters} set of the recipients.
+ *
+ * If <tt>dispatchToSelectors</tt> is enabled the recipients are grouped by
+ * their {@link SelectorRunner}, and every selector thread writes its own
+ * batch, so the calling thread doesn't perform any network I/O. In that
+ * case a broadcast message might be delivered after the messages sent
+ * directly to a {@link WebSocket} by the calling thread later on.
+ *
+ * A whole message is skipped for a recipient, whose write queue is full.
+ * A fragment, or a message compressed with the recipient's own
+ * <tt>permessage-deflate</tt> context, can't be skipped without corrupting
+ * the frames which follow, so such a recipient is closed with
+ * {@link WebSocket#POLICY_VIOLATION} instead.
+ * Messages, which can't be delivered, and recipients, whose write queue
+ * is full, are reported to the registered {@link BroadcasterProbe}s.
+ *
  *
  */
-public class OptimizedBroadcaster implements Broadcaster {
+public class OptimizedBroadcaster implements Broadcaster,
+        MonitoringAware<BroadcasterProbe> {
+
+    private static final Object UNCOMPRESSED = new Object();
+
+    private final boolean dispatchToSelectors;
+
+    /**
+     * Broadcaster probes
+     */
+    protected final DefaultMonitoringConfig<BroadcasterProbe> monitoringConfig =
+            new DefaultMonitoringConfig<BroadcasterProbe>(BroadcasterProbe.class);
+
+    public OptimizedBroadcaster() {
+        this(false);
+    }
+
+    /**
+     * @param dispatchToSelectors if <tt>true</tt>, the frames are written
+     *  by the selector threads the recipients' {@link Connection}s belong to.
+     *
+     * @since 3.0
+     */
+    public OptimizedBroadcaster(final boolean dispatchToSelectors) {
+        this.dispatchToSelectors = dispatchToSelectors;
+    }
+
+    /**
+     * @return <tt>true</tt> if the frames are written by the selector threads
+     *  the recipients' {@link Connection}s belong to.
+     *
+     * @since 3.0
+     */
+    public boolean isDispatchToSelectors() {
+        return dispatchToSelectors;
+    }
 
     /**
      * {@inheritDoc}
@@ -55,23 +131,7 @@ public class OptimizedBroadcaster implements Broadcaster {
     @Override
     public void broadcast(final Iterable<? extends WebSocket> recipients,
             final String text) {
-        
-        byte[] rawDataToSend = null;
-        
-        for (WebSocket websocket : recipients) {
-            final DefaultWebSocket defaultWebSocket = (DefaultWebSocket) websocket;
-            
-            if (websocket.isConnected()) {
-                if (rawDataToSend == null) {
-                    rawDataToSend = defaultWebSocket.toRawData(text);
-                }
-                
-                try {
-                    defaultWebSocket.sendRaw(rawDataToSend);
-                } catch (WebSocketException ignored) {
-                }
-            }
-        }
+        broadcast(recipients, text, null, true, false);
     }
     
     /**
@@ -80,62 +140,289 @@ public class OptimizedBroadcaster implements Broadcaster {
     @Override
     public void broadcast(final Iterable<? extends WebSocket> recipients,
             final byte[] binary) {
-        
-        byte[] rawDataToSend = null;
-        
-        for (WebSocket websocket : recipients) {
-            final DefaultWebSocket defaultWebSocket = (DefaultWebSocket) websocket;
-            
-            if (websocket.isConnected()) {
-                if (rawDataToSend == null) {
-                    rawDataToSend = defaultWebSocket.toRawData(binary);
-                }
-                
-                try {
-                    defaultWebSocket.sendRaw(rawDataToSend);
-                } catch (WebSocketException ignored) {
-                }
-            }
-        }
+        broadcast(recipients, null, binary, true, false);
     }
 
     @Override
     public void broadcastFragment(Iterable<? extends WebSocket> recipients,
             String text, boolean last) {
-        byte[] rawDataToSend = null;
-        
-        for (WebSocket websocket : recipients) {
-            final DefaultWebSocket defaultWebSocket = (DefaultWebSocket) websocket;
-            
-            if (websocket.isConnected()) {
-                if (rawDataToSend == null) {
-                    rawDataToSend = defaultWebSocket.toRawData(text, last);
+        broadcast(recipients, text, null, last, true);
+    }
+
+    @Override
+    public void broadcastFragment(Iterable<? extends WebSocket> recipients, byte[] binary, boolean last) {
+        broadcast(recipients, null, binary, last, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MonitoringConfig<BroadcasterProbe> getMonitoringConfig() {
+        return monitoringConfig;
+    }
+
+
+    // --------------------------------------------------------- Private Methods
+
+
+    private void broadcast(final Iterable<? extends WebSocket> recipients,
+            final String text, final byte[] binary, final boolean last,
+            final boolean fragment) {
+
+        final Map<Object, SharedFrame> frames = new HashMap<>(4);
+        Map<SelectorRunner, SelectorBatch> batches = null;
+
+        try {
+            for (WebSocket websocket : recipients) {
+                final DefaultWebSocket defaultWebSocket = (DefaultWebSocket) websocket;
+
+                if (!isOpen(defaultWebSocket)) {
+                    continue;
                 }
-                
+
+                final SharedFrame frame;
                 try {
-                    defaultWebSocket.sendRaw(rawDataToSend);
-                } catch (WebSocketException ignored) {
+                    frame = frameFor(defaultWebSocket, frames,
+                            text, binary, last, fragment);
+                } catch (WebSocketException e) {
+                    notifyDrop(websocket, e);
+                    continue;
+                }
+
+                final Connection connection =
+                        defaultWebSocket.protocolHandler.getConnection();
+                final SelectorRunner runner = dispatchToSelectors
+                        && connection instanceof NIOConnection
+                        ? ((NIOConnection) connection).getSelectorRunner()
+                        : null;
+
+                frame.retain();
+                if (runner == null) {
+                    write(defaultWebSocket, frame);
+                } else {
+                    if (batches == null) {
+                        batches = new HashMap<>(4);
+                    }
+                    SelectorBatch batch = batches.get(runner);
+                    if (batch == null) {
+                        batch = new SelectorBatch();
+                        batches.put(runner, batch);
+                    }
+                    batch.add(defaultWebSocket, frame);
+                }
+            }
+
+            if (batches != null) {
+                for (Map.Entry<SelectorRunner, SelectorBatch> entry : batches.entrySet()) {
+                    final SelectorRunner runner = entry.getKey();
+                    final SelectorHandler selectorHandler =
+                            runner.getTransport().getSelectorHandler();
+                    selectorHandler.execute(runner, entry.getValue(),
+                            entry.getValue());
                 }
             }
+        } finally {
+            // release the references held by this method
+            for (SharedFrame frame : frames.values()) {
+                frame.release();
+            }
         }
     }
 
-    @Override
-    public void broadcastFragment(Iterable<? extends WebSocket> recipients, byte[] binary, boolean last) {
-        byte[] rawDataToSend = null;
-        
-        for (WebSocket websocket : recipients) {
-            final DefaultWebSocket defaultWebSocket = (DefaultWebSocket) websocket;
-            
-            if (websocket.isConnected()) {
-                if (rawDataToSend == null) {
-                    rawDataToSend = defaultWebSocket.toRawData(binary, last);
+    /**
+     * Returns the frame to be sent to the recipient. Frames are shared
+     * unless the recipient takes the compression context over between
+     * messages.
+     */
+    private static SharedFrame frameFor(final DefaultWebSocket websocket,
+            final Map<Object, SharedFrame> frames,
+            final String text, final byte[] binary, final boolean last,
+            final boolean fragment) {
+
+        Object key = UNCOMPRESSED;
+        if (!fragment) {
+            // fragments are never compressed
+            final PerMessageDeflate.Codec codec =
+                    websocket.protocolHandler.getPerMessageDeflate();
+            if (codec != null) {
+                key = codec.getParameters().isShareable()
+                        ? codec.getParameters()
+                        : null;
+            }
+        }
+
+        SharedFrame frame = key != null ? frames.get(key) : null;
+        if (frame == null) {
+            final byte[] rawData = text != null
+                    ? websocket.toRawData(text, last)
+                    : websocket.toRawData(binary, last);
+            frame = new SharedFrame(websocket.protocolHandler.getConnection()
+                    .getMemoryManager(), rawData, !fragment && key != null);
+            // the map holds one reference, released once all the recipients
+            // have been served
+            frames.put(key != null ? key : new Object(), frame);
+        }
+        return frame;
+    }
+
+    private void write(final DefaultWebSocket websocket,
+            final SharedFrame frame) {
+        final Connection connection = websocket.protocolHandler.getConnection();
+        if (connection == null || !isOpen(websocket)) {
+            frame.release();
+            return;
+        }
+
+        if (!connection.canWrite()) {
+            frame.release();
+            notifySlowConsumer(websocket, connection instanceof NIOConnection
+                    ? ((NIOConnection) connection).getAsyncWriteQueueSize()
+                    : -1);
+            if (!frame.isSkippable()) {
+                // the recipient would get a broken fragment sequence or
+                // couldn't inflate the following messages
+                websocket.close(WebSocket.POLICY_VIOLATION,
+                        "Broadcast frames can't be written fast enough");
+            }
+            return;
+        }
+
+        try {
+            websocket.sendRaw(frame.view(), new EmptyCompletionHandler<WriteResult>() {
+                @Override
+                public void completed(final WriteResult result) {
+                    frame.release();
                 }
-                
-                try {
-                    defaultWebSocket.sendRaw(rawDataToSend);
-                } catch (WebSocketException ignored) {
+
+                @Override
+                public void failed(final Throwable throwable) {
+                    frame.release();
+                    notifyDrop(websocket, throwable);
                 }
+            });
+        } catch (Exception e) {
+            frame.release();
+            notifyDrop(websocket, e);
+        }
+    }
+
+    /**
+     * A recipient, which is being closed, mustn't get any data frame after
+     * its close frame.
+     */
+    private static boolean isOpen(final DefaultWebSocket websocket) {
+        return websocket.state.get() == SimpleWebSocket.State.CONNECTED;
+    }
+
+    private void notifyDrop(final WebSocket websocket, final Throwable error) {
+        final BroadcasterProbe[] probes = monitoringConfig.getProbesUnsafe();
+        if (probes != null) {
+            for (BroadcasterProbe probe : probes) {
+                probe.onDropEvent(this, websocket, error);
+            }
+        }
+    }
+
+    private void notifySlowConsumer(final WebSocket websocket,
+            final int queuedBytes) {
+        final BroadcasterProbe[] probes = monitoringConfig.getProbesUnsafe();
+        if (probes != null) {
+            for (BroadcasterProbe probe : probes) {
+                probe.onSlowConsumerEvent(this, websocket, queuedBytes);
+            }
+        }
+    }
+
+
+    // ---------------------------------------------------------- Nested Classes
+
+
+    /**
+     * Reference counted frame shared by the recipients. Every recipient
+     * writes its own read-only view of the frame, the frame is disposed once
+     * the last reference is released.
+     */
+    private static final class SharedFrame {
+        private final Buffer buffer;
+        private final ByteBuffer readOnly;
+        private final boolean skippable;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        SharedFrame(final MemoryManager memoryManager, final byte[] rawData,
+                final boolean skippable) {
+            this.skippable = skippable;
+            if (memoryManager.willAllocateDirect(rawData.length)) {
+                // copy once, so the socket writes don't have to
+                buffer = memoryManager.allocate(rawData.length);
+                buffer.put(rawData);
+                buffer.flip();
+            } else {
+                buffer = Buffers.wrap(memoryManager, rawData);
+            }
+            // views may be created by several selector threads at once
+            readOnly = buffer.toByteBuffer().asReadOnlyBuffer();
+        }
+
+        /**
+         * @return <tt>true</tt> if the frame holds a whole message, which
+         *  doesn't affect the recipient's compression context.
+         */
+        boolean isSkippable() {
+            return skippable;
+        }
+
+        void retain() {
+            references.incrementAndGet();
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                buffer.tryDispose();
+            }
+        }
+
+        Buffer view() {
+            final Buffer view = new ByteBufferWrapper(readOnly.duplicate());
+            view.allowBufferDispose(false);
+            return view;
+        }
+    }
+
+    /**
+     * The recipients served by the same selector thread.
+     */
+    private final class SelectorBatch
+            extends EmptyCompletionHandler<SelectorHandler.Task>
+            implements SelectorHandler.Task {
+
+        private final List<DefaultWebSocket> websockets = new ArrayList<>();
+        private final List<SharedFrame> frames = new ArrayList<>();
+        private int written;
+
+        void add(final DefaultWebSocket websocket, final SharedFrame frame) {
+            websockets.add(websocket);
+            frames.add(frame);
+        }
+
+        @Override
+        public boolean run() throws Exception {
+            final int size = websockets.size();
+            while (written < size) {
+                final int i = written++;
+                write(websockets.get(i), frames.get(i));
+            }
+            return true;
+        }
+
+        @Override
+        public void failed(final Throwable throwable) {
+            // the selector is closed: drop the rest of the batch
+            final int size = websockets.size();
+            while (written < size) {
+                final int i = written++;
+                frames.get(i).release();
+                notifyDrop(websockets.get(i), throwable);
             }
         }
     }
@@ -0,0 +1,651 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.websockets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.glassfish.grizzly.compression.zip.ZipPool;
+
+/**
+ * Configuration of the <tt>permessage-deflate</tt> extension
+ * (<a href="https://tools.ietf.org/html/rfc7692">RFC 7692</a>).
+ *
+ * On the server side it's enabled per {@link WebSocketApplication} using
+ * {@link WebSocketApplication#setPerMessageDeflate(PerMessageDeflate)}, on the
+ * client side using {@link HandShake#setPerMessageDeflate(PerMessageDeflate)}.
+ *
+ * By default the server asks for <tt>server_no_context_takeover</tt>: every
+ * message is then compressed on its own, so the compression state doesn't
+ * have to be kept per connection and a {@link Deflater} is borrowed from the
+ * {@link ZipPool} only while a message is being compressed. It also lets
+ * {@link OptimizedBroadcaster} compress a broadcast message once for all the
+ * recipients, which negotiated the same {@link Parameters}.
+ *
+ * {@link Deflater} always uses a 32K LZ77 window, so offers limiting
+ * <tt>server_max_window_bits</tt> (client offers) or
+ * <tt>client_max_window_bits</tt> (server responses) to less than 15 are
+ * declined.
+ *
+ * The size of a decompressed message is limited by
+ * {@link #setMaxMessageSize(long)}, so a small compressed message can't make
+ * the endpoint inflate gigabytes of data. Messages over the limit close the
+ * connection with {@link WebSocket#MESSAGE_TOO_BIG} status code.
+ *
+ * @since 3.0
+ */
+public class PerMessageDeflate {
+
+    public static final String NAME = "permessage-deflate";
+
+    static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+    static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+    private static final int MAX_WINDOW_BITS = 15;
+    private static final byte[] TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+    /**
+     * The default maximum size of a decompressed message: 16 MiB.
+     */
+    public static final long DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int threshold = 64;
+    private boolean serverNoContextTakeover = true;
+    private boolean clientNoContextTakeover;
+    private long maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+    private ZipPool zipPool = ZipPool.getDefault();
+
+
+    // ---------------------------------------------------------- Public Methods
+
+
+    /**
+     * @return the {@link Deflater} compression level, {@link Deflater#DEFAULT_COMPRESSION}
+     *  by default.
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the {@link Deflater} compression level.
+     */
+    public PerMessageDeflate setCompressionLevel(final int compressionLevel) {
+        if ((compressionLevel < 0 || compressionLevel > 9)
+                && compressionLevel != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException(
+                    "Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    /**
+     * @return the payload size, in bytes, below which messages are sent
+     *  uncompressed, 64 by default.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the payload size, in bytes, below which messages are sent
+     * uncompressed.
+     */
+    public PerMessageDeflate setThreshold(final int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold < 0");
+        }
+        this.threshold = threshold;
+        return this;
+    }
+
+    /**
+     * @return <tt>true</tt> if the server has to compress every message
+     *  independently (<tt>true</tt> by default).
+     */
+    public boolean isServerNoContextTakeover() {
+        return serverNoContextTakeover;
+    }
+
+    public PerMessageDeflate setServerNoContextTakeover(final boolean serverNoContextTakeover) {
+        this.serverNoContextTakeover = serverNoContextTakeover;
+        return this;
+    }
+
+    /**
+     * @return <tt>true</tt> if the client has to compress every message
+     *  independently (<tt>false</tt> by default).
+     */
+    public boolean isClientNoContextTakeover() {
+        return clientNoContextTakeover;
+    }
+
+    public PerMessageDeflate setClientNoContextTakeover(final boolean clientNoContextTakeover) {
+        this.clientNoContextTakeover = clientNoContextTakeover;
+        return this;
+    }
+
+    /**
+     * @return the maximum size, in bytes, of a decompressed message,
+     *  {@link #DEFAULT_MAX_MESSAGE_SIZE} by default. Non-positive value means
+     *  no limit.
+     */
+    public long getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * Sets the maximum size, in bytes, of a decompressed message. If a received
+     * message inflates to a bigger size, the connection is closed with
+     * {@link WebSocket#MESSAGE_TOO_BIG} status code. Non-positive value means
+     * no limit.
+     */
+    public PerMessageDeflate setMaxMessageSize(final long maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+        return this;
+    }
+
+    /**
+     * @return the {@link ZipPool} the compression contexts are borrowed from.
+     */
+    public ZipPool getZipPool() {
+        return zipPool;
+    }
+
+    public PerMessageDeflate setZipPool(final ZipPool zipPool) {
+        if (zipPool == null) {
+            throw new IllegalArgumentException("zipPool can't be null");
+        }
+        this.zipPool = zipPool;
+        return this;
+    }
+
+    /**
+     * @return the extension offer a client sends to the server.
+     */
+    public Extension createOffer() {
+        final Extension offer = new Extension(NAME);
+        if (serverNoContextTakeover) {
+            offer.getParameters().add(
+                    new Extension.Parameter(SERVER_NO_CONTEXT_TAKEOVER, null));
+        }
+        if (clientNoContextTakeover) {
+            offer.getParameters().add(
+                    new Extension.Parameter(CLIENT_NO_CONTEXT_TAKEOVER, null));
+        }
+        return offer;
+    }
+
+    /**
+     * Server side negotiation: returns the response to the first acceptable
+     * <tt>permessage-deflate</tt> offer among the client's extensions, or
+     * <tt>null</tt> if there's none.
+     */
+    public Extension negotiate(final List<Extension> offers) {
+        for (Extension offer : offers) {
+            if (!NAME.equals(offer.getName())) {
+                continue;
+            }
+            final Extension response = respond(offer);
+            if (response != null) {
+                return response;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the {@link Parameters} agreed upon by the extension negotiation
+     *  response, which was sent (<tt>server</tt> is <tt>true</tt>) or
+     *  received by this endpoint.
+     *
+     * @throws HandshakeException if the response can't be honored.
+     */
+    public Parameters toParameters(final Extension response,
+                                   final boolean server) {
+        boolean serverNoContext = false;
+        boolean clientNoContext = clientNoContextTakeover && !server;
+        for (Extension.Parameter p : response.getParameters()) {
+            final String name = p.getName();
+            if (SERVER_NO_CONTEXT_TAKEOVER.equals(name)) {
+                serverNoContext = true;
+            } else if (CLIENT_NO_CONTEXT_TAKEOVER.equals(name)) {
+                clientNoContext = true;
+            } else if (SERVER_MAX_WINDOW_BITS.equals(name)) {
+                // any window fits into the one of the Inflater
+                if (windowBits(p.getValue()) < 0) {
+                    throw new HandshakeException(
+                            "Invalid " + NAME + " response: " + response);
+                }
+            } else if (CLIENT_MAX_WINDOW_BITS.equals(name)) {
+                if (windowBits(p.getValue()) != MAX_WINDOW_BITS) {
+                    throw new HandshakeException(
+                            "Unsupported " + NAME + " response: " + response);
+                }
+            } else {
+                throw new HandshakeException(
+                        "Invalid " + NAME + " response: " + response);
+            }
+        }
+
+        return server
+                ? new Parameters(serverNoContext, clientNoContext,
+                        compressionLevel, threshold)
+                : new Parameters(clientNoContext, serverNoContext,
+                        compressionLevel, threshold);
+    }
+
+
+    // ------------------------------------------------------- Protected Methods
+
+
+    /**
+     * @return the response to the given offer, or <tt>null</tt> if it's
+     *  declined.
+     */
+    protected Extension respond(final Extension offer) {
+        final List<String> seen = new ArrayList<>(4);
+        boolean serverNoContext = serverNoContextTakeover;
+        boolean clientNoContext = clientNoContextTakeover;
+        boolean serverMaxWindowBits = false;
+
+        for (Extension.Parameter p : offer.getParameters()) {
+            final String name = p.getName();
+            if (seen.contains(name)) {
+                return null;
+            }
+            seen.add(name);
+
+            if (SERVER_NO_CONTEXT_TAKEOVER.equals(name)) {
+                if (p.getValue() != null) {
+                    return null;
+                }
+                serverNoContext = true;
+            } else if (CLIENT_NO_CONTEXT_TAKEOVER.equals(name)) {
+                if (p.getValue() != null) {
+                    return null;
+                }
+                clientNoContext = true;
+            } else if (SERVER_MAX_WINDOW_BITS.equals(name)) {
+                if (windowBits(p.getValue()) != MAX_WINDOW_BITS) {
+                    return null;
+                }
+                serverMaxWindowBits = true;
+            } else if (CLIENT_MAX_WINDOW_BITS.equals(name)) {
+                // the value is optional, and the Inflater accepts any window,
+                // so the response doesn't have to limit it
+                if (p.getValue() != null && windowBits(p.getValue()) < 0) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+
+        final Extension response = new Extension(NAME);
+        final List<Extension.Parameter> parameters = response.getParameters();
+        if (serverNoContext) {
+            parameters.add(new Extension.Parameter(SERVER_NO_CONTEXT_TAKEOVER, null));
+        }
+        if (clientNoContext) {
+            parameters.add(new Extension.Parameter(CLIENT_NO_CONTEXT_TAKEOVER, null));
+        }
+        if (serverMaxWindowBits) {
+            parameters.add(new Extension.Parameter(SERVER_MAX_WINDOW_BITS,
+                    String.valueOf(MAX_WINDOW_BITS)));
+        }
+        return response;
+    }
+
+    /**
+     * Creates the per connection compression context for the given
+     * {@link Parameters}.
+     */
+    protected Codec createCodec(final Parameters parameters) {
+        return new Codec(parameters, zipPool, maxMessageSize);
+    }
+
+
+    // --------------------------------------------------------- Private Methods
+
+
+    private static int windowBits(final String value) {
+        if (value == null) {
+            return -1;
+        }
+        String v = value;
+        if (v.length() > 1 && v.startsWith("\"") && v.endsWith("\"")) {
+            v = v.substring(1, v.length() - 1);
+        }
+        try {
+            final int bits = Integer.parseInt(v);
+            return bits >= 8 && bits <= MAX_WINDOW_BITS ? bits : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    // ---------------------------------------------------------- Nested Classes
+
+
+    /**
+     * The <tt>permessage-deflate</tt> parameters agreed upon for a
+     * connection, from the point of view of the local endpoint.
+     * Connections with equal and {@link #isShareable() shareable} parameters
+     * produce the same compressed frames for the same message.
+     */
+    public static final class Parameters {
+        private final boolean outboundNoContextTakeover;
+        private final boolean inboundNoContextTakeover;
+        private final int compressionLevel;
+        private final int threshold;
+
+        Parameters(final boolean outboundNoContextTakeover,
+                   final boolean inboundNoContextTakeover,
+                   final int compressionLevel, final int threshold) {
+            this.outboundNoContextTakeover = outboundNoContextTakeover;
+            this.inboundNoContextTakeover = inboundNoContextTakeover;
+            this.compressionLevel = compressionLevel;
+            this.threshold = threshold;
+        }
+
+        /**
+         * @return <tt>true</tt> if the messages sent are compressed
+         *  independently of each other.
+         */
+        public boolean isOutboundNoContextTakeover() {
+            return outboundNoContextTakeover;
+        }
+
+        /**
+         * @return <tt>true</tt> if the messages received are compressed
+         *  independently of each other.
+         */
+        public boolean isInboundNoContextTakeover() {
+            return inboundNoContextTakeover;
+        }
+
+        public int getCompressionLevel() {
+            return compressionLevel;
+        }
+
+        public int getThreshold() {
+            return threshold;
+        }
+
+        /**
+         * @return <tt>true</tt> if the outbound compressed frames don't
+         *  depend on the previous messages sent over the connection, so they
+         *  may be reused for other connections with equal parameters.
+         */
+        public boolean isShareable() {
+            return outboundNoContextTakeover;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            final Parameters that = (Parameters) o;
+            return outboundNoContextTakeover == that.outboundNoContextTakeover
+                    && inboundNoContextTakeover == that.inboundNoContextTakeover
+                    && compressionLevel == that.compressionLevel
+                    && threshold == that.threshold;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = outboundNoContextTakeover ? 1 : 0;
+            result = 31 * result + (inboundNoContextTakeover ? 1 : 0);
+            result = 31 * result + compressionLevel;
+            result = 31 * result + threshold;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Parameters{outboundNoContextTakeover=" + outboundNoContextTakeover
+                    + ", inboundNoContextTakeover=" + inboundNoContextTakeover
+                    + ", compressionLevel=" + compressionLevel
+                    + ", threshold=" + threshold + '}';
+        }
+    }
+
+    /**
+     * Per connection compression context. {@link Deflater}s and
+     * {@link Inflater}s are borrowed from the {@link ZipPool}, and kept
+     * between messages only when the context is taken over.
+     */
+    public static class Codec {
+        private final Parameters parameters;
+        private final ZipPool zipPool;
+        private final long maxMessageSize;
+
+        private Deflater deflater;
+        private Inflater inflater;
+        private boolean released;
+
+        // the decompressed size of the preceding fragments of the message
+        private long messageSize;
+
+        protected Codec(final Parameters parameters, final ZipPool zipPool,
+                        final long maxMessageSize) {
+            this.parameters = parameters;
+            this.zipPool = zipPool;
+            this.maxMessageSize = maxMessageSize;
+        }
+
+        public Parameters getParameters() {
+            return parameters;
+        }
+
+        /**
+         * Compresses a whole message.
+         *
+         * @return the compressed payload, or <tt>null</tt> if the message has
+         *  to be sent uncompressed.
+         */
+        public synchronized byte[] compress(final byte[] payload) {
+            if (released || payload.length < parameters.threshold) {
+                return null;
+            }
+
+            final boolean noContextTakeover = parameters.outboundNoContextTakeover;
+            final Deflater d = deflater != null
+                    ? deflater
+                    : zipPool.acquireDeflater(parameters.compressionLevel,
+                            Deflater.DEFAULT_STRATEGY);
+            try {
+                d.setInput(payload);
+                byte[] out = new byte[payload.length / 2 + 64];
+                int length = 0;
+                for (;;) {
+                    length += d.deflate(out, length, out.length - length,
+                            Deflater.SYNC_FLUSH);
+                    if (length < out.length) {
+                        break;
+                    }
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                // the sync flush always ends with an empty stored block
+                length -= TAIL.length;
+
+                // without context takeover there's no state to keep in sync
+                // with the peer, so incompressible messages can go as they are
+                if (noContextTakeover && length >= payload.length) {
+                    return null;
+                }
+                return Arrays.copyOf(out, length);
+            } finally {
+                if (noContextTakeover) {
+                    zipPool.releaseDeflater(d);
+                } else {
+                    deflater = d;
+                }
+            }
+        }
+
+        /**
+         * Decompresses a compressed message fragment.
+         *
+         * @param fin <tt>true</tt> if this is the last fragment of the message.
+         *
+         * @throws MessageTooBigError if the decompressed message exceeds
+         *  the maximum message size.
+         */
+        public synchronized byte[] decompress(final byte[] data,
+                                              final boolean fin) {
+            if (released) {
+                throw new ProtocolError(NAME + " context has been released");
+            }
+            if (inflater == null) {
+                inflater = zipPool.acquireInflater();
+            }
+
+            try {
+                byte[] out = new byte[(int) capacity(
+                        Math.max(64, data.length * 3L))];
+                int length = inflate(inflater, data, out, 0);
+                while (length < 0) {
+                    out = grow(out);
+                    length = inflate(inflater, null, out, ~length);
+                }
+                if (fin) {
+                    length = inflate(inflater, TAIL, out, length);
+                    while (length < 0) {
+                        out = grow(out);
+                        length = inflate(inflater, null, out, ~length);
+                    }
+                    messageSize = 0;
+                    if (parameters.inboundNoContextTakeover) {
+                        zipPool.releaseInflater(inflater);
+                        inflater = null;
+                    } else if (inflater.finished()) {
+                        // the final deflate block ends the context
+                        inflater.reset();
+                    }
+                } else {
+                    messageSize += length;
+                }
+                return length == out.length ? out : Arrays.copyOf(out, length);
+            } catch (DataFormatException e) {
+                discardInflater();
+                throw new ProtocolError("Invalid compressed data", e);
+            } catch (MessageTooBigError e) {
+                discardInflater();
+                throw e;
+            }
+        }
+
+        /**
+         * Releases the compression context, after which messages are sent
+         * uncompressed.
+         */
+        public synchronized void release() {
+            released = true;
+            if (deflater != null) {
+                zipPool.releaseDeflater(deflater);
+                deflater = null;
+            }
+            if (inflater != null) {
+                zipPool.releaseInflater(inflater);
+                inflater = null;
+            }
+        }
+
+        private void discardInflater() {
+            zipPool.releaseInflater(inflater);
+            inflater = null;
+            messageSize = 0;
+        }
+
+        /**
+         * @return the given output capacity limited, so that the output
+         *  exceeds the maximum message size by one byte at most, which is
+         *  enough to detect the overflow.
+         */
+        private long capacity(final long capacity) {
+            final long max = maxMessageSize > 0
+                    ? maxMessageSize - messageSize + 1
+                    : Integer.MAX_VALUE - 8;
+            return Math.min(capacity, max);
+        }
+
+        private byte[] grow(final byte[] out) {
+            final long newCapacity = capacity(out.length * 2L);
+            if (newCapacity <= out.length) {
+                throw new MessageTooBigError(
+                        "Decompressed message is too big");
+            }
+            return Arrays.copyOf(out, (int) newCapacity);
+        }
+
+        // returns the new length, or its complement if 'out' is full
+        private static int inflate(final Inflater inflater, final byte[] input,
+                                   final byte[] out, int length)
+                throws DataFormatException {
+            if (input != null) {
+                inflater.setInput(input);
+            }
+            for (;;) {
+                if (length == out.length) {
+                    return ~length;
+                }
+                final int n = inflater.inflate(out, length, out.length - length);
+                length += n;
+                if (n == 0 && (inflater.needsInput() || inflater.finished()
+                        || inflater.needsDictionary())) {
+                    return length;
+                }
+            }
+        }
+    }
+}
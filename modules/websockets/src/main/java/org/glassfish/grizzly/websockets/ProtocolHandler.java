@@ -74,6 +74,8 @@ public abstract class ProtocolHandler {
     protected CharsetDecoder currentDecoder = utf8.newDecoder();
     protected ByteBuffer remainder;
     protected WebSocketMappingData mappingData;
+    protected volatile PerMessageDeflate.Codec perMessageDeflate;
+    protected boolean inCompressed;
     
     public ProtocolHandler(boolean maskData) {
         this.maskData = maskData;
@@ -90,6 +92,7 @@ public abstract class ProtocolHandler {
                 ((HttpRequestPacket) request.getHttpHeader()).getResponse();
         
         handshake.respond(ctx, app, response);
+        setPerMessageDeflate(handshake.createPerMessageDeflateCodec());
         return handshake;
     }
 
@@ -138,6 +141,36 @@ public abstract class ProtocolHandler {
         return maskData;
     }
 
+    /**
+     * @return the <tt>permessage-deflate</tt> compression context of this
+     *  connection, or <tt>null</tt> if the extension hasn't been negotiated.
+     *
+     * @since 3.0
+     */
+    public PerMessageDeflate.Codec getPerMessageDeflate() {
+        return perMessageDeflate;
+    }
+
+    /**
+     * Sets the <tt>permessage-deflate</tt> compression context of this
+     * connection, releasing the previous one.
+     *
+     * If the context is taken over between the messages sent (no
+     * <tt>server_no_context_takeover</tt> for the server, no
+     * <tt>client_no_context_takeover</tt> for the client), the frames have to
+     * be written in the order they're produced by {@link #frame(DataFrame)},
+     * so the messages must not be sent concurrently.
+     *
+     * @since 3.0
+     */
+    public void setPerMessageDeflate(final PerMessageDeflate.Codec perMessageDeflate) {
+        final PerMessageDeflate.Codec old = this.perMessageDeflate;
+        this.perMessageDeflate = perMessageDeflate;
+        if (old != null && old != perMessageDeflate) {
+            old.release();
+        }
+    }
+
     public abstract byte[] frame(DataFrame frame);
 /*
     public void readFrame() {
@@ -294,6 +327,11 @@ public abstract class ProtocolHandler {
     protected abstract boolean isControlFrame(byte opcode);
 
     protected byte checkForLastFrame(DataFrame frame, byte opcode) {
+        if (isControlFrame(opcode)) {
+            // control frames may be injected in the middle of a fragmented
+            // message and don't affect its state
+            return (byte) (opcode | 0x80);
+        }
         byte local = opcode;
         if (!frame.isLast()) {
             validate(outFragmentedType, local);
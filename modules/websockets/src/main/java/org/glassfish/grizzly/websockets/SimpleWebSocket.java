@@ -40,9 +40,11 @@
 package org.glassfish.grizzly.websockets;
 
 import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.CompletionHandler;
 import org.glassfish.grizzly.Connection;
 import org.glassfish.grizzly.Grizzly;
 import org.glassfish.grizzly.GrizzlyFuture;
+import org.glassfish.grizzly.WriteResult;
 import org.glassfish.grizzly.memory.Buffers;
 import org.glassfish.grizzly.memory.MemoryManager;
 import org.glassfish.grizzly.websockets.frametypes.PingFrameType;
@@ -325,6 +327,22 @@ public class SimpleWebSocket implements WebSocket {
         connection.write(buffer);
     }
 
+    /**
+     * Writes an already framed message.
+     *
+     * @param rawData the frame bytes.
+     * @param completionHandler notified once the frame is written or the write
+     *  fails.
+     *
+     * @since 3.0
+     */
+    @SuppressWarnings("unchecked")
+    protected void sendRaw(final Buffer rawData,
+            final CompletionHandler<WriteResult> completionHandler) {
+        final Connection connection = protocolHandler.getConnection();
+        connection.write(rawData, completionHandler);
+    }
+
     protected Broadcaster getBroadcaster() {
         return broadcaster;
     }
@@ -64,6 +64,8 @@ public abstract class WebSocketApplication extends WebSocketAdapter {
 
     private final List<Extension> supportedExtensions = new ArrayList<>(2);
     private final List<String> supportedProtocols = new ArrayList<>(2);
+
+    private volatile PerMessageDeflate perMessageDeflate;
     
     // ---------------------------------------------------------- Public Methods
 
@@ -156,6 +158,32 @@ public abstract class WebSocketApplication extends WebSocketAdapter {
         return supportedExtensions;
     }
 
+    /**
+     * @return the <tt>permessage-deflate</tt> configuration, or <tt>null</tt>
+     *  if the extension isn't supported by this application.
+     *
+     * @since 3.0
+     */
+    public PerMessageDeflate getPerMessageDeflate() {
+        return perMessageDeflate;
+    }
+
+    /**
+     * Enables the <tt>permessage-deflate</tt> extension for this application.
+     * The extension is negotiated and applied by the framework, so it doesn't
+     * have to be added to {@link #getSupportedExtensions()}; the response to
+     * the client's offer is passed to {@link #onExtensionNegotiation(List)},
+     * which may remove it to decline the compression.
+     *
+     * @param perMessageDeflate the extension configuration, or <tt>null</tt>
+     *  to disable it.
+     *
+     * @since 3.0
+     */
+    public void setPerMessageDeflate(final PerMessageDeflate perMessageDeflate) {
+        this.perMessageDeflate = perMessageDeflate;
+    }
+
     /**
      *
      *
@@ -51,6 +51,7 @@ import org.glassfish.grizzly.http.util.MimeHeaders;
 import org.glassfish.grizzly.websockets.Constants;
 import org.glassfish.grizzly.websockets.HandShake;
 import org.glassfish.grizzly.websockets.HandshakeException;
+import org.glassfish.grizzly.websockets.PerMessageDeflate;
 import org.glassfish.grizzly.websockets.SecKey;
 
 import static org.glassfish.grizzly.websockets.Constants.*;
@@ -58,7 +59,6 @@ import static org.glassfish.grizzly.websockets.Constants.*;
 public class RFC6455HandShake extends HandShake {
 
     private final SecKey secKey;
-    private final List<String> enabledExtensions = Collections.emptyList();
     private final List<String> enabledProtocols = Collections.emptyList();
 
     // ------------------------------------------------------------ Constructors
@@ -91,10 +91,6 @@ public class RFC6455HandShake extends HandShake {
     public void setHeaders(HttpResponsePacket response) {
         response.setReasonPhrase(Constants.RESPONSE_CODE_MESSAGE);
         response.setHeader(Constants.SEC_WS_ACCEPT, secKey.getSecKey());
-        if (!getEnabledExtensions().isEmpty()) {
-            response.setHeader(Constants.SEC_WS_EXTENSIONS_HEADER,
-                               join(getSubProtocol()));
-        }
     }
 
     @Override
@@ -124,7 +120,9 @@ public class RFC6455HandShake extends HandShake {
     }
 
     public List<String> getEnabledExtensions() {
-        return enabledExtensions;
+        return getPerMessageDeflateParameters() != null
+                ? Collections.singletonList(PerMessageDeflate.NAME)
+                : Collections.<String>emptyList();
     }
 
     public List<String> getEnabledProtocols() {
@@ -48,6 +48,7 @@ import org.glassfish.grizzly.websockets.DataFrame;
 import org.glassfish.grizzly.websockets.FrameType;
 import org.glassfish.grizzly.websockets.HandShake;
 import org.glassfish.grizzly.websockets.Masker;
+import org.glassfish.grizzly.websockets.PerMessageDeflate;
 import org.glassfish.grizzly.websockets.ProtocolError;
 import org.glassfish.grizzly.websockets.ProtocolHandler;
 import org.glassfish.grizzly.websockets.frametypes.BinaryFrameType;
@@ -88,8 +89,18 @@ public class RFC6455Handler extends ProtocolHandler {
 
     @Override
     public byte[] frame(DataFrame frame) {
+        // only whole messages are compressed
+        final boolean wholeMessage = frame.isLast() && outFragmentedType == 0;
         byte opcode = checkForLastFrame(frame, getOpcode(frame.getType()));
-        final byte[] bytes = frame.getType().getBytes(frame);
+        byte[] bytes = frame.getType().getBytes(frame);
+        final PerMessageDeflate.Codec codec = perMessageDeflate;
+        if (codec != null && wholeMessage && !isControlFrame(opcode)) {
+            final byte[] compressed = codec.compress(bytes);
+            if (compressed != null) {
+                bytes = compressed;
+                opcode |= 0x40;
+            }
+        }
         final byte[] lengthBytes = encodeLength(bytes.length);
 
         int length = 1 + lengthBytes.length + bytes.length + (maskData
@@ -126,15 +137,24 @@ public class RFC6455Handler extends ProtocolHandler {
                     }
 
                     byte opcode = buffer.get();
-                    boolean rsvBitSet = isBitSet(opcode, 6)
-                            || isBitSet(opcode, 5)
+                    boolean rsvBitSet = isBitSet(opcode, 5)
                             || isBitSet(opcode, 4);
+                    state.finalFragment = isBitSet(opcode, 7);
+                    state.controlFrame = isControlFrame(opcode);
+                    state.opcode = (byte) (opcode & 0x0f);
+                    if (isBitSet(opcode, 6)) {
+                        // RSV1 marks the first frame of a compressed message
+                        rsvBitSet |= perMessageDeflate == null
+                                || state.controlFrame
+                                || isContinuationFrame(state.opcode);
+                    }
                     if (rsvBitSet) {
                         throw new ProtocolError("RSV bit(s) incorrectly set.");
                     }
-                    state.finalFragment = isBitSet(opcode, 7);
-                    state.controlFrame = isControlFrame(opcode);
-                    state.opcode = (byte) (opcode & 0x7f);
+                    if (!state.controlFrame
+                            && !isContinuationFrame(state.opcode)) {
+                        inCompressed = isBitSet(opcode, 6);
+                    }
                     state.frameType = valueOf(inFragmentedType, state.opcode);
                     if (!state.finalFragment && state.controlFrame) {
                         throw new ProtocolError("Fragmented control frame");
@@ -207,13 +227,22 @@ public class RFC6455Handler extends ProtocolHandler {
                     }
 
                     state.masker.setBuffer(buffer);
-                    final byte[] data = state.masker.unmask((int) state.length);
+                    byte[] data = state.masker.unmask((int) state.length);
                     if (data.length != state.length) {
                         throw new ProtocolError(String.format(
                                 "Data read (%s) is not the expected" +
                                         " size (%s)", data.length,
                                 state.length));
                     }
+                    if (!state.controlFrame && inCompressed) {
+                        final PerMessageDeflate.Codec codec = perMessageDeflate;
+                        if (codec == null) {
+                            throw new ProtocolError(
+                                    "Compressed frame received, but " +
+                                            PerMessageDeflate.NAME + " isn't enabled");
+                        }
+                        data = codec.decompress(data, state.finalFragment);
+                    }
                     dataFrame =
                             state.frameType.create(state.finalFragment, data);
 
@@ -225,6 +254,7 @@ public class RFC6455Handler extends ProtocolHandler {
                     if (!state.controlFrame && state.finalFragment) {
                         inFragmentedType = 0;
                         processingFragment = false;
+                        inCompressed = false;
                     }
                     state.recycle();
 
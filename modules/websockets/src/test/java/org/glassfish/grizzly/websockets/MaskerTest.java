@@ -0,0 +1,159 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.websockets;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.ByteBufferManager;
+import org.glassfish.grizzly.memory.CompositeBuffer;
+import org.glassfish.grizzly.memory.HeapMemoryManager;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MaskerTest {
+
+    private final Random random = new Random(6455);
+
+
+    // ----------------------------------------------------------- Test Methods
+
+
+    @Test
+    public void maskArray() {
+        for (int length = 0; length < 40; length++) {
+            final byte[] payload = randomBytes(length);
+            final Masker masker = new Masker();
+            final byte[] target = new byte[length + 3];
+            masker.mask(target, 3, payload);
+            assertArrayEquals(xor(payload, masker.getMask(), 0),
+                    Arrays.copyOfRange(target, 3, target.length));
+        }
+    }
+
+    @Test
+    public void maskInPlace() {
+        final MemoryManager[] managers = {
+                new HeapMemoryManager(), new ByteBufferManager(true)};
+        for (MemoryManager mm : managers) {
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN,
+                    ByteOrder.LITTLE_ENDIAN}) {
+                for (int length = 0; length < 40; length++) {
+                    final byte[] payload = randomBytes(length + 5);
+                    final Buffer buffer = mm.allocate(payload.length);
+                    buffer.put(payload);
+                    buffer.flip();
+                    buffer.order(order);
+                    buffer.position(2);
+                    assertEquals(mm instanceof ByteBufferManager, buffer.isDirect());
+                    final Masker masker = new Masker();
+                    masker.mask(buffer, 5, 5 + length);
+                    assertEquals(2, buffer.position());
+
+                    final byte[] expected = payload.clone();
+                    System.arraycopy(xor(Arrays.copyOfRange(payload, 5, 5 + length),
+                            masker.getMask(), 0), 0, expected, 5, length);
+                    assertArrayEquals(expected, toArray(buffer));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void maskCompositeAndResume() {
+        final MemoryManager mm = new HeapMemoryManager();
+        final byte[] payload = randomBytes(100);
+        final CompositeBuffer composite = CompositeBuffer.newBuffer(mm);
+        composite.append(Buffers.wrap(mm, Arrays.copyOfRange(payload, 0, 13)));
+        composite.append(Buffers.wrap(mm, Arrays.copyOfRange(payload, 13, 50)));
+        composite.append(Buffers.wrap(mm, Arrays.copyOfRange(payload, 50, 100)));
+
+        final Masker masker = new Masker();
+        // the mask index carries over from one call to the next
+        masker.mask(composite, 0, 7);
+        masker.mask(composite, 7, 100);
+        assertArrayEquals(xor(payload, masker.getMask(), 0), toArray(composite));
+    }
+
+    @Test
+    public void unmask() {
+        final byte[] payload = randomBytes(1000);
+        final byte[] frame = new Masker().maskAndPrepend(payload);
+        final Masker unmasker = new Masker(
+                Buffers.wrap(new HeapMemoryManager(), frame));
+        unmasker.readMask();
+        assertEquals(payload[0], unmasker.unmask());
+        assertArrayEquals(Arrays.copyOfRange(payload, 1, 1000),
+                unmasker.unmask(999));
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] xor(final byte[] bytes, final byte[] mask,
+            final int index) {
+        final byte[] result = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i] = (byte) (bytes[i] ^ mask[(index + i) % 4]);
+        }
+        return result;
+    }
+
+    private static byte[] toArray(final Buffer buffer) {
+        final byte[] bytes = new byte[buffer.limit()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(i);
+        }
+        return bytes;
+    }
+}
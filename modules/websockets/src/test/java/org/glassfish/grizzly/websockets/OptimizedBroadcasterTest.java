@@ -0,0 +1,417 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.websockets;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.filterchain.BaseFilter;
+import org.glassfish.grizzly.filterchain.FilterChainBuilder;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
+import org.glassfish.grizzly.filterchain.NextAction;
+import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.ByteBufferManager;
+import org.glassfish.grizzly.memory.ByteBufferWrapper;
+import org.glassfish.grizzly.nio.NIOConnection;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+import org.glassfish.grizzly.websockets.rfc6455.RFC6455Handler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link OptimizedBroadcaster} tests, which need control over the
+ * recipients' write queues. The recipients are plain sockets, so the
+ * server side {@link WebSocket}s are built directly on the accepted
+ * {@link Connection}s.
+ */
+public class OptimizedBroadcasterTest {
+    private static final int PORT = BaseWebSocketTestUtilities.PORT;
+    private static final int MESSAGE_SIZE = 64 * 1024;
+    // 10 bytes of the header per frame
+    private static final int FRAME_SIZE = MESSAGE_SIZE + 10;
+    private static final int MAX_ATTEMPTS = 1000;
+
+    private final BlockingQueue<Connection> accepted =
+            new LinkedBlockingQueue<Connection>();
+    private final List<Socket> clients = new ArrayList<Socket>();
+    private final List<WebSocket> slowConsumers =
+            new CopyOnWriteArrayList<WebSocket>();
+    private final List<WebSocket> drops = new CopyOnWriteArrayList<WebSocket>();
+    private final TrackingMemoryManager memoryManager = new TrackingMemoryManager();
+    private final Random random = new Random(7);
+    private TCPNIOTransport transport;
+
+    @Before
+    public void before() throws IOException {
+        transport = TCPNIOTransportBuilder.newInstance().build();
+        transport.setMemoryManager(memoryManager);
+        transport.setFilterChain(FilterChainBuilder.newInstance()
+                .add(new TransportFilter())
+                .add(new BaseFilter() {
+                    @Override
+                    public NextAction handleAccept(final FilterChainContext ctx)
+                            throws IOException {
+                        accepted.add(ctx.getConnection());
+                        return ctx.getInvokeAction();
+                    }
+
+                    @Override
+                    public NextAction handleWrite(final FilterChainContext ctx)
+                            throws IOException {
+                        // close frames
+                        if (DataFrame.isDataFrame(ctx.getMessage())) {
+                            final WebSocketHolder holder =
+                                    WebSocketHolder.get(ctx.getConnection());
+                            ctx.setMessage(Buffers.wrap(ctx.getMemoryManager(),
+                                    holder.handler.frame((DataFrame) ctx.getMessage())));
+                        }
+                        return ctx.getInvokeAction();
+                    }
+                })
+                .build());
+        transport.bind(PORT);
+        transport.start();
+    }
+
+    @After
+    public void after() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+        }
+        transport.shutdownNow();
+    }
+
+    @Test
+    public void slowConsumerSkipsWholeMessages() throws Exception {
+        final OptimizedBroadcaster broadcaster = newBroadcaster(false);
+        final DefaultWebSocket websocket = connect(false);
+        final List<DefaultWebSocket> recipients = Collections.singletonList(websocket);
+
+        for (int i = 0; i < MAX_ATTEMPTS && slowConsumers.isEmpty(); i++) {
+            broadcaster.broadcast(recipients, message());
+        }
+
+        assertEquals(Collections.singletonList(websocket), slowConsumers);
+        assertTrue(drops.isEmpty());
+        // the recipient doesn't miss a part of a message, so it's kept
+        assertTrue(websocket.isConnected());
+    }
+
+    @Test
+    public void slowConsumerIsClosedOnFragment() throws Exception {
+        final OptimizedBroadcaster broadcaster = newBroadcaster(false);
+        final DefaultWebSocket websocket = connect(false);
+        final List<DefaultWebSocket> recipients = Collections.singletonList(websocket);
+
+        for (int i = 0; i < MAX_ATTEMPTS && slowConsumers.isEmpty(); i++) {
+            broadcaster.broadcastFragment(recipients, message(), false);
+        }
+
+        assertClosedForPolicyViolation(broadcaster, websocket);
+    }
+
+    @Test
+    public void slowConsumerIsClosedWithContextTakeover() throws Exception {
+        final OptimizedBroadcaster broadcaster = newBroadcaster(false);
+        final DefaultWebSocket websocket = connect(true);
+        assertFalse(websocket.protocolHandler.getPerMessageDeflate()
+                .getParameters().isShareable());
+        final List<DefaultWebSocket> recipients = Collections.singletonList(websocket);
+
+        for (int i = 0; i < MAX_ATTEMPTS && slowConsumers.isEmpty(); i++) {
+            broadcaster.broadcast(recipients, message());
+        }
+
+        assertClosedForPolicyViolation(broadcaster, websocket);
+    }
+
+    @Test
+    public void dropIsReported() throws Exception {
+        final OptimizedBroadcaster broadcaster = newBroadcaster(false);
+        final DefaultWebSocket websocket = connect(false);
+        // the websocket isn't notified, so the write fails
+        websocket.protocolHandler.getConnection().close().get(10, TimeUnit.SECONDS);
+
+        broadcaster.broadcast(Collections.singletonList(websocket), "dropped");
+
+        assertEquals(Collections.singletonList(websocket), drops);
+    }
+
+    @Test
+    public void sharedFrameIsDisposedOnce() throws Exception {
+        for (boolean dispatchToSelectors : new boolean[] {false, true}) {
+            final OptimizedBroadcaster broadcaster =
+                    newBroadcaster(dispatchToSelectors);
+            final List<DefaultWebSocket> recipients = new ArrayList<DefaultWebSocket>();
+            final List<Reader> readers = new ArrayList<Reader>();
+            for (int i = 0; i < 3; i++) {
+                recipients.add(connect(false));
+                final Reader reader = new Reader(clients.get(clients.size() - 1));
+                reader.start();
+                readers.add(reader);
+            }
+
+            final int messages = 10;
+            memoryManager.frames.clear();
+            for (int i = 0; i < messages; i++) {
+                broadcaster.broadcast(recipients, message());
+            }
+
+            final long expected = (long) messages * FRAME_SIZE;
+            for (Reader reader : readers) {
+                reader.await(expected);
+            }
+
+            assertEquals(messages, memoryManager.frames.size());
+            for (TrackedBuffer frame : memoryManager.frames) {
+                // the last completion handler might still be running
+                final long deadline = System.currentTimeMillis() + 10000;
+                while (frame.disposed.get() == 0
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals(1, frame.disposed.get());
+            }
+            assertTrue(slowConsumers.isEmpty());
+            assertTrue(drops.isEmpty());
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private void assertClosedForPolicyViolation(
+            final OptimizedBroadcaster broadcaster,
+            final DefaultWebSocket websocket) throws IOException {
+        assertEquals(Collections.singletonList(websocket), slowConsumers);
+
+        // the websocket is being closed, nothing is sent after the close frame
+        broadcaster.broadcast(Collections.singletonList(websocket), "skipped");
+        assertEquals(1, slowConsumers.size());
+        assertEquals(WebSocket.POLICY_VIOLATION,
+                readCloseCode(clients.get(clients.size() - 1)));
+    }
+
+    /**
+     * Skips the data frames sent to the client and returns the status code
+     * of the close frame.
+     */
+    private static int readCloseCode(final Socket client) throws IOException {
+        client.setSoTimeout(10000);
+        final DataInputStream in = new DataInputStream(client.getInputStream());
+        final byte[] payload = new byte[8192];
+        while (true) {
+            final int opcode = in.readUnsignedByte() & 0x0f;
+            long length = in.readUnsignedByte() & 0x7f;
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            } else if (length == 127) {
+                length = in.readLong();
+            }
+
+            if (opcode == 0x08) {
+                return in.readUnsignedShort();
+            }
+
+            while (length > 0) {
+                final int chunk = (int) Math.min(length, payload.length);
+                in.readFully(payload, 0, chunk);
+                length -= chunk;
+            }
+        }
+    }
+
+    private OptimizedBroadcaster newBroadcaster(final boolean dispatchToSelectors) {
+        final OptimizedBroadcaster broadcaster =
+                new OptimizedBroadcaster(dispatchToSelectors);
+        broadcaster.getMonitoringConfig().addProbes(new BroadcasterProbe.Adapter() {
+            @Override
+            public void onDropEvent(final Broadcaster broadcaster,
+                    final WebSocket recipient, final Throwable error) {
+                drops.add(recipient);
+            }
+
+            @Override
+            public void onSlowConsumerEvent(final Broadcaster broadcaster,
+                    final WebSocket recipient, final int queuedBytes) {
+                assertTrue(queuedBytes > 0);
+                slowConsumers.add(recipient);
+            }
+        });
+        return broadcaster;
+    }
+
+    /**
+     * Connects a client, which doesn't read until asked to, and returns the
+     * server side {@link WebSocket} of the connection.
+     */
+    private DefaultWebSocket connect(final boolean contextTakeover)
+            throws Exception {
+        final Socket client = new Socket();
+        client.setReceiveBufferSize(4096);
+        client.connect(new InetSocketAddress("localhost", PORT));
+        clients.add(client);
+
+        final Connection connection = accepted.poll(10, TimeUnit.SECONDS);
+        assertNotNull(connection);
+        ((NIOConnection) connection).setMaxAsyncWriteQueueSize(MESSAGE_SIZE);
+
+        final RFC6455Handler handler = new RFC6455Handler(false);
+        handler.setConnection(connection);
+        if (contextTakeover) {
+            handler.setPerMessageDeflate(new PerMessageDeflate().createCodec(
+                    new PerMessageDeflate.Parameters(false, false, -1, 0)));
+        }
+        final DefaultWebSocket websocket = new DefaultWebSocket(handler, null);
+        handler.setWebSocket(websocket);
+        WebSocketHolder.set(connection, handler, websocket);
+        websocket.onConnect();
+        return websocket;
+    }
+
+    /**
+     * @return a text message, which doesn't compress well.
+     */
+    private String message() {
+        final char[] chars = new char[MESSAGE_SIZE];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+
+    // ---------------------------------------------------------- Nested Classes
+
+
+    private static final class Reader extends Thread {
+        private final Socket socket;
+        private final AtomicLong read = new AtomicLong();
+
+        Reader(final Socket socket) {
+            this.socket = socket;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final byte[] buffer = new byte[8192];
+            try {
+                final InputStream in = socket.getInputStream();
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    read.addAndGet(n);
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        void await(final long bytes) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (read.get() < bytes && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(bytes, read.get());
+        }
+    }
+
+    /**
+     * Direct {@link ByteBufferManager}, which remembers the buffers
+     * allocated for the broadcast frames.
+     */
+    private static final class TrackingMemoryManager extends ByteBufferManager {
+        private final List<TrackedBuffer> frames =
+                new CopyOnWriteArrayList<TrackedBuffer>();
+
+        TrackingMemoryManager() {
+            super(true);
+        }
+
+        @Override
+        public ByteBufferWrapper allocate(final int size) {
+            if (size != FRAME_SIZE) {
+                return super.allocate(size);
+            }
+            final TrackedBuffer buffer =
+                    new TrackedBuffer(ByteBuffer.allocateDirect(size));
+            frames.add(buffer);
+            return buffer;
+        }
+    }
+
+    private static final class TrackedBuffer extends ByteBufferWrapper {
+        private final AtomicInteger disposed = new AtomicInteger();
+
+        TrackedBuffer(final ByteBuffer underlying) {
+            super(underlying);
+            allowBufferDispose(true);
+        }
+
+        @Override
+        public void dispose() {
+            disposed.incrementAndGet();
+            super.dispose();
+        }
+    }
+}
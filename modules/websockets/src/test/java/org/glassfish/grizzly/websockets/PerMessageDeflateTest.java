@@ -0,0 +1,275 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.grizzly.websockets;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.HeapMemoryManager;
+import org.glassfish.grizzly.websockets.rfc6455.RFC6455Handler;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PerMessageDeflateTest {
+
+    // RFC 7692, section 7.2.3.1
+    private static final byte[] HELLO_COMPRESSED = {
+            (byte) 0xf2, 0x48, (byte) 0xcd, (byte) 0xc9, (byte) 0xc9, 0x07, 0x00};
+
+    private final Random random = new Random(7692);
+
+
+    // ----------------------------------------------------------- Test Methods
+
+
+    @Test
+    public void negotiation() {
+        final PerMessageDeflate deflate = new PerMessageDeflate();
+
+        Extension response = deflate.negotiate(offers("permessage-deflate"));
+        assertEquals("permessage-deflate; server_no_context_takeover",
+                response.toString());
+
+        response = deflate.negotiate(offers(
+                "permessage-deflate; client_max_window_bits; server_max_window_bits=15"));
+        assertEquals("permessage-deflate; server_no_context_takeover; server_max_window_bits=15",
+                response.toString());
+
+        // the first acceptable offer wins
+        response = deflate.negotiate(offers(
+                "permessage-deflate; server_max_window_bits=10, permessage-deflate; client_no_context_takeover"));
+        assertEquals("permessage-deflate; server_no_context_takeover; client_no_context_takeover",
+                response.toString());
+
+        assertNull(deflate.negotiate(offers("permessage-deflate; server_max_window_bits=10")));
+        assertNull(deflate.negotiate(offers("permessage-deflate; unknown")));
+        assertNull(deflate.negotiate(offers(
+                "permessage-deflate; client_no_context_takeover; client_no_context_takeover")));
+        assertNull(deflate.negotiate(offers("x-webkit-deflate-frame")));
+
+        final PerMessageDeflate.Parameters parameters =
+                deflate.toParameters(deflate.negotiate(offers("permessage-deflate")), true);
+        assertTrue(parameters.isOutboundNoContextTakeover());
+        assertFalse(parameters.isInboundNoContextTakeover());
+        assertTrue(parameters.isShareable());
+    }
+
+    @Test
+    public void clientResponseValidation() {
+        final PerMessageDeflate deflate = new PerMessageDeflate();
+        final PerMessageDeflate.Parameters parameters = deflate.toParameters(
+                offers("permessage-deflate; server_no_context_takeover; server_max_window_bits=12").get(0),
+                false);
+        assertFalse(parameters.isOutboundNoContextTakeover());
+        assertTrue(parameters.isInboundNoContextTakeover());
+
+        try {
+            deflate.toParameters(offers("permessage-deflate; client_max_window_bits=9").get(0), false);
+            fail("Window smaller than the Deflater's one has been accepted");
+        } catch (HandshakeException expected) {
+        }
+    }
+
+    @Test
+    public void decompressRfcExample() {
+        final PerMessageDeflate.Codec codec = new PerMessageDeflate()
+                .createCodec(new PerMessageDeflate.Parameters(true, false, -1, 0));
+        // same message twice, the inbound context is taken over
+        for (int i = 0; i < 2; i++) {
+            assertEquals("Hello", new String(codec.decompress(HELLO_COMPRESSED, true),
+                    StandardCharsets.US_ASCII));
+        }
+        // fragmented compressed message
+        final byte[] first = codec.decompress(Arrays.copyOf(HELLO_COMPRESSED, 3), false);
+        final byte[] last = codec.decompress(Arrays.copyOfRange(HELLO_COMPRESSED, 3,
+                HELLO_COMPRESSED.length), true);
+        assertEquals("Hello", new String(first, StandardCharsets.US_ASCII)
+                + new String(last, StandardCharsets.US_ASCII));
+        codec.release();
+    }
+
+    @Test
+    public void roundTrip() {
+        for (boolean noContextTakeover : new boolean[]{true, false}) {
+            final PerMessageDeflate deflate = new PerMessageDeflate().setThreshold(16);
+            final PerMessageDeflate.Codec sender = deflate.createCodec(
+                    new PerMessageDeflate.Parameters(noContextTakeover, false, -1, 16));
+            final PerMessageDeflate.Codec receiver = deflate.createCodec(
+                    new PerMessageDeflate.Parameters(false, noContextTakeover, -1, 16));
+
+            assertNull(sender.compress(new byte[15]));
+            for (int i = 0; i < 20; i++) {
+                final byte[] message = message(random.nextInt(100000) + 16);
+                final byte[] compressed = sender.compress(message);
+                assertNotNull(compressed);
+                assertTrue(compressed.length < message.length);
+                assertArrayEquals(message, receiver.decompress(compressed, true));
+            }
+            sender.release();
+            receiver.release();
+            assertNull(sender.compress(message(100)));
+        }
+    }
+
+    @Test
+    public void maxMessageSize() {
+        final PerMessageDeflate deflate = new PerMessageDeflate()
+                .setThreshold(0).setMaxMessageSize(1000);
+        final PerMessageDeflate.Parameters parameters =
+                new PerMessageDeflate.Parameters(true, true, -1, 0);
+        final PerMessageDeflate.Codec sender = deflate.createCodec(parameters);
+        final PerMessageDeflate.Codec receiver = deflate.createCodec(parameters);
+
+        final byte[] message = message(1000);
+        assertArrayEquals(message,
+                receiver.decompress(sender.compress(message), true));
+
+        // a message, which inflates over the limit
+        byte[] compressed = sender.compress(new byte[1001]);
+        assertTrue(compressed.length < 100);
+        try {
+            receiver.decompress(compressed, true);
+            fail("Too big message has been inflated");
+        } catch (MessageTooBigError e) {
+            assertEquals(WebSocket.MESSAGE_TOO_BIG, e.getClosingCode());
+        }
+
+        // the limit applies to the whole fragmented message
+        compressed = sender.compress(message(1200));
+        final int half = compressed.length / 2;
+        try {
+            receiver.decompress(Arrays.copyOf(compressed, half), false);
+            receiver.decompress(Arrays.copyOfRange(compressed, half,
+                    compressed.length), true);
+            fail("Too big fragmented message has been inflated");
+        } catch (MessageTooBigError expected) {
+        }
+
+        // the codec keeps working for the next messages
+        assertArrayEquals(message,
+                receiver.decompress(sender.compress(message), true));
+    }
+
+    @Test
+    public void framing() {
+        final PerMessageDeflate deflate = new PerMessageDeflate();
+        final PerMessageDeflate.Parameters negotiated = deflate.toParameters(
+                deflate.negotiate(offers("permessage-deflate")), true);
+
+        final RFC6455Handler server = new RFC6455Handler(false);
+        server.setPerMessageDeflate(deflate.createCodec(negotiated));
+        final RFC6455Handler client = new RFC6455Handler(true);
+        client.setPerMessageDeflate(deflate.createCodec(
+                new PerMessageDeflate.Parameters(false, true, -1, 64)));
+
+        final String text = new String(message(1000), StandardCharsets.US_ASCII);
+        byte[] raw = server.frame(server.toDataFrame(text));
+        assertEquals((byte) 0xc1, raw[0]);
+        assertTrue(raw.length < text.length());
+        DataFrame frame = client.parse(Buffers.wrap(new HeapMemoryManager(), raw));
+        assertEquals(text, frame.getTextPayload());
+
+        // small messages and fragments are sent uncompressed
+        raw = server.frame(server.toDataFrame("Hello"));
+        assertEquals((byte) 0x81, raw[0]);
+        raw = server.frame(server.toDataFrame(text, false));
+        assertEquals((byte) 0x01, raw[0]);
+
+        // client to server, masked
+        raw = client.frame(client.toDataFrame(text));
+        assertEquals((byte) 0xc1, raw[0]);
+        frame = server.parse(Buffers.wrap(new HeapMemoryManager(), raw));
+        assertEquals(text, frame.getTextPayload());
+
+        // RSV1 is rejected without the extension
+        raw = server.frame(server.toDataFrame(text.substring(0, 500) + "!"));
+        try {
+            new RFC6455Handler(true).parse(Buffers.wrap(new HeapMemoryManager(), raw));
+            fail("Compressed frame has been accepted");
+        } catch (ProtocolError expected) {
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static List<Extension> offers(final String header) {
+        final List<Extension> result = new ArrayList<Extension>();
+        for (String part : header.split(",")) {
+            final String[] tokens = part.split(";");
+            final Extension e = new Extension(tokens[0].trim());
+            for (int i = 1; i < tokens.length; i++) {
+                final String token = tokens[i].trim();
+                final int idx = token.indexOf('=');
+                e.getParameters().add(idx < 0
+                        ? new Extension.Parameter(token, null)
+                        : new Extension.Parameter(token.substring(0, idx),
+                                token.substring(idx + 1)));
+            }
+            result.add(e);
+        }
+        return result;
+    }
+
+    // compressible text-like payload
+    private byte[] message(final int length) {
+        final byte[] words = "the quick brown fox jumps over a lazy dog ".getBytes(
+                StandardCharsets.US_ASCII);
+        final byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = random.nextInt(8) == 0
+                    ? (byte) ('a' + random.nextInt(26))
+                    : words[(i * 7 + random.nextInt(3)) % words.length];
+        }
+        return message;
+    }
+}
@@ -61,7 +61,8 @@ public class ServerSideBroadcastTest extends BaseWebSocketTestUtilities {
     
     @Parameterized.Parameters
     public static List<Object[]> parameters() {
-        final Broadcaster[] broadcasters = {new DummyBroadcaster(), new OptimizedBroadcaster()};
+        final Broadcaster[] broadcasters = {new DummyBroadcaster(),
+                new OptimizedBroadcaster(), new OptimizedBroadcaster(true)};
         
         final List<Object[]> versions = BaseWebSocketTestUtilities.parameters();
         final List<Object[]> resultList = new ArrayList<Object[]>();